@@ -0,0 +1,234 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.async;
+
+import org.jdom.Element;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An asynchronous data request being run, or that has been run, by the
+ * AsyncJobManager. The job's state and progress (the bytes of the result
+ * written so far) are what the status endpoint reports. The job is saved
+ * next to its result as XML, so it survives a restart of the server.
+ */
+public class AsyncJob {
+
+    public static final String JOB_ELEMENT_NAME = "AsyncJob";
+
+    public enum State { QUEUED, RUNNING, COMPLETE, FAILED }
+
+    private final String id;
+    private final String owner;
+    private final String resourceId;
+    private final String mimeType;
+    private final String downloadFileName;
+    private final long created;
+
+    private volatile State state;
+    private volatile long started;
+    private volatile long finished;
+    private volatile long expires;
+    private volatile String message;
+    private final AtomicLong bytes;
+
+    /**
+     * @param id The job id.
+     * @param owner The uid of the user that asked for the job, null for an
+     *              anonymous user. Only the owner may see the job.
+     * @param resourceId The dataset.
+     * @param mimeType The media type of the result.
+     * @param downloadFileName The file name the result is sent with.
+     */
+    AsyncJob(String id, String owner, String resourceId, String mimeType, String downloadFileName) {
+        this(id, owner, resourceId, mimeType, downloadFileName, System.currentTimeMillis());
+    }
+
+    private AsyncJob(String id, String owner, String resourceId, String mimeType, String downloadFileName,
+                     long created) {
+        this.id = id;
+        this.owner = owner;
+        this.resourceId = resourceId;
+        this.mimeType = mimeType;
+        this.downloadFileName = downloadFileName;
+        this.created = created;
+        state = State.QUEUED;
+        started = -1;
+        finished = -1;
+        expires = -1;
+        message = null;
+        bytes = new AtomicLong();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public String getResourceId() {
+        return resourceId;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getDownloadFileName() {
+        return downloadFileName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return The bytes of the result written so far.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Why the job failed, null if it didn't.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return When the job and its result will be removed, -1 while the job
+     * is unfinished.
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    boolean isFinished() {
+        return state == State.COMPLETE || state == State.FAILED;
+    }
+
+    void start() {
+        started = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    void addBytes(long n) {
+        bytes.addAndGet(n);
+    }
+
+    void resetBytes() {
+        bytes.set(0);
+    }
+
+    void complete(long lifetime) {
+        finish(State.COMPLETE, null, lifetime);
+    }
+
+    void fail(String why, long lifetime) {
+        finish(State.FAILED, why, lifetime);
+    }
+
+    private void finish(State s, String why, long lifetime) {
+        message = why;
+        finished = System.currentTimeMillis();
+        expires = finished + lifetime;
+        state = s;
+    }
+
+    /**
+     * @return The job as it is saved, and as it is reported by the status
+     * endpoint.
+     */
+    public Element toElement() {
+        Element e = new Element(JOB_ELEMENT_NAME);
+        e.setAttribute("id", id);
+        if (owner != null)
+            e.setAttribute("owner", owner);
+        e.setAttribute("status", state.name().toLowerCase());
+        e.setAttribute("resourceId", resourceId);
+        e.setAttribute("mimeType", mimeType);
+        e.setAttribute("downloadFileName", downloadFileName);
+        e.setAttribute("bytes", Long.toString(getBytes()));
+        e.setAttribute("created", Long.toString(created));
+        if (started >= 0)
+            e.setAttribute("started", Long.toString(started));
+        if (finished >= 0)
+            e.setAttribute("finished", Long.toString(finished));
+        if (expires >= 0)
+            e.setAttribute("expires", Long.toString(expires));
+        if (message != null)
+            e.setAttribute("message", message);
+        return e;
+    }
+
+    /**
+     * @param e An element made by toElement().
+     * @return The job.
+     * @throws IllegalArgumentException When the element is not a saved job.
+     */
+    static AsyncJob fromElement(Element e) {
+        if (!JOB_ELEMENT_NAME.equals(e.getName()))
+            throw new IllegalArgumentException("Not an " + JOB_ELEMENT_NAME + " element: " + e.getName());
+        String id = e.getAttributeValue("id");
+        String resourceId = e.getAttributeValue("resourceId");
+        String mimeType = e.getAttributeValue("mimeType");
+        String downloadFileName = e.getAttributeValue("downloadFileName");
+        if (id == null || resourceId == null || mimeType == null || downloadFileName == null)
+            throw new IllegalArgumentException("The " + JOB_ELEMENT_NAME + " element is incomplete.");
+
+        AsyncJob job = new AsyncJob(id, e.getAttributeValue("owner"), resourceId, mimeType, downloadFileName,
+                getLong(e, "created"));
+        job.state = State.valueOf(e.getAttributeValue("status", "failed").toUpperCase());
+        job.bytes.set(getLong(e, "bytes"));
+        job.started = getLong(e, "started");
+        job.finished = getLong(e, "finished");
+        job.expires = getLong(e, "expires");
+        job.message = e.getAttributeValue("message");
+        return job;
+    }
+
+    private static long getLong(Element e, String name) {
+        String s = e.getAttributeValue(name);
+        if (s == null)
+            return -1;
+        try {
+            return Long.parseLong(s);
+        }
+        catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("The " + JOB_ELEMENT_NAME + " attribute " + name +
+                    " is not a number: " + s);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncJob{id=" + id + " status=" + state + " resourceId=" + resourceId + " bytes=" + getBytes() + "}";
+    }
+}
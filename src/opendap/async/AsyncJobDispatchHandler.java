@@ -0,0 +1,195 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.async;
+
+import opendap.bes.BesApi;
+import opendap.coreServlet.DispatchHandler;
+import opendap.coreServlet.ReqInfo;
+import opendap.dap.User;
+import opendap.http.error.Forbidden;
+import opendap.http.error.InternalError;
+import opendap.http.error.NotFound;
+import opendap.io.HyraxStringEncoding;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the status and the results of the asynchronous jobs:
+ * <pre>
+ *     jobs/{id}         - The state of the job and its progress, as XML.
+ *     jobs/{id}/result  - The result, once the job is complete. Until then
+ *                         a 202 with the state of the job.
+ * </pre>
+ * A job that was asked for by a logged in user can only be seen by that
+ * user.
+ *
+ * This handler is only loaded when the OLFS configuration contains the
+ * AsyncJobs element.
+ */
+public class AsyncJobDispatchHandler implements DispatchHandler {
+
+    /**
+     * The path, relative to the service, of the jobs.
+     */
+    public static final String JOBS_PATH = "jobs/";
+
+    private static final String JOB_REGEX =
+            "/" + JOBS_PATH + "([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12})(/result)?$";
+
+    private org.slf4j.Logger log;
+    private boolean initialized;
+    private Pattern requestMatchPattern;
+
+    public AsyncJobDispatchHandler() {
+        log = org.slf4j.LoggerFactory.getLogger(getClass());
+        requestMatchPattern = Pattern.compile(JOB_REGEX);
+        initialized = false;
+    }
+
+    @Override
+    public void init(HttpServlet s, Element config) throws Exception {
+        init(s, config, new BesApi());
+    }
+
+    @Override
+    public void init(HttpServlet s, Element config, BesApi besApi) throws Exception {
+        if (initialized) return;
+        initialized = true;
+        log.info("Initialized.");
+    }
+
+    public boolean requestCanBeHandled(HttpServletRequest request) throws Exception {
+        String relativeUrl = ReqInfo.getLocalUrl(request);
+        return AsyncJobManager.getInstance() != null &&
+                relativeUrl != null && requestMatchPattern.matcher(relativeUrl).matches();
+    }
+
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        Matcher m = requestMatchPattern.matcher(ReqInfo.getLocalUrl(request));
+        if (!m.matches())
+            throw new NotFound("Not an asynchronous job: " + ReqInfo.getLocalUrl(request));
+        String id = m.group(1);
+        boolean wantsResult = m.group(2) != null;
+
+        AsyncJobManager manager = AsyncJobManager.getInstance();
+        AsyncJob job = manager == null ? null : manager.getJob(id);
+        if (job == null)
+            throw new NotFound("There is no asynchronous job " + id + ", it may have expired.");
+        if (job.getOwner() != null && !job.getOwner().equals(new User(request).getUID()))
+            throw new Forbidden("The asynchronous job " + id + " belongs to another user.");
+
+        if (!wantsResult) {
+            sendStatus(request, response, job, HttpServletResponse.SC_OK);
+            return;
+        }
+        switch (job.getState()) {
+            case COMPLETE:
+                sendResult(response, manager, job);
+                break;
+            case FAILED:
+                throw new InternalError("The asynchronous job " + id + " failed. msg: " + job.getMessage());
+            default:
+                response.setHeader("Retry-After", "5");
+                sendStatus(request, response, job, HttpServletResponse.SC_ACCEPTED);
+        }
+    }
+
+    private void sendStatus(HttpServletRequest request, HttpServletResponse response, AsyncJob job, int status)
+            throws Exception {
+
+        log.debug("Sending the status of {}", job);
+        Element e = job.toElement();
+        if (job.getState() == AsyncJob.State.COMPLETE) {
+            Element resultUrl = new Element("resultURL");
+            resultUrl.setText(request.getRequestURL() + "/result");
+            e.addContent(resultUrl);
+        }
+
+        response.setContentType("text/xml");
+        response.setHeader("Content-Description", "async_job_status");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setStatus(status);
+
+        XMLOutputter xout = new XMLOutputter(Format.getPrettyFormat());
+        OutputStreamWriter osw = new OutputStreamWriter(response.getOutputStream(), HyraxStringEncoding.getCharset());
+        xout.output(new Document(e), osw);
+        osw.flush();
+    }
+
+    private void sendResult(HttpServletResponse response, AsyncJobManager manager, AsyncJob job) throws Exception {
+
+        FileChannel file;
+        try {
+            file = FileChannel.open(manager.getResult(job), StandardOpenOption.READ);
+        }
+        catch (NoSuchFileException e) {
+            throw new NotFound("The result of the asynchronous job " + job.getId() + " has expired.");
+        }
+        log.debug("Sending the result of {}", job);
+
+        try (FileChannel source = file) {
+            long size = source.size();
+            response.setContentType(job.getMimeType());
+            response.setHeader("Content-Description", job.getMimeType());
+            response.setHeader("Content-Disposition", " attachment; filename=\"" + job.getDownloadFileName() + "\"");
+            response.setHeader("Content-Length", Long.toString(size));
+            response.setStatus(HttpServletResponse.SC_OK);
+
+            OutputStream os = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(os);
+            long position = 0;
+            while (position < size)
+                position += source.transferTo(position, size - position, target);
+            os.flush();
+        }
+    }
+
+    public long getLastModified(HttpServletRequest req) {
+        return new Date().getTime();
+    }
+
+    public void destroy() {
+        log.info("Destroy complete.");
+    }
+}
@@ -0,0 +1,495 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.async;
+
+import opendap.bes.BadConfigurationException;
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.http.error.ServiceUnavailable;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs the asynchronous data requests. A request that asks for an
+ * asynchronous response (dap4.async, or the X-DAP-Async-Accept header) is
+ * answered at once with a 202 and the URL of a job, and its BES transaction
+ * is run by a bounded pool of worker threads with the result written to a
+ * file in the results directory. The result is then fetched from
+ * AsyncJobDispatchHandler, so a long conversion no longer holds a request
+ * thread and a client connection for all of its duration.
+ *
+ * Each job is saved next to its result as XML and the jobs are picked up
+ * again when the server starts. Jobs that were unfinished at the time are
+ * marked as failed. Finished jobs, and their results, are removed lifetime
+ * seconds after they finish. The results may use maxBytes in all and
+ * maxResultSize each, a job that goes over either fails. When every worker
+ * is busy and maxQueued jobs are waiting, or the results are using all of
+ * maxBytes, new jobs are refused with a 503 (Service Unavailable).
+ *
+ * Configured in olfs.xml by:
+ * <pre>
+ *     &lt;AsyncJobs directory="/tmp/hyrax_async_jobs" threads="2" maxQueued="100" maxBytes="10737418240"
+ *                   maxResultSize="2147483648" lifetime="86400" retryAfter="30" /&gt;
+ * </pre>
+ */
+public class AsyncJobManager {
+
+    public static final String CONFIG_ELEMENT = "AsyncJobs";
+
+    private static final int DEFAULT_THREADS = 2;
+    private static final int DEFAULT_MAX_QUEUED = 100;
+    private static final long DEFAULT_MAX_BYTES = 10737418240L;
+    private static final long DEFAULT_MAX_RESULT_SIZE = 2147483648L;
+    private static final long DEFAULT_LIFETIME = 86400;
+    private static final int DEFAULT_RETRY_AFTER = 30;
+
+    private static final String RESULT_SUFFIX = ".result";
+    private static final String JOB_SUFFIX = ".xml";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncJobManager.class);
+
+    private static AsyncJobManager instance = null;
+
+    private final Path directory;
+    private final int threads;
+    private final int maxQueued;
+    private final long maxBytes;
+    private final long maxResultSize;
+    private final long lifetime;    // ms
+    private final int retryAfter;
+
+    private final ConcurrentHashMap<String, AsyncJob> jobs;
+    private final AtomicLong usedBytes;
+    private final Semaphore admitted;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService cleaner;
+
+    /**
+     * @param config The AsyncJobs configuration element.
+     * @throws BadConfigurationException When the configuration is not valid
+     * or the directory cannot be used.
+     */
+    public AsyncJobManager(Element config) throws BadConfigurationException {
+        String dir = config.getAttributeValue("directory");
+        if (dir == null || dir.trim().isEmpty())
+            throw new BadConfigurationException("The " + CONFIG_ELEMENT + " element must have a directory attribute.");
+        directory = new File(dir.trim()).toPath();
+        threads = (int) getLongAttribute(config, "threads", DEFAULT_THREADS, 1);
+        maxQueued = (int) getLongAttribute(config, "maxQueued", DEFAULT_MAX_QUEUED, 0);
+        maxBytes = getLongAttribute(config, "maxBytes", DEFAULT_MAX_BYTES, 1);
+        maxResultSize = getLongAttribute(config, "maxResultSize", DEFAULT_MAX_RESULT_SIZE, 1);
+        lifetime = TimeUnit.SECONDS.toMillis(getLongAttribute(config, "lifetime", DEFAULT_LIFETIME, 1));
+        retryAfter = (int) getLongAttribute(config, "retryAfter", DEFAULT_RETRY_AFTER, 0);
+
+        jobs = new ConcurrentHashMap<>();
+        usedBytes = new AtomicLong();
+        try {
+            Files.createDirectories(directory);
+            load();
+        }
+        catch (IOException e) {
+            throw new BadConfigurationException("Unable to use the " + CONFIG_ELEMENT + " directory " + dir +
+                    " msg: " + e.getMessage());
+        }
+
+        admitted = new Semaphore(threads + maxQueued);
+        AtomicInteger threadCount = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "hyrax-async-job-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hyrax-async-job-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(lifetime / 10, TimeUnit.MINUTES.toMillis(5)));
+        cleaner.scheduleWithFixedDelay(this::removeExpired, period, period, TimeUnit.MILLISECONDS);
+
+        log.info("Asynchronous jobs are enabled. directory: {} threads: {} maxQueued: {} maxBytes: {} " +
+                        "maxResultSize: {} lifetime: {} s jobs: {}", directory, threads, maxQueued, maxBytes,
+                maxResultSize, TimeUnit.MILLISECONDS.toSeconds(lifetime), jobs.size());
+    }
+
+    private static long getLongAttribute(Element config, String name, long defaultValue, long min)
+            throws BadConfigurationException {
+        String value = config.getAttributeValue(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            long l = Long.parseLong(value.trim());
+            if (l >= min)
+                return l;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the exception below.
+        }
+        throw new BadConfigurationException("The " + CONFIG_ELEMENT + " attribute '" + name +
+                "' must be an integer no less than " + min + ". Found: '" + value + "'");
+    }
+
+    /**
+     * Starts the job manager if the configuration has an AsyncJobs element.
+     *
+     * @param config The OLFSConfig element.
+     * @throws BadConfigurationException When the AsyncJobs element is not valid.
+     */
+    public static synchronized void init(Element config) throws BadConfigurationException {
+        Element jobsConfig = config.getChild(CONFIG_ELEMENT);
+        if (jobsConfig == null)
+            return;
+        if (instance != null)
+            instance.destroy();
+        instance = new AsyncJobManager(jobsConfig);
+    }
+
+    /**
+     * @return The job manager, null if asynchronous jobs are not enabled.
+     */
+    public static synchronized AsyncJobManager getInstance() {
+        return instance;
+    }
+
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.destroy();
+            instance = null;
+        }
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param owner The uid of the user asking for the job, null if there is none.
+     * @param resourceId The dataset.
+     * @param mimeType The media type of the result.
+     * @param downloadFileName The file name the result is sent with.
+     * @param task The BES transaction that makes the result.
+     * @return The job.
+     * @throws ServiceUnavailable When the queue or the results are full.
+     */
+    public AsyncJob submit(String owner, String resourceId, String mimeType, String downloadFileName,
+                           AsyncJobTask task) throws ServiceUnavailable {
+
+        if (usedBytes.get() >= maxBytes)
+            throw new ServiceUnavailable("The space for asynchronous results is full. Please try again later.",
+                    retryAfter);
+        if (!admitted.tryAcquire())
+            throw new ServiceUnavailable("The server is busy, " + threads + " asynchronous jobs are running and " +
+                    maxQueued + " are waiting. Please try again later.", retryAfter);
+
+        AsyncJob job = new AsyncJob(UUID.randomUUID().toString(), owner, resourceId, mimeType, downloadFileName);
+        jobs.put(job.getId(), job);
+        save(job);
+        RequestId requestId = RequestCache.getRequestId();
+        try {
+            executor.execute(() -> run(job, task, requestId));
+        }
+        catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            delete(job);
+            admitted.release();
+            throw new ServiceUnavailable("The asynchronous job service is shutting down.", retryAfter);
+        }
+        log.info("Queued {}", job);
+        return job;
+    }
+
+    private void run(AsyncJob job, AsyncJobTask task, RequestId requestId) {
+        RequestCache.open(requestId);
+        Path temp = directory.resolve(job.getId() + RESULT_SUFFIX + TEMP_SUFFIX);
+        try {
+            job.start();
+            save(job);
+            log.info("Started {}", job);
+            try (ResultStream result = new ResultStream(job, temp)) {
+                task.run(result, result);
+            }
+            Files.move(temp, getResult(job), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            job.complete(lifetime);
+            log.info("Completed {}", job);
+        }
+        catch (Throwable t) {
+            usedBytes.addAndGet(-job.getBytes());
+            try {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException e) {
+                log.warn("Unable to delete {} msg: {}", temp, e.getMessage());
+            }
+            String msg = t.getMessage() == null ? t.getClass().getName() : t.getMessage();
+            job.fail(msg, lifetime);
+            log.error("Failed {} msg: {}", job, msg);
+        }
+        finally {
+            save(job);
+            RequestCache.close();
+            admitted.release();
+        }
+    }
+
+    /**
+     * @param id The job id.
+     * @return The job, null if there is no such job or it has expired.
+     */
+    public AsyncJob getJob(String id) {
+        AsyncJob job = jobs.get(id);
+        if (job != null && isExpired(job, System.currentTimeMillis())) {
+            remove(job);
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * @param job A job.
+     * @return The file that holds the job's result once it is complete.
+     */
+    public Path getResult(AsyncJob job) {
+        return directory.resolve(job.getId() + RESULT_SUFFIX);
+    }
+
+    /**
+     * @return The number of jobs running or waiting for a worker.
+     */
+    public int getActiveCount() {
+        return threads + maxQueued - admitted.availablePermits();
+    }
+
+    /**
+     * @return The bytes used by the results, including those being written.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    private static boolean isExpired(AsyncJob job, long now) {
+        return job.getExpires() >= 0 && job.getExpires() <= now;
+    }
+
+    /**
+     * Removes the finished jobs whose lifetime is up, with their results.
+     */
+    void removeExpired() {
+        long now = System.currentTimeMillis();
+        for (AsyncJob job : new ArrayList<>(jobs.values())) {
+            if (isExpired(job, now))
+                remove(job);
+        }
+    }
+
+    private void remove(AsyncJob job) {
+        if (jobs.remove(job.getId(), job)) {
+            if (job.getState() == AsyncJob.State.COMPLETE)
+                usedBytes.addAndGet(-job.getBytes());
+            delete(job);
+            log.info("Removed expired {}", job);
+        }
+    }
+
+    private void delete(AsyncJob job) {
+        try {
+            Files.deleteIfExists(getResult(job));
+            Files.deleteIfExists(directory.resolve(job.getId() + JOB_SUFFIX));
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete the files of {} msg: {}", job, e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the job as XML, first to a temporary file that is then moved
+     * into place.
+     */
+    private void save(AsyncJob job) {
+        Path path = directory.resolve(job.getId() + JOB_SUFFIX);
+        Path temp = directory.resolve(job.getId() + JOB_SUFFIX + TEMP_SUFFIX);
+        try {
+            try (OutputStream os = Files.newOutputStream(temp)) {
+                new XMLOutputter(Format.getPrettyFormat()).output(new Document(job.toElement()), os);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            log.warn("Unable to save {} msg: {}", job, e.getMessage());
+        }
+    }
+
+    /**
+     * Picks up the jobs saved in the directory. Temporary files, and
+     * results without a job, are deleted.
+     */
+    private void load() throws IOException {
+        List<Path> files;
+        try (Stream<Path> s = Files.list(directory)) {
+            files = new ArrayList<>();
+            s.forEach(files::add);
+        }
+        SAXBuilder sb = new SAXBuilder();
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                Files.deleteIfExists(path);
+            }
+            else if (name.endsWith(JOB_SUFFIX)) {
+                AsyncJob job;
+                try {
+                    job = AsyncJob.fromElement(sb.build(path.toFile()).getRootElement());
+                }
+                catch (Exception e) {
+                    log.warn("Deleting {}, it is not a saved job. msg: {}", path, e.getMessage());
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                if (!job.isFinished()) {
+                    job.resetBytes();
+                    job.fail("The server was stopped before the job finished.", lifetime);
+                    save(job);
+                }
+                if (job.getState() == AsyncJob.State.COMPLETE) {
+                    if (!Files.isRegularFile(getResult(job))) {
+                        log.warn("The result of {} is missing.", job);
+                        delete(job);
+                        continue;
+                    }
+                    usedBytes.addAndGet(job.getBytes());
+                }
+                jobs.put(job.getId(), job);
+            }
+        }
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(RESULT_SUFFIX) &&
+                    !jobs.containsKey(name.substring(0, name.length() - RESULT_SUFFIX.length())))
+                Files.deleteIfExists(path);
+        }
+        removeExpired();
+    }
+
+    public void destroy() {
+        cleaner.shutdownNow();
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                log.warn("Asynchronous jobs are still running.");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes a job's result to its temporary file, counting the bytes as
+     * the job's progress and holding the result to the size limits.
+     */
+    private class ResultStream extends OutputStream implements TransmitCoordinator {
+        private final AsyncJob job;
+        private final OutputStream file;
+
+        ResultStream(AsyncJob job, Path path) throws IOException {
+            this.job = job;
+            file = new BufferedOutputStream(Files.newOutputStream(path), 65536);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+            file.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+            file.write(b, off, len);
+        }
+
+        private void count(int len) throws IOException {
+            if (Thread.currentThread().isInterrupted())
+                throw new IOException("The job was interrupted.");
+            if (job.getBytes() + len > maxResultSize)
+                throw new IOException("The result is larger than the " + maxResultSize + " bytes allowed.");
+            if (usedBytes.addAndGet(len) > maxBytes) {
+                usedBytes.addAndGet(-len);
+                throw new IOException("The space for asynchronous results is full.");
+            }
+            job.addBytes(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            file.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return job.getBytes() > 0;
+        }
+
+        @Override
+        public void reset() throws IllegalStateException {
+            if (isCommitted())
+                throw new IllegalStateException("The result of the job has been started.");
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.async;
+
+import opendap.http.error.ServiceUnavailable;
+import org.jdom.Element;
+import org.jdom.output.XMLOutputter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class AsyncJobManagerTest {
+
+    private Path directory;
+    private AsyncJobManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("async-jobs-test");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (manager != null)
+            manager.destroy();
+        try (Stream<Path> s = Files.walk(directory)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private AsyncJobManager newManager(String... attributes) throws Exception {
+        Element config = new Element(AsyncJobManager.CONFIG_ELEMENT);
+        config.setAttribute("directory", directory.toString());
+        for (int i = 0; i < attributes.length; i += 2)
+            config.setAttribute(attributes[i], attributes[i + 1]);
+        if (manager != null)
+            manager.destroy();
+        manager = new AsyncJobManager(config);
+        return manager;
+    }
+
+    private static void awaitFinished(AsyncJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue("The job did not finish: " + job, job.isFinished());
+    }
+
+    private static AsyncJobTask writes(byte[] result) {
+        return (os, tc) -> {
+            assertFalse(tc.isCommitted());
+            os.write(result, 0, result.length / 2);
+            assertTrue(tc.isCommitted());
+            os.write(result, result.length / 2, result.length - result.length / 2);
+        };
+    }
+
+    @Test
+    public void testJobIsRunAndItsResultKept() throws Exception {
+        newManager();
+        byte[] result = new byte[100000];
+        for (int i = 0; i < result.length; i++)
+            result[i] = (byte) i;
+
+        AsyncJob job = manager.submit("alice", "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4",
+                writes(result));
+        awaitFinished(job);
+
+        assertEquals(AsyncJob.State.COMPLETE, job.getState());
+        assertEquals(result.length, job.getBytes());
+        assertArrayEquals(result, Files.readAllBytes(manager.getResult(job)));
+        assertSame(job, manager.getJob(job.getId()));
+        assertEquals(result.length, manager.getUsedBytes());
+        assertEquals(0, manager.getActiveCount());
+
+        Element status = job.toElement();
+        assertEquals("complete", status.getAttributeValue("status"));
+        assertEquals("alice", status.getAttributeValue("owner"));
+        assertTrue(Files.exists(directory.resolve(job.getId() + ".xml")));
+    }
+
+    @Test
+    public void testFailedAndOversizeJobs() throws Exception {
+        newManager("maxResultSize", "1000");
+
+        AsyncJob failed = manager.submit(null, "/data/nc/fnoc1.nc", "application/vnd.opendap.dap4.data", "fnoc1.dap",
+                (os, tc) -> {
+                    os.write(new byte[10]);
+                    throw new IOException("The BES went away.");
+                });
+        AsyncJob tooBig = manager.submit(null, "/data/nc/fnoc1.nc", "application/vnd.opendap.dap4.data", "fnoc1.dap",
+                writes(new byte[2000]));
+        awaitFinished(failed);
+        awaitFinished(tooBig);
+
+        assertEquals(AsyncJob.State.FAILED, failed.getState());
+        assertEquals("The BES went away.", failed.getMessage());
+        assertEquals(AsyncJob.State.FAILED, tooBig.getState());
+        assertTrue(tooBig.getMessage().contains("1000"));
+        assertFalse(Files.exists(manager.getResult(failed)));
+        assertFalse(Files.exists(manager.getResult(tooBig)));
+        assertEquals(0, manager.getUsedBytes());
+    }
+
+    @Test
+    public void testJobsSurviveARestart() throws Exception {
+        newManager();
+        AsyncJob job = manager.submit("alice", "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4",
+                writes(new byte[5000]));
+        awaitFinished(job);
+
+        // A job that was running when the server stopped.
+        AsyncJob unfinished = new AsyncJob("0b4f5a0e-9c1d-4c39-9a53-3c0e8f9e2a11", null, "/data/nc/fnoc1.nc",
+                "application/x-netcdf-4", "fnoc1.nc4");
+        unfinished.start();
+        unfinished.addBytes(100);
+        Files.write(directory.resolve(unfinished.getId() + ".xml"),
+                new XMLOutputter().outputString(unfinished.toElement()).getBytes(StandardCharsets.UTF_8));
+        Files.write(directory.resolve(unfinished.getId() + ".result.tmp"), new byte[100]);
+        Files.write(directory.resolve("orphan.result"), new byte[10]);
+
+        AsyncJobManager restarted = newManager();
+
+        AsyncJob reloaded = restarted.getJob(job.getId());
+        assertNotNull(reloaded);
+        assertEquals(AsyncJob.State.COMPLETE, reloaded.getState());
+        assertEquals("alice", reloaded.getOwner());
+        assertEquals(5000, reloaded.getBytes());
+        assertEquals(5000, restarted.getUsedBytes());
+
+        AsyncJob interrupted = restarted.getJob(unfinished.getId());
+        assertEquals(AsyncJob.State.FAILED, interrupted.getState());
+        assertEquals(0, interrupted.getBytes());
+        assertFalse(Files.exists(directory.resolve(unfinished.getId() + ".result.tmp")));
+        assertFalse(Files.exists(directory.resolve("orphan.result")));
+    }
+
+    @Test
+    public void testJobsExpire() throws Exception {
+        newManager("lifetime", "1");
+        AsyncJob job = manager.submit(null, "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4",
+                writes(new byte[100]));
+        awaitFinished(job);
+        assertNotNull(manager.getJob(job.getId()));
+
+        Thread.sleep(job.getExpires() - System.currentTimeMillis() + 50);
+        manager.removeExpired();
+        assertNull(manager.getJob(job.getId()));
+        assertFalse(Files.exists(manager.getResult(job)));
+        assertFalse(Files.exists(directory.resolve(job.getId() + ".xml")));
+        assertEquals(0, manager.getUsedBytes());
+    }
+
+    @Test
+    public void testQueueAndSpaceLimits() throws Exception {
+        newManager("threads", "1", "maxQueued", "0", "maxBytes", "1000");
+        CountDownLatch hold = new CountDownLatch(1);
+        AsyncJob running = manager.submit(null, "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4",
+                (os, tc) -> hold.await(5, TimeUnit.SECONDS));
+        try {
+            manager.submit(null, "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4", writes(new byte[10]));
+            fail("A job was queued beyond maxQueued.");
+        }
+        catch (ServiceUnavailable e) {
+            // expected
+        }
+        hold.countDown();
+        awaitFinished(running);
+        while (manager.getActiveCount() > 0)
+            Thread.sleep(10);
+
+        AsyncJob big = manager.submit(null, "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4",
+                writes(new byte[1000]));
+        awaitFinished(big);
+        assertEquals(AsyncJob.State.COMPLETE, big.getState());
+        try {
+            manager.submit(null, "/data/nc/fnoc1.nc", "application/x-netcdf-4", "fnoc1.nc4", writes(new byte[10]));
+            fail("A job was queued when the results were full.");
+        }
+        catch (ServiceUnavailable e) {
+            // expected
+        }
+    }
+}
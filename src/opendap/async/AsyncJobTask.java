@@ -0,0 +1,47 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.async;
+
+import opendap.coreServlet.TransmitCoordinator;
+
+import java.io.OutputStream;
+
+/**
+ * The work of an asynchronous job: a BES transaction that writes its
+ * response to the result of the job. It is made from the request while
+ * the request is still being handled, so it must not hold on to the
+ * HttpServletRequest or HttpServletResponse.
+ */
+public interface AsyncJobTask {
+
+    /**
+     * @param os Where the result is written.
+     * @param tc The TransmitCoordinator of os.
+     * @throws Exception When the job fails, the message becomes the job's message.
+     */
+    void run(OutputStream os, TransmitCoordinator tc) throws Exception;
+}
@@ -26,12 +26,17 @@
 
 package opendap.bes;
 import opendap.coreServlet.ByteArrayOutputStreamTransmitCoordinator;
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
 import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
 import opendap.io.HyraxStringEncoding;
 import opendap.logging.Timer;
 import opendap.logging.Procedure;
 import opendap.ppt.OPeNDAPClient;
 import opendap.ppt.PPTException;
+import opendap.ppt.ResponseWriteException;
+import opendap.ppt.PPTTransport;
 import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
@@ -45,10 +50,19 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -61,12 +75,65 @@ public class BES {
     private Logger log;
     private BESConfig config;
 
-    private ArrayBlockingQueue<OPeNDAPClient> clientQueue;
+    private ConcurrentLinkedDeque<OPeNDAPClient> idleClients;
     private ConcurrentHashMap<String, OPeNDAPClient> clientsMap;
-    private ReentrantLock clientCheckoutLock;
     private Semaphore clientCheckOutFlag;
-    private ReentrantLock clientsMapLock;
-    private int totalClients;
+    // Signalled whenever a client goes into the pool or a connection slot
+    // is given back, for checkOutClient() to wait on.
+    private final ReentrantLock poolLock = new ReentrantLock();
+    private final Condition clientAvailable = poolLock.newCondition();
+    private AtomicInteger liveClientCount;
+    private AtomicInteger totalClients;
+    private AtomicInteger checkoutWaiters;
+    private AtomicLong rejectedWaiterLimit;
+    private AtomicLong rejectedWaitTimeout;
+    private BesPoolMetrics metrics;
+    private AtomicInteger outstandingTransactions;
+
+
+    /**
+     * Time between the probes of a BES whose circuit breaker is half open.
+     */
+    private static final long PROBE_INTERVAL_MS = 1000;
+
+    /**
+     * Shuts down retired clients and connects their replacements so that
+     * request threads don't have to.
+     */
+    private static final ExecutorService POOL_MAINTENANCE = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "BES-pool-maintenance");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * How long, in ms, a status check of an idle client, or a probe, waits
+     * for the BES to answer.
+     */
+    private static final int STATUS_CHECK_TIMEOUT_MS = 10000;
+
+    /**
+     * Runs the periodic validation and eviction of idle clients, and the
+     * probes, for every BES. Each status check is bounded by
+     * STATUS_CHECK_TIMEOUT_MS, and there is more than one thread, so that
+     * a BES that doesn't answer can't hold up the others for long.
+     */
+    private static final ScheduledExecutorService POOL_VALIDATOR = Executors.newScheduledThreadPool(4, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "BES-pool-validator-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private ScheduledFuture<?> maintenanceTask;
+
+    private final CircuitBreaker breaker;
+    private final ThreadLocal<Long> lastTimeToFirstByte = ThreadLocal.withInitial(() -> -1L);
+    private ScheduledFuture<?> probeTask;
 
     private ReentrantLock adminLock;
 
@@ -84,12 +151,18 @@ public class BES {
         log = org.slf4j.LoggerFactory.getLogger(getClass());
         this.config = config.copy();
 
-        clientQueue = new ArrayBlockingQueue<>(getMaxClients(), true);
+        idleClients = new ConcurrentLinkedDeque<>();
         clientsMap = new ConcurrentHashMap<>();
-        clientCheckoutLock = new ReentrantLock(true);
         clientCheckOutFlag = new Semaphore(getMaxClients(), true);
-        clientsMapLock = new ReentrantLock(true);
-        totalClients = 0;
+        liveClientCount = new AtomicInteger(0);
+        totalClients = new AtomicInteger(0);
+        checkoutWaiters = new AtomicInteger(0);
+        rejectedWaiterLimit = new AtomicLong(0);
+        rejectedWaitTimeout = new AtomicLong(0);
+        metrics = new BesPoolMetrics();
+        outstandingTransactions = new AtomicInteger(0);
+        breaker = new CircuitBreaker(this.config.getBreakerFailures(),
+                TimeUnit.SECONDS.toMillis(this.config.getBreakerOpenTime()), this.config.getBreakerProbes());
 
         adminLock = new ReentrantLock(true);
         administratorInfo= null;
@@ -200,6 +273,14 @@ public class BES {
         return config.getPrefix();
     }
 
+    public PPTTransport getTransport() {
+        return config.getTransport();
+    }
+
+    public String getSocketPath() {
+        return config.getSocketPath();
+    }
+
     public String getNickName() {
         return config.getBesName();
     }
@@ -286,6 +367,8 @@ public class BES {
         return "[BES prefix: " + getPrefix() +
                 " host: " + getHost() +
                 " port: " + getPort() +
+                " transport: " + getTransport() +
+                (getSocketPath()==null ? "" : " socket: " + getSocketPath()) +
                 " maxClients: " + getMaxClients() +
                 " maxClientCommands: " + config.getMaxCommands() +
                 "]";
@@ -358,9 +441,6 @@ public class BES {
 
 
         log.debug("BEGIN (Document, Document)");
-        SAXBuilder sb = new SAXBuilder();
-        Document doc;
-
 
         try (ByteArrayOutputStream responseStream = new ByteArrayOutputStream()) {
 
@@ -368,26 +448,35 @@ public class BES {
 
             besTransaction(request, responseStream, baostc);
             log.debug("besTransaction() The BES returned this document:\n{}", responseStream);
-            if (responseStream.size() != 0) {
+            setResponseDocument(responseStream, response);
+        }
+        log.debug("END (Document, Document)");
+    }
 
-                doc = sb.build(new ByteArrayInputStream(responseStream.toByteArray()));
+    /**
+     * Replaces the content of the response Document with the XML document held in the
+     * responseStream. If the stream is empty the response is left alone.
+     */
+    static void setResponseDocument(ByteArrayOutputStream responseStream, Document response)
+            throws IOException, JDOMException {
+        if (responseStream.size() != 0) {
 
-                // Get the root element.
-                Element root = doc.getRootElement();
+            SAXBuilder sb = new SAXBuilder();
+            Document doc = sb.build(new ByteArrayInputStream(responseStream.toByteArray()));
 
-                // Detach it from the document
-                root.detach();
+            // Get the root element.
+            Element root = doc.getRootElement();
 
-                // Pitch the root element that came with the passed catalog.
-                // (There may not be one but whatever...)
-                response.detachRootElement();
+            // Detach it from the document
+            root.detach();
 
-                // Set the root element to be the one sent from the BES.
-                response.setRootElement(root);
-            }
+            // Pitch the root element that came with the passed catalog.
+            // (There may not be one but whatever...)
+            response.detachRootElement();
 
+            // Set the root element to be the one sent from the BES.
+            response.setRootElement(root);
         }
-        log.debug("END (Document, Document)");
     }
 
 
@@ -406,20 +495,70 @@ public class BES {
     public void besTransaction(Document request, OutputStream os, TransmitCoordinator tc)
             throws IOException, PPTException, BESError {
 
+        besTransaction(request, os, tc, null);
+    }
+
+    /**
+     * Like besTransaction(Document, OutputStream, TransmitCoordinator), but
+     * the transaction can be ended from another thread.
+     *
+     * @param abort Ends the transaction when aborted. May be null.
+     */
+    void besTransaction(Document request, OutputStream os, TransmitCoordinator tc, Abort abort)
+            throws IOException, PPTException, BESError {
+
+        outstandingTransactions.incrementAndGet();
+        try {
+            runTransaction(request, os, tc, abort);
+        }
+        finally {
+            outstandingTransactions.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return The time, in ns, this BES took to start answering the calling
+     * thread's last transaction with it. -1 if it didn't answer.
+     */
+    public long getLastTimeToFirstByte() {
+        return lastTimeToFirstByte.get();
+    }
+
+    /**
+     * The retry loop of besTransaction(Document, OutputStream, TransmitCoordinator)
+     */
+    private void runTransaction(Document request, OutputStream os, TransmitCoordinator tc, Abort abort)
+            throws IOException, PPTException, BESError {
+
         log.debug("BEGIN (Document, OutputStream, TransmitCoordinator)");
+
+        // The responder handling the request decides how often its response
+        // gets flushed, the policy comes with the response's TransmitCoordinator.
+        FlushPolicy flushPolicy = tc.getFlushPolicy();
+        log.debug("Using FlushPolicy: {}", flushPolicy);
+
         int attempts = 0;
         boolean besTrouble;
+        boolean besFailed;
         PPTException pptException;
         BESError besFatalError;
 
+        lastTimeToFirstByte.set(-1L);
+        if(!breaker.allowRequest())
+            throw circuitOpen();
+
         do {
             besTrouble = false;
+            besFailed = false;
             pptException = null;
             besFatalError = null;
             attempts++;
 
             OPeNDAPClient oc = null;
             Procedure timedProc=null;
+            boolean requestSent = false;
+            boolean clientFailed = false;
+            boolean pooledClient = false;
 
             log.debug("This is attempt: {}", attempts);
             try (ByteArrayOutputStream errorOutputStream = new ByteArrayOutputStream()) {
@@ -430,6 +569,9 @@ public class BES {
                             "BES Prefix: " + getPrefix() + " BES NickName: " + getNickName() + " BES Host: " + getHost();
                     throw new PPTException(msg);
                 }
+                pooledClient = oc.getCommandCount() > 0;
+                if (abort != null && !abort.attach(oc))
+                    throw new PPTException("The transaction was abandoned before it was sent.");
 
                 addBesClientInfo(request, oc);
                 if (log.isDebugEnabled()) {
@@ -441,8 +583,10 @@ public class BES {
                 }
 
                 timedProc= Timer.start();
-                boolean result = oc.sendRequest(request, os, errorOutputStream);
+                requestSent = true;
+                boolean result = oc.sendRequest(request, os, errorOutputStream, flushPolicy);
                 log.debug("besTransaction() - Completed.");
+                breaker.recordSuccess();
                 if (!result) {
                     // We got back an error object from the BES in the baos.
                     // We feed that to the BESError class to build the error object.
@@ -465,6 +609,21 @@ public class BES {
                     }
                 }
             }
+            catch (ClientPoolExhaustedException e) {
+                // Retrying would only add to the load. Turn the request away.
+                log.warn("besTransaction() - {}", e.getMessage());
+                throw e;
+            }
+            catch (ResponseWriteException e) {
+                // The client (or whatever os leads to) failed, not the BES.
+                // The connection is part way through the response so it
+                // has to go, but the failure is not counted against the
+                // BES and there's no point in trying again.
+                besTrouble = true;
+                clientFailed = true;
+                log.info("besTransaction() - Failed to write the response. msg: {}", e.getMessage());
+                throw e;
+            }
             catch (PPTException e) {
                 besTrouble = true;
                 String errmsg = "ERROR: Problem encountered with BES connection. On transaction attempt:" + attempts + " ";
@@ -475,13 +634,34 @@ public class BES {
                 log.error(errmsg);
                 e.setErrorMessage(errmsg);
                 pptException = e;
+                // Not every failure says the BES is in trouble: no client
+                // may have been free to send the request on, or a pooled
+                // connection may have gone stale while it sat idle (the BES
+                // was restarted, say) and failed before any of the response
+                // arrived. Those are retried but not held against the BES.
+                // Neither is a transaction that was abandoned on purpose.
+                boolean stale = pooledClient && oc.getLastTimeToFirstByte() < 0;
+                besFailed = !(e instanceof CheckoutTimeoutException) && !stale && !isAborted(abort);
             }
             finally {
-                if(oc!=null) returnClient(oc, besTrouble);
+                if(abort != null)
+                    abort.detach();
+                if(requestSent) {
+                    metrics.transactionCompleted(oc.getLastTimeToFirstByte(), oc.getLastTransferTime(),
+                            besTrouble && !clientFailed && !isAborted(abort));
+                    lastTimeToFirstByte.set(besTrouble ? -1L : oc.getLastTimeToFirstByte());
+                }
+                // An aborted client may have been closed after its response was read.
+                if(oc!=null) returnClient(oc, besTrouble || isAborted(abort));
                 if(timedProc!=null) Timer.stop(timedProc);
             }
         }
-        while (besTrouble && attempts < getMaxCommandAttempts() && !tc.isCommitted());
+        while (besTrouble && attempts < getMaxCommandAttempts() && !tc.isCommitted() && breaker.allowRequest()
+                && !isAborted(abort));
+
+        // The breaker counts failed transactions, not failed attempts.
+        if (besFailed && breaker.recordFailure())
+            onCircuitOpened();
 
         if (besTrouble) {
             if (besFatalError != null)
@@ -604,70 +784,359 @@ public class BES {
 
 
     /**
-     * The pool of availableInChunk OPeNDAPClient connections starts empty. When this
-     * method is called the pool is checked. If no client is availableInChunk, and the
-     * number of clientsMap has not reached the cap, then a new one is made,
-     * started, and returned. If no client is availableInChunk and the cap has been
-     * reached then this method will BLOCK until a client becomes availableInChunk.
-     * If a client is availableInChunk, it is returned.
+     * Checks a client out of the pool. Acquiring one of the MaxClients
+     * permits is the only point at which the caller may wait, the pool
+     * itself is a lock free deque. If an idle client is available it is
+     * returned. If not, and fewer than MaxClients connections exist, a new
+     * client is connected by the calling thread, outside of any shared
+     * lock, so that several new connections can be made in parallel and a
+     * slow connect only delays the thread that is waiting for it.
      *
-     * @return The next availableInChunk OPeNDAPClient.
-     * @throws opendap.ppt.PPTException  .
-     * @throws BadConfigurationException .
+     * @return The next available OPeNDAPClient.
+     * @throws opendap.ppt.PPTException  When a client cannot be provided.
      */
     public OPeNDAPClient getClient()
             throws PPTException {
 
-        OPeNDAPClient besClient=null;
+        long start = System.nanoTime();
+        try {
+            // Acquiring this semaphore is what limits the number
+            // of clients that are checked out at once. The number of
+            // permits available is set to MaxClients.
+            acquireClientPermit();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Whoops! Thread Interrupted!: {}", e.getMessage());
+            throw new PPTException(e);
+        }
 
-        clientCheckoutLock.lock();
+        boolean success = false;
         try {
+            OPeNDAPClient besClient = checkOutClient(start);
+            success = true;
+            metrics.checkoutWaited(System.nanoTime() - start);
+            return besClient;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Whoops! Thread Interrupted!: {}", e.getMessage());
+            throw new PPTException(e);
+        }
+        finally {
+            if(!success)
+                clientCheckOutFlag.release(); // Release the client permit because we have no client to go with it.
+        }
+    }
 
-            // Acquiring this semaphore is what limits the number
-            // of clientsMap that will be in the pool. The number of
-            // semaphores available is set to MaxClients.
-            clientCheckOutFlag.acquire();
+    /**
+     * Acquires one of the MaxClients permits. When none is free the caller
+     * waits, unless MaxCheckoutWaiters requests are already waiting, and
+     * for no longer than MaxCheckoutWait. Either way of running out of
+     * patience throws a ClientPoolExhaustedException so that the request
+     * is answered right away with a 503 rather than tying up a servlet
+     * container thread.
+     */
+    private void acquireClientPermit() throws InterruptedException, ClientPoolExhaustedException {
 
-            log.debug("clientQueue size: '{}'", clientQueue.size());
+        // Honors the fairness of the semaphore, unlike tryAcquire().
+        if(clientCheckOutFlag.tryAcquire(0, TimeUnit.MILLISECONDS))
+            return;
 
-            if (clientQueue.isEmpty()) {
-                besClient = getNewClient();
-            } else {
+        int maxWaiters = config.getMaxCheckoutWaiters();
+        int waiters = checkoutWaiters.incrementAndGet();
+        try {
+            if (maxWaiters > 0 && waiters > maxWaiters) {
+                rejectedWaiterLimit.incrementAndGet();
+                throw new ClientPoolExhaustedException("The BES " + getPrefix() + " is busy: " +
+                        (waiters - 1) + " requests are already waiting for one of its " +
+                        getMaxClients() + " connections.", config.getRetryAfter());
+            }
 
-                // Get a client from the client pool.
-                besClient = clientQueue.take();
-                log.debug("getClient() - Retrieved BES Client (id:{}) from Pool.", besClient.getID());
+            int maxWait = config.getMaxCheckoutWait();
+            if (maxWait <= 0) {
+                clientCheckOutFlag.acquire();
+            }
+            else if (!clientCheckOutFlag.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                rejectedWaitTimeout.incrementAndGet();
+                throw new ClientPoolExhaustedException("The BES " + getPrefix() + " is busy: no connection " +
+                        "became available within " + maxWait + " ms.", config.getRetryAfter());
+            }
+        }
+        finally {
+            checkoutWaiters.decrementAndGet();
+        }
+    }
 
-                // If the bes connection is closed, or the client just is not connected, pitch the client
-                // and make a new one, if you can...
-                if(besClient.isClosed() || !besClient.isConnected()){
-                    log.warn("getClient() - BES Client (id:{}) appears to be dead, discarding...",besClient.getID());
-                    discardClient(besClient);
-                    besClient = getNewClient();
-                }
+    /**
+     * @return The number of requests currently waiting to check out a client.
+     */
+    public int getCheckoutWaiterCount(){
+        return checkoutWaiters.get();
+    }
+
+    /**
+     * @return The number of requests turned away because MaxCheckoutWaiters were already waiting.
+     */
+    public long getRejectedWaiterLimitCount(){
+        return rejectedWaiterLimit.get();
+    }
+
+    /**
+     * @return The number of requests turned away because they waited MaxCheckoutWait for a client.
+     */
+    public long getRejectedWaitTimeoutCount(){
+        return rejectedWaitTimeout.get();
+    }
 
+    /**
+     * @return The number of transactions that are in progress, or waiting for a client, on this BES.
+     */
+    public int getOutstandingTransactions(){
+        return outstandingTransactions.get();
+    }
 
+    /**
+     * @return The load on this BES: its outstanding transactions per pooled client.
+     */
+    public double getLoad(){
+        return (double) getOutstandingTransactions() / getMaxClients();
+    }
+
+    /**
+     * @return False while the circuit breaker of this BES is open or half open,
+     * in which case its transactions fail right away with a CircuitOpenException.
+     */
+    public boolean isAvailable(){
+        return breaker.allowRequest();
+    }
+
+    public CircuitBreaker getCircuitBreaker(){
+        return breaker;
+    }
+
+    private CircuitOpenException circuitOpen(){
+        long remaining = breaker.getRemainingOpenTime();
+        int retryAfter = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(remaining + 999));
+        return new CircuitOpenException("The BES " + getPrefix() + " (" + (getNickName()==null?getHost():getNickName()) +
+                ") is unavailable, its circuit breaker is " + breaker.getState() + ".", retryAfter);
+    }
 
+    /**
+     * Called once when the circuit breaker opens. The idle clients are
+     * shut down, they are almost certainly connected to a BES that is
+     * gone, and the first probe is scheduled for when the open time is up.
+     */
+    private void onCircuitOpened(){
+        log.error("BES {} failed {} transaction attempts in a row, opening its circuit breaker for {} ms.",
+                getPrefix(), config.getBreakerFailures(), breaker.getOpenTime());
+        OPeNDAPClient odc;
+        while ((odc = idleClients.pollFirst()) != null) {
+            retireClient(odc, false);
+        }
+        scheduleProbe(breaker.getOpenTime());
+    }
+
+    private synchronized void scheduleProbe(long delay){
+        try {
+            probeTask = POOL_VALIDATOR.schedule(this::probe, delay, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException e){
+            log.error("Unable to schedule a probe of BES {}. msg: {}", getPrefix(), e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a probe (showStatus) transaction to a BES whose circuit breaker
+     * is half open, on a connection of its own, so that no request waits
+     * on it. Probes continue until enough of them succeed in a row to
+     * close the breaker; a failed probe opens it again.
+     */
+    void probe(){
+        RequestCache.open(new RequestId(getBackgroundId() + "-probe"));
+        try {
+            sendProbe();
+        }
+        finally {
+            RequestCache.close();
+        }
+    }
+
+    private void sendProbe(){
+        if(!breaker.tryHalfOpen()) {
+            if (breaker.getState() == CircuitBreaker.State.OPEN)
+                scheduleProbe(Math.max(1, breaker.getRemainingOpenTime()));
+            return;
+        }
+
+        OPeNDAPClient besClient = new OPeNDAPClient();
+        besClient.setID((getNickName()==null?getPrefix():getNickName()) + "-probe");
+        boolean ok;
+        try {
+            connect(besClient);
+            ok = besClient.isOk(STATUS_CHECK_TIMEOUT_MS);
+        }
+        catch (PPTException | RuntimeException e){
+            log.debug("Probe of BES {} failed. msg: {}", getPrefix(), e.getMessage());
+            ok = false;
+        }
+        finally {
+            if(besClient.isRunning())
+                shutdownClient(besClient);
+        }
+
+        if(!ok){
+            breaker.recordProbeFailure();
+            log.warn("Probe of BES {} failed, its circuit breaker stays open for another {} ms.",
+                    getPrefix(), breaker.getOpenTime());
+            scheduleProbe(breaker.getOpenTime());
+        }
+        else if(breaker.recordProbeSuccess()){
+            log.info("BES {} answered its probes, closing its circuit breaker.", getPrefix());
+            for(int i = idleClients.size(); i < config.getMinIdleClients(); i++){
+                replaceClientInBackground();
             }
-            return besClient;
+        }
+        else {
+            scheduleProbe(PROBE_INTERVAL_MS);
+        }
+    }
 
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            log.error("Whoops! Thread Interrupted!: {}", e.getMessage());
+    /**
+     * @return The counters and timings of this BES's client pool.
+     */
+    public BesPoolMetrics getPoolMetrics(){
+        return metrics;
+    }
+
+    /**
+     * @return The current state and the metrics of the client pool, for the pool metrics service.
+     */
+    public Element getPoolMetricsElement(){
+        Element bes = new Element("BES");
+        bes.setAttribute("prefix", getPrefix());
+        if(getNickName()!=null)
+            bes.setAttribute("name", getNickName());
+        if(getSocketPath()!=null)
+            bes.setAttribute("socket", getSocketPath());
+        else {
+            bes.setAttribute("host", getHost());
+            bes.setAttribute("port", Integer.toString(getPort()));
+        }
+
+        int live = liveClientCount.get();
+        int idle = idleClients.size();
+        Element clients = new Element("clients");
+        clients.setAttribute("max", Integer.toString(getMaxClients()));
+        clients.setAttribute("live", Integer.toString(live));
+        clients.setAttribute("idle", Integer.toString(idle));
+        clients.setAttribute("inUse", Integer.toString(getMaxClients() - clientCheckOutFlag.availablePermits()));
+        clients.setAttribute("waiting", Integer.toString(getCheckoutWaiterCount()));
+        bes.addContent(clients);
+
+        Element rejected = new Element("rejected");
+        rejected.setAttribute("waiterLimit", Long.toString(getRejectedWaiterLimitCount()));
+        rejected.setAttribute("waitTimeout", Long.toString(getRejectedWaitTimeoutCount()));
+        bes.addContent(rejected);
+
+        Element health = new Element("health");
+        health.setAttribute("outstanding", Integer.toString(getOutstandingTransactions()));
+        health.setAttribute("consecutiveFailures", Integer.toString(breaker.getConsecutiveFailures()));
+        health.setAttribute("circuit", breaker.getState().toString());
+        bes.addContent(health);
+
+        metrics.addContent(bes);
+        return bes;
+    }
+
+    /**
+     * Called holding a client permit. Takes the most recently used idle
+     * client, or makes a new one.
+     *
+     * @param start When (System.nanoTime()) the caller started waiting. The
+     * wait ends MaxCheckoutWait after that, or after the BES timeout when
+     * there is no MaxCheckoutWait.
+     */
+    private OPeNDAPClient checkOutClient(long start) throws PPTException, InterruptedException {
+
+        int maxWait = config.getMaxCheckoutWait();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxWait > 0 ? maxWait : getTimeout());
+
+        while(true) {
+            OPeNDAPClient besClient = idleClients.pollFirst();
             if (besClient != null) {
-                log.error("Attempting to discard BES Client (id:{}) ", besClient.getID());
-                discardClient(besClient);
-                clientCheckOutFlag.release(); // Release the client permit because this client is hosed...
+                log.debug("getClient() - Retrieved BES Client (id:{}) from Pool.", besClient.getID());
+
+                // If the bes connection is closed, or the client just is not connected, pitch the client
+                // and look again.
+                if (besClient.isClosed() || !besClient.isConnected()) {
+                    log.warn("getClient() - BES Client (id:{}) appears to be dead, discarding...", besClient.getID());
+                    retireClient(besClient, false);
+                    continue;
+                }
+                return besClient;
+            }
+
+            if (reserveClientSlot()) {
+                return getNewClient();
+            }
+
+            // Every connection slot is held by a client that is checked in
+            // on its way back to the pool, or that is being connected in
+            // the background. One of them will be idle shortly.
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                if (maxWait > 0) {
+                    rejectedWaitTimeout.incrementAndGet();
+                    throw new ClientPoolExhaustedException("The BES " + getPrefix() + " is busy: no connection " +
+                            "became available within " + maxWait + " ms.", config.getRetryAfter());
+                }
+                throw new CheckoutTimeoutException("Timed out waiting for a BES client. BES: " + getPrefix() +
+                        " clients: " + liveClientCount.get() + " idle: " + idleClients.size());
+            }
+            poolLock.lock();
+            try {
+                if (idleClients.isEmpty() && liveClientCount.get() >= getMaxClients())
+                    clientAvailable.awaitNanos(remaining);
+            }
+            finally {
+                poolLock.unlock();
             }
-            throw new PPTException(e);
-        } finally {
-            clientCheckoutLock.unlock();
         }
+    }
 
+    /**
+     * Wakes the threads waiting in checkOutClient() for a client.
+     */
+    private void signalClientAvailable(){
+        poolLock.lock();
+        try {
+            clientAvailable.signalAll();
+        }
+        finally {
+            poolLock.unlock();
+        }
+    }
 
+    /**
+     * Claims one of the MaxClients connection slots.
+     * @return True if a slot was claimed and a new client may be made.
+     */
+    private boolean reserveClientSlot(){
+        int live;
+        do {
+            live = liveClientCount.get();
+            if(live >= getMaxClients())
+                return false;
+        } while(!liveClientCount.compareAndSet(live, live+1));
+        return true;
     }
 
-    private OPeNDAPClient getNewClient() throws PPTException, InterruptedException  {
+    /**
+     * Connects a new client. The caller must hold a connection slot (see
+     * reserveClientSlot()), which is given back if the connection fails.
+     */
+    private OPeNDAPClient getNewClient() throws PPTException {
 
         // Make a new OPeNDAClient to connect to the BES
         OPeNDAPClient besClient = new OPeNDAPClient();
@@ -676,41 +1145,48 @@ public class BES {
 
         // Start the client by opening the PPT connection to the BES.
         try {
-            besClient.startClient(getHost(), getPort(), getTimeout());
+            connect(besClient);
             log.debug("BES Client started. (id:{})",besClient.getID());
 
         }
-        catch (PPTException ppte){
-            clientCheckOutFlag.release(); // Release the client permit because this client is hosed...
-            String msg ="BES Client Failed To Start. Message: '" + ppte.getMessage()+"' ";
+        catch (PPTException | RuntimeException e){
+            liveClientCount.decrementAndGet(); // Release the connection slot because this client is hosed...
+            signalClientAvailable();
+            metrics.connectionFailed();
+            String msg ="BES Client Failed To Start. Message: '" + e.getMessage()+"' ";
             besClient.setID(new Date().toString() + msg);
             log.error(msg);
-            throw new PPTException(msg,ppte);
+            throw new PPTException(msg,e);
         }
 
 
         // Add it to the client pool
-        try {
-            clientsMapLock.lock();
-            String clientId = (getNickName()==null?getPrefix():getNickName());
-            if(clientId.isEmpty())
-                clientId = "besC";
-            clientId += "-" + totalClients;
-            besClient.setID(clientId);
-            clientsMap.put(clientId, besClient);
-            totalClients++;
+        String clientId = (getNickName()==null?getPrefix():getNickName());
+        if(clientId.isEmpty())
+            clientId = "besC";
+        clientId += "-" + totalClients.getAndIncrement();
+        besClient.setID(clientId);
+        clientsMap.put(clientId, besClient);
+        metrics.connectionCreated();
 
-            log.debug("New BES Client assigned ID: {}", besClient.getID());
-
-        } finally {
-            clientsMapLock.unlock();
-        }
+        log.debug("New BES Client assigned ID: {}", besClient.getID());
 
         return besClient;
 
     }
 
 
+    /**
+     * Opens the PPT connection of a client to this BES.
+     */
+    private void connect(OPeNDAPClient besClient) throws PPTException {
+        if(getTransport() == PPTTransport.UNIX)
+            besClient.startUnixSocketClient(getSocketPath(), getTimeout());
+        else
+            besClient.startClient(getHost(), getPort(), getTimeout(), getTransport());
+    }
+
+
     /**
      * When a piece of code is done using an OPeNDAPClient, it should return it
      * to the pool using this method.
@@ -726,23 +1202,11 @@ public class BES {
         try {
 
             if (discard) {
-                discardClient(dapClient);
+                retireClient(dapClient, true);
             } else {
                 checkInClient(dapClient);
             }
 
-        } catch (PPTException e) {
-            String msg = "Problem with OPeNDAPClient, discarding.";
-
-            log.error(msg);
-            try {
-                clientsMapLock.lock();
-                clientsMap.remove(dapClient.getID());
-            } finally {
-                clientsMapLock.unlock();
-            }
-
-            throw new PPTException(msg, e);
         } finally {
             clientCheckOutFlag.release();
         }
@@ -751,55 +1215,209 @@ public class BES {
     }
 
 
-    private void checkInClient(OPeNDAPClient dapClient) throws PPTException {
+    private void checkInClient(OPeNDAPClient dapClient) {
         if (
-            !dapClient.isOk() ||
+            !isUsable(dapClient) ||
             (config.getMaxCommands() > 0 &&
             dapClient.getCommandCount() > config.getMaxCommands())
         ){
-            discardClient(dapClient);
             if(log.isDebugEnabled()) {
                 String msg = "checkInClient() This instance of OPeNDAPClient (id:" +
                         dapClient.getID() + ") has " +
                         "executed " + dapClient.getCommandCount() +
                         " commands which is in excess of the maximum command " +
-                        "limit of " + config.getMaxCommands() + ", discarding client.";
+                        "limit of " + config.getMaxCommands() + ", or is no longer ok. Discarding client.";
                 log.debug(msg);
             }
+            retireClient(dapClient, true);
         }
         else {
-            if (clientQueue.offer(dapClient)) {
-                log.debug("Returned OPeNDAPClient (id:{}) to Client Pool.", dapClient.getID());
-            } else {
-                log.error("OUCH! OUCH! OUCH! The Pool is " +
-                        "full and I need to check in a client! This Should " +
-                        "NEVER Happen!");
-            }
+            idleClients.offerFirst(dapClient);
+            signalClientAvailable();
+            log.debug("Returned OPeNDAPClient (id:{}) to Client Pool.", dapClient.getID());
         }
     }
 
 
-    private void discardClient(OPeNDAPClient dapClient) throws PPTException {
-        // By failing to put the client into the queue and
+    /**
+     * A cheap check of a client that is being returned to the pool. When
+     * pool maintenance is running, idle clients are probed in the background
+     * so only the local connection state is checked here. Otherwise the BES
+     * is asked for its status, as it always has been.
+     */
+    private boolean isUsable(OPeNDAPClient dapClient){
+        if(config.getValidationInterval() > 0)
+            return dapClient.isRunning() && !dapClient.isClosed() && dapClient.isConnected();
+        return dapClient.isOk();
+    }
+
+    /**
+     * @return The name of this BES, for the request ids of the transactions
+     * that the pool makes on its own.
+     */
+    private String getBackgroundId(){
+        return "BES-" + (getNickName()==null ? getPrefix() : getNickName());
+    }
+
+    /**
+     * Starts the client pool. The configured minimum number of idle clients
+     * are connected in the background, so that the first requests after
+     * start up don't pay for connecting to the BES, and the periodic pool
+     * maintenance task is scheduled. If the BES is not yet reachable this
+     * only logs a warning, the maintenance task will keep trying.
+     */
+    public void startPool(){
+        int validationInterval = config.getValidationInterval();
+        log.info("Starting client pool for BES {}. minIdle: {} validationInterval: {} s",
+                getPrefix(), config.getMinIdleClients(), validationInterval);
+
+        for(int i = idleClients.size(); i < config.getMinIdleClients(); i++){
+            replaceClientInBackground();
+        }
+
+        if(validationInterval > 0 && maintenanceTask == null) {
+            maintenanceTask = POOL_VALIDATOR.scheduleWithFixedDelay(() -> {
+                // The status checks are BES transactions, which want a request id for the logs.
+                RequestCache.open(new RequestId(getBackgroundId() + "-validation"));
+                try {
+                    maintainPool();
+                }
+                catch (RuntimeException e){
+                    log.error("BES client pool maintenance failed. msg: {}", e.getMessage());
+                }
+                finally {
+                    RequestCache.close();
+                }
+            }, validationInterval, validationInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Looks at each idle client in the pool. Clients that are disconnected,
+     * have been idle longer than MaxIdleTime, or have used up their
+     * MaxCommands are retired. Clients that have not been used since the
+     * last pass are probed with a showStatus command and retired if it
+     * fails. Finally the pool is topped back up to MinIdleClients.
+     */
+    void maintainPool(){
+        long now = System.currentTimeMillis();
+        long maxIdleMs = TimeUnit.SECONDS.toMillis(config.getMaxIdleTime());
+        long probeAfterMs = TimeUnit.SECONDS.toMillis(config.getValidationInterval());
+        int maxCommands = config.getMaxCommands();
+
+        int examined = 0;
+        int retired = 0;
+        for(OPeNDAPClient besClient : idleClients.toArray(new OPeNDAPClient[0])){
+            // Only a client we manage to take out of the pool is ours to look at,
+            // any other has just been checked out.
+            if(!idleClients.removeFirstOccurrence(besClient))
+                continue;
+            examined++;
+
+            long idle = now - besClient.getLastUsedTime();
+            boolean keep;
+            if(besClient.isClosed() || !besClient.isConnected()) {
+                log.debug("maintainPool() - BES Client (id:{}) is disconnected.", besClient.getID());
+                keep = false;
+            }
+            else if(maxIdleMs > 0 && idle > maxIdleMs){
+                log.debug("maintainPool() - BES Client (id:{}) has been idle for {} ms.", besClient.getID(), idle);
+                keep = false;
+            }
+            else if(maxCommands > 0 && besClient.getCommandCount() >= maxCommands){
+                log.debug("maintainPool() - BES Client (id:{}) has executed {} commands.",
+                        besClient.getID(), besClient.getCommandCount());
+                keep = false;
+            }
+            else if(idle >= probeAfterMs){
+                keep = besClient.isOk(STATUS_CHECK_TIMEOUT_MS);
+                if(!keep)
+                    log.warn("maintainPool() - BES Client (id:{}) failed its status check.", besClient.getID());
+            }
+            else {
+                keep = true;
+            }
+
+            if(keep) {
+                idleClients.offerLast(besClient);
+                signalClientAvailable();
+            }
+            else {
+                retireClient(besClient, false);
+                retired++;
+            }
+        }
+
+        int replaced = 0;
+        for(int i = idleClients.size(); i < config.getMinIdleClients(); i++){
+            replaceClientInBackground();
+            replaced++;
+        }
+        log.debug("maintainPool() - BES {} examined: {} retired: {} replacing: {}",
+                getPrefix(), examined, retired, replaced);
+    }
+
+    /**
+     * Removes a client from the pool, gives back its connection slot and
+     * shuts it down in the background. When replace is true a replacement
+     * client is connected in the background and placed in the pool, so
+     * that the next checkout does not have to wait for a connect.
+     *
+     * @param dapClient The client to get rid of.
+     * @param replace True if a replacement should be made.
+     */
+    private void retireClient(OPeNDAPClient dapClient, boolean replace) {
+        // By failing to put the client into the pool and
         // removing the client from the clientsMap Map the client is
         // discarded.
 
-        if(dapClient != null){
-            log.debug("Discarding OPeNDAPClient (id:{})", dapClient.getID());
+        if(dapClient == null){
+            log.error("Received a null valued OPeNDAPClient reference.");
+            return;
+        }
+        log.debug("Discarding OPeNDAPClient (id:{})", dapClient.getID());
 
+        if (dapClient.getID() == null || clientsMap.remove(dapClient.getID()) != null) {
+            liveClientCount.decrementAndGet();
+            metrics.connectionDiscarded();
+            signalClientAvailable();
+        }
+
+        if (dapClient.isRunning()) {
+            runInBackground(() -> shutdownClient(dapClient));
+        }
+        if (replace) {
+            replaceClientInBackground();
+        }
+    }
+
+    /**
+     * If a connection slot is free, connect a new client in the background
+     * and put it in the pool.
+     */
+    private void replaceClientInBackground(){
+        if(!breaker.allowRequest() || !reserveClientSlot())
+            return;
+        runInBackground(() -> {
             try {
-                clientsMapLock.lock();
-                if (dapClient.getID() != null)
-                    clientsMap.remove(dapClient.getID());
-            } finally {
-                clientsMapLock.unlock();
+                OPeNDAPClient replacement = getNewClient();
+                idleClients.offerLast(replacement);
+                signalClientAvailable();
+                log.debug("Added replacement OPeNDAPClient (id:{}) to Client Pool.", replacement.getID());
             }
-            if (dapClient.isRunning()) {
-                shutdownClient(dapClient);
+            catch (PPTException e) {
+                log.warn("Failed to make a replacement BES client for {}. msg: {}", getPrefix(), e.getMessage());
             }
+        });
+    }
+
+    private void runInBackground(Runnable task){
+        try {
+            POOL_MAINTENANCE.execute(task);
         }
-        else {
-            log.error("Received a null valued OPeNDAPClient reference.");
+        catch (RejectedExecutionException e){
+            log.warn("BES client pool maintenance task rejected, running it in the calling thread.");
+            task.run();
         }
     }
 
@@ -824,65 +1442,110 @@ public class BES {
     public void destroy() {
 
         boolean nicely = false;
-        boolean gotClientCheckoutLock = false;
-
-        try {
-            if (clientCheckoutLock.tryLock(10, TimeUnit.SECONDS)) {
-                gotClientCheckoutLock = true;
-
-                log.debug("Attempting to acquire all client permits...");
 
+        if(maintenanceTask != null) {
+            maintenanceTask.cancel(false);
+            maintenanceTask = null;
+        }
+        synchronized (this) {
+            if (probeTask != null) {
+                probeTask.cancel(false);
+                probeTask = null;
+            }
+        }
 
-                if (clientCheckOutFlag.tryAcquire(getMaxClients(), 10, TimeUnit.SECONDS)) {
-                    log.debug("All {} client permits acquired.",getMaxClients());
+        try {
+            log.debug("Attempting to acquire all client permits...");
 
-                    log.debug("There are {} client(s) to shutdown.", clientQueue.size());
+            if (clientCheckOutFlag.tryAcquire(getMaxClients(), 10, TimeUnit.SECONDS)) {
+                log.debug("All {} client permits acquired.",getMaxClients());
 
+                log.debug("There are {} client(s) to shutdown.", idleClients.size());
 
-                    int i = 0;
-                    while (!clientQueue.isEmpty()) {
-                        OPeNDAPClient odc = clientQueue.take();
-                        log.debug("Retrieved OPeNDAPClient[{}] (id:{}) from queue.",i++,odc.getID());
-                        shutdownClient(odc);
-                    }
-                    clientCheckOutFlag.release(getMaxClients());
-                    nicely = true;
+                int i = 0;
+                OPeNDAPClient odc;
+                while ((odc = idleClients.pollFirst()) != null) {
+                    log.debug("Retrieved OPeNDAPClient[{}] (id:{}) from pool.",i++,odc.getID());
+                    if(odc.getID()!=null)
+                        clientsMap.remove(odc.getID());
+                    liveClientCount.decrementAndGet();
+                    shutdownClient(odc);
                 }
-
-
+                clientCheckOutFlag.release(getMaxClients());
+                nicely = true;
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             log.error("OUCH! Interrupted while shutting down BESPool", e);
-        } finally {
-            if (gotClientCheckoutLock)
-                clientCheckoutLock.unlock();
         }
 
 
         if (!nicely) {
             log.debug("Timed Out. Destroying BES Clients.");
 
-            try {
-                clientsMapLock.lock();
-                for (OPeNDAPClient oc: clientsMap.values()) {
-                    if (oc != null) {
-                        log.debug("Killing BES Client (id:{})", oc.getID());
-                        oc.killClient();
-                    } else {
-                        log.error("Retrieved a 'null' BES Client instance from clientsMap collection!");
-
-                    }
+            for (OPeNDAPClient oc: clientsMap.values()) {
+                if (oc != null) {
+                    log.debug("Killing BES Client (id:{})", oc.getID());
+                    oc.killClient();
+                } else {
+                    log.error("Retrieved a 'null' BES Client instance from clientsMap collection!");
 
                 }
-            } finally {
-                clientsMapLock.unlock();
             }
         }
 
 
     }
 
+    private static boolean isAborted(Abort abort) {
+        return abort != null && abort.isAborted();
+    }
+
+    /**
+     * Lets another thread end a transaction that is under way by closing
+     * the connection it is using. Ending it that way costs the connection,
+     * but does not count against the BES.
+     */
+    static final class Abort {
+        private OPeNDAPClient client;
+        private boolean aborted;
+
+        /**
+         * @return False if the transaction has been aborted already.
+         */
+        synchronized boolean attach(OPeNDAPClient oc) {
+            if (aborted)
+                return false;
+            client = oc;
+            return true;
+        }
+
+        synchronized void detach() {
+            client = null;
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            if (client != null)
+                client.killClient();
+        }
+    }
+
+    /**
+     * Thrown when no client became free to check out in time (and there is
+     * no MaxCheckoutWait to turn the request away sooner). It says nothing
+     * about the BES itself, so the circuit breaker doesn't count it.
+     */
+    private static class CheckoutTimeoutException extends PPTException {
+        CheckoutTimeoutException(String msg) {
+            super(msg);
+        }
+    }
+
 //------------------------------------------------------------------------------
 //------------------------------------------------------------------------------
 //------------------------------------------------------------------------------
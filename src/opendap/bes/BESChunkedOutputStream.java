@@ -44,7 +44,7 @@ public class BESChunkedOutputStream  extends ChunkedOutputStream {
 
     private Logger log;
 
-    private String exitMsg = "status="+PPTSessionProtocol.PPT_EXIT_NOW+";";
+    private static final byte[] exitMsg = ("status="+PPTSessionProtocol.PPT_EXIT_NOW+";").getBytes(HyraxStringEncoding.getCharset());
 
     public BESChunkedOutputStream(OutputStream stream){
         super(stream);
@@ -81,7 +81,7 @@ public class BESChunkedOutputStream  extends ChunkedOutputStream {
 
         // send extension chunk with BES/PPT exit command
         setChunkTypeToEXTENSION();
-        write(exitMsg.getBytes( HyraxStringEncoding.getCharset()));
+        write(exitMsg);
         log.debug("close() - SENT extension chunk with BES/PPT exit command.");
         log.debug("close() - Flushing Cache.");
         flushCache();
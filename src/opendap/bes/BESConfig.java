@@ -28,6 +28,7 @@ package opendap.bes;
 
 import opendap.coreServlet.Scrub;
 import opendap.io.HyraxStringEncoding;
+import opendap.ppt.PPTTransport;
 import org.jdom.*;
 import org.jdom.input.SAXBuilder;
 import org.jdom.output.Format;
@@ -51,10 +52,21 @@ public class BESConfig  {
     private  int     _BesPort;
     private  int     _BesMaxClients;
     private  int     _BesMaxCommands;
+    private  int     _BesMinIdleClients;
+    private  int     _BesMaxIdleTime;  // in seconds
+    private  int     _BesValidationInterval;  // in seconds
+    private  int     _BesMaxCheckoutWait;  // in ms
+    private  int     _BesMaxCheckoutWaiters;
+    private  int     _BesRetryAfter;  // in seconds
+    private  int     _BesBreakerFailures;
+    private  int     _BesBreakerOpenTime;  // in seconds
+    private  int     _BesBreakerProbes;
     private  long     _BesMaxResponseSize;
     private  long     _BesMaxVariableSize;
     private  String  _BesPrefix;
     private  int     _BesTimeOut;  // in ms
+    private  PPTTransport _BesTransport;
+    private  String  _BesSocketPath;
 
     private  String  _BesNickName;
 
@@ -66,6 +78,9 @@ public class BESConfig  {
     public static final String MAX_RESPONSE_SIZE_ELEMENT_OLFS="maxResponseSize";
     public static final String UNITS_ATTRIBUTE_NAME="units";
     public static final String MAX_TIME_OUT_ELEMENT_OLFS="timeOut";
+    public static final String TRANSPORT_ELEMENT_OLFS="transport";
+    public static final String SOCKET_ELEMENT_OLFS="socket";
+    public static final String CIRCUIT_BREAKER_ELEMENT_OLFS="CircuitBreaker";
 
     private BESConfig() {
         log = org.slf4j.LoggerFactory.getLogger(getClass());
@@ -74,11 +89,22 @@ public class BESConfig  {
         _BesPort = -1;
         _BesMaxClients = 200;
         _BesMaxCommands = 2000;
+        _BesMinIdleClients = 0;
+        _BesMaxIdleTime = 0;
+        _BesValidationInterval = 0;
+        _BesMaxCheckoutWait = 0;
+        _BesMaxCheckoutWaiters = 0;
+        _BesRetryAfter = 5;
+        _BesBreakerFailures = 0;
+        _BesBreakerOpenTime = 10;
+        _BesBreakerProbes = 2;
         _BesPrefix = "/";
         _BesMaxResponseSize = 0;
         _BesMaxVariableSize = 0;
         _BesNickName = null;
         _BesTimeOut = 300000; // 5 minutes in ms
+        _BesTransport = PPTTransport.SOCKET;
+        _BesSocketPath = null;
     }
 
     public BESConfig(Document besConfiguration) throws BadConfigurationException {
@@ -106,9 +132,20 @@ public class BESConfig  {
         copy._BesMaxResponseSize = _BesMaxVariableSize;
         copy._BesMaxClients      = _BesMaxClients;
         copy._BesMaxCommands     = _BesMaxCommands;
+        copy._BesMinIdleClients  = _BesMinIdleClients;
+        copy._BesMaxIdleTime     = _BesMaxIdleTime;
+        copy._BesValidationInterval = _BesValidationInterval;
+        copy._BesMaxCheckoutWait = _BesMaxCheckoutWait;
+        copy._BesMaxCheckoutWaiters = _BesMaxCheckoutWaiters;
+        copy._BesRetryAfter      = _BesRetryAfter;
+        copy._BesBreakerFailures = _BesBreakerFailures;
+        copy._BesBreakerOpenTime = _BesBreakerOpenTime;
+        copy._BesBreakerProbes   = _BesBreakerProbes;
         copy._BesPrefix          = _BesPrefix;
         copy._BesNickName        = _BesNickName;
         copy._BesTimeOut         = _BesTimeOut;
+        copy._BesTransport       = _BesTransport;
+        copy._BesSocketPath      = _BesSocketPath;
 
         return copy;
     }
@@ -186,23 +223,44 @@ public class BESConfig  {
         }
 
 
+        // A co-located BES may be reached through a Unix domain socket, in
+        // which case the socket path replaces the host and port.
+        Element socket = besConfig.getChild(SOCKET_ELEMENT_OLFS);
+        if( socket!=null ){
+            String socketPath = socket.getTextTrim();
+            if(socketPath.isEmpty()){
+                throw new BadConfigurationException("Configuration Element does not contain correct content. " +
+                        "The <"+SOCKET_ELEMENT_OLFS+"> element must contain the path of the BES Unix domain socket.");
+            }
+            setSocketPath(socketPath);
+            log.info("BES '{}' Unix domain socket set to {}",getPrefix(), getSocketPath());
+        }
+
+
         Element host = besConfig.getChild("host");
-        if( host==null ){
+        if( host!=null ){
+            setHost(host.getTextTrim());
+        }
+        else if( socket!=null ){
+            setHost("localhost");
+        }
+        else {
             throw new BadConfigurationException("Configuration Element does not contain neccessary content. " +
                     "<BES> Element is missing <host> element.");
         }
-        setHost(host.getTextTrim());
 
 
 
 
         Element port = besConfig.getChild("port");
-        if( port==null ){
+        if( port!=null ){
+            setPort(port.getTextTrim());
+        }
+        else if( socket==null ){
             throw new BadConfigurationException("Configuration Element does not contain neccessary content. " +
                     "<BES> Element is missing <port> element.");
 
         }
-        setPort(port.getTextTrim());
 
 
 
@@ -226,7 +284,33 @@ public class BESConfig  {
             log.info("BES '{}' timeOut set to {}",getPrefix(), getTimeOut());
         }
 
-        //  <ClientPool maximum="10" maxCmds="2000"/>
+        Element transport = besConfig.getChild(TRANSPORT_ELEMENT_OLFS);
+        if( transport!=null ){
+            try {
+                setTransport(PPTTransport.fromString(transport.getTextTrim()));
+            }
+            catch (IllegalArgumentException e){
+                throw new BadConfigurationException("Configuration Element does not " +
+                        "contain correct content. The <"+TRANSPORT_ELEMENT_OLFS+"> element " +
+                        "is not valid. " + e.getMessage());
+            }
+            log.info("BES '{}' PPT transport set to {}",getPrefix(), getTransport());
+        }
+
+        if(getSocketPath()!=null){
+            if(transport!=null && getTransport()!=PPTTransport.UNIX){
+                throw new BadConfigurationException("Configuration Element does not contain correct content. " +
+                        "A <"+SOCKET_ELEMENT_OLFS+"> was given but the <"+TRANSPORT_ELEMENT_OLFS+"> is "+getTransport());
+            }
+            setTransport(PPTTransport.UNIX);
+        }
+        else if(getTransport()==PPTTransport.UNIX){
+            throw new BadConfigurationException("Configuration Element does not contain neccessary content. " +
+                    "The "+getTransport()+" transport requires a <"+SOCKET_ELEMENT_OLFS+"> element.");
+        }
+
+        //  <ClientPool maximum="10" maxCmds="2000" minIdle="2" maxIdleTime="300" validationInterval="60"
+        //              maxWait="10000" maxWaiters="100" retryAfter="5"/>
 
         Element clientPool = besConfig.getChild("ClientPool");
 
@@ -295,10 +379,66 @@ public class BESConfig  {
             log.info("BES '{}' clients be used for at most {} commands",getPrefix(), getMaxCommands());
 
 
+            Integer minIdle = getNonNegativeIntAttribute(clientPool, "minIdle");
+            if(minIdle != null){
+                if(minIdle > getMaxClients()){
+                    throw new BadConfigurationException("Configuration Element does not " +
+                            "contain correct content. The <ClientPool> element's " +
+                            "Attribute \"minIdle\" may not be larger than the value of \"maximum\".");
+                }
+                setMinIdleClients(minIdle);
+            }
+            Integer maxIdleTime = getNonNegativeIntAttribute(clientPool, "maxIdleTime");
+            if(maxIdleTime != null)
+                setMaxIdleTime(maxIdleTime);
+
+            Integer validationInterval = getNonNegativeIntAttribute(clientPool, "validationInterval");
+            if(validationInterval != null)
+                setValidationInterval(validationInterval);
+
+            log.info("BES '{}' client pool will keep {} idle clients, validate them every {} s and " +
+                            "retire them after {} s idle.",
+                    getPrefix(), getMinIdleClients(), getValidationInterval(), getMaxIdleTime());
+
+            Integer maxWait = getNonNegativeIntAttribute(clientPool, "maxWait");
+            if(maxWait != null)
+                setMaxCheckoutWait(maxWait);
+
+            Integer maxWaiters = getNonNegativeIntAttribute(clientPool, "maxWaiters");
+            if(maxWaiters != null)
+                setMaxCheckoutWaiters(maxWaiters);
+
+            Integer retryAfter = getNonNegativeIntAttribute(clientPool, "retryAfter");
+            if(retryAfter != null)
+                setRetryAfter(retryAfter);
+
+            log.info("BES '{}' client checkout will wait at most {} ms with at most {} waiters (0 is unlimited). " +
+                            "Rejected requests are told to retry after {} s.",
+                    getPrefix(), getMaxCheckoutWait(), getMaxCheckoutWaiters(), getRetryAfter());
+
         }
 
 
 
+        //  <CircuitBreaker failures="5" openTime="10" probes="2"/>  (failures defaults to 0, off)
+        Element breaker = besConfig.getChild(CIRCUIT_BREAKER_ELEMENT_OLFS);
+        if( breaker!=null ){
+            Integer failures = getNonNegativeIntAttribute(breaker, "failures");
+            if(failures != null)
+                setBreakerFailures(failures);
+
+            Integer openTime = getNonNegativeIntAttribute(breaker, "openTime");
+            if(openTime != null)
+                setBreakerOpenTime(openTime);
+
+            Integer probes = getNonNegativeIntAttribute(breaker, "probes");
+            if(probes != null)
+                setBreakerProbes(probes);
+        }
+        log.info("BES '{}' circuit breaker opens after {} failures (0 is never), for {} s, and closes after {} probes.",
+                getPrefix(), getBreakerFailures(), getBreakerOpenTime(), getBreakerProbes());
+
+
         String besName = besConfig.getAttributeValue("name");
         if( besName!=null ){
             setBesName(besName);
@@ -322,6 +462,33 @@ public class BESConfig  {
     }
 
 
+    /**
+     * Reads an optional non-negative integer valued attribute of a configuration element.
+     * @return The value, or null if the attribute is not present.
+     */
+    private Integer getNonNegativeIntAttribute(Element element, String name) throws BadConfigurationException {
+        Attribute attr = element.getAttribute(name);
+        if(attr == null)
+            return null;
+
+        log.debug("@{}: {}",name, attr.getValue());
+        int value;
+        try {
+            value = attr.getIntValue();
+        }
+        catch (DataConversionException e) {
+            value = -1;
+        }
+        if(value<0){
+            throw new BadConfigurationException("Configuration Element does not " +
+                    "contain correct content. The <"+element.getName()+"> element " +
+                    "MAY contain an Attribute called \""+name+"\" whose " +
+                    "value is an integer greater than or equal to 0 (zero). " +
+                    "Found "+name+"=\""+attr.getValue()+"\"");
+        }
+        return value;
+    }
+
     public void setMaxCommands(int max){
         _BesMaxCommands = max;
     }
@@ -441,12 +608,36 @@ public class BESConfig  {
         Element clientPool = new Element("ClientPool");
         clientPool.setAttribute("maximum",Integer.toString(_BesMaxClients));
         clientPool.setAttribute("maxCmds",Integer.toString(_BesMaxCommands));
+        clientPool.setAttribute("minIdle",Integer.toString(_BesMinIdleClients));
+        clientPool.setAttribute("maxIdleTime",Integer.toString(_BesMaxIdleTime));
+        clientPool.setAttribute("validationInterval",Integer.toString(_BesValidationInterval));
+        clientPool.setAttribute("maxWait",Integer.toString(_BesMaxCheckoutWait));
+        clientPool.setAttribute("maxWaiters",Integer.toString(_BesMaxCheckoutWaiters));
+        clientPool.setAttribute("retryAfter",Integer.toString(_BesRetryAfter));
 
         bes.addContent(prefix);
         bes.addContent(host);
         bes.addContent(port);
+
+        if(getSocketPath()!=null){
+            Element socket = new Element(SOCKET_ELEMENT_OLFS);
+            socket.setText(getSocketPath());
+            bes.addContent(socket);
+        }
+
+        if(getTransport()!=PPTTransport.SOCKET){
+            Element transport = new Element(TRANSPORT_ELEMENT_OLFS);
+            transport.setText(getTransport().name().toLowerCase());
+            bes.addContent(transport);
+        }
         bes.addContent(clientPool);
 
+        Element breaker = new Element(CIRCUIT_BREAKER_ELEMENT_OLFS);
+        breaker.setAttribute("failures",Integer.toString(_BesBreakerFailures));
+        breaker.setAttribute("openTime",Integer.toString(_BesBreakerOpenTime));
+        breaker.setAttribute("probes",Integer.toString(_BesBreakerProbes));
+        bes.addContent(breaker);
+
         return bes;
     }
 
@@ -510,6 +701,32 @@ public class BESConfig  {
     public int getTimeOut() { return _BesTimeOut; }
 
 
+    /**
+     *
+     * @param transport The PPT transport implementation used to connect to this BES.
+     */
+    public void setTransport(PPTTransport transport){ _BesTransport = transport; }
+
+    /**
+     *
+     * @return The PPT transport implementation used to connect to this BES.
+     */
+    public PPTTransport getTransport() { return _BesTransport; }
+
+
+    /**
+     *
+     * @param socketPath The path of the Unix domain socket on which a co-located BES listens.
+     */
+    public void setSocketPath(String socketPath){ _BesSocketPath = socketPath; }
+
+    /**
+     *
+     * @return The path of the BES Unix domain socket, or null if the BES is reached by host and port.
+     */
+    public String getSocketPath() { return _BesSocketPath; }
+
+
     public void setPrefix(String prefix){ _BesPrefix = prefix; }
     public String getPrefix() { return _BesPrefix; }
 
@@ -519,6 +736,62 @@ public class BESConfig  {
     public void setMaxClients(int i){ _BesMaxClients = i;   }
     public int getMaxClients(){ return _BesMaxClients;  }
 
+    /**
+     * @param i The number of idle clients the pool tries to keep connected.
+     */
+    public void setMinIdleClients(int i){ _BesMinIdleClients = i;   }
+    public int getMinIdleClients(){ return _BesMinIdleClients;  }
+
+    /**
+     * @param seconds How long a client may sit idle in the pool before the pool maintenance retires it.
+     *                Zero (the default) disables idle eviction.
+     */
+    public void setMaxIdleTime(int seconds){ _BesMaxIdleTime = seconds;   }
+    public int getMaxIdleTime(){ return _BesMaxIdleTime;  }
+
+    /**
+     * @param seconds How often idle clients are probed and the pool is topped up. Zero (the default)
+     *                disables pool maintenance.
+     */
+    public void setValidationInterval(int seconds){ _BesValidationInterval = seconds;   }
+    public int getValidationInterval(){ return _BesValidationInterval;  }
+
+    /**
+     * @param ms The longest a request will wait to check out a client. Zero waits for as long as it takes.
+     */
+    public void setMaxCheckoutWait(int ms){ _BesMaxCheckoutWait = ms;   }
+    public int getMaxCheckoutWait(){ return _BesMaxCheckoutWait;  }
+
+    /**
+     * @param i The most requests that may wait for a client at once. Zero for no limit.
+     */
+    public void setMaxCheckoutWaiters(int i){ _BesMaxCheckoutWaiters = i;   }
+    public int getMaxCheckoutWaiters(){ return _BesMaxCheckoutWaiters;  }
+
+    /**
+     * @param seconds The Retry-After value sent when a request is turned away because no client is available.
+     */
+    public void setRetryAfter(int seconds){ _BesRetryAfter = seconds;   }
+    public int getRetryAfter(){ return _BesRetryAfter;  }
+
+    /**
+     * @param i The number of failed transactions in a row that open the circuit breaker. Zero (the default) disables it.
+     */
+    public void setBreakerFailures(int i){ _BesBreakerFailures = i;   }
+    public int getBreakerFailures(){ return _BesBreakerFailures;  }
+
+    /**
+     * @param seconds How long the circuit breaker stays open before the BES is probed.
+     */
+    public void setBreakerOpenTime(int seconds){ _BesBreakerOpenTime = seconds;   }
+    public int getBreakerOpenTime(){ return _BesBreakerOpenTime;  }
+
+    /**
+     * @param i The number of successful probes in a row that close the circuit breaker.
+     */
+    public void setBreakerProbes(int i){ _BesBreakerProbes = i;   }
+    public int getBreakerProbes(){ return _BesBreakerProbes;  }
+
 
 
     public String toString(){
@@ -529,8 +802,19 @@ public class BESConfig  {
         s += "        Host:       " + getHost() + "\n";
         s += "        Port:       " + getPort() + "\n";
         s += "        Timeout:    " + getTimeOut() + " ms\n";
+        s += "        Transport:  " + getTransport() + "\n";
+        if(getSocketPath()!=null)
+            s += "        Socket:     " + getSocketPath() + "\n";
         s += "        MaxClients: " + getMaxClients() + "\n";
         s += "        MaxCommands/client: " + getMaxCommands() + "\n";
+        s += "        MinIdleClients: " + getMinIdleClients() + "\n";
+        s += "        MaxIdleTime: " + getMaxIdleTime() + " s\n";
+        s += "        ValidationInterval: " + getValidationInterval() + " s\n";
+        s += "        MaxCheckoutWait: " + getMaxCheckoutWait() + " ms\n";
+        s += "        MaxCheckoutWaiters: " + getMaxCheckoutWaiters() + "\n";
+        s += "        RetryAfter: " + getRetryAfter() + " s\n";
+        s += "        CircuitBreaker: failures: " + getBreakerFailures() + " openTime: " + getBreakerOpenTime() +
+                " s probes: " + getBreakerProbes() + "\n";
 
 
 
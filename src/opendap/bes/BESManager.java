@@ -66,6 +66,12 @@ public class BESManager {
 
     private static Element config = null;
     private static BesGroup rootGroup;
+    private static Element groupSelection = null;
+    private static Element groupHedging = null;
+    private static BesRequestCoalescer requestCoalescer = null;
+    private static BesMetadataCache metadataCache = null;
+    private static BesResponseDiskCache responseDiskCache = null;
+    private static BesResponseSpool responseSpool = null;
 
     /**
      * This is a singleton class so we make the default constructor private. All of the methods are static and so
@@ -120,6 +126,21 @@ public class BESManager {
                     "the value of it's prefix element  must be \"/\".");
 
 
+        groupSelection = besConfiguration.getChild(BesGroup.SELECTION_ELEMENT_NAME);
+        groupHedging = besConfiguration.getChild(BesHedging.HEDGING_ELEMENT_NAME);
+
+        Element coalesce = besConfiguration.getChild(BesRequestCoalescer.COALESCE_ELEMENT_NAME);
+        requestCoalescer = coalesce == null ? null : new BesRequestCoalescer(coalesce);
+
+        Element metadataCacheConfig = besConfiguration.getChild(BesMetadataCache.METADATA_CACHE_ELEMENT_NAME);
+        metadataCache = metadataCacheConfig == null ? null : new BesMetadataCache(metadataCacheConfig);
+
+        Element diskCacheConfig = besConfiguration.getChild(BesResponseDiskCache.DISK_CACHE_ELEMENT_NAME);
+        responseDiskCache = diskCacheConfig == null ? null : BesResponseDiskCache.fromConfig(diskCacheConfig);
+
+        Element spoolConfig = besConfiguration.getChild(BesResponseSpool.SPOOL_ELEMENT_NAME);
+        responseSpool = spoolConfig == null ? null : new BesResponseSpool(spoolConfig);
+
         boolean foundRootBES = false;
         BES bes;
         BESConfig besConfig;
@@ -136,11 +157,14 @@ public class BESManager {
             // for the new BES - if it doesn't match the returned group prefix then we need to make a new group.
             if (groupForThisPrefix == null || !groupForThisPrefix.getGroupPrefix().equals(bes.getPrefix())) {
                 groupForThisPrefix = new BesGroup(bes.getPrefix());
+                groupForThisPrefix.configureSelection(groupSelection);
+                groupForThisPrefix.configureHedging(groupHedging);
                 BES_COLLECTION.add(groupForThisPrefix);
             }
 
 
             groupForThisPrefix.add(bes);
+            bes.startPool();
 
 
             if (groupForThisPrefix.getGroupPrefix().equals("/")) {
@@ -161,6 +185,13 @@ public class BESManager {
         if(nodeCache!=null){
             BesNodeCache.init(nodeCache);
         }
+        else {
+            LOG.warn("There is no {} so the DAP responses will not have ETags.", BesNodeCache.NODE_CACHE_ELEMENT_NAME);
+            if(metadataCache!=null || responseDiskCache!=null)
+                LOG.warn("The {} and {} need the dataset lastModified times from the {}, without it they are not used.",
+                        BesMetadataCache.METADATA_CACHE_ELEMENT_NAME, BesResponseDiskCache.DISK_CACHE_ELEMENT_NAME,
+                        BesNodeCache.NODE_CACHE_ELEMENT_NAME);
+        }
 
         Element siteMapCache = besConfiguration.getChild(BesSiteMap.SITE_MAP_CACHE_ELEMENT_NAME);
         // The SiteMap cache is required, so if it's not in the configuration
@@ -202,9 +233,12 @@ public class BESManager {
         }
         else {
             myGroup = new BesGroup(bes.getPrefix());
+            myGroup.configureSelection(groupSelection);
+            myGroup.configureHedging(groupHedging);
             myGroup.add(bes);
             BES_COLLECTION.add(myGroup);
         }
+        bes.startPool();
     }
 
 
@@ -247,7 +281,7 @@ public class BESManager {
         BES bes = null;
 
         if(besGroupToServicePath!=null)
-            bes =  besGroupToServicePath.getNext();
+            bes =  besGroupToServicePath.getNext(path);
 
 
 
@@ -314,6 +348,71 @@ public class BESManager {
     }
 
 
+    /**
+     * @return The number of client connections all of the BES client pools
+     * together are allowed to have, which is the most BES transactions
+     * that can be in progress at once.
+     */
+    public static int getTotalMaxClients(){
+        int total = 0;
+        for(BesGroup besGroup : BES_COLLECTION){
+            for(int i=0; i<besGroup.size() ;i++){
+                total += besGroup.get(i).getMaxClients();
+            }
+        }
+        return total;
+    }
+
+
+    /**
+     * @return The coalescer of identical metadata requests, null if coalescing is not enabled.
+     */
+    public static BesRequestCoalescer getRequestCoalescer(){
+        return requestCoalescer;
+    }
+
+    /**
+     * @return The metadata response cache, null if it is not enabled.
+     */
+    public static BesMetadataCache getMetadataCache(){
+        return metadataCache;
+    }
+
+    /**
+     * @return The data product response disk cache, null if it is not enabled.
+     */
+    public static BesResponseDiskCache getResponseDiskCache(){
+        return responseDiskCache;
+    }
+
+    /**
+     * @return The spool between the BES and slow clients, null if it is not enabled.
+     */
+    public static BesResponseSpool getResponseSpool(){
+        return responseSpool;
+    }
+
+    /**
+     * @return A document holding the client pool metrics of every BES, by BesGroup.
+     */
+    public static Document getPoolMetricsDocument() {
+        Element metrics = new Element("BesPoolMetrics");
+        metrics.setAttribute("time", Long.toString(System.currentTimeMillis()));
+        for(BesGroup besGroup : BES_COLLECTION){
+            metrics.addContent(besGroup.getPoolMetricsElement());
+        }
+        if(requestCoalescer != null)
+            metrics.addContent(requestCoalescer.getMetricsElement());
+        if(metadataCache != null)
+            metrics.addContent(metadataCache.getMetricsElement());
+        if(responseDiskCache != null)
+            metrics.addContent(responseDiskCache.getMetricsElement());
+        if(responseSpool != null)
+            metrics.addContent(responseSpool.getMetricsElement());
+        return new Document(metrics);
+    }
+
+
     public static Document getCombinedVersionDocument() throws JDOMException, IOException, PPTException, BadConfigurationException, BESError {
 
         Document doc = new Document();
@@ -0,0 +1,203 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.ppt.MockBesServer;
+import opendap.ppt.OPeNDAPClient;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static opendap.namespaces.BES.BES_NS;
+import static org.junit.Assert.*;
+
+public class BESPoolTest {
+
+    private static final int MAX_CLIENTS = 4;
+
+    private MockBesServer server;
+    private BES bes;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockBesServer();
+        server.start();
+        bes = new BES(new BESConfig(besElement(server.getPort(), MAX_CLIENTS)));
+    }
+
+    @After
+    public void tearDown() {
+        bes.destroy();
+        server.stop();
+    }
+
+    static Element besElement(int port, int maxClients) {
+        Element besConfig = new Element("BES");
+        besConfig.addContent(new Element("prefix").setText("/"));
+        besConfig.addContent(new Element("host").setText("localhost"));
+        besConfig.addContent(new Element("port").setText(Integer.toString(port)));
+        besConfig.addContent(new Element("timeOut").setText("5000"));
+        Element clientPool = new Element("ClientPool");
+        clientPool.setAttribute("maximum", Integer.toString(maxClients));
+        besConfig.addContent(clientPool);
+        return besConfig;
+    }
+
+    @Test
+    public void testConcurrentCheckoutNeverExceedsMaxClients() throws Exception {
+        final AtomicInteger checkedOut = new AtomicInteger();
+        final AtomicInteger maxCheckedOut = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(16);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+            final boolean discard = (i % 7) == 0;
+            results.add(threads.submit(() -> {
+                OPeNDAPClient oc = bes.getClient();
+                int now = checkedOut.incrementAndGet();
+                maxCheckedOut.accumulateAndGet(now, Math::max);
+                assertTrue(oc.isConnected());
+                checkedOut.decrementAndGet();
+                bes.returnClient(oc, discard);
+                return null;
+            }));
+        }
+        for (Future<?> f : results)
+            f.get(30, TimeUnit.SECONDS);
+        threads.shutdown();
+
+        assertTrue(maxCheckedOut.get() <= MAX_CLIENTS);
+        assertTrue(bes.getBesClientCount() <= MAX_CLIENTS);
+    }
+
+    private void awaitClientCount(BES pool, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getBesClientCount() != count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, pool.getBesClientCount());
+    }
+
+    @Test
+    public void testWarmUpAndIdleEviction() throws Exception {
+        Element besConfig = besElement(server.getPort(), MAX_CLIENTS);
+        besConfig.getChild("ClientPool")
+                .setAttribute("minIdle", "2")
+                .setAttribute("maxIdleTime", "1")
+                .setAttribute("validationInterval", "0");
+        BES warm = new BES(new BESConfig(besConfig));
+        try {
+            warm.startPool();
+            awaitClientCount(warm, 2);
+            assertEquals(2, server.getConnectionCount());
+
+            // Both idle clients are now too old, they get replaced.
+            Thread.sleep(1100);
+            warm.maintainPool();
+            awaitClientCount(warm, 2);
+            assertEquals(4, server.getConnectionCount());
+        }
+        finally {
+            warm.destroy();
+        }
+    }
+
+    @Test
+    public void testCheckoutFailsFastWhenPoolIsExhausted() throws Exception {
+        Element besConfig = besElement(server.getPort(), 1);
+        besConfig.getChild("ClientPool")
+                .setAttribute("maxWait", "100")
+                .setAttribute("retryAfter", "7");
+        BES busy = new BES(new BESConfig(besConfig));
+        OPeNDAPClient oc = busy.getClient();
+        try {
+            busy.getClient();
+            fail("Expected the checkout to be rejected.");
+        }
+        catch (ClientPoolExhaustedException e) {
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getHttpStatusCode());
+            assertEquals(7, e.getRetryAfter());
+        }
+        finally {
+            busy.returnClient(oc, false);
+            busy.destroy();
+        }
+        assertEquals(1, busy.getRejectedWaitTimeoutCount());
+        assertEquals(0, busy.getCheckoutWaiterCount());
+    }
+
+    @Test
+    public void testPoolMetrics() throws Exception {
+        Element request = new Element("request", BES_NS);
+        request.setAttribute("reqID", "BESPoolTest");
+        request.addContent(new Element("showVersion", BES_NS));
+        Document response = new Document();
+        bes.besTransaction(new Document(request), response);
+        assertNotNull(response.getRootElement().getChild("showVersion", BES_NS));
+
+        BesPoolMetrics metrics = bes.getPoolMetrics();
+        assertEquals(1, metrics.getConnectionsCreated());
+        assertEquals(1, metrics.getTransactions());
+        assertEquals(0, metrics.getFailedTransactions());
+        assertEquals(1, metrics.getCheckoutWait().getCount());
+        assertEquals(1, metrics.getTimeToFirstByte().getCount());
+        assertEquals(1, metrics.getTransferTime().getCount());
+
+        Element clients = bes.getPoolMetricsElement().getChild("clients");
+        assertEquals("1", clients.getAttributeValue("live"));
+        assertEquals("1", clients.getAttributeValue("idle"));
+        assertEquals("0", clients.getAttributeValue("inUse"));
+    }
+
+    @Test
+    public void testDiscardedClientIsReplaced() throws Exception {
+        OPeNDAPClient oc = bes.getClient();
+        String id = oc.getID();
+        bes.returnClient(oc, true);
+
+        // The replacement is connected in the background.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bes.getBesClientCount() == 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, bes.getBesClientCount());
+
+        OPeNDAPClient next = bes.getClient();
+        assertNotEquals(id, next.getID());
+        assertEquals(2, server.getConnectionCount());
+        bes.returnClient(next, false);
+    }
+}
@@ -26,14 +26,10 @@
 
 package opendap.bes;
 
+import opendap.bes.caching.BesNode;
 import opendap.coreServlet.ResourceInfo;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.Namespace;
 import org.slf4j.Logger;
 
-import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 
 
@@ -60,9 +56,6 @@ public class BESResource implements ResourceInfo {
     private BesApi _besApi;
 
 
-    private static final Namespace BES_NS = opendap.namespaces.BES.BES_NS;
-
-
     public BESResource(String dataSourceName, BesApi besApi) throws Exception {
 
         Logger log = org.slf4j.LoggerFactory.getLogger(getClass());
@@ -78,8 +71,6 @@ public class BESResource implements ResourceInfo {
         _size = -1;
         _lastModified = null;
 
-        Document nodeDoc = new Document();
-
         if(besApi == null){
             _exists        = false;
             _accessible = false;
@@ -95,67 +86,15 @@ public class BESResource implements ResourceInfo {
 
 
         try {
-            besApi.getBesNode(dataSourceName, nodeDoc);
+            BesNode node = besApi.getBesNode(dataSourceName);
 
             _exists = true;
             _accessible = true;
-            Element root = nodeDoc.getRootElement();
-            if(root==null)
-                throw new IOException("BES showNode response for "+dataSourceName+" was empty! No root element");
-
-            Element showNode  = root.getChild("showNode",BES_NS);
-            if(showNode==null)
-                throw new IOException("BES showNode response for "+dataSourceName+" was empty! No showNode element");
-
-            Element nodeElement = showNode.getChild("node",BES_NS);
-
-            if(nodeElement==null){
-                Element itemElement  = showNode.getChild("item",BES_NS);
-                if(itemElement == null)
-                    throw new IOException("BES showNode response for " + dataSourceName + " did not contain " +
-                            "expected content! No top level node or item element");
-                _name = itemElement.getAttributeValue("name");
-                String s = itemElement.getAttributeValue("size");
-                if (s != null) {
-                    _size = Long.valueOf(s);
-                } else {
-                    _size = itemElement.getChildren().size();
-                }
-
-                s = itemElement.getAttributeValue("lastModified");
-                if (s != null) {
-                    SimpleDateFormat sdf = new SimpleDateFormat(BESDateFormat);
-                    _lastModified = sdf.parse(itemElement.getAttributeValue("lastModified"));
-                }
-
-                String isNode = itemElement.getAttributeValue("type");
-                _isNode = isNode!=null && isNode.equalsIgnoreCase("node");
-
-                s = itemElement.getAttributeValue("isData");
-                _isData = s != null && s.equalsIgnoreCase("true");
-            }
-            else {
-
-                _isNode = true;
-                _name = nodeElement.getAttributeValue("name");
-                String s = nodeElement.getAttributeValue("size");
-                if (s != null) {
-                    _size = Long.valueOf(s);
-                } else {
-                    _size = nodeElement.getChildren().size();
-                }
-
-                s = nodeElement.getAttributeValue("lastModified");
-                if (s != null) {
-                    SimpleDateFormat sdf = new SimpleDateFormat(BESDateFormat);
-                    _lastModified = sdf.parse(nodeElement.getAttributeValue("lastModified"));
-                }
-
-
-                s = nodeElement.getAttributeValue("isData");
-                _isData = s != null && s.equalsIgnoreCase("true");
-            }
-
+            _isNode = node.isNode();
+            _isData = node.isData();
+            _name = node.getName();
+            _size = node.getSize();
+            _lastModified = node.getLastModifiedDate();
         }
         catch (BESError err ){
             _exists        = !err.notFound();
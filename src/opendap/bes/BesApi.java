@@ -29,6 +29,7 @@ package opendap.bes;
 import opendap.PathBuilder;
 import opendap.auth.EarthDataLoginAccessToken;
 import opendap.auth.UserProfile;
+import opendap.bes.caching.BesNode;
 import opendap.bes.caching.BesNodeCache;
 import opendap.coreServlet.ByteArrayOutputStreamTransmitCoordinator;
 import opendap.coreServlet.RequestCache;
@@ -258,7 +259,7 @@ public class BesApi implements Cloneable {
                          TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        metadataTransaction(
                 dataSource,
                 getDDXRequest(user, dataSource, constraintExpression, xmlBase),
                 os, tc);
@@ -284,7 +285,7 @@ public class BesApi implements Cloneable {
                          TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        metadataTransaction(
                 dataSource,
                 getDMRRequest(user, dataSource,qp,xmlBase),
                 os, tc);
@@ -423,7 +424,7 @@ public class BesApi implements Cloneable {
             IOException,
             PPTException {
 
-        besTransaction(
+        metadataTransaction(
                 dataSource,
                 getDDSRequest(user, dataSource, constraintExpression),
                 os, tc);
@@ -482,7 +483,7 @@ public class BesApi implements Cloneable {
             IOException,
             PPTException {
 
-        besTransaction(
+        metadataTransaction(
                 dataSource,
                 getDASRequest(user,dataSource,constraintExpression),
                 os,
@@ -613,7 +614,7 @@ public class BesApi implements Cloneable {
                                        TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        productTransaction(
                 dataSource,
                 getDap2DataAsNetcdf4Request(user, dataSource, constraintExpression, cf_history_entry, history_json_entry),
                 os,
@@ -643,7 +644,7 @@ public class BesApi implements Cloneable {
                                        TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        productTransaction(
                 dataSource,
                 getDap4DataAsNetcdf4Request(user, dataSource, qp, cf_history_entry, history_json_entry),
                 os,
@@ -854,7 +855,7 @@ public class BesApi implements Cloneable {
                                         TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        productTransaction(
                 dataSource,
                 getDap4DataAsGeoTiffRequest(user, dataSource, qp),
                 os,
@@ -1149,7 +1150,7 @@ public class BesApi implements Cloneable {
                                        TransmitCoordinator tc)
             throws BadConfigurationException, BESError, IOException, PPTException {
 
-        besTransaction(
+        productTransaction(
             dataSource,
             getDap2DataAsGeoTiffRequest(user, dataSource, constraintExpression),
             os, tc);
@@ -1212,7 +1213,7 @@ public class BesApi implements Cloneable {
             IOException,
             PPTException {
 
-        besTransaction(
+        productTransaction(
                 dataSource,
                 getDap4DataAsCsvRequest(user, dataSource, qp),
                 os, tc);
@@ -1345,6 +1346,60 @@ public class BesApi implements Cloneable {
 
     }
 
+    /**
+     * Gets the BesNode for the passed dataSource. When the BesNodeCache is
+     * in use the returned BesNode is the cached, shared, instance.
+     *
+     * @param dataSource The name of the BES node.
+     * @return The BesNode built from the BES showNode response.
+     */
+    public BesNode getBesNode(String dataSource)
+            throws BadConfigurationException, PPTException, JDOMException, IOException, BESError {
+
+        if(!dataSource.startsWith("/"))
+            dataSource = "/" + dataSource;
+
+        Procedure timedProc = Timer.start();
+        try {
+            if (BesNodeCache.isInitialized()) {
+                log.info("Using BesNodeCache to acquire BesNode for dataSource \"{}\"", dataSource);
+                return BesNodeCache.getNode(this, dataSource);
+            }
+            log.info("BesNodeCache DISABLED. Acquiring BES showNode response for dataSource \"{}\"",dataSource);
+            Document response = new Document();
+            getBesNodeNoCache(dataSource, response);
+            return BesNode.fromShowNode(response);
+        }
+        finally {
+            Timer.stop(timedProc);
+        }
+    }
+
+    /**
+     * Gets the lastModified time of the dataSource for the response caches.
+     * The time comes from the BesNodeCache, without one it would take a BES
+     * showNode transaction per request, so it is not known.
+     *
+     * @param dataSource The name of the BES node.
+     * @return The lastModified time in milliseconds since the epoch, -1 if it
+     * is not known.
+     */
+    long getLastModified(String dataSource) {
+        if (!BesNodeCache.isInitialized())
+            return -1;
+        try {
+            return getBesNode(dataSource).lastModified();
+        }
+        catch (BESError e) {
+            // The transaction will get (and report) the error.
+            log.debug("Unable to get the lastModified time of {} msg: {}", dataSource, e.getMessage());
+        }
+        catch (BadConfigurationException | PPTException | JDOMException | IOException e) {
+            log.warn("Unable to get the lastModified time of {} msg: {}", dataSource, e.getMessage());
+        }
+        return -1;
+    }
+
     public void getBesNodeNoCache(String dataSource, Document response)
             throws JDOMException, BadConfigurationException, PPTException, BESError, IOException {
 
@@ -1394,9 +1449,31 @@ public class BesApi implements Cloneable {
         BES bes = BESManager.getBES(dataSource);
         int bes_timeout_seconds = bes.getTimeout()/1000;
         request.getRootElement().addContent(0,setContextElement("bes_timeout",Integer.toString(bes_timeout_seconds)));
-        bes.besTransaction(request,response);
 
+        BesGroup group = BESManager.getBesGroup(dataSource);
+        try {
+            besTransaction(group, bes, request, response);
+        }
+        catch (PPTException e) {
+            BES alternate = getFailover(group, bes, e);
+            if(alternate == null)
+                throw e;
+            besTransaction(group, alternate, request, response);
+        }
+    }
+
+    private void besTransaction(BesGroup group, BES bes, Document request, Document response)
+            throws IOException, PPTException, JDOMException, BESError {
 
+        if(group != null && group.getHedging() != null && BesHedging.isHedgeable(request)){
+            try (ByteArrayOutputStream responseStream = new ByteArrayOutputStream()) {
+                group.getHedging().besTransaction(group, bes, request, responseStream,
+                        new ByteArrayOutputStreamTransmitCoordinator(responseStream));
+                BES.setResponseDocument(responseStream, response);
+            }
+            return;
+        }
+        bes.besTransaction(request,response);
     }
 
 
@@ -1416,15 +1493,134 @@ public class BesApi implements Cloneable {
     public void besTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
             throws BadConfigurationException, IOException, PPTException, BESError {
 
+        BesResponseSpool spool = BESManager.getResponseSpool();
+        if(spool == null || os instanceof ByteArrayOutputStream) {
+            unspooledTransaction(dataSource, request, os, tc);
+            return;
+        }
+        spool.besTransaction(this, dataSource, request, os, tc);
+    }
+
+    /**
+     * Executes a command/response transaction with the BES, writing the
+     * response straight to os.
+     *
+     * @param dataSource The data source, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The OutputStream to write the BES response to.
+     * @param tc The TransmitCoordinator of os.
+     */
+    protected void unspooledTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
         log.debug("besTransaction() started.");
         log.debug("besTransaction() request document: \n-----------\n"+ getDocumentAsString(request)+"-----------\n");
 
         BES bes = BESManager.getBES(dataSource);
         int bes_timeout_seconds = bes.getTimeout()/1000;
         request.getRootElement().addContent(0,setContextElement("bes_timeout",Integer.toString(bes_timeout_seconds)));
+
+        BesGroup group = BESManager.getBesGroup(dataSource);
+        try {
+            besTransaction(group, bes, request, os, tc);
+        }
+        catch (PPTException e) {
+            BES alternate = tc.isCommitted() ? null : getFailover(group, bes, e);
+            if(alternate == null)
+                throw e;
+            besTransaction(group, alternate, request, os, tc);
+        }
+    }
+
+    private void besTransaction(BesGroup group, BES bes, Document request, OutputStream os, TransmitCoordinator tc)
+            throws IOException, PPTException, BESError {
+
+        if(group != null && group.getHedging() != null && BesHedging.isHedgeable(request)){
+            group.getHedging().besTransaction(group, bes, request, os, tc);
+            return;
+        }
         bes.besTransaction(request, os, tc);
     }
 
+    /**
+     * Runs a metadata (DMR, DDX, DDS, DAS) transaction, answering it from
+     * the metadata response cache when that is enabled.
+     *
+     * @param dataSource The data source, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The OutputStream to write the BES response to.
+     * @param tc The TransmitCoordinator of os.
+     */
+    protected void metadataTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        BesMetadataCache cache = BESManager.getMetadataCache();
+        if(cache == null) {
+            uncachedMetadataTransaction(dataSource, request, os, tc);
+            return;
+        }
+        cache.besTransaction(this, dataSource, request, os, tc);
+    }
+
+    /**
+     * Runs a data product (NetCDF-4, GeoTIFF, CSV) transaction, answering it
+     * from the response disk cache when that is enabled.
+     *
+     * @param dataSource The data source, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The OutputStream to write the BES response to.
+     * @param tc The TransmitCoordinator of os.
+     */
+    protected void productTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        BesResponseDiskCache cache = BESManager.getResponseDiskCache();
+        if(cache == null) {
+            besTransaction(dataSource, request, os, tc);
+            return;
+        }
+        cache.besTransaction(this, dataSource, request, os, tc);
+    }
+
+    /**
+     * Runs a metadata transaction, sharing it with any identical ones that
+     * are in progress when request coalescing is enabled.
+     *
+     * @param dataSource The data source, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The OutputStream to write the BES response to.
+     * @param tc The TransmitCoordinator of os.
+     */
+    protected void uncachedMetadataTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        BesRequestCoalescer coalescer = BESManager.getRequestCoalescer();
+        if(coalescer == null) {
+            besTransaction(dataSource, request, os, tc);
+            return;
+        }
+        coalescer.besTransaction(this, dataSource, request, os, tc);
+    }
+
+    /**
+     * When a transaction failed because the circuit breaker of its BES is
+     * (now) open, the request is given one more try on another member of
+     * the BesGroup.
+     *
+     * @param group The group of the BES, may be null.
+     * @param bes The BES the transaction failed on.
+     * @param e What went wrong.
+     * @return The member to try next, null if the failure should go to the client.
+     */
+    private BES getFailover(BesGroup group, BES bes, PPTException e){
+        if(group == null || e instanceof ClientPoolExhaustedException || bes.isAvailable())
+            return null;
+        BES alternate = group.selectAlternate(bes);
+        if(alternate != null)
+            log.warn("The circuit breaker of BES {} is open, sending the request to BES {}", bes, alternate);
+        return alternate;
+    }
+
 
 
 
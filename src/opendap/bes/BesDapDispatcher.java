@@ -41,6 +41,7 @@ import opendap.coreServlet.ReqInfo;
 import opendap.coreServlet.ServletUtil;
 import opendap.dap.Dap2Service;
 import opendap.dap4.Dap4Service;
+import opendap.io.FlushPolicy;
 import opendap.services.ServicesRegistry;
 import org.jdom.Element;
 import org.slf4j.Logger;
@@ -82,6 +83,9 @@ public class BesDapDispatcher implements DispatchHandler {
     private static boolean d_forceLinksToHttps = false;
     private static final String d_forceLinksToHttpsKey = "ForceLinksToHttps";
 
+    private static FlushPolicy d_dataFlushPolicy = null;
+    private static FlushPolicy d_metadataFlushPolicy = null;
+
     private BesApi _besApi;
 
     public BesDapDispatcher() {
@@ -207,6 +211,50 @@ public class BesDapDispatcher implements DispatchHandler {
                 }
             }
             _log.info("HTTP POST max body length is set to: {}", ReqInfo.getPostBodyMaxLength());
+
+            d_dataFlushPolicy = null;
+            d_metadataFlushPolicy = null;
+            dv = _config.getChild("FlushPolicy");
+            if (dv != null) {
+                d_dataFlushPolicy = ingestFlushPolicy(dv, "data");
+                d_metadataFlushPolicy = ingestFlushPolicy(dv, "metadata");
+            }
+            _log.info("FlushPolicy data: {} metadata: {}",
+                    d_dataFlushPolicy==null?"default":d_dataFlushPolicy,
+                    d_metadataFlushPolicy==null?"default":d_metadataFlushPolicy);
+        }
+    }
+
+    /**
+     * Reads a FlushPolicy from the named attribute of the FlushPolicy element.
+     * @param flushPolicyElement The FlushPolicy configuration element.
+     * @param attrName The attribute to read.
+     * @return The FlushPolicy, or null if the attribute is missing or cannot be parsed.
+     */
+    private FlushPolicy ingestFlushPolicy(Element flushPolicyElement, String attrName){
+        String value = flushPolicyElement.getAttributeValue(attrName);
+        if(value==null)
+            return null;
+        try {
+            return FlushPolicy.fromString(value);
+        }
+        catch (IllegalArgumentException e){
+            _log.warn("FlushPolicy - Unable to parse the value of {}! Using the default. Msg: {}", attrName, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Applies the configured FlushPolicy (if any) to a responder and its
+     * alternate representation responders.
+     * @param responder The responder to configure.
+     */
+    private void applyFlushPolicy(Dap4Responder responder){
+        FlushPolicy fp = responder.isDataResponder() ? d_dataFlushPolicy : d_metadataFlushPolicy;
+        if(fp!=null)
+            responder.setFlushPolicy(fp);
+        for(Dap4Responder altResponder : responder.getAltRepResponders()){
+            applyFlushPolicy(altResponder);
         }
     }
 
@@ -453,6 +501,9 @@ public class BesDapDispatcher implements DispatchHandler {
     }
 */
 
+        for(Dap4Responder responder : _responders){
+            applyFlushPolicy(responder);
+        }
 
         _log.info("Initialized. " +
                 "Direct Data Source Access: " + (d_allowDirectDataSourceAccess ? "Enabled" : "Disabled") +
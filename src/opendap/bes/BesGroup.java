@@ -36,9 +36,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /**
@@ -47,9 +52,25 @@ import java.util.Vector;
  **/
 public class BesGroup extends CyclicGroup<BES> {
 
+    public static final String SELECTION_ELEMENT_NAME = "BesGroupSelection";
+
     Logger log;
     private String prefix;
 
+    private BesSelectionStrategy selectionStrategy;
+    private double affinityLoadFactor;
+    private BesHedging hedging;
+
+    /**
+     * The number of points each member gets on the consistent hash ring.
+     * More points spread the data sources more evenly among the members.
+     */
+    private static final int RING_POINTS_PER_MEMBER = 160;
+    public static final double DEFAULT_AFFINITY_LOAD_FACTOR = 1.25;
+
+    private volatile long[] ringHashes = new long[0];
+    private volatile BES[] ringMembers = new BES[0];
+
     /**
      *
      * @param prefix
@@ -58,6 +79,78 @@ public class BesGroup extends CyclicGroup<BES> {
     public BesGroup(String prefix) throws BadConfigurationException {
         log = LoggerFactory.getLogger(getClass());
         this.prefix = prefix;
+        selectionStrategy = BesSelectionStrategy.ROUND_ROBIN;
+        affinityLoadFactor = DEFAULT_AFFINITY_LOAD_FACTOR;
+    }
+
+    /**
+     * Configures how members are chosen from the
+     * &lt;BesGroupSelection strategy="powerOfTwo" /&gt;
+     * element. A missing element leaves the group round robin.
+     *
+     * @param selection The BesGroupSelection element, may be null.
+     * @throws BadConfigurationException When the element holds a bad value.
+     */
+    public void configureSelection(Element selection) throws BadConfigurationException {
+        if(selection == null)
+            return;
+        try {
+            setSelectionStrategy(BesSelectionStrategy.fromString(selection.getAttributeValue("strategy")));
+
+            String s = selection.getAttributeValue("loadFactor");
+            if(s != null)
+                setAffinityLoadFactor(Double.parseDouble(s.trim()));
+        }
+        catch (IllegalArgumentException e){
+            throw new BadConfigurationException("The "+SELECTION_ELEMENT_NAME+" element is not valid. msg: " + e.getMessage());
+        }
+        if(selection.getAttribute("ejectAfterFailures") != null || selection.getAttribute("ejectionTime") != null)
+            log.warn("BesGroup '{}': the ejectAfterFailures and ejectionTime attributes of {} are no longer " +
+                    "used, members are passed over while their CircuitBreaker is open.", prefix, SELECTION_ELEMENT_NAME);
+        log.info("BesGroup '{}' selection strategy: {}", prefix, selectionStrategy);
+    }
+
+    /**
+     * Turns on hedging of metadata requests for this group.
+     * @param hedgingConfig The Hedging element. If null hedging stays off.
+     * @throws BadConfigurationException When the element holds a bad value.
+     */
+    public void configureHedging(Element hedgingConfig) throws BadConfigurationException {
+        if(hedgingConfig == null)
+            return;
+        setHedging(new BesHedging(hedgingConfig));
+        log.info("BesGroup '{}' will hedge slow metadata requests.", prefix);
+    }
+
+    public void setHedging(BesHedging hedging){
+        this.hedging = hedging;
+    }
+
+    /**
+     * @return The hedging of metadata requests, null if hedging is off.
+     */
+    public BesHedging getHedging(){
+        return hedging;
+    }
+
+    public void setSelectionStrategy(BesSelectionStrategy strategy){
+        selectionStrategy = strategy;
+    }
+    public BesSelectionStrategy getSelectionStrategy(){
+        return selectionStrategy;
+    }
+
+    /**
+     * @param factor With the affinity strategy, how far above the average load of the group
+     *               a member may go before requests spill over to the next member on the ring.
+     */
+    public void setAffinityLoadFactor(double factor){
+        if(factor < 1.0)
+            throw new IllegalArgumentException("The load factor must be at least 1.0");
+        affinityLoadFactor = factor;
+    }
+    public double getAffinityLoadFactor(){
+        return affinityLoadFactor;
     }
 
 
@@ -73,7 +166,63 @@ public class BesGroup extends CyclicGroup<BES> {
             name = prefix+"-"+size();
             bes.setNickName(name);
         }
-        return super.add(bes.getNickName(),bes);
+        return add(bes.getNickName(),bes);
+    }
+
+    @Override
+    public boolean add(String name, BES bes) {
+        boolean added = super.add(name,bes);
+        rebuildRing();
+        return added;
+    }
+
+    @Override
+    public BES remove(String name) {
+        BES bes = super.remove(name);
+        rebuildRing();
+        return bes;
+    }
+
+    /**
+     * Places each member on the consistent hash ring at points derived from
+     * its name. Since the points only depend on the name, adding or removing
+     * a member only moves the data sources that hash next to its points.
+     */
+    private synchronized void rebuildRing(){
+        List<BES> members = getMembers();
+        TreeMap<Long,BES> ring = new TreeMap<>();
+        for(BES bes : members){
+            for(int i=0; i<RING_POINTS_PER_MEMBER ;i++){
+                ring.put(hash(bes.getNickName() + "#" + i), bes);
+            }
+        }
+        long[] hashes = new long[ring.size()];
+        BES[] owners = new BES[ring.size()];
+        int i = 0;
+        for(Map.Entry<Long,BES> point : ring.entrySet()){
+            hashes[i] = point.getKey();
+            owners[i++] = point.getValue();
+        }
+        ringMembers = owners;
+        ringHashes = hashes;
+    }
+
+    /**
+     * A 64 bit FNV-1a hash of the string, finished with the MurmurHash3
+     * mixer so that similar paths land far apart on the ring.
+     */
+    static long hash(String s){
+        long h = 0xcbf29ce484222325L;
+        for(int i=0; i<s.length() ;i++){
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
     }
 
 
@@ -101,12 +250,25 @@ public class BesGroup extends CyclicGroup<BES> {
      */
     @Override
     public BES getNext(){
+        return getNext(null);
+    }
+
+    /**
+     * Returns the member that will service the current request. The choice
+     * is made once per request and then remembered, so that every
+     * transaction of the request goes to the same BES.
+     *
+     * @param dataSource The data source path of the request, used by the
+     *                   affinity strategy. May be null.
+     * @return The member that services this request.
+     */
+    public BES getNext(String dataSource){
         BES bes;
         String responseCacheKey = this.getClass().getName()+".getNext()";
         Object o  = RequestCache.get(responseCacheKey);
 
         if(o == null){
-            bes = super.getNext();
+            bes = select(dataSource);
             RequestCache.put(responseCacheKey,bes);
         }
         else {
@@ -116,6 +278,144 @@ public class BesGroup extends CyclicGroup<BES> {
     }
 
 
+    /**
+     * Chooses a member according to the selection strategy. Members whose
+     * circuit breaker is not closed are passed over, their probes find out
+     * when they have recovered. If no member is left they are all
+     * considered, since a request that might fail is better than one that
+     * is sure to.
+     *
+     * @param dataSource The data source path of the request, may be null.
+     * @return The chosen member, null if the group is empty.
+     */
+    BES select(String dataSource){
+        List<BES> members = getMembers();
+        int size = members.size();
+        if(size < 2)
+            return size == 0 ? null : members.get(0);
+
+        List<BES> candidates = new ArrayList<>(size);
+        for (BES bes : members) {
+            if (bes.isAvailable())
+                candidates.add(bes);
+        }
+        if (candidates.size() == size || candidates.isEmpty())
+            candidates = members;
+
+        switch (selectionStrategy){
+            case LEAST_OUTSTANDING:
+                return leastLoaded(candidates);
+
+            case POWER_OF_TWO:
+                return powerOfTwo(candidates);
+
+            case AFFINITY:
+                return dataSource == null ? leastLoaded(candidates) : affinity(dataSource, candidates);
+
+            case ROUND_ROBIN:
+            default:
+                if(candidates == members)
+                    return super.getNext();
+                // Keep the cycle moving even as unavailable members are skipped.
+                for(int i=0; i<size ;i++){
+                    BES bes = super.getNext();
+                    if(candidates.contains(bes))
+                        return bes;
+                }
+                return candidates.get(0);
+        }
+    }
+
+    /**
+     * @param exclude A member that is not to be chosen.
+     * @return The least loaded usable member other than exclude, null if there is none.
+     */
+    BES selectAlternate(BES exclude){
+        List<BES> candidates = new ArrayList<>();
+        for(BES bes : getMembers()){
+            if(bes != exclude && bes.isAvailable())
+                candidates.add(bes);
+        }
+        return candidates.isEmpty() ? null : leastLoaded(candidates);
+    }
+
+    private BES leastLoaded(List<BES> candidates){
+        // Start the scan at a random member so that ties don't all go to the first one.
+        int n = candidates.size();
+        int start = ThreadLocalRandom.current().nextInt(n);
+        BES best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for(int i=0; i<n ;i++){
+            BES bes = candidates.get((start + i) % n);
+            double load = bes.getLoad();
+            if(load < bestLoad){
+                best = bes;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Consistent hashing with bounded loads. Walks the ring from the point
+     * that the data source hashes to, and takes the first candidate whose
+     * outstanding transactions are under its share of the group's load
+     * (including this request) times the load factor.
+     */
+    private BES affinity(String dataSource, List<BES> candidates){
+        long[] hashes = ringHashes;
+        BES[] owners = ringMembers;
+        if(hashes.length == 0)
+            return leastLoaded(candidates);
+
+        int totalLoad = 0;
+        for(BES bes : candidates)
+            totalLoad += bes.getOutstandingTransactions();
+        double capacity = Math.ceil(affinityLoadFactor * (totalLoad + 1) / candidates.size());
+
+        int start = Arrays.binarySearch(hashes, hash(dataSource));
+        if(start < 0)
+            start = -start - 1;
+        for(int i=0; i<hashes.length ;i++){
+            BES bes = owners[(start + i) % hashes.length];
+            if(bes.getOutstandingTransactions() < capacity && candidates.contains(bes)) {
+                if(i > 0)
+                    log.debug("affinity() - {} spilled over to {}", dataSource, bes);
+                return bes;
+            }
+        }
+        return leastLoaded(candidates);
+    }
+
+    private BES powerOfTwo(List<BES> candidates){
+        int n = candidates.size();
+        if(n == 1)
+            return candidates.get(0);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(n);
+        int second = random.nextInt(n - 1);
+        if(second >= first)
+            second++;
+        BES a = candidates.get(first);
+        BES b = candidates.get(second);
+        return a.getLoad() <= b.getLoad() ? a : b;
+    }
+
+    /**
+     * @return The pool metrics of each member of the group.
+     */
+    public Element getPoolMetricsElement() {
+        Element besGroupElement = new Element("BesGroup");
+        besGroupElement.setAttribute("prefix", getGroupPrefix());
+        besGroupElement.setAttribute("selection", selectionStrategy.toString());
+        for(BES bes : getMembers()){
+            besGroupElement.addContent(bes.getPoolMetricsElement());
+        }
+        if(hedging != null)
+            besGroupElement.addContent(hedging.getMetricsElement());
+        return besGroupElement;
+    }
+
     /**
      *
      * @return
@@ -0,0 +1,398 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.ByteArrayOutputStreamTransmitCoordinator;
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
+import opendap.ppt.MockBesServer;
+import opendap.ppt.ResponseWriteException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static opendap.namespaces.BES.BES_NS;
+import static org.junit.Assert.*;
+
+public class BesGroupTest {
+
+    private MockBesServer slowServer;
+    private MockBesServer fastServer;
+    private BES slow;
+    private BES fast;
+    private BesGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        slowServer = new MockBesServer();
+        slowServer.setLatency(1000);
+        slowServer.start();
+        fastServer = new MockBesServer();
+        fastServer.start();
+
+        slow = new BES(new BESConfig(BESPoolTest.besElement(slowServer.getPort(), 4)));
+        slow.setNickName("slow");
+        fast = new BES(new BESConfig(BESPoolTest.besElement(fastServer.getPort(), 4)));
+        fast.setNickName("fast");
+
+        group = new BesGroup("/");
+        group.add(slow);
+        group.add(fast);
+    }
+
+    @After
+    public void tearDown() {
+        group.destroy();
+        slowServer.stop();
+        fastServer.stop();
+    }
+
+    private static Document showVersion() {
+        Element request = new Element("request", BES_NS);
+        request.setAttribute("reqID", "BesGroupTest");
+        request.addContent(new Element("showVersion", BES_NS));
+        return new Document(request);
+    }
+
+    @Test
+    public void testLeastOutstandingAvoidsBusyMember() throws Exception {
+        group.setSelectionStrategy(BesSelectionStrategy.LEAST_OUTSTANDING);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> busy = executor.submit(() -> {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                slow.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+                return null;
+            });
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.getOutstandingTransactions() == 0 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(1, slow.getOutstandingTransactions());
+
+            for (int i = 0; i < 20; i++)
+                assertSame(fast, group.select(null));
+
+            busy.get(10, TimeUnit.SECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, slow.getOutstandingTransactions());
+    }
+
+    @Test
+    public void testAffinityIsConsistentAndRebalancesMinimally() throws Exception {
+        BesGroup ring = new BesGroup("/");
+        ring.setSelectionStrategy(BesSelectionStrategy.AFFINITY);
+        for (int i = 0; i < 4; i++) {
+            BES bes = new BES(new BESConfig(BESPoolTest.besElement(10000 + i, 4)));
+            bes.setNickName("bes-" + i);
+            ring.add(bes);
+        }
+
+        int paths = 2000;
+        Map<String, BES> before = new HashMap<>();
+        Map<BES, Integer> counts = new HashMap<>();
+        for (int i = 0; i < paths; i++) {
+            String path = "/data/granule_" + i + ".nc";
+            BES bes = ring.select(path);
+            assertSame(bes, ring.select(path));
+            before.put(path, bes);
+            counts.merge(bes, 1, Integer::sum);
+        }
+        assertEquals(4, counts.size());
+        for (int count : counts.values())
+            assertTrue("Unbalanced ring: " + counts.values(), count > paths / 8);
+
+        // Only the data sources of the removed member move.
+        BES removed = ring.remove("bes-2");
+        for (Map.Entry<String, BES> e : before.entrySet()) {
+            BES now = ring.select(e.getKey());
+            if (e.getValue() != removed)
+                assertSame(e.getValue(), now);
+            else
+                assertNotSame(removed, now);
+        }
+    }
+
+    @Test
+    public void testAffinitySpillsOverFromBusyMember() throws Exception {
+        group.setSelectionStrategy(BesSelectionStrategy.AFFINITY);
+
+        String path = null;
+        for (int i = 0; path == null; i++) {
+            if (group.select("/data/file_" + i + ".nc") == slow)
+                path = "/data/file_" + i + ".nc";
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> {
+                    ByteArrayOutputStream os = new ByteArrayOutputStream();
+                    slow.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+                    return null;
+                });
+            }
+            long deadline = System.currentTimeMillis() + 5000;
+            while (slow.getOutstandingTransactions() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(5);
+            assertEquals(2, slow.getOutstandingTransactions());
+
+            assertSame(fast, group.select(path));
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertSame(slow, group.select(path));
+    }
+
+    private static Document showNode(String node) {
+        Element request = new Element("request", BES_NS);
+        request.setAttribute("reqID", "BesGroupTest");
+        Element showNode = new Element("showNode", BES_NS);
+        showNode.setAttribute("node", node);
+        request.addContent(showNode);
+        return new Document(request);
+    }
+
+    @Test
+    public void testOnlyMetadataRequestsAreHedgeable() {
+        assertTrue(BesHedging.isHedgeable(showNode("/data/")));
+        assertFalse(BesHedging.isHedgeable(showVersion()));
+
+        Element get = new Element("get", BES_NS);
+        get.setAttribute("type", "dmr");
+        Document dmr = showVersion();
+        dmr.getRootElement().setContent(get);
+        assertTrue(BesHedging.isHedgeable(dmr));
+        get.setAttribute("type", "dap");
+        assertFalse(BesHedging.isHedgeable(dmr));
+    }
+
+    @Test
+    public void testSlowMetadataRequestIsHedged() throws Exception {
+        BesHedging hedging = new BesHedging();
+        hedging.setMinSamples(1);
+        hedging.setPercentile(50);
+        hedging.setBudget(100);
+        group.setHedging(hedging);
+
+        // Too few samples to hedge the first one.
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        hedging.besTransaction(group, fast, showNode("/data/"), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+        assertEquals(0, hedging.getHedgedCount());
+        assertTrue(hedging.getHedgeDelay() >= 0);
+
+        os = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        RequestCache.open(new RequestId("hedged"));
+        try {
+            hedging.besTransaction(group, slow, showNode("/data/"), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+        }
+        finally {
+            RequestCache.close();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertTrue("The hedge should have beaten the slow BES. elapsed: " + elapsed, elapsed < 900);
+        assertEquals(1, hedging.getHedgedCount());
+        assertEquals(1, hedging.getHedgeWinCount());
+        assertTrue(os.toString().contains("showNode"));
+        // The slow BES was cut off, which is not held against it.
+        assertEquals(0, slow.getPoolMetrics().getFailedTransactions());
+        assertNotNull(group.getPoolMetricsElement().getChild("hedging"));
+    }
+
+    @Test
+    public void testLargeHedgedResponseIsStreamed() throws Exception {
+        BesHedging hedging = new BesHedging();
+        hedging.setMinSamples(1);
+        hedging.setPercentile(50);
+        hedging.setBudget(100);
+        hedging.setMaxResponseSize(16);
+        group.setHedging(hedging);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        hedging.besTransaction(group, fast, showNode("/data/"), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+        String expected = os.toString();
+
+        os = new ByteArrayOutputStream();
+        long start = System.currentTimeMillis();
+        hedging.besTransaction(group, slow, showNode("/data/"), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+        long elapsed = System.currentTimeMillis() - start;
+
+        // The hedge outgrew maxResponseSize first and was streamed.
+        assertTrue("The hedge should have beaten the slow BES. elapsed: " + elapsed, elapsed < 900);
+        assertEquals(1, hedging.getHedgeWinCount());
+        // All of it, once. (The timestamps differ from one BES to the other.)
+        assertEquals(expected.length(), os.toString().length());
+        assertTrue(os.toString().contains("showNode"));
+    }
+
+    @Test
+    public void testClientWriteFailureIsNotHeldAgainstTheBes() throws Exception {
+        Element config = BESPoolTest.besElement(fastServer.getPort(), 4);
+        Element breakerConfig = new Element(BESConfig.CIRCUIT_BREAKER_ELEMENT_OLFS);
+        breakerConfig.setAttribute("failures", "1");
+        config.addContent(breakerConfig);
+        BES bes = new BES(new BESConfig(config));
+        OutputStream gone = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        };
+        try {
+            bes.besTransaction(showVersion(), gone, new ByteArrayOutputStreamTransmitCoordinator(new ByteArrayOutputStream()));
+            fail("Expected the write to the client to fail.");
+        }
+        catch (ResponseWriteException e) {
+            // Expected
+        }
+        finally {
+            bes.destroy();
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, bes.getCircuitBreaker().getState());
+        assertEquals(1, bes.getPoolMetrics().getTransactions());
+        assertEquals(0, bes.getPoolMetrics().getFailedTransactions());
+    }
+
+    @Test
+    public void testStaleConnectionsDoNotOpenTheBreaker() throws Exception {
+        MockBesServer restarting = new MockBesServer();
+        restarting.start();
+        int port = restarting.getPort();
+
+        Element config = BESPoolTest.besElement(port, 4);
+        Element breakerConfig = new Element(BESConfig.CIRCUIT_BREAKER_ELEMENT_OLFS);
+        breakerConfig.setAttribute("failures", "1");
+        config.addContent(breakerConfig);
+        BES bes = new BES(new BESConfig(config));
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            bes.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+
+            // The pooled connection doesn't survive the restart.
+            restarting.stop();
+            restarting.setPort(port);
+            restarting.start();
+
+            os.reset();
+            bes.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+            assertTrue(os.size() > 0);
+            assertEquals(CircuitBreaker.State.CLOSED, bes.getCircuitBreaker().getState());
+            assertEquals(0, bes.getCircuitBreaker().getConsecutiveFailures());
+        }
+        finally {
+            bes.destroy();
+            restarting.stop();
+        }
+    }
+
+    @Test
+    public void testOpenCircuitFailsFastAndRecovers() throws Exception {
+        MockBesServer flakyServer = new MockBesServer();
+        flakyServer.start();
+        int port = flakyServer.getPort();
+        flakyServer.stop();
+
+        Element config = BESPoolTest.besElement(port, 4);
+        Element breakerConfig = new Element(BESConfig.CIRCUIT_BREAKER_ELEMENT_OLFS);
+        breakerConfig.setAttribute("failures", "1");
+        breakerConfig.setAttribute("openTime", "1");
+        breakerConfig.setAttribute("probes", "1");
+        config.addContent(breakerConfig);
+        BES flaky = new BES(new BESConfig(config));
+        flaky.setNickName("flaky");
+
+        BesGroup pair = new BesGroup("/");
+        pair.add(flaky);
+        pair.add(fast);
+        try {
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            try {
+                flaky.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+                fail("Expected the transaction with a BES that is down to fail.");
+            }
+            catch (CircuitOpenException e) {
+                fail("The first failures should be reported as they are.");
+            }
+            catch (opendap.ppt.PPTException e) {
+                // Expected
+            }
+            assertEquals(CircuitBreaker.State.OPEN, flaky.getCircuitBreaker().getState());
+            assertFalse(flaky.isAvailable());
+
+            // While the breaker is open the BES is not tried at all.
+            long start = System.nanoTime();
+            try {
+                flaky.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+                fail("Expected a CircuitOpenException.");
+            }
+            catch (CircuitOpenException e) {
+                assertEquals(503, e.getHttpStatusCode());
+                assertTrue(e.getRetryAfter() >= 1);
+            }
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+
+            for (int i = 0; i < 20; i++)
+                assertSame(fast, pair.select(null));
+            assertSame(fast, pair.selectAlternate(null));
+
+            // Once the BES is back a probe closes the breaker.
+            flakyServer.setPort(port);
+            flakyServer.start();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!flaky.isAvailable() && System.currentTimeMillis() < deadline)
+                Thread.sleep(50);
+            assertTrue(flaky.isAvailable());
+
+            os.reset();
+            flaky.besTransaction(showVersion(), os, new ByteArrayOutputStreamTransmitCoordinator(os));
+            assertTrue(os.size() > 0);
+        }
+        finally {
+            flaky.destroy();
+            flakyServer.stop();
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static opendap.namespaces.BES.BES_NS;
+
+/**
+ * Hedged requests for the idempotent metadata transactions of a BesGroup.
+ *
+ * The metadata responses (showNode, and the DMR, DDS, DAS and DDX) are the
+ * same no matter which member of the group produces them, so when the BES
+ * takes longer to start answering one than the configured percentile of the
+ * recent ones, a second copy of the request is sent to another member. The
+ * number of hedges is held to a budget expressed as a percentage of the
+ * eligible transactions.
+ *
+ * The primary transaction runs on the calling thread, and a response that
+ * starts before the hedge is sent is streamed to the client as usual. Only
+ * the hedge gets a thread of its own. Once a hedge has been sent both
+ * copies are collected in memory, and the first to complete is sent on.
+ * The other is aborted: its connection is closed, which ends it right away
+ * and is not counted against its BES. A copy that grows beyond
+ * maxResponseSize wins the race there and then and is streamed, so a large
+ * response is never held in memory. Data responses are never hedged.
+ *
+ * &lt;Hedging percentile="95" budget="5" minDelay="10" minSamples="100" maxResponseSize="1048576" /&gt;
+ */
+public class BesHedging {
+
+    public static final String HEDGING_ELEMENT_NAME = "Hedging";
+
+    private static final int DEFAULT_MAX_RESPONSE_SIZE = 1048576;
+
+    // The most hedges that may be in the air at once. Beyond that metadata
+    // requests are not hedged.
+    private static final int MAX_THREADS = 256;
+
+    private static final Set<String> METADATA_GET_TYPES = new HashSet<>(Arrays.asList("dmr", "dds", "das", "ddx"));
+    private static final Set<String> METADATA_COMMANDS = new HashSet<>(Arrays.asList("showNode", "showInfo"));
+
+    private static final ThreadPoolExecutor HEDGE_EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS,
+            60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "BES-hedge");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Sends the hedges when their delay runs out.
+    private static final ScheduledThreadPoolExecutor HEDGE_TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "BES-hedge-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        HEDGE_TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final Logger log;
+
+    private double percentile;
+    private double budget;
+    private long minDelay;    // ms
+    private long minSamples;
+    private int maxResponseSize;
+
+    private final LatencyHistogram latency;
+    private final AtomicLong eligible;
+    private final AtomicLong hedged;
+    private final AtomicLong hedgeWins;
+
+    public BesHedging() {
+        log = LoggerFactory.getLogger(getClass());
+        percentile = 0.95;
+        budget = 0.05;
+        minDelay = 10;
+        minSamples = 100;
+        maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+        latency = new LatencyHistogram();
+        eligible = new AtomicLong();
+        hedged = new AtomicLong();
+        hedgeWins = new AtomicLong();
+    }
+
+    /**
+     * @param config The Hedging element.
+     * @throws BadConfigurationException When an attribute value is not valid.
+     */
+    public BesHedging(Element config) throws BadConfigurationException {
+        this();
+        try {
+            String s = config.getAttributeValue("percentile");
+            if (s != null)
+                setPercentile(Double.parseDouble(s.trim()));
+
+            s = config.getAttributeValue("budget");
+            if (s != null)
+                setBudget(Double.parseDouble(s.trim()));
+
+            s = config.getAttributeValue("minDelay");
+            if (s != null)
+                setMinDelay(Long.parseLong(s.trim()));
+
+            s = config.getAttributeValue("minSamples");
+            if (s != null)
+                setMinSamples(Long.parseLong(s.trim()));
+
+            s = config.getAttributeValue("maxResponseSize");
+            if (s != null)
+                setMaxResponseSize(Integer.parseInt(s.trim()));
+        }
+        catch (IllegalArgumentException e) {
+            throw new BadConfigurationException("The " + HEDGING_ELEMENT_NAME + " element is not valid. msg: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param p The percentile (0 to 100) of recent BES times to first byte after which a hedge is sent.
+     */
+    public void setPercentile(double p) {
+        if (p <= 0 || p >= 100)
+            throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+        percentile = p / 100.0;
+    }
+
+    /**
+     * @param percent The most hedges that may be sent, as a percentage of the eligible transactions.
+     */
+    public void setBudget(double percent) {
+        if (percent < 0 || percent > 100)
+            throw new IllegalArgumentException("The budget must be between 0 and 100 percent.");
+        budget = percent / 100.0;
+    }
+
+    /**
+     * @param ms The shortest time to wait for the first response before hedging.
+     */
+    public void setMinDelay(long ms) {
+        if (ms < 0)
+            throw new IllegalArgumentException("The minimum delay may not be negative.");
+        minDelay = ms;
+    }
+
+    /**
+     * @param samples The number of metadata transactions that must be timed before hedging starts.
+     */
+    public void setMinSamples(long samples) {
+        if (samples < 1)
+            throw new IllegalArgumentException("The minimum number of samples must be at least 1.");
+        minSamples = samples;
+    }
+
+    /**
+     * @param bytes The most of a hedged response, in bytes, that will be held in memory.
+     */
+    public void setMaxResponseSize(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The maxResponseSize must be greater than zero.");
+        maxResponseSize = bytes;
+    }
+
+    public int getMaxResponseSize() { return maxResponseSize; }
+    public long getEligibleCount() { return eligible.get(); }
+    public long getHedgedCount() { return hedged.get(); }
+    public long getHedgeWinCount() { return hedgeWins.get(); }
+
+    /**
+     * @return How long to wait, in ms, for the BES to start a metadata response before
+     * hedging, or -1 if not enough transactions have been timed to know.
+     */
+    public long getHedgeDelay() {
+        if (latency.getCount() < minSamples)
+            return -1;
+        return Math.max(minDelay, latency.getQuantileMillis(percentile));
+    }
+
+    /**
+     * @param request A BES request document.
+     * @return True if the request only asks for metadata and may be sent to more than one BES.
+     */
+    public static boolean isHedgeable(Document request) {
+        Element root = request.getRootElement();
+        if (root == null)
+            return false;
+
+        boolean metadata = false;
+        for (Object o : root.getChildren()) {
+            Element command = (Element) o;
+            if (!BES_NS.equals(command.getNamespace()))
+                continue;
+            if (METADATA_COMMANDS.contains(command.getName())) {
+                metadata = true;
+            }
+            else if (command.getName().equals("get")) {
+                if (!METADATA_GET_TYPES.contains(command.getAttributeValue("type")))
+                    return false;
+                metadata = true;
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Takes one hedge from the budget.
+     * @return True if a hedge may be sent.
+     */
+    private boolean tryAcquireHedge() {
+        long h;
+        do {
+            h = hedged.get();
+            if (h + 1 > budget * eligible.get())
+                return false;
+        } while (!hedged.compareAndSet(h, h + 1));
+        return true;
+    }
+
+    /**
+     * Runs a metadata transaction against the primary member of the group,
+     * hedging it to another member if it is slow.
+     *
+     * @param group The group of the primary BES.
+     * @param primary The BES chosen to service the request.
+     * @param request The request document. It must be hedgeable.
+     * @param os Where the winning response is written.
+     * @param tc The TransmitCoordinator of os.
+     */
+    public void besTransaction(BesGroup group, BES primary, Document request, OutputStream os, TransmitCoordinator tc)
+            throws IOException, PPTException, BESError {
+
+        eligible.incrementAndGet();
+        long delay = getHedgeDelay();
+
+        if (delay < 0 || tc.isCommitted() || group.size() < 2) {
+            // Nothing to hedge against yet, so the response is streamed as usual.
+            stream(primary, request, os, tc);
+            return;
+        }
+
+        Race race = new Race(os, tc);
+        Attempt first = race.primary(primary, request);
+
+        // The hedge runs outside of the request, but the BES transaction
+        // wants a request id for the logs.
+        RequestId requestId = new RequestId(RequestCache.getRequestId().id() + "-hedge");
+        Document hedgeRequest = (Document) request.clone();
+        ScheduledFuture<?> timer = HEDGE_TIMER.schedule(
+                () -> race.hedge(group, primary, hedgeRequest, requestId), delay, TimeUnit.MILLISECONDS);
+
+        // The primary runs right here. It ends early if the hedge wins.
+        try {
+            first.run();
+        }
+        finally {
+            timer.cancel(false);
+        }
+
+        Attempt winner = race.awaitWinner();
+        if (winner.isHedge)
+            hedgeWins.incrementAndGet();
+        winner.finish();
+    }
+
+    /**
+     * Runs the transaction in the calling thread, straight to os.
+     */
+    private void stream(BES bes, Document request, OutputStream os, TransmitCoordinator tc)
+            throws IOException, PPTException, BESError {
+        bes.besTransaction(request, os, tc);
+        latency.record(bes.getLastTimeToFirstByte());
+    }
+
+    /**
+     * The copies of one request and the client stream they are racing to.
+     * The first copy to claim the stream is the only one that writes to it,
+     * and the other one is aborted.
+     */
+    private final class Race {
+        private final OutputStream os;
+        private final TransmitCoordinator tc;
+        private Attempt primary;
+        private Attempt hedge;
+        private Attempt owner;
+
+        Race(OutputStream os, TransmitCoordinator tc) {
+            this.os = os;
+            this.tc = tc;
+        }
+
+        Attempt primary(BES bes, Document request) {
+            primary = new Attempt(this, bes, request, false);
+            return primary;
+        }
+
+        /**
+         * Sends the hedge, unless the primary has already started (or
+         * ended) its response or the budget, the group or the threads
+         * won't allow it.
+         */
+        synchronized void hedge(BesGroup group, BES primaryBes, Document request, RequestId requestId) {
+            if (owner != null || primary.done || !tryAcquireHedge())
+                return;
+            BES alternate = group.selectAlternate(primaryBes);
+            if (alternate == null) {
+                hedged.decrementAndGet();
+                return;
+            }
+            Attempt attempt = new Attempt(this, alternate, request, true);
+            try {
+                HEDGE_EXECUTOR.execute(() -> {
+                    RequestCache.open(requestId);
+                    try {
+                        attempt.run();
+                    }
+                    finally {
+                        RequestCache.close();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                log.debug("All {} hedging threads are busy, the request will not be hedged.", MAX_THREADS);
+                hedged.decrementAndGet();
+                return;
+            }
+            log.debug("Hedged a metadata request to {}", alternate);
+            hedge = attempt;
+        }
+
+        /**
+         * Called once the primary has ended.
+         * @return The attempt that claimed the stream, or the primary if neither did.
+         */
+        synchronized Attempt awaitWinner() throws PPTException {
+            try {
+                // If the primary didn't claim the stream the hedge may still.
+                while (owner == null && hedge != null && !hedge.done)
+                    wait();
+                if (owner == null)
+                    return primary;
+                while (!owner.done)
+                    wait();
+                return owner;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (hedge != null)
+                    hedge.abort.abort();
+                throw new PPTException(e);
+            }
+        }
+
+        private void claim(Attempt a) throws IOException {
+            owner = a;
+            Attempt loser = a == primary ? hedge : primary;
+            if (loser != null && !loser.done)
+                loser.abort.abort();
+            a.buffer.writeTo(os);
+            a.buffer = null;
+        }
+
+        synchronized void write(Attempt a, byte[] b, int off, int len) throws IOException {
+            if (owner == null) {
+                if (hedge == null) {
+                    // The BES started answering in time, no hedge will be sent.
+                    claim(a);
+                }
+                else if (a.buffer.size() + len > maxResponseSize) {
+                    log.debug("The response is larger than {} bytes and will not be hedged.", maxResponseSize);
+                    claim(a);
+                }
+            }
+            if (owner == a)
+                os.write(b, off, len);
+            else if (owner == null)
+                a.buffer.write(b, off, len);
+            // Otherwise a lost the race and its response is dropped.
+        }
+
+        synchronized void flush(Attempt a) throws IOException {
+            if (owner == a)
+                os.flush();
+        }
+
+        synchronized void completed(Attempt a) {
+            a.done = true;
+            if (owner == null && a.isComplete()) {
+                try {
+                    claim(a);
+                }
+                catch (IOException e) {
+                    a.error = e;
+                }
+            }
+            notifyAll();
+        }
+
+        synchronized boolean isCommitted(Attempt a) {
+            return owner == a && tc.isCommitted();
+        }
+
+        synchronized void reset(Attempt a) {
+            if (owner == a)
+                tc.reset();
+            else if (owner == null)
+                a.buffer.reset();
+        }
+    }
+
+    /**
+     * One copy of the request.
+     */
+    private final class Attempt {
+        private final Race race;
+        private final BES bes;
+        private final Document request;
+        private final boolean isHedge;
+        private final BES.Abort abort;
+        private ByteArrayOutputStream buffer;
+        private volatile Exception error;
+        private boolean done;     // Guarded by race.
+
+        Attempt(Race race, BES bes, Document request, boolean isHedge) {
+            this.race = race;
+            this.bes = bes;
+            this.request = request;
+            this.isHedge = isHedge;
+            abort = new BES.Abort();
+            buffer = new ByteArrayOutputStream();
+        }
+
+        void run() {
+            OutputStream os = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    race.write(Attempt.this, b, off, len);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    race.flush(Attempt.this);
+                }
+            };
+            TransmitCoordinator tc = new TransmitCoordinator() {
+                @Override
+                public boolean isCommitted() {
+                    return race.isCommitted(Attempt.this);
+                }
+
+                @Override
+                public void reset() throws IllegalStateException {
+                    race.reset(Attempt.this);
+                }
+
+                @Override
+                public FlushPolicy getFlushPolicy() {
+                    return race.tc.getFlushPolicy();
+                }
+            };
+            try {
+                bes.besTransaction(request, os, tc, abort);
+                latency.record(bes.getLastTimeToFirstByte());
+            }
+            catch (Exception e) {
+                error = e;
+            }
+            race.completed(this);
+        }
+
+        /**
+         * A BESError is a complete answer, it is what any member would say.
+         */
+        boolean isComplete() {
+            return error == null || error instanceof BESError;
+        }
+
+        /**
+         * Throws whatever ended the attempt, if anything did.
+         */
+        void finish() throws IOException, PPTException, BESError {
+            if (error instanceof BESError)
+                throw (BESError) error;
+            if (error instanceof PPTException)
+                throw (PPTException) error;
+            if (error instanceof IOException)
+                throw (IOException) error;
+            if (error != null)
+                throw new PPTException(error);
+        }
+    }
+
+    /**
+     * @return The state of the hedging, for the pool metrics.
+     */
+    Element getMetricsElement() {
+        Element e = new Element("hedging");
+        e.setAttribute("eligible", Long.toString(getEligibleCount()));
+        e.setAttribute("hedged", Long.toString(getHedgedCount()));
+        e.setAttribute("hedgeWins", Long.toString(getHedgeWinCount()));
+        e.setAttribute("delayMs", Long.toString(getHedgeDelay()));
+        e.setAttribute("threads", Integer.toString(HEDGE_EXECUTOR.getActiveCount()));
+        return e;
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * An in-memory cache of DAP metadata (DMR, DDX, DDS and DAS) responses.
+ *
+ * The BES rebuilds these responses on every request, even though they only
+ * change when the dataset does. Responses are keyed on the BES request
+ * document, less the per-request id attributes and the OLFS log context
+ * (see BesRequestCoalescer.getKey()), so the responder type, data source,
+ * constraint expression, xml:base, xdap_accept and the user's identity all
+ * count. Each entry records the lastModified time of its data source, taken
+ * from the BesNodeCache, and it is only used while the data source still has
+ * that lastModified time. Data sources without one are not cached.
+ *
+ * The cache is limited by the total number of bytes held, and the least
+ * recently used responses are dropped first. Responses larger than
+ * maxEntrySize are not cached. When compress is true the responses are
+ * held deflated, which trades CPU on every hit for memory.
+ *
+ * &lt;MetadataCache maxBytes="67108864" maxEntrySize="1048576" compress="false" /&gt;
+ */
+public class BesMetadataCache {
+
+    public static final String METADATA_CACHE_ELEMENT_NAME = "MetadataCache";
+
+    private static final long DEFAULT_MAX_BYTES = 67108864;
+    private static final int DEFAULT_MAX_ENTRY_SIZE = 1048576;
+
+    // The approximate cost, in bytes, of an entry beyond its key and response.
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final Logger log;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private long maxBytes;
+    private int maxEntrySize;
+    private boolean compress;
+    private long bytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public BesMetadataCache() {
+        log = LoggerFactory.getLogger(getClass());
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        maxBytes = DEFAULT_MAX_BYTES;
+        maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+        compress = false;
+        bytes = 0;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+    }
+
+    /**
+     * @param config The MetadataCache element.
+     * @throws BadConfigurationException When an attribute value is not valid.
+     */
+    public BesMetadataCache(Element config) throws BadConfigurationException {
+        this();
+        String s = config.getAttributeValue("maxBytes");
+        if (s != null) {
+            try {
+                setMaxBytes(Long.parseLong(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + METADATA_CACHE_ELEMENT_NAME + " element is not valid. " +
+                        "maxBytes must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("maxEntrySize");
+        if (s != null) {
+            try {
+                setMaxEntrySize(Integer.parseInt(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + METADATA_CACHE_ELEMENT_NAME + " element is not valid. " +
+                        "maxEntrySize must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("compress");
+        if (s != null)
+            compress = Boolean.parseBoolean(s.trim());
+
+        log.info("Caching metadata responses. maxBytes: {} maxEntrySize: {} compress: {}",
+                maxBytes, maxEntrySize, compress);
+    }
+
+    /**
+     * @param maxBytes The most bytes the cache may hold.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The maxBytes must be greater than zero.");
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param bytes The largest response, in bytes, that will be cached.
+     */
+    public void setMaxEntrySize(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The maxEntrySize must be greater than zero.");
+        maxEntrySize = bytes;
+    }
+
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * @param compress When true responses are held deflated.
+     */
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of bytes the cache holds at present.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cached response for request to os, or when there is none,
+     * runs the transaction and caches its response.
+     *
+     * @param besApi The BesApi that runs the transaction on a miss.
+     * @param dataSource The data source of the request.
+     * @param request The BES request document.
+     * @param os The stream to which the response is written.
+     * @param tc The TransmitCoordinator of os.
+     */
+    public void besTransaction(BesApi besApi, String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        long lastModified = besApi.getLastModified(dataSource);
+        if (lastModified < 0) {
+            besApi.uncachedMetadataTransaction(dataSource, request, os, tc);
+            return;
+        }
+
+        String key = besApi.getClass().getName() + '\n' + BesRequestCoalescer.getKey(request);
+        Entry entry = get(key);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            log.debug("Sending the cached response ({} bytes) for data source {}", entry.size, dataSource);
+            entry.writeTo(os);
+            os.flush();
+            return;
+        }
+        misses.incrementAndGet();
+
+        CapturingOutputStream capture = new CapturingOutputStream(os);
+        besApi.uncachedMetadataTransaction(dataSource, request, capture, capture.getTransmitCoordinator(tc));
+
+        byte[] response = capture.getCaptured();
+        if (response != null)
+            put(key, new Entry(lastModified, response, compress));
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        long weight = weight(key, entry);
+        if (weight > maxBytes)
+            return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            bytes -= weight(key, previous);
+        bytes += weight;
+        evict();
+    }
+
+    /**
+     * Drops the least recently used entries until the cache holds no more
+     * than maxBytes.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            Map.Entry<String, Entry> eldest = i.next();
+            bytes -= weight(eldest.getKey(), eldest.getValue());
+            i.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long weight(String key, Entry entry) {
+        return 2L * key.length() + entry.data.length + ENTRY_OVERHEAD;
+    }
+
+    Element getMetricsElement() {
+        Element e = new Element("metadataCache");
+        e.setAttribute("hits", Long.toString(getHitCount()));
+        e.setAttribute("misses", Long.toString(getMissCount()));
+        e.setAttribute("evictions", Long.toString(evictions.get()));
+        synchronized (this) {
+            e.setAttribute("entries", Integer.toString(entries.size()));
+            e.setAttribute("bytes", Long.toString(bytes));
+            e.setAttribute("maxBytes", Long.toString(maxBytes));
+        }
+        return e;
+    }
+
+    /**
+     * A cached response, and the lastModified time of its data source when
+     * it was made.
+     */
+    private static class Entry {
+        private final long lastModified;
+        private final int size;
+        private final boolean compressed;
+        private final byte[] data;
+
+        Entry(long lastModified, byte[] response, boolean compress) throws IOException {
+            this.lastModified = lastModified;
+            size = response.length;
+            compressed = compress;
+            if (compress) {
+                Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                ByteArrayOutputStream deflated = new ByteArrayOutputStream(response.length / 4 + 16);
+                try (DeflaterOutputStream dos = new DeflaterOutputStream(deflated, deflater)) {
+                    dos.write(response);
+                }
+                finally {
+                    deflater.end();
+                }
+                data = deflated.toByteArray();
+            }
+            else {
+                data = response;
+            }
+        }
+
+        void writeTo(OutputStream os) throws IOException {
+            if (!compressed) {
+                os.write(data);
+                return;
+            }
+            Inflater inflater = new Inflater();
+            try {
+                // Not closed, that would close os.
+                InflaterOutputStream ios = new InflaterOutputStream(os, inflater);
+                ios.write(data);
+                ios.finish();
+            }
+            finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * Writes the response through to the client's stream while keeping a
+     * copy of it, unless it grows beyond maxEntrySize.
+     */
+    private class CapturingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private ByteArrayOutputStream copy;
+
+        CapturingOutputStream(OutputStream out) {
+            this.out = out;
+            copy = new ByteArrayOutputStream();
+        }
+
+        /**
+         * @return The response, null if it was too big to keep.
+         */
+        byte[] getCaptured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                if (copy.size() + len > maxEntrySize) {
+                    log.debug("The response is larger than {} bytes and will not be cached.", maxEntrySize);
+                    copy = null;
+                }
+                else {
+                    copy.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * @param tc The TransmitCoordinator of the client's stream.
+         * @return A TransmitCoordinator for this stream.
+         */
+        TransmitCoordinator getTransmitCoordinator(TransmitCoordinator tc) {
+            return new TransmitCoordinator() {
+                @Override
+                public boolean isCommitted() {
+                    return tc.isCommitted();
+                }
+
+                @Override
+                public void reset() throws IllegalStateException {
+                    tc.reset();
+                    if (copy != null)
+                        copy.reset();
+                }
+
+                @Override
+                public FlushPolicy getFlushPolicy() {
+                    return tc.getFlushPolicy();
+                }
+            };
+        }
+    }
+}
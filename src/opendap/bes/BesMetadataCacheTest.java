@@ -0,0 +1,147 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.bes.caching.BesNodeCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class BesMetadataCacheTest {
+
+    @Before
+    public void setUp() {
+        BesNodeCache.init(100, 1);
+    }
+
+    @After
+    public void tearDown() {
+        BesNodeCache.destroy();
+    }
+
+    private static String get(BesMetadataCache cache, MockBesApi api, String reqId, String dataSource, String ce)
+            throws Exception {
+        byte[] response = api.get(cache::besTransaction, dataSource, MockBesApi.dmrRequest(reqId, dataSource, ce));
+        return new String(response, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testRepeatedRequestIsAHit() throws Exception {
+        BesMetadataCache cache = new BesMetadataCache();
+        MockBesApi api = new MockBesApi();
+
+        assertEquals("<Dataset name=\"test.nc\"/>", get(cache, api, "req-1", "/test.nc", null));
+        assertEquals("<Dataset name=\"test.nc\"/>", get(cache, api, "req-2", "/test.nc", null));
+        assertEquals(1, api.transactions.get());
+        assertEquals(1, cache.getHitCount());
+
+        // A different constraint is a different response.
+        get(cache, api, "req-3", "/test.nc", "x");
+        assertEquals(2, api.transactions.get());
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testChangedDatasetIsAMiss() throws Exception {
+        BesMetadataCache cache = new BesMetadataCache();
+        MockBesApi api = new MockBesApi();
+
+        get(cache, api, "req-1", "/test.nc", null);
+        api.lastModified = "2026-02-03T04:05:06";
+        api.response = "<Dataset name=\"changed.nc\"/>".getBytes(StandardCharsets.UTF_8);
+        assertEquals("<Dataset name=\"changed.nc\"/>", get(cache, api, "req-2", "/test.nc", null));
+        assertEquals("<Dataset name=\"changed.nc\"/>", get(cache, api, "req-3", "/test.nc", null));
+        assertEquals(2, api.transactions.get());
+        assertEquals(1, cache.size());
+
+        // Without a lastModified time nothing can be validated.
+        api.lastModified = null;
+        get(cache, api, "req-4", "/test.nc", null);
+        get(cache, api, "req-5", "/test.nc", null);
+        assertEquals(4, api.transactions.get());
+    }
+
+    @Test
+    public void testNotUsedWithoutNodeCache() throws Exception {
+        BesNodeCache.destroy();
+        BesMetadataCache cache = new BesMetadataCache();
+        MockBesApi api = new MockBesApi();
+
+        assertEquals(-1, api.getLastModified("/test.nc"));
+        get(cache, api, "req-1", "/test.nc", null);
+        get(cache, api, "req-2", "/test.nc", null);
+        assertEquals(2, api.transactions.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictionIsByBytes() throws Exception {
+        BesMetadataCache cache = new BesMetadataCache();
+        MockBesApi api = new MockBesApi();
+        api.response = new byte[10000];
+        cache.setMaxBytes(45000);
+
+        for (int i = 0; i < 4; i++)
+            get(cache, api, "req", "/test" + i + ".nc", null);
+        assertEquals(4, cache.size());
+        get(cache, api, "req", "/test0.nc", null);
+        assertEquals(4, api.transactions.get());
+
+        get(cache, api, "req", "/test4.nc", null);
+        assertTrue(cache.getBytes() <= 45000);
+        assertEquals(4, cache.size());
+        get(cache, api, "req", "/test0.nc", null);
+        assertEquals("The recently used entry was evicted.", 5, api.transactions.get());
+        get(cache, api, "req", "/test1.nc", null);
+        assertEquals("The least recently used entry was kept.", 6, api.transactions.get());
+    }
+
+    @Test
+    public void testCompressedAndOversizedResponses() throws Exception {
+        BesMetadataCache cache = new BesMetadataCache();
+        MockBesApi api = new MockBesApi();
+        StringBuilder dmr = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+            dmr.append("<Float32 name=\"var").append(i).append("\"/>");
+        api.response = dmr.toString().getBytes(StandardCharsets.UTF_8);
+        cache.setCompress(true);
+
+        get(cache, api, "req-1", "/test.nc", null);
+        assertEquals(dmr.toString(), get(cache, api, "req-2", "/test.nc", null));
+        assertEquals(1, api.transactions.get());
+        assertTrue(cache.getBytes() < api.response.length);
+
+        cache.setMaxEntrySize(1000);
+        get(cache, api, "req-3", "/big.nc", null);
+        assertEquals(dmr.toString(), get(cache, api, "req-4", "/big.nc", null));
+        assertEquals(3, api.transactions.get());
+    }
+}
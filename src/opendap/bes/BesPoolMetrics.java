@@ -0,0 +1,98 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import org.jdom.Element;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timings for the client pool of a single BES, and for the
+ * transactions run through it. Everything is recorded with lock free
+ * adders so it stays on all of the time.
+ */
+public class BesPoolMetrics {
+
+    private final LongAdder connectionsCreated = new LongAdder();
+    private final LongAdder connectionsDiscarded = new LongAdder();
+    private final LongAdder connectionsFailed = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder failedTransactions = new LongAdder();
+
+    private final LatencyHistogram checkoutWait = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LatencyHistogram transferTime = new LatencyHistogram();
+
+    void connectionCreated() { connectionsCreated.increment(); }
+    void connectionDiscarded() { connectionsDiscarded.increment(); }
+    void connectionFailed() { connectionsFailed.increment(); }
+    void checkoutWaited(long nanos) { checkoutWait.record(nanos); }
+
+    /**
+     * @param firstByteNanos Time from sending the request to the first byte of the response, -1 if there was none.
+     * @param totalNanos Time from sending the request to the end of the response.
+     * @param failed True if the transaction ended in a PPT failure or a fatal BES error.
+     */
+    void transactionCompleted(long firstByteNanos, long totalNanos, boolean failed) {
+        transactions.increment();
+        if (failed)
+            failedTransactions.increment();
+        timeToFirstByte.record(firstByteNanos);
+        transferTime.record(totalNanos);
+    }
+
+    public long getConnectionsCreated() { return connectionsCreated.sum(); }
+    public long getConnectionsDiscarded() { return connectionsDiscarded.sum(); }
+    public long getConnectionsFailed() { return connectionsFailed.sum(); }
+    public long getTransactions() { return transactions.sum(); }
+    public long getFailedTransactions() { return failedTransactions.sum(); }
+
+    public LatencyHistogram getCheckoutWait() { return checkoutWait; }
+    public LatencyHistogram getTimeToFirstByte() { return timeToFirstByte; }
+    public LatencyHistogram getTransferTime() { return transferTime; }
+
+    /**
+     * Adds the counters and histograms to the passed element.
+     * @param e The element to add to.
+     */
+    void addContent(Element e) {
+        Element connections = new Element("connections");
+        connections.setAttribute("created", Long.toString(getConnectionsCreated()));
+        connections.setAttribute("discarded", Long.toString(getConnectionsDiscarded()));
+        connections.setAttribute("failed", Long.toString(getConnectionsFailed()));
+        e.addContent(connections);
+
+        Element commands = new Element("transactions");
+        commands.setAttribute("total", Long.toString(getTransactions()));
+        commands.setAttribute("failed", Long.toString(getFailedTransactions()));
+        e.addContent(commands);
+
+        e.addContent(checkoutWait.getElement("checkoutWait"));
+        e.addContent(timeToFirstByte.getElement("timeToFirstByte"));
+        e.addContent(transferTime.getElement("transferTime"));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.DispatchHandler;
+import opendap.coreServlet.ReqInfo;
+import opendap.io.HyraxStringEncoding;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.util.Date;
+import java.util.regex.Pattern;
+
+/**
+ * Returns the client pool metrics of each BES as an XML document. For each
+ * BES, grouped by BesGroup, the document holds the number of clients that
+ * are live, idle, in use and waited for, the number of connections made,
+ * discarded and failed, the transaction counts, and histograms of the
+ * checkout wait, the time to the first byte of the BES response and the
+ * total transfer time.
+ *
+ * This handler is only loaded when the OLFS configuration contains the
+ * BesPoolMetrics element.
+ */
+public class BesPoolMetricsDispatchHandler implements DispatchHandler {
+
+    private org.slf4j.Logger log;
+    private boolean initialized;
+
+    private static final String POOL_METRICS_REGEX = "/besPoolMetrics(/)?$";
+
+    private Pattern requestMatchPattern;
+
+    public BesPoolMetricsDispatchHandler() {
+        log = org.slf4j.LoggerFactory.getLogger(getClass());
+        requestMatchPattern = Pattern.compile(POOL_METRICS_REGEX, Pattern.CASE_INSENSITIVE);
+        initialized = false;
+    }
+
+    @Override
+    public void init(HttpServlet s, Element config) throws Exception {
+        init(s, config, new BesApi());
+    }
+
+    @Override
+    public void init(HttpServlet s, Element config, BesApi besApi) throws Exception {
+        if (initialized) return;
+        initialized = true;
+        log.info("Initialized.");
+    }
+
+    public boolean requestCanBeHandled(HttpServletRequest request) throws Exception {
+        String relativeUrl = ReqInfo.getLocalUrl(request);
+        return relativeUrl != null && requestMatchPattern.matcher(relativeUrl).matches();
+    }
+
+    public void handleRequest(HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        log.debug("Sending BES pool metrics.");
+
+        response.setContentType("text/xml");
+        response.setHeader("Content-Description", "bes_pool_metrics");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setStatus(HttpServletResponse.SC_OK);
+
+        XMLOutputter xout = new XMLOutputter(Format.getPrettyFormat());
+        OutputStreamWriter osw = new OutputStreamWriter(response.getOutputStream(), HyraxStringEncoding.getCharset());
+        xout.output(BESManager.getPoolMetricsDocument(), osw);
+        osw.flush();
+    }
+
+    public long getLastModified(HttpServletRequest req) {
+        return new Date().getTime();
+    }
+
+    public void destroy() {
+        log.info("Destroy complete.");
+    }
+}
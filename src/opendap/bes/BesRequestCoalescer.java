@@ -0,0 +1,353 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static opendap.namespaces.BES.BES_NS;
+
+/**
+ * Single flight coalescing of identical metadata requests.
+ *
+ * When many clients ask for the same DMR, DDX, DDS or DAS at once (as happens
+ * when a new collection is announced) only the first request, the leader,
+ * is sent to the BES. The others wait for it and are sent a copy of its
+ * response, or of the BESError it got back. Requests are identical when
+ * their BES request documents are, less the per-request id attributes
+ * and the OLFS log context, so the responder type, data source, constraint
+ * expression, xml:base and the user's identity and limits all count.
+ *
+ * The leader's response is collected in memory so that it can be shared.
+ * A response that grows beyond maxResponseSize is streamed to the leader's
+ * client instead, and the waiting requests are let go to run their own
+ * transactions. The same happens when the leader fails with anything other
+ * than a BESError: a broken connection is not the waiting requests' answer.
+ *
+ * Nothing is kept once the leader completes, this is not a cache.
+ *
+ * &lt;CoalesceMetadata maxResponseSize="1048576" /&gt;
+ */
+public class BesRequestCoalescer {
+
+    public static final String COALESCE_ELEMENT_NAME = "CoalesceMetadata";
+
+    private static final int DEFAULT_MAX_RESPONSE_SIZE = 1048576;
+
+    private final Logger log;
+
+    private final ConcurrentHashMap<String, Flight> inFlight;
+    private int maxResponseSize;
+
+    private final AtomicLong leaders;
+    private final AtomicLong coalesced;
+    private final AtomicLong notShared;
+
+    public BesRequestCoalescer() {
+        log = LoggerFactory.getLogger(getClass());
+        inFlight = new ConcurrentHashMap<>();
+        maxResponseSize = DEFAULT_MAX_RESPONSE_SIZE;
+        leaders = new AtomicLong();
+        coalesced = new AtomicLong();
+        notShared = new AtomicLong();
+    }
+
+    /**
+     * @param config The CoalesceMetadata element.
+     * @throws BadConfigurationException When an attribute value is not valid.
+     */
+    public BesRequestCoalescer(Element config) throws BadConfigurationException {
+        this();
+        String s = config.getAttributeValue("maxResponseSize");
+        if (s != null) {
+            try {
+                setMaxResponseSize(Integer.parseInt(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + COALESCE_ELEMENT_NAME + " element is not valid. " +
+                        "maxResponseSize must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        log.info("Coalescing identical metadata requests. maxResponseSize: {} bytes", maxResponseSize);
+    }
+
+    /**
+     * @param bytes The largest response, in bytes, that will be shared.
+     */
+    public void setMaxResponseSize(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The maxResponseSize must be greater than zero.");
+        maxResponseSize = bytes;
+    }
+
+    public int getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    /**
+     * @return The number of requests that were sent to the BES as leaders.
+     */
+    public long getLeaderCount() {
+        return leaders.get();
+    }
+
+    /**
+     * @return The number of requests that were answered with the response of a leader.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return The number of waiting requests that had to run their own transaction because
+     * the leader's response was too big or the leader failed.
+     */
+    public long getNotSharedCount() {
+        return notShared.get();
+    }
+
+    /**
+     * Runs the transaction through besApi, unless an identical one is already
+     * in progress, in which case its outcome is used.
+     *
+     * @param besApi The BesApi that would otherwise run the transaction.
+     * @param dataSource The data source of the request, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The stream to which the response is written.
+     * @param tc The TransmitCoordinator of os.
+     */
+    public void besTransaction(BesApi besApi, String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        String key = besApi.getClass().getName() + '\n' + getKey(request);
+        Flight flight = new Flight();
+        Flight leader = inFlight.putIfAbsent(key, flight);
+
+        if (leader != null) {
+            byte[] response = leader.await();
+            if (response != null) {
+                coalesced.incrementAndGet();
+                log.debug("Sending the coalesced response ({} bytes) for data source {}", response.length, dataSource);
+                os.write(response);
+                os.flush();
+                return;
+            }
+            notShared.incrementAndGet();
+            besApi.besTransaction(dataSource, request, os, tc);
+            return;
+        }
+
+        leaders.incrementAndGet();
+        SharingOutputStream sharing = new SharingOutputStream(os, () -> {
+            inFlight.remove(key, flight);
+            flight.complete(null);
+        });
+        byte[] response = null;
+        try {
+            besApi.besTransaction(dataSource, request, sharing, sharing.getTransmitCoordinator(tc));
+            response = sharing.getBuffered();
+        }
+        catch (BESError e) {
+            inFlight.remove(key, flight);
+            flight.fail(e);
+            throw e;
+        }
+        finally {
+            // Anything that went wrong other than a BESError, and the
+            // response that was too big to share, leave the waiting
+            // requests to their own devices.
+            inFlight.remove(key, flight);
+            flight.complete(response);
+        }
+        if (response != null) {
+            os.write(response);
+            os.flush();
+        }
+    }
+
+    /**
+     * @param request A BES request document.
+     * @param ignoredContexts The names of any other setContext elements to leave out.
+     * @return The request document without the parts that are particular to one request.
+     */
+    static String getKey(Document request, String... ignoredContexts) {
+        Element root = (Element) request.getRootElement().clone();
+        root.removeAttribute(BesApi.REQUEST_ID_KEY);
+        root.removeAttribute(BesApi.REQUEST_UUID_KEY);
+        Iterator<?> i = root.getChildren("setContext", BES_NS).iterator();
+        while (i.hasNext()) {
+            String name = ((Element) i.next()).getAttributeValue("name");
+            if (BesApi.OLFS_LOG_CONTEXT.equals(name) || Arrays.asList(ignoredContexts).contains(name))
+                i.remove();
+        }
+        return new XMLOutputter(Format.getCompactFormat()).outputString(root);
+    }
+
+    Element getMetricsElement() {
+        Element e = new Element("coalescing");
+        e.setAttribute("leaders", Long.toString(getLeaderCount()));
+        e.setAttribute("coalesced", Long.toString(getCoalescedCount()));
+        e.setAttribute("notShared", Long.toString(getNotSharedCount()));
+        e.setAttribute("inFlight", Integer.toString(inFlight.size()));
+        return e;
+    }
+
+    /**
+     * The outcome of a leader's transaction, for the requests waiting on it.
+     */
+    private static class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte[] response;
+        private volatile BESError error;
+
+        void complete(byte[] response) {
+            if (done.getCount() > 0) {
+                this.response = response;
+                done.countDown();
+            }
+        }
+
+        void fail(BESError error) {
+            if (done.getCount() > 0) {
+                this.error = error;
+                done.countDown();
+            }
+        }
+
+        /**
+         * @return The shared response, null if the waiting request must run its own transaction.
+         */
+        byte[] await() throws BESError, InterruptedIOException {
+            try {
+                done.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for a coalesced BES response.");
+            }
+            if (error != null)
+                throw error;
+            return response;
+        }
+    }
+
+    /**
+     * Collects the leader's response in memory until it grows beyond
+     * maxResponseSize, after which what has been collected, and everything
+     * that follows, is written straight to the leader's stream.
+     */
+    private class SharingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Runnable onOverflow;
+        private ByteArrayOutputStream buffer;
+
+        SharingOutputStream(OutputStream out, Runnable onOverflow) {
+            this.out = out;
+            this.onOverflow = onOverflow;
+            buffer = new ByteArrayOutputStream();
+        }
+
+        boolean isOverflowed() {
+            return buffer == null;
+        }
+
+        /**
+         * @return The collected response, null if it was too big to collect.
+         */
+        byte[] getBuffered() {
+            return isOverflowed() ? null : buffer.toByteArray();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!isOverflowed() && buffer.size() + len > maxResponseSize) {
+                log.debug("The response is larger than {} bytes and will not be shared.", maxResponseSize);
+                onOverflow.run();
+                buffer.writeTo(out);
+                buffer = null;
+            }
+            if (isOverflowed())
+                out.write(b, off, len);
+            else
+                buffer.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (isOverflowed())
+                out.flush();
+        }
+
+        /**
+         * @param tc The TransmitCoordinator of the leader's stream.
+         * @return A TransmitCoordinator for this stream.
+         */
+        TransmitCoordinator getTransmitCoordinator(TransmitCoordinator tc) {
+            return new TransmitCoordinator() {
+                @Override
+                public boolean isCommitted() {
+                    return isOverflowed() && tc.isCommitted();
+                }
+
+                @Override
+                public void reset() throws IllegalStateException {
+                    if (isOverflowed())
+                        tc.reset();
+                    else
+                        buffer.reset();
+                }
+
+                @Override
+                public FlushPolicy getFlushPolicy() {
+                    return tc.getFlushPolicy();
+                }
+            };
+        }
+    }
+}
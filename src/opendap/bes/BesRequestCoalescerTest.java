@@ -0,0 +1,129 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BesRequestCoalescerTest {
+
+    private static final int REQUESTS = 8;
+
+    /**
+     * Starts the requests, the first alone so that it is the leader, and
+     * opens the gate once the rest have had time to queue up behind it.
+     */
+    private static List<Future<byte[]>> runRequests(BesRequestCoalescer coalescer, MockBesApi api) throws Exception {
+        api.gate = new CountDownLatch(1);
+        ExecutorService threads = Executors.newFixedThreadPool(REQUESTS);
+        List<Future<byte[]>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < REQUESTS; i++) {
+                final String reqId = "req-" + i;
+                results.add(threads.submit(() ->
+                        api.get(coalescer::besTransaction, "/test.nc", MockBesApi.dmrRequest(reqId, "/test.nc", null))));
+                if (i == 0)
+                    assertTrue(api.entered.await(5, TimeUnit.SECONDS));
+            }
+            Thread.sleep(200);
+            api.gate.countDown();
+            for (Future<byte[]> result : results) {
+                try {
+                    result.get(10, TimeUnit.SECONDS);
+                }
+                catch (Exception e) {
+                    // Looked at by the caller.
+                }
+            }
+        }
+        finally {
+            threads.shutdownNow();
+        }
+        return results;
+    }
+
+    @Test
+    public void testKeyIgnoresRequestIdentity() {
+        assertEquals(BesRequestCoalescer.getKey(MockBesApi.dmrRequest("a", "/test.nc", "x>1")),
+                BesRequestCoalescer.getKey(MockBesApi.dmrRequest("b", "/test.nc", "x>1")));
+        assertNotEquals(BesRequestCoalescer.getKey(MockBesApi.dmrRequest("a", "/test.nc", "x>1")),
+                BesRequestCoalescer.getKey(MockBesApi.dmrRequest("a", "/test.nc", "x>2")));
+    }
+
+    @Test
+    public void testIdenticalRequestsShareOneTransaction() throws Exception {
+        BesRequestCoalescer coalescer = new BesRequestCoalescer();
+        MockBesApi api = new MockBesApi();
+
+        for (Future<byte[]> result : runRequests(coalescer, api))
+            assertArrayEquals(api.response, result.get());
+
+        assertEquals(1, api.transactions.get());
+        assertEquals(1, coalescer.getLeaderCount());
+        assertEquals(REQUESTS - 1, coalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void testBesErrorIsShared() throws Exception {
+        BesRequestCoalescer coalescer = new BesRequestCoalescer();
+        MockBesApi api = new MockBesApi();
+        api.error = new BESError("No such file: test.nc");
+
+        for (Future<byte[]> result : runRequests(coalescer, api)) {
+            try {
+                result.get();
+                fail("Expected the BESError.");
+            }
+            catch (java.util.concurrent.ExecutionException e) {
+                assertSame(api.error, e.getCause());
+            }
+        }
+        assertEquals(1, api.transactions.get());
+    }
+
+    @Test
+    public void testLargeResponseIsNotShared() throws Exception {
+        BesRequestCoalescer coalescer = new BesRequestCoalescer();
+        coalescer.setMaxResponseSize(10);
+        MockBesApi api = new MockBesApi();
+
+        for (Future<byte[]> result : runRequests(coalescer, api))
+            assertArrayEquals(api.response, result.get());
+
+        assertEquals(REQUESTS, api.transactions.get());
+        assertEquals(REQUESTS - 1, coalescer.getNotSharedCount());
+    }
+}
@@ -0,0 +1,551 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A disk cache of the expensive data products (NetCDF-4, GeoTIFF and CSV
+ * responses), so that a repeated download is sent from a file rather than
+ * being rebuilt by the BES.
+ *
+ * Responses are keyed on the BES request document, less the per-request
+ * parts (see BesRequestCoalescer.getKey()), and on the lastModified time of
+ * their data source. The history entries that NetCDF-4 requests carry name
+ * the time of the request, so they are left out of the key too, otherwise
+ * no NetCDF-4 response would ever be a hit. The upshot is that a cached
+ * NetCDF-4 file carries the history entry of the request that made it.
+ *
+ * A response is captured to a temporary file as it is sent to the client,
+ * and the file is moved into place only once the BES transaction has
+ * completed. Only one request at a time captures a given response, others
+ * that miss on it meanwhile are sent straight from the BES. A transaction
+ * that fails, or that resets the response through its TransmitCoordinator,
+ * or a response larger than maxEntrySize, leaves nothing behind. Temporary
+ * files left by a crash are removed when the cache starts, and the files
+ * that are in place are picked up again.
+ *
+ * The cache is limited by the total size of its files, the least recently
+ * used ones are deleted first. Hits are sent with FileChannel.transferTo()
+ * and the BES is not contacted.
+ *
+ * &lt;ResponseDiskCache directory="/tmp/hyrax_response_cache" maxBytes="1073741824" maxEntrySize="268435456" /&gt;
+ */
+public class BesResponseDiskCache {
+
+    public static final String DISK_CACHE_ELEMENT_NAME = "ResponseDiskCache";
+
+    private static final long DEFAULT_MAX_BYTES = 1073741824L;
+    private static final long DEFAULT_MAX_ENTRY_SIZE = 268435456L;
+
+    private static final String RESPONSE_SUFFIX = ".response";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Logger log;
+
+    private final Path directory;
+    private final LinkedHashMap<String, Entry> entries;
+    private final Set<String> capturing;
+    private long maxBytes;
+    private long maxEntrySize;
+    private long bytes;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong discarded;
+
+    /**
+     * @param directory The directory that holds the cached responses. It is
+     *                  made if it does not exist.
+     * @throws IOException When the directory cannot be made or read.
+     */
+    public BesResponseDiskCache(Path directory) throws IOException {
+        log = LoggerFactory.getLogger(getClass());
+        this.directory = directory;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        capturing = ConcurrentHashMap.newKeySet();
+        maxBytes = DEFAULT_MAX_BYTES;
+        maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+        bytes = 0;
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        discarded = new AtomicLong();
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * @param config The ResponseDiskCache element.
+     * @throws BadConfigurationException When the configuration is not valid
+     * or the directory cannot be used.
+     */
+    public static BesResponseDiskCache fromConfig(Element config) throws BadConfigurationException {
+        String dir = config.getAttributeValue("directory");
+        if (dir == null || dir.trim().isEmpty())
+            throw new BadConfigurationException("The " + DISK_CACHE_ELEMENT_NAME + " element must " +
+                    "have a directory attribute.");
+
+        BesResponseDiskCache cache;
+        try {
+            cache = new BesResponseDiskCache(new File(dir.trim()).toPath());
+        }
+        catch (IOException e) {
+            throw new BadConfigurationException("Unable to use the " + DISK_CACHE_ELEMENT_NAME +
+                    " directory " + dir + " msg: " + e.getMessage());
+        }
+
+        String s = config.getAttributeValue("maxBytes");
+        if (s != null) {
+            try {
+                cache.setMaxBytes(Long.parseLong(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + DISK_CACHE_ELEMENT_NAME + " element is not valid. " +
+                        "maxBytes must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("maxEntrySize");
+        if (s != null) {
+            try {
+                cache.setMaxEntrySize(Long.parseLong(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + DISK_CACHE_ELEMENT_NAME + " element is not valid. " +
+                        "maxEntrySize must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        cache.log.info("Caching data product responses in {} maxBytes: {} maxEntrySize: {} entries: {}",
+                cache.directory, cache.getMaxBytes(), cache.getMaxEntrySize(), cache.size());
+        return cache;
+    }
+
+    /**
+     * @param maxBytes The most bytes the cache's files may hold.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("The maxBytes must be greater than zero.");
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param bytes The largest response, in bytes, that will be cached.
+     */
+    public void setMaxEntrySize(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The maxEntrySize must be greater than zero.");
+        maxEntrySize = bytes;
+    }
+
+    public long getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of bytes held in the cache's files.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Sends the cached response for request to os, or when there is none,
+     * runs the transaction and caches its response.
+     *
+     * @param besApi The BesApi that runs the transaction on a miss.
+     * @param dataSource The data source of the request.
+     * @param request The BES request document.
+     * @param os The stream to which the response is written.
+     * @param tc The TransmitCoordinator of os.
+     */
+    public void besTransaction(BesApi besApi, String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+
+        long lastModified = besApi.getLastModified(dataSource);
+        if (lastModified < 0) {
+            besApi.besTransaction(dataSource, request, os, tc);
+            return;
+        }
+
+        String key = getKey(besApi, request);
+        Entry entry = get(key);
+        if (entry != null && entry.lastModified == lastModified && send(entry, os)) {
+            hits.incrementAndGet();
+            log.debug("Sent the cached response ({} bytes) for data source {}", entry.size, dataSource);
+            return;
+        }
+        misses.incrementAndGet();
+
+        // One copy of a response on its way into the cache is enough, and
+        // keeps the temporary files from adding up past maxBytes.
+        if (!capturing.add(key)) {
+            besApi.besTransaction(dataSource, request, os, tc);
+            return;
+        }
+        try {
+            Path temp = Files.createTempFile(directory, key + "-", TEMP_SUFFIX);
+            CapturingOutputStream capture = new CapturingOutputStream(os, temp);
+            boolean complete = false;
+            try {
+                besApi.besTransaction(dataSource, request, capture, capture.getTransmitCoordinator(tc));
+                complete = true;
+            }
+            finally {
+                long size = capture.finish();
+                if (complete && size >= 0)
+                    commit(key, lastModified, temp, size);
+                else {
+                    discarded.incrementAndGet();
+                    deleteQuietly(temp);
+                }
+            }
+        }
+        finally {
+            capturing.remove(key);
+        }
+    }
+
+    /**
+     * Sends a cached file to os.
+     *
+     * @return False if the file is gone, in which case nothing was sent.
+     */
+    private boolean send(Entry entry, OutputStream os) throws IOException {
+        FileChannel file;
+        try {
+            file = FileChannel.open(entry.path, StandardOpenOption.READ);
+        }
+        catch (NoSuchFileException e) {
+            log.warn("The cached response {} has gone missing.", entry.path);
+            remove(entry);
+            return false;
+        }
+        try (FileChannel source = file) {
+            WritableByteChannel target = Channels.newChannel(os);
+            long position = 0;
+            long size = source.size();
+            while (position < size)
+                position += source.transferTo(position, size - position, target);
+        }
+        os.flush();
+        return true;
+    }
+
+    /**
+     * Moves a completed response into place.
+     */
+    private void commit(String key, long lastModified, Path temp, long size) {
+        Path path = directory.resolve(key + "-" + lastModified + RESPONSE_SUFFIX);
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            log.warn("Unable to cache the response {} msg: {}", path, e.getMessage());
+            discarded.incrementAndGet();
+            deleteQuietly(temp);
+            return;
+        }
+        put(key, new Entry(path, lastModified, size));
+    }
+
+    private synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            bytes -= previous.size;
+            if (!previous.path.equals(entry.path))
+                deleteQuietly(previous.path);
+        }
+        bytes += entry.size;
+        evict();
+    }
+
+    private synchronized void remove(Entry entry) {
+        if (entries.remove(entry.key(), entry))
+            bytes -= entry.size;
+    }
+
+    /**
+     * Deletes the least recently used files until the cache holds no more
+     * than maxBytes.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+        while (bytes > maxBytes && i.hasNext()) {
+            Entry eldest = i.next().getValue();
+            i.remove();
+            bytes -= eldest.size;
+            deleteQuietly(eldest.path);
+        }
+    }
+
+    /**
+     * Removes the temporary files left by a crash, and indexes the cached
+     * responses, least recently modified first.
+     */
+    private void load() throws IOException {
+        List<Path> responses = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(p -> {
+                String name = p.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX))
+                    deleteQuietly(p);
+                else if (name.endsWith(RESPONSE_SUFFIX))
+                    responses.add(p);
+            });
+        }
+        responses.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+        for (Path p : responses) {
+            String name = p.getFileName().toString();
+            name = name.substring(0, name.length() - RESPONSE_SUFFIX.length());
+            int dash = name.lastIndexOf('-');
+            try {
+                long lastModified = Long.parseLong(name.substring(dash + 1));
+                put(name.substring(0, dash), new Entry(p, lastModified, Files.size(p)));
+            }
+            catch (NumberFormatException | IndexOutOfBoundsException e) {
+                log.warn("Ignoring unexpected file {} in the response cache.", p);
+            }
+        }
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException e) {
+            log.warn("Unable to delete {} msg: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The SHA-256 (in hex) of the request, less its per-request parts
+     * and its history entries.
+     */
+    static String getKey(BesApi besApi, Document request) {
+        String key = besApi.getClass().getName() + '\n' + BesRequestCoalescer.getKey(request,
+                BesApi.CF_HISTORY_ENTRY_CONTEXT, BesApi.HISTORY_JSON_ENTRY_CONTEXT);
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Element getMetricsElement() {
+        Element e = new Element("responseDiskCache");
+        e.setAttribute("hits", Long.toString(getHitCount()));
+        e.setAttribute("misses", Long.toString(getMissCount()));
+        e.setAttribute("discarded", Long.toString(discarded.get()));
+        synchronized (this) {
+            e.setAttribute("entries", Integer.toString(entries.size()));
+            e.setAttribute("bytes", Long.toString(bytes));
+            e.setAttribute("maxBytes", Long.toString(maxBytes));
+        }
+        return e;
+    }
+
+    /**
+     * A cached response file.
+     */
+    private static class Entry {
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+
+        Entry(Path path, long lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        String key() {
+            String name = path.getFileName().toString();
+            return name.substring(0, name.lastIndexOf('-'));
+        }
+    }
+
+    /**
+     * Writes the response through to the client's stream while copying it
+     * to a temporary file. The copy is given up when the response is reset,
+     * grows beyond maxEntrySize or cannot be written.
+     */
+    private class CapturingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final Path temp;
+        private OutputStream copy;
+        private long size;
+
+        CapturingOutputStream(OutputStream out, Path temp) throws IOException {
+            this.out = out;
+            this.temp = temp;
+            copy = new BufferedOutputStream(Files.newOutputStream(temp));
+            size = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy == null)
+                return;
+            if (size + len > maxEntrySize) {
+                abandon("The response is larger than " + maxEntrySize + " bytes");
+                return;
+            }
+            try {
+                copy.write(b, off, len);
+                size += len;
+            }
+            catch (IOException e) {
+                abandon("Unable to write " + temp + " msg: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        private void abandon(String why) {
+            log.debug("{}, the response will not be cached.", why);
+            try {
+                copy.close();
+            }
+            catch (IOException e) {
+                log.debug("Unable to close {} msg: {}", temp, e.getMessage());
+            }
+            copy = null;
+        }
+
+        /**
+         * Closes the copy.
+         * @return The size of the copy, -1 if it was given up.
+         */
+        long finish() {
+            if (copy == null)
+                return -1;
+            try {
+                copy.close();
+                copy = null;
+                return size;
+            }
+            catch (IOException e) {
+                log.warn("Unable to write {} msg: {}", temp, e.getMessage());
+                copy = null;
+                return -1;
+            }
+        }
+
+        /**
+         * @param tc The TransmitCoordinator of the client's stream.
+         * @return A TransmitCoordinator for this stream.
+         */
+        TransmitCoordinator getTransmitCoordinator(TransmitCoordinator tc) {
+            return new TransmitCoordinator() {
+                @Override
+                public boolean isCommitted() {
+                    return tc.isCommitted();
+                }
+
+                @Override
+                public void reset() throws IllegalStateException {
+                    tc.reset();
+                    if (copy != null)
+                        abandon("The response was reset");
+                }
+
+                @Override
+                public FlushPolicy getFlushPolicy() {
+                    return tc.getFlushPolicy();
+                }
+            };
+        }
+    }
+}
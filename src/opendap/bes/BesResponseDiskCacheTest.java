@@ -0,0 +1,195 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.bes.caching.BesNodeCache;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BesResponseDiskCacheTest {
+
+    private Path directory;
+    private MockBesApi api;
+
+    @Before
+    public void setUp() throws Exception {
+        BesNodeCache.init(100, 1);
+        directory = Files.createTempDirectory("BesResponseDiskCacheTest");
+        api = new MockBesApi();
+        api.response = new byte[10000];
+        for (int i = 0; i < api.response.length; i++)
+            api.response[i] = (byte) i;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        BesNodeCache.destroy();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private byte[] get(BesResponseDiskCache cache, String reqId, String dataSource) throws Exception {
+        return api.get(cache::besTransaction, dataSource, MockBesApi.netcdf4Request(reqId, dataSource, new Date()));
+    }
+
+    private long countFiles(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(suffix)).count();
+        }
+    }
+
+    @Test
+    public void testRepeatedRequestIsSentFromDisk() throws Exception {
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+
+        assertArrayEquals(api.response, get(cache, "req-1", "/test.nc"));
+        assertArrayEquals(api.response, get(cache, "req-2", "/test.nc"));
+        assertEquals(1, api.transactions.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(api.response.length, cache.getBytes());
+
+        // A restarted cache picks up the file.
+        cache = new BesResponseDiskCache(directory);
+        assertArrayEquals(api.response, get(cache, "req-3", "/test.nc"));
+        assertEquals(1, api.transactions.get());
+    }
+
+    @Test
+    public void testHistoryEntriesAreNotPartOfTheKey() throws Exception {
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+
+        Document first = MockBesApi.netcdf4Request("req-1", "/test.nc", new Date(1767323045000L));
+        Document second = MockBesApi.netcdf4Request("req-1", "/test.nc", new Date(1767323046000L));
+        assertNotEquals(BesRequestCoalescer.getKey(first), BesRequestCoalescer.getKey(second));
+
+        api.get(cache::besTransaction, "/test.nc", first);
+        assertArrayEquals(api.response, api.get(cache::besTransaction, "/test.nc", second));
+        assertEquals(1, api.transactions.get());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testConcurrentMissesCaptureOnce() throws Exception {
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+        api.gate = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> get(cache, "req-1", "/test.nc"));
+            assertTrue(api.entered.await(5, TimeUnit.SECONDS));
+            Future<byte[]> second = executor.submit(() -> get(cache, "req-2", "/test.nc"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (api.transactions.get() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+
+            // Both are waiting on the BES, only one of them is capturing.
+            assertEquals(2, api.transactions.get());
+            assertEquals(1, countFiles(".tmp"));
+
+            api.gate.countDown();
+            assertArrayEquals(api.response, first.get(5, TimeUnit.SECONDS));
+            assertArrayEquals(api.response, second.get(5, TimeUnit.SECONDS));
+        }
+        finally {
+            api.gate.countDown();
+            executor.shutdownNow();
+        }
+        assertEquals(1, cache.size());
+        assertEquals(0, countFiles(".tmp"));
+    }
+
+    @Test
+    public void testFailedAndResetResponsesAreNotCached() throws Exception {
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+
+        api.fail = true;
+        try {
+            get(cache, "req-1", "/test.nc");
+            fail("The failed transaction did not fail.");
+        }
+        catch (PPTException expected) {
+            // The response was cut short.
+        }
+        api.fail = false;
+        api.reset = true;
+        get(cache, "req-2", "/test.nc");
+        assertEquals(0, cache.size());
+        assertEquals(0, countFiles(".response"));
+        assertEquals(0, countFiles(".tmp"));
+
+        api.reset = false;
+        cache.setMaxEntrySize(api.response.length - 1);
+        assertArrayEquals(api.response, get(cache, "req-3", "/test.nc"));
+        assertEquals(0, cache.size());
+        assertEquals(0, countFiles(".tmp"));
+    }
+
+    @Test
+    public void testEvictionIsBySize() throws Exception {
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+        cache.setMaxBytes(3 * api.response.length);
+
+        for (int i = 0; i < 3; i++)
+            get(cache, "req", "/test" + i + ".nc");
+        get(cache, "req", "/test0.nc");
+        get(cache, "req", "/test3.nc");
+        assertEquals(3, cache.size());
+        assertEquals(3, countFiles(".response"));
+
+        int transactions = api.transactions.get();
+        get(cache, "req", "/test0.nc");
+        assertEquals("The recently used response was evicted.", transactions, api.transactions.get());
+        get(cache, "req", "/test1.nc");
+        assertEquals("The least recently used response was kept.", transactions + 1, api.transactions.get());
+    }
+
+    @Test
+    public void testLeftoverTempFilesAreRemoved() throws Exception {
+        Files.write(directory.resolve("abc-123.tmp"), new byte[10]);
+        BesResponseDiskCache cache = new BesResponseDiskCache(directory);
+        assertEquals(0, countFiles(".tmp"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.io.FlushPolicy;
+import opendap.ppt.PPTException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples the BES connections from slow HTTP clients.
+ *
+ * Without a spool the OPeNDAPClient that reads a response from the BES is
+ * checked out of the pool until the last byte has been written to the
+ * client, so a few clients on slow links can hold every connection to an
+ * otherwise idle BES. With a spool the chunks that
+ * ChunkedInputStream.readChunkedMessage() relays from the BES are written to
+ * a buffer, and a delivery thread writes that buffer to the client. A client
+ * that keeps up sees the response streamed as before. The backlog of one that
+ * doesn't is held in memory up to memoryBytes and then in a temporary file
+ * up to maxBytes (beyond that the BES is read at the client's pace again).
+ * The BES client goes back to the pool as soon as the BES has finished its
+ * response, while the request thread waits for the delivery to finish.
+ *
+ * Spooled bytes can't be taken back, so a spooled response counts as
+ * committed from its first byte on, even while the servlet's own buffer
+ * has not been committed yet. A BES transaction that fails part way
+ * through is therefore not retried when it is spooled.
+ *
+ * Responses written to memory (ByteArrayOutputStream) are never spooled.
+ *
+ * &lt;ResponseSpool memoryBytes="1048576" maxBytes="1073741824" directory="/tmp" /&gt;
+ */
+public class BesResponseSpool {
+
+    public static final String SPOOL_ELEMENT_NAME = "ResponseSpool";
+
+    private static final long DEFAULT_MEMORY_BYTES = 1048576L;
+    private static final long DEFAULT_MAX_BYTES = 1073741824L;
+    private static final int DELIVERY_BUFFER_SIZE = 65536;
+
+    private static final ExecutorService DELIVERY_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "BES-spool-delivery");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Logger log;
+
+    private Path directory;
+    private long memoryBytes;
+    private long maxBytes;
+
+    private final AtomicLong transactions;
+    private final AtomicInteger active;
+    private final AtomicLong overflowed;
+    private final AtomicLong bytesToDisk;
+    private final AtomicLong clientFailures;
+
+    public BesResponseSpool() {
+        log = LoggerFactory.getLogger(getClass());
+        directory = null;
+        memoryBytes = DEFAULT_MEMORY_BYTES;
+        maxBytes = DEFAULT_MAX_BYTES;
+        transactions = new AtomicLong();
+        active = new AtomicInteger();
+        overflowed = new AtomicLong();
+        bytesToDisk = new AtomicLong();
+        clientFailures = new AtomicLong();
+    }
+
+    /**
+     * @param config The ResponseSpool element.
+     * @throws BadConfigurationException When the configuration is not valid.
+     */
+    public BesResponseSpool(Element config) throws BadConfigurationException {
+        this();
+        String s = config.getAttributeValue("memoryBytes");
+        if (s != null) {
+            try {
+                setMemoryBytes(Long.parseLong(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + SPOOL_ELEMENT_NAME + " element is not valid. " +
+                        "memoryBytes must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("maxBytes");
+        if (s != null) {
+            try {
+                setMaxBytes(Long.parseLong(s.trim()));
+            }
+            catch (IllegalArgumentException e) {
+                throw new BadConfigurationException("The " + SPOOL_ELEMENT_NAME + " element is not valid. " +
+                        "maxBytes must be a positive integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("directory");
+        if (s != null && !s.trim().isEmpty()) {
+            File dir = new File(s.trim());
+            if (!dir.isDirectory() || !dir.canWrite())
+                throw new BadConfigurationException("The " + SPOOL_ELEMENT_NAME + " directory " + s +
+                        " is not a writable directory.");
+            directory = dir.toPath();
+        }
+        log.info("Spooling BES responses. memoryBytes: {} maxBytes: {} directory: {}",
+                memoryBytes, maxBytes, directory == null ? System.getProperty("java.io.tmpdir") : directory);
+    }
+
+    /**
+     * @param bytes The backlog, in bytes, that each response may hold in
+     *              memory before it is written to a temporary file.
+     */
+    public void setMemoryBytes(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The memoryBytes must be greater than zero.");
+        memoryBytes = bytes;
+    }
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * @param bytes The backlog, in bytes, that each response may hold in its
+     *              temporary file.
+     */
+    public void setMaxBytes(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("The maxBytes must be greater than zero.");
+        maxBytes = bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Runs the transaction through a spool, returning once the response has
+     * been delivered to os.
+     *
+     * @param besApi The BesApi that runs the transaction.
+     * @param dataSource The data source, used to locate the BES.
+     * @param request The BES request document.
+     * @param os The OutputStream to write the BES response to.
+     * @param tc The TransmitCoordinator of os.
+     */
+    void besTransaction(BesApi besApi, String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws BadConfigurationException, IOException, PPTException, BESError {
+        try (Spool spool = open(os, tc)) {
+            besApi.unspooledTransaction(dataSource, request, spool, spool);
+        }
+    }
+
+    /**
+     * @param os Where the spooled response is delivered.
+     * @param tc The TransmitCoordinator of os.
+     * @return A spool whose delivery thread has been started. It must be closed.
+     */
+    Spool open(OutputStream os, TransmitCoordinator tc) {
+        Spool spool = new Spool(os, tc);
+        transactions.incrementAndGet();
+        active.incrementAndGet();
+        DELIVERY_EXECUTOR.execute(spool::deliver);
+        return spool;
+    }
+
+    Element getMetricsElement() {
+        Element e = new Element("responseSpool");
+        e.setAttribute("transactions", Long.toString(transactions.get()));
+        e.setAttribute("active", Integer.toString(active.get()));
+        e.setAttribute("overflowed", Long.toString(overflowed.get()));
+        e.setAttribute("bytesToDisk", Long.toString(bytesToDisk.get()));
+        e.setAttribute("clientFailures", Long.toString(clientFailures.get()));
+        e.setAttribute("memoryBytes", Long.toString(memoryBytes));
+        e.setAttribute("maxBytes", Long.toString(maxBytes));
+        return e;
+    }
+
+    /**
+     * The buffer between one BES transaction and its client. The BES side
+     * writes to it, the delivery thread reads from it. Once the memory is
+     * full everything goes to the file until the delivery thread has caught
+     * up, so the order of the bytes is kept.
+     */
+    class Spool extends OutputStream implements TransmitCoordinator {
+
+        private final OutputStream target;
+        private final TransmitCoordinator tc;
+
+        private final ArrayDeque<byte[]> chunks;
+        private long memory;
+
+        private Path path;
+        private FileChannel file;
+        private long fileWritten;
+        private long fileRead;
+        private boolean inFile;
+        private boolean writing;
+
+        private long accepted;
+        private boolean flushRequested;
+        private boolean closed;
+        private boolean done;
+        private boolean released;
+        private IOException failure;
+
+        Spool(OutputStream target, TransmitCoordinator tc) {
+            this.target = target;
+            this.tc = tc;
+            chunks = new ArrayDeque<>();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            long position;
+            synchronized (this) {
+                checkOpen();
+                while (true) {
+                    if (!inFile && memory + len <= memoryBytes) {
+                        accepted += len;
+                        chunks.add(Arrays.copyOfRange(b, off, off + len));
+                        memory += len;
+                        notifyAll();
+                        return;
+                    }
+                    if (!inFile) {
+                        inFile = true;
+                        overflowed.incrementAndGet();
+                    }
+                    // The backlog on disk is bounded too, past that the BES waits for the client.
+                    if (fileWritten == fileRead || fileWritten - fileRead + len <= maxBytes)
+                        break;
+                    // The delivery may catch up and go back to memory while we wait.
+                    await();
+                    checkOpen();
+                }
+                accepted += len;
+                if (file == null) {
+                    path = directory == null ?
+                            Files.createTempFile("hyrax-spool-", ".tmp") :
+                            Files.createTempFile(directory, "hyrax-spool-", ".tmp");
+                    file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                            StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                position = fileWritten;
+                writing = true;
+            }
+            boolean written = false;
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining())
+                    position += file.write(buffer, position);
+                written = true;
+            }
+            finally {
+                synchronized (this) {
+                    if (written) {
+                        fileWritten += len;
+                        bytesToDisk.addAndGet(len);
+                    }
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Asks the delivery thread to flush the client stream once it has
+         * written everything that is in the spool.
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            checkOpen();
+            flushRequested = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the delivery of the spooled response to finish and
+         * releases the temporary file. If the waiting is interrupted the
+         * rest of the response is dropped, but the delivery thread is still
+         * waited for since it may be using the file.
+         *
+         * @throws IOException When the response could not be delivered.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                synchronized (this) {
+                    closed = true;
+                    notifyAll();
+                    boolean interrupted = false;
+                    while (!done) {
+                        try {
+                            wait();
+                        }
+                        catch (InterruptedException e) {
+                            if (!interrupted) {
+                                interrupted = true;
+                                if (failure == null)
+                                    failure = new InterruptedIOException("Interrupted while delivering the spooled BES response.");
+                                chunks.clear();
+                                memory = 0;
+                                fileRead = fileWritten;
+                                notifyAll();
+                            }
+                        }
+                    }
+                    if (interrupted)
+                        Thread.currentThread().interrupt();
+                }
+            }
+            finally {
+                release();
+            }
+            synchronized (this) {
+                if (failure != null)
+                    throw failure;
+            }
+        }
+
+        private synchronized void release() throws IOException {
+            if (released)
+                return;
+            released = true;
+            active.decrementAndGet();
+            if (file != null)
+                file.close();
+        }
+
+        /**
+         * The response counts as committed as soon as anything has been
+         * spooled, the BES transaction can't be retried after that.
+         */
+        @Override
+        public boolean isCommitted() {
+            synchronized (this) {
+                if (accepted > 0)
+                    return true;
+            }
+            return tc.isCommitted();
+        }
+
+        @Override
+        public void reset() throws IllegalStateException {
+            synchronized (this) {
+                if (accepted > 0)
+                    throw new IllegalStateException("The response has been spooled, it can't be reset.");
+            }
+            tc.reset();
+        }
+
+        @Override
+        public FlushPolicy getFlushPolicy() {
+            return tc.getFlushPolicy();
+        }
+
+        /**
+         * @return The number of bytes held in the temporary file.
+         */
+        synchronized long getFileBacklog() {
+            return fileWritten - fileRead;
+        }
+
+        private void checkOpen() throws IOException {
+            if (failure != null)
+                throw new IOException("Unable to deliver the response to the client. msg: " +
+                        failure.getMessage(), failure);
+            if (closed)
+                throw new IOException("The spool has been closed.");
+        }
+
+        private void await() throws InterruptedIOException {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while spooling the BES response.");
+            }
+        }
+
+        private boolean isEmpty() {
+            return chunks.isEmpty() && fileRead == fileWritten;
+        }
+
+        /**
+         * The delivery thread: writes the spooled bytes to the target until
+         * the spool is closed and empty.
+         */
+        void deliver() {
+            byte[] buffer = new byte[DELIVERY_BUFFER_SIZE];
+            try {
+                while (true) {
+                    byte[] chunk = null;
+                    long position = 0;
+                    int length = 0;
+                    boolean flush = false;
+                    synchronized (this) {
+                        while (isEmpty() && !closed && !flushRequested && failure == null) {
+                            if (inFile && !writing) {
+                                // Caught up, the file can be reused from the start.
+                                fileRead = fileWritten = 0;
+                                inFile = false;
+                            }
+                            wait();
+                        }
+                        if (failure != null) {
+                            // The spool was given up on, nothing more goes to the client.
+                            return;
+                        }
+                        if (!chunks.isEmpty()) {
+                            chunk = chunks.poll();
+                            memory -= chunk.length;
+                            notifyAll();
+                        }
+                        else if (fileRead < fileWritten) {
+                            position = fileRead;
+                            length = (int) Math.min(buffer.length, fileWritten - fileRead);
+                        }
+                        else if (flushRequested) {
+                            flushRequested = false;
+                            flush = true;
+                        }
+                        else {
+                            break;
+                        }
+                    }
+                    if (chunk != null) {
+                        target.write(chunk);
+                    }
+                    else if (length > 0) {
+                        ByteBuffer bb = ByteBuffer.wrap(buffer, 0, length);
+                        while (bb.hasRemaining()) {
+                            if (file.read(bb, position + bb.position()) < 0)
+                                throw new IOException("The spool file " + path + " ended early.");
+                        }
+                        target.write(buffer, 0, length);
+                        synchronized (this) {
+                            fileRead += length;
+                            notifyAll();
+                        }
+                    }
+                    else if (flush) {
+                        target.flush();
+                    }
+                }
+                target.flush();
+            }
+            catch (IOException | RuntimeException e) {
+                clientFailures.incrementAndGet();
+                log.warn("Unable to deliver the spooled BES response. msg: {}", e.getMessage());
+                synchronized (this) {
+                    failure = e instanceof IOException ? (IOException) e : new IOException(e);
+                    chunks.clear();
+                    memory = 0;
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (this) {
+                    failure = new InterruptedIOException("The delivery of the spooled BES response was interrupted.");
+                }
+            }
+            finally {
+                synchronized (this) {
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.coreServlet.ByteArrayOutputStreamTransmitCoordinator;
+import opendap.coreServlet.TransmitCoordinator;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class BesResponseSpoolTest {
+
+    /**
+     * A client that takes nothing until it is let go.
+     */
+    private static class StalledClient extends OutputStream {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final CountDownLatch go = new CountDownLatch(1);
+        boolean broken = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                go.await();
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (broken)
+                throw new IOException("Connection reset by peer");
+            synchronized (received) {
+                received.write(b, off, len);
+            }
+        }
+    }
+
+    private static final TransmitCoordinator NOT_COMMITTED = new TransmitCoordinator() {
+        @Override
+        public boolean isCommitted() {
+            return false;
+        }
+
+        @Override
+        public void reset() {
+        }
+    };
+
+    private static byte[] response(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++)
+            data[i] = (byte) (i * 31 + i / 7);
+        return data;
+    }
+
+    private static void writeInChunks(OutputStream os, byte[] data, int chunk) throws IOException {
+        for (int off = 0; off < data.length; off += chunk) {
+            os.write(data, off, Math.min(chunk, data.length - off));
+            os.flush();
+        }
+    }
+
+    @Test
+    public void testFastClientIsStreamed() throws Exception {
+        BesResponseSpool spool = new BesResponseSpool();
+        ByteArrayOutputStream client = new ByteArrayOutputStream();
+        byte[] data = response(300000);
+
+        BesResponseSpool.Spool s = spool.open(client, new ByteArrayOutputStreamTransmitCoordinator(client));
+        assertFalse(s.isCommitted());
+        writeInChunks(s, data, 4096);
+        assertTrue(s.isCommitted());
+        s.close();
+
+        assertArrayEquals(data, client.toByteArray());
+    }
+
+    @Test
+    public void testSlowClientDoesNotHoldTheBes() throws Exception {
+        BesResponseSpool spool = new BesResponseSpool();
+        spool.setMemoryBytes(65536);
+        StalledClient client = new StalledClient();
+        byte[] data = response(2000000);
+
+        BesResponseSpool.Spool s = spool.open(client, NOT_COMMITTED);
+        // The whole response is taken from the BES while the client takes nothing.
+        writeInChunks(s, data, 65535);
+        assertTrue(s.getFileBacklog() > 0);
+        assertEquals("1", spool.getMetricsElement().getAttributeValue("overflowed"));
+
+        client.go.countDown();
+        s.close();
+        assertArrayEquals(data, client.received.toByteArray());
+        assertEquals("0", spool.getMetricsElement().getAttributeValue("active"));
+    }
+
+    @Test
+    public void testDiskBacklogIsBounded() throws Exception {
+        BesResponseSpool spool = new BesResponseSpool();
+        spool.setMemoryBytes(10000);
+        spool.setMaxBytes(50000);
+        StalledClient client = new StalledClient();
+        byte[] data = response(500000);
+
+        BesResponseSpool.Spool s = spool.open(client, NOT_COMMITTED);
+        AtomicReference<Exception> error = new AtomicReference<>();
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread bes = new Thread(() -> {
+            try {
+                writeInChunks(s, data, 5000);
+            }
+            catch (Exception e) {
+                error.set(e);
+            }
+            finished.countDown();
+        });
+        bes.start();
+
+        assertFalse("The BES was not made to wait.", finished.await(500, TimeUnit.MILLISECONDS));
+        assertTrue(s.getFileBacklog() <= 50000);
+
+        client.go.countDown();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertNull(error.get());
+        s.close();
+        assertArrayEquals(data, client.received.toByteArray());
+    }
+
+    @Test
+    public void testClientFailureReachesTheBesSide() throws Exception {
+        BesResponseSpool spool = new BesResponseSpool();
+        spool.setMemoryBytes(1000);
+        StalledClient client = new StalledClient();
+        client.broken = true;
+
+        BesResponseSpool.Spool s = spool.open(client, NOT_COMMITTED);
+        s.write(response(500));
+        try {
+            s.reset();
+            fail("A spooled response was reset.");
+        }
+        catch (IllegalStateException e) {
+            // expected
+        }
+        client.go.countDown();
+
+        try {
+            for (int i = 0; i < 1000; i++) {
+                s.write(response(500));
+                Thread.sleep(1);
+            }
+            fail("Writing to a failed client succeeded.");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        try {
+            s.close();
+            fail("Closing a failed spool succeeded.");
+        }
+        catch (IOException e) {
+            // expected
+        }
+        assertEquals("1", spool.getMetricsElement().getAttributeValue("clientFailures"));
+    }
+
+    @Test
+    public void testInterruptedCloseDropsTheRest() throws Exception {
+        BesResponseSpool spool = new BesResponseSpool();
+        StalledClient client = new StalledClient();
+
+        BesResponseSpool.Spool s = spool.open(client, NOT_COMMITTED);
+        for (int i = 0; i < 10; i++)
+            s.write(response(1000));
+        // Let the client go once the request thread has given up on it.
+        Thread release = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException e) {
+                // Let it go now.
+            }
+            client.go.countDown();
+        });
+        release.start();
+
+        Thread.currentThread().interrupt();
+        try {
+            s.close();
+            fail("An interrupted close succeeded.");
+        }
+        catch (InterruptedIOException e) {
+            // expected
+        }
+        assertTrue(Thread.interrupted());
+        release.join();
+
+        // At most the chunk that was being written when close() was interrupted got through.
+        assertTrue(client.received.size() <= 1000);
+        assertEquals("0", spool.getMetricsElement().getAttributeValue("active"));
+        Thread.sleep(100);
+        assertTrue(client.received.size() <= 1000);
+    }
+
+    @Test
+    public void testTransactionThroughBesApi() throws Exception {
+        byte[] data = response(100000);
+        BesApi besApi = new BesApi() {
+            @Override
+            protected void unspooledTransaction(String dataSource, Document request, OutputStream os,
+                                                TransmitCoordinator tc) throws IOException {
+                assertTrue(os instanceof BesResponseSpool.Spool);
+                writeInChunks(os, data, 8192);
+            }
+        };
+        BesResponseSpool spool = new BesResponseSpool(new Element(BesResponseSpool.SPOOL_ELEMENT_NAME)
+                .setAttribute("memoryBytes", "4096"));
+        StalledClient client = new StalledClient();
+        client.go.countDown();
+
+        spool.besTransaction(besApi, "/data/nc/fnoc1.nc", new Document(new Element("request")), client, NOT_COMMITTED);
+        assertArrayEquals(data, client.received.toByteArray());
+    }
+
+    @Test(expected = BadConfigurationException.class)
+    public void testBadConfiguration() throws Exception {
+        new BesResponseSpool(new Element(BesResponseSpool.SPOOL_ELEMENT_NAME).setAttribute("maxBytes", "-1"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+/**
+ * Identifies how a BesGroup chooses the member BES that will service a request.
+ */
+public enum BesSelectionStrategy {
+
+    /**
+     * Each member in turn, regardless of how busy it is.
+     */
+    ROUND_ROBIN("roundRobin"),
+
+    /**
+     * The member with the fewest outstanding transactions relative to the
+     * size of its client pool.
+     */
+    LEAST_OUTSTANDING("leastOutstanding"),
+
+    /**
+     * The less busy of two members picked at random. Nearly as good as
+     * LEAST_OUTSTANDING and does not send every new request to the same
+     * idle member at once.
+     */
+    POWER_OF_TWO("powerOfTwo"),
+
+    /**
+     * The member that the data source path hashes to on a consistent hash
+     * ring, so that requests for a dataset keep going to the BES whose
+     * caches already hold it. When that member carries more than its share
+     * of the group's load the request spills over to the next member on the
+     * ring. Requests with no data source path are sent to the least loaded
+     * member.
+     */
+    AFFINITY("affinity");
+
+    private final String configName;
+
+    BesSelectionStrategy(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * Case-insensitive lookup of the strategy by its configuration name.
+     *
+     * @param name The name of the strategy, for example "roundRobin", "leastOutstanding", "powerOfTwo" or "affinity".
+     * @return The matching BesSelectionStrategy, or ROUND_ROBIN if the name is null or empty.
+     * @throws IllegalArgumentException If the name is not recognized.
+     */
+    public static BesSelectionStrategy fromString(String name) {
+        if(name==null || name.trim().isEmpty())
+            return ROUND_ROBIN;
+
+        for(BesSelectionStrategy s : values()){
+            if(s.configName.equalsIgnoreCase(name.trim()) || s.name().equalsIgnoreCase(name.trim()))
+                return s;
+        }
+        throw new IllegalArgumentException("Unrecognized BES selection strategy '"+name+
+                "'. Allowed values are: roundRobin, leastOutstanding, powerOfTwo, affinity");
+    }
+
+    @Override
+    public String toString() {
+        return configName;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A circuit breaker for the transactions with one BES.
+ *
+ * The breaker starts CLOSED and lets everything through. After
+ * failureThreshold transactions in a row fail with a PPTException it
+ * OPENs, and for openTime ms nothing is let through, so that requests fail,
+ * or go to another member of the BesGroup, right away rather than each one
+ * waiting on connect and socket timeouts. After that the breaker is
+ * HALF_OPEN: the owner sends probe transactions, and after probeSuccesses of
+ * them in a row succeed the breaker closes. A failed probe opens it again.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openTime;
+    private final int probeSuccesses;
+
+    private final AtomicReference<State> state;
+    private final AtomicInteger consecutiveFailures;
+    private final AtomicInteger consecutiveProbeSuccesses;
+    private volatile long openedAt;
+
+    /**
+     * @param failureThreshold Failed transactions in a row that open the breaker. Zero or less disables the breaker.
+     * @param openTime How long, in ms, the breaker stays open before probing starts.
+     * @param probeSuccesses Successful probes in a row needed to close the breaker.
+     */
+    public CircuitBreaker(int failureThreshold, long openTime, int probeSuccesses) {
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+        this.probeSuccesses = Math.max(1, probeSuccesses);
+        state = new AtomicReference<>(State.CLOSED);
+        consecutiveFailures = new AtomicInteger(0);
+        consecutiveProbeSuccesses = new AtomicInteger(0);
+        openedAt = 0;
+    }
+
+    public boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * @return True if transactions may be sent.
+     */
+    public boolean allowRequest() {
+        return state.get() == State.CLOSED;
+    }
+
+    /**
+     * @return The time, in ms, until probing starts. Zero if the breaker is not open.
+     */
+    public long getRemainingOpenTime() {
+        if (state.get() != State.OPEN)
+            return 0;
+        return Math.max(0, openedAt + openTime - System.currentTimeMillis());
+    }
+
+    public long getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * @return The number of transactions in a row that have failed.
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    public void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * @return True if this failure opened the breaker.
+     */
+    public boolean recordFailure() {
+        if (!isEnabled())
+            return false;
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && state.compareAndSet(State.CLOSED, State.OPEN)) {
+            openedAt = System.currentTimeMillis();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves an open breaker whose open time has passed to HALF_OPEN.
+     * @return True if the caller should now probe the BES.
+     */
+    public boolean tryHalfOpen() {
+        if (state.get() == State.OPEN && getRemainingOpenTime() == 0 && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            consecutiveProbeSuccesses.set(0);
+            return true;
+        }
+        return state.get() == State.HALF_OPEN;
+    }
+
+    /**
+     * @return True if this probe closed the breaker.
+     */
+    public boolean recordProbeSuccess() {
+        if (consecutiveProbeSuccesses.incrementAndGet() >= probeSuccesses && state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+            consecutiveFailures.set(0);
+            return true;
+        }
+        return false;
+    }
+
+    public void recordProbeFailure() {
+        if (state.compareAndSet(State.HALF_OPEN, State.OPEN))
+            openedAt = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.ppt.PPTException;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Thrown when a BES client cannot be checked out of the pool because too
+ * many requests are already waiting for one, or because the wait took
+ * longer than the configured maximum. It is sent to the requesting client
+ * as a 503 (Service Unavailable) with a Retry-After header, and is never
+ * retried by the BES transaction code since that would only add to the load.
+ */
+public class ClientPoolExhaustedException extends PPTException {
+
+    /**
+     * @param msg A description of why no client was available.
+     * @param retryAfter Seconds the requesting client should wait before trying again.
+     */
+    public ClientPoolExhaustedException(String msg, int retryAfter) {
+        super(msg);
+        setHttpStatusCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        setRetryAfter(retryAfter);
+    }
+}
@@ -30,8 +30,11 @@ package opendap.bes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
@@ -46,7 +49,7 @@ public class CyclicGroup<E> {
 
 
     Logger log;
-    private Vector<E> members;
+    private CopyOnWriteArrayList<E> members;
     private AtomicInteger nextMemberIndex;
 
     private ConcurrentHashMap<String, E> membersNameIndex;
@@ -57,7 +60,7 @@ public class CyclicGroup<E> {
     public CyclicGroup() {
         log = LoggerFactory.getLogger(getClass());
 
-        members = new Vector<E>();
+        members = new CopyOnWriteArrayList<E>();
         membersNameIndex = new ConcurrentHashMap<String, E>();
         nextMemberIndex = new AtomicInteger();
         nextMemberIndex.set(0);
@@ -95,23 +98,49 @@ public class CyclicGroup<E> {
     }
 
     /**
-     * The cyclic behavior is encoded here.
-     * @return The next BES in the group cycle.
+     * Removes a member from the group.
+     * @param name The name the member was added with.
+     * @return The removed member, null if there was no member with that name.
      */
-    public E getNext() {
-
-        // Locking ensures that we don't accidentally cause a permutation of the members of the queue, since
-        // the lock enforces that only one thread will be able to take and add at a time.
+    public E remove(String name) {
         lock.lock();
         try {
-            int index = nextMemberIndex.getAndIncrement() % members.size();
-            log.debug("getNext(): "+Thread.currentThread().getName()+" is retrieving index "+index);
-            return members.get(index);     // Return it to the requester.
+            E e = membersNameIndex.remove(name);
+            if(e != null)
+                members.remove(e);
+            return e;
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * The cyclic behavior is encoded here.
+     * @return The next BES in the group cycle.
+     */
+    @SuppressWarnings("unchecked")
+    public E getNext() {
+
+        // The members list is copy-on-write, so toArray() is a consistent
+        // snapshot taken without a lock. A member may still be removed right
+        // after, but the size and the element come from the same snapshot.
+        Object[] current = members.toArray();
+        if(current.length == 0)
+            return null;
+        int index = Math.floorMod(nextMemberIndex.getAndIncrement(), current.length);
+        log.debug("getNext(): {} is retrieving index {}", Thread.currentThread().getName(), index);
+        return (E) current[index];     // Return it to the requester.
+    }
+
+    /**
+     * @return A read only view of the members of the group. Since the
+     * members are held in a copy-on-write list, iterating over it is safe
+     * and needs no locking.
+     */
+    protected List<E> getMembers() {
+        return Collections.unmodifiableList(members);
+    }
+
 
 
     /**
@@ -138,22 +167,12 @@ public class CyclicGroup<E> {
 
 
     public E get(int i) {
-        lock.lock();
-        try {
-            return members.get(i);     // Return it to the requester.
-        } finally {
-            lock.unlock();
-        }
+        return members.get(i);     // Return it to the requester.
     }
 
 
     public int size() {
-        lock.lock();
-        try {
-            return members.size();     // Return it to the requester.
-        } finally {
-            lock.unlock();
-        }
+        return members.size();     // Return it to the requester.
     }
 
 
@@ -26,17 +26,15 @@
 
 package opendap.bes;
 
+import opendap.bes.caching.BesNode;
 import opendap.bes.dap4Responders.MediaType;
 import opendap.coreServlet.*;
 import opendap.dap.User;
 import opendap.http.error.Forbidden;
-import opendap.namespaces.BES;
 import opendap.ppt.PPTException;
 import opendap.services.FileService;
-import org.jdom.Document;
 import org.jdom.Element;
 import org.jdom.JDOMException;
-import org.jdom.output.XMLOutputter;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
@@ -188,21 +186,12 @@ public class FileDispatchHandler implements DispatchHandler {
         log.debug("sendFile() downloadFileName: " + downloadFileName );
 
 
-        Document nodeDoc = new Document();
-        _besApi.getBesNode(name,nodeDoc);
-        XMLOutputter xmlo = new XMLOutputter();
+        BesNode item = _besApi.getBesNode(name);
+        log.debug(item.toString());
 
-        log.debug(xmlo.outputString(nodeDoc));
-
-        Element root = nodeDoc.getRootElement();
-        Element showNode = root.getChild("showNode", BES.BES_NS);
-        Element item = showNode.getChild("item", BES.BES_NS);
-        String sizeStr = item.getAttributeValue("size");
-        String lastModified = item.getAttributeValue("lastModified");
-
-        long fileSize = Long.parseLong(sizeStr);
+        long fileSize = item.getSize();
         response.setHeader("Content-Length", Long.toString(fileSize));
-        response.setHeader("Last-Modified", lastModified);
+        response.setHeader("Last-Modified", item.getLastModifiedString());
 
         // I commented these two lines  out because it was incorrectly causing browsers to downloadJobOutput
         // (as opposed to display) EVERY file retrieved.
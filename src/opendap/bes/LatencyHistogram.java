@@ -0,0 +1,135 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import org.jdom.Element;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed bucket histogram of durations. Recording a value is a couple of
+ * atomic increments, so it is cheap enough to leave on in production. The
+ * bucket bounds are in milliseconds, and each bucket counts the values that
+ * are less than or equal to its bound and greater than the previous one.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds, in ms, of the buckets. The last bucket holds everything larger.
+     */
+    private static final long[] BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000, 300000 };
+
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_MS.length];
+    static {
+        for (int i = 0; i < BOUNDS_MS.length; i++)
+            BOUNDS_NANOS[i] = TimeUnit.MILLISECONDS.toNanos(BOUNDS_MS[i]);
+    }
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sumNanos;
+
+    public LatencyHistogram() {
+        buckets = new AtomicLongArray(BOUNDS_MS.length + 1);
+        count = new LongAdder();
+        sumNanos = new LongAdder();
+    }
+
+    /**
+     * @param nanos The duration to record, in nanoseconds. Negative values are ignored.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+        int i = 0;
+        while (i < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[i])
+            i++;
+        buckets.incrementAndGet(i);
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return The sum of all of the recorded durations, in ms.
+     */
+    public double getSumMillis() {
+        return sumNanos.sum() / 1e6;
+    }
+
+    /**
+     * An estimate of a quantile: the upper bound of the bucket in which it falls.
+     * @param q The quantile, between 0 and 1.
+     * @return The estimate, in ms, or -1 if nothing has been recorded. Values
+     * in the overflow bucket are reported as Long.MAX_VALUE.
+     */
+    public long getQuantileMillis(double q) {
+        long total = 0;
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return -1;
+
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return BOUNDS_MS[i];
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @param name The name of the returned element.
+     * @return The histogram as an Element with a count, the sum (ms) and
+     * the cumulative count for each bucket bound.
+     */
+    public Element getElement(String name) {
+        Element histogram = new Element(name);
+        histogram.setAttribute("count", Long.toString(getCount()));
+        histogram.setAttribute("sumMs", String.format("%.3f", getSumMillis()));
+        long cumulative = 0;
+        for (int i = 0; i <= BOUNDS_MS.length; i++) {
+            cumulative += buckets.get(i);
+            Element bucket = new Element("bucket");
+            bucket.setAttribute("le", i < BOUNDS_MS.length ? Long.toString(BOUNDS_MS[i]) : "+Inf");
+            bucket.setAttribute("count", Long.toString(cumulative));
+            histogram.addContent(bucket);
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes;
+
+import opendap.bes.caching.BesNode;
+import opendap.coreServlet.ByteArrayOutputStreamTransmitCoordinator;
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.ppt.PPTException;
+import opendap.version.HyraxVersion;
+import org.jdom.Document;
+import org.jdom.Element;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.SimpleTimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static opendap.namespaces.BES.BES_NS;
+
+/**
+ * Stands in for the BES in the unit tests of the things that sit between
+ * the responders and the BES (the request coalescer, the response caches,
+ * the node cache). Every transaction writes the response in two pieces,
+ * and can be made to wait at a gate, to fail with a BESError, to fail part
+ * way through, or to reset the response through its TransmitCoordinator.
+ *
+ * Along with it come the BES request documents and showNode responses that
+ * those tests need.
+ */
+public class MockBesApi extends BesApi {
+
+    /**
+     * The shape of the besTransaction() methods of the things that wrap a
+     * BesApi, so that get() can be handed one of them.
+     */
+    public interface Transaction {
+        void besTransaction(BesApi besApi, String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+                throws BadConfigurationException, IOException, PPTException, BESError;
+    }
+
+    public static final String LAST_MODIFIED = "2026-01-02T03:04:05";
+
+    public final AtomicInteger transactions = new AtomicInteger();
+    public final CountDownLatch entered = new CountDownLatch(1);
+    public volatile CountDownLatch gate = null;
+    public volatile byte[] response = "<Dataset name=\"test.nc\"/>".getBytes(StandardCharsets.UTF_8);
+    public volatile String lastModified = LAST_MODIFIED;
+    public volatile BESError error = null;
+    public volatile boolean fail = false;
+    public volatile boolean reset = false;
+
+    @Override
+    public BesNode getBesNode(String dataSource) throws IOException {
+        return BesNode.fromShowNode(showNodeResponse(item(dataSource, 1024, lastModified)));
+    }
+
+    @Override
+    public void besTransaction(String dataSource, Document request, OutputStream os, TransmitCoordinator tc)
+            throws IOException, PPTException, BESError {
+        transaction(os, tc);
+    }
+
+    @Override
+    protected void uncachedMetadataTransaction(String dataSource, Document request, OutputStream os,
+                                               TransmitCoordinator tc) throws IOException, PPTException, BESError {
+        transaction(os, tc);
+    }
+
+    private void transaction(OutputStream os, TransmitCoordinator tc) throws IOException, PPTException, BESError {
+        transactions.incrementAndGet();
+        entered.countDown();
+        CountDownLatch gate = this.gate;
+        try {
+            if (gate != null)
+                gate.await(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+        if (error != null)
+            throw error;
+        byte[] response = this.response;
+        os.write(response, 0, response.length / 2);
+        if (fail)
+            throw new PPTException("The BES went away.");
+        if (reset)
+            tc.reset();
+        os.write(response, response.length / 2, response.length - response.length / 2);
+    }
+
+    /**
+     * Runs a request through one of the things that wrap a BesApi, as a
+     * client would, and returns what the client got.
+     */
+    public byte[] get(Transaction transaction, String dataSource, Document request) throws Exception {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        transaction.besTransaction(this, dataSource, request, os, new ByteArrayOutputStreamTransmitCoordinator(os));
+        return os.toByteArray();
+    }
+
+    /**
+     * @return A DMR request as getDap4RequestDocument() makes it.
+     */
+    public static Document dmrRequest(String reqId, String dataSource, String ce) {
+        return request(reqId, dataSource, ce, DAP4_DMR, null);
+    }
+
+    /**
+     * @return A NetCDF-4 data request as getDap4DataAsNetcdf4Request() makes
+     * it, history entries and all, as it would be at the given time.
+     */
+    public static Document netcdf4Request(String reqId, String dataSource, Date time) {
+        Document request = request(reqId, dataSource, null, DAP4_DATA, NETCDF_4);
+        String url = "http://localhost/opendap" + dataSource + ".dap.nc4";
+
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss z");
+        sdf.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        String cfHistoryEntry = sdf.format(time) + " hyrax-" + HyraxVersion.getVersionString() + " " + url + "\n";
+
+        sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+        sdf.setTimeZone(new SimpleTimeZone(0, "GMT"));
+        String historyJsonEntry = "{\"$schema\":\"https://harmony.earthdata.nasa.gov/schemas/history/0.1.0/history-0.1.0.json\","
+                + "\"date_time\":\"" + sdf.format(time) + "\",\"program\":\"hyrax\","
+                + "\"version\":\"" + HyraxVersion.getVersionString() + "\","
+                + "\"parameters\":[{\"request_url\":\"" + url + "\"}]}";
+
+        Element root = request.getRootElement();
+        root.addContent(0, setContextElement(CF_HISTORY_ENTRY_CONTEXT, cfHistoryEntry));
+        root.addContent(0, setContextElement(HISTORY_JSON_ENTRY_CONTEXT, historyJsonEntry));
+        return request;
+    }
+
+    private static Document request(String reqId, String dataSource, String ce, String type, String returnAs) {
+        Element request = new Element("request", BES_NS);
+        request.setAttribute(REQUEST_ID_KEY, reqId);
+        request.setAttribute(REQUEST_UUID_KEY, reqId + "-uuid");
+        request.addContent(setContextElement(OLFS_LOG_CONTEXT, "client " + reqId));
+        request.addContent(setContextElement(XMLBASE_CONTEXT, "http://localhost/opendap" + dataSource));
+        Element define = new Element("define", BES_NS);
+        Element container = new Element("container", BES_NS);
+        container.addContent(new Element("dataSource", BES_NS).setText(dataSource));
+        if (ce != null)
+            container.addContent(new Element("dap4constraint", BES_NS).setText(ce));
+        define.addContent(container);
+        request.addContent(define);
+        Element get = new Element("get", BES_NS);
+        get.setAttribute("type", type);
+        if (returnAs != null)
+            get.setAttribute("returnAs", returnAs);
+        request.addContent(get);
+        return new Document(request);
+    }
+
+    /**
+     * @return A showNode node element, to which items may be added.
+     */
+    public static Element node(String name, long size, String lastModified) {
+        Element node = new Element("node", BES_NS);
+        node.setAttribute("name", name);
+        node.setAttribute("size", Long.toString(size));
+        if (lastModified != null)
+            node.setAttribute("lastModified", lastModified);
+        return node;
+    }
+
+    /**
+     * @return A showNode item element for a dataset.
+     */
+    public static Element item(String name, long size, String lastModified) {
+        Element item = node(name, size, lastModified);
+        item.setName("item");
+        item.setAttribute("type", "leaf");
+        item.setAttribute("isData", "true");
+        return item;
+    }
+
+    /**
+     * @return The BES response to a showNode, for the node or item.
+     */
+    public static Document showNodeResponse(Element nodeOrItem) {
+        Element showNode = new Element("showNode", BES_NS);
+        showNode.addContent(nodeOrItem);
+        Element root = new Element("response", BES_NS);
+        root.addContent(showNode);
+        return new Document(root);
+    }
+
+    /**
+     * @return The BESError for a showNode of something that isn't there.
+     */
+    public static BESError notFound(String dataSource) {
+        Element besError = new Element(BESError.BES_ERROR, BES_NS);
+        besError.addContent(new Element("Type", BES_NS).setText(Integer.toString(BESError.NOT_FOUND_ERROR)));
+        besError.addContent(new Element("Message", BES_NS).setText("Failed to locate '" + dataSource + "'"));
+        Element root = new Element("response", BES_NS);
+        root.addContent(besError);
+        return new BESError(new Document(root));
+    }
+}
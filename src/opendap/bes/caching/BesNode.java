@@ -0,0 +1,205 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes.caching;
+
+import opendap.bes.BESResource;
+import opendap.namespaces.BES;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * An immutable, read-only model of a BES showNode response. The values the
+ * OLFS looks at on every request (name, size, lastModified, isNode, isData and
+ * the child items) are parsed once, when the response arrives from the BES,
+ * so that a cached BesNode can be handed to any number of threads without
+ * copying it.
+ *
+ * The response itself is kept as compact XML bytes. The callers that still
+ * need the full JDOM document (the XSLT catalog pages) get a new one from
+ * getDocument().
+ */
+public final class BesNode {
+
+    private final String name;
+    private final long size;
+    private final long lastModified;
+    private final String lastModifiedString;
+    private final boolean isNode;
+    private final boolean isData;
+    private final List<BesNode> children;
+    private final byte[] showNodeResponse;
+
+    private BesNode(Element e, boolean isNode, List<BesNode> children, byte[] showNodeResponse)
+            throws IOException {
+
+        name = e.getAttributeValue("name");
+
+        String s = e.getAttributeValue("size");
+        try {
+            size = s != null ? Long.parseLong(s) : e.getChildren().size();
+        }
+        catch (NumberFormatException nfe) {
+            throw new IOException("BES showNode response for " + name + " has a bad size: " + s, nfe);
+        }
+
+        lastModifiedString = e.getAttributeValue("lastModified");
+        lastModified = parseDate(lastModifiedString);
+
+        this.isNode = isNode;
+        s = e.getAttributeValue("isData");
+        isData = s != null && s.equalsIgnoreCase("true");
+
+        this.children = children;
+        this.showNodeResponse = showNodeResponse;
+    }
+
+    /**
+     * Builds a BesNode from a BES showNode response document.
+     *
+     * @param showNodeResponse The showNode response returned by the BES.
+     * @return The BesNode for the response.
+     * @throws IOException When the response does not hold a showNode node
+     * or item element.
+     */
+    public static BesNode fromShowNode(Document showNodeResponse) throws IOException {
+
+        Element root = showNodeResponse.hasRootElement() ? showNodeResponse.getRootElement() : null;
+        if (root == null)
+            throw new IOException("BES showNode response was empty! No root element");
+
+        Element showNode = root.getChild("showNode", BES.BES_NS);
+        if (showNode == null)
+            throw new IOException("BES showNode response was empty! No showNode element");
+
+        byte[] xml = new XMLOutputter(Format.getCompactFormat())
+                .outputString(showNodeResponse)
+                .getBytes(StandardCharsets.UTF_8);
+
+        Element nodeElement = showNode.getChild("node", BES.BES_NS);
+        if (nodeElement != null) {
+            List<BesNode> children = new ArrayList<>();
+            for (Object o : nodeElement.getChildren("item", BES.BES_NS))
+                children.add(item((Element) o, null));
+            return new BesNode(nodeElement, true, Collections.unmodifiableList(children), xml);
+        }
+
+        Element itemElement = showNode.getChild("item", BES.BES_NS);
+        if (itemElement == null)
+            throw new IOException("BES showNode response did not contain expected content! " +
+                    "No top level node or item element");
+        return item(itemElement, xml);
+    }
+
+    private static BesNode item(Element itemElement, byte[] xml) throws IOException {
+        String type = itemElement.getAttributeValue("type");
+        boolean isNode = type != null && type.equalsIgnoreCase("node");
+        return new BesNode(itemElement, isNode, Collections.<BesNode>emptyList(), xml);
+    }
+
+    private static long parseDate(String s) throws IOException {
+        if (s == null)
+            return -1;
+        try {
+            // SimpleDateFormat is not thread safe, this only runs once per
+            // showNode response.
+            return new SimpleDateFormat(BESResource.BESDateFormat).parse(s).getTime();
+        }
+        catch (ParseException e) {
+            throw new IOException("Unable to parse BES lastModified time: " + s, e);
+        }
+    }
+
+    public String getName() { return name; }
+
+    /**
+     * @return The size of the item in bytes, or for a node the number of
+     * items in it.
+     */
+    public long getSize() { return size; }
+
+    /**
+     * @return The last modified time in milliseconds since the epoch, or -1
+     * if the BES did not supply one.
+     */
+    public long lastModified() { return lastModified; }
+
+    /**
+     * @return The last modified time, or null if the BES did not supply one.
+     */
+    public Date getLastModifiedDate() {
+        return lastModified < 0 ? null : new Date(lastModified);
+    }
+
+    /**
+     * @return The last modified time exactly as the BES sent it.
+     */
+    public String getLastModifiedString() { return lastModifiedString; }
+
+    public boolean isNode() { return isNode; }
+
+    public boolean isData() { return isData; }
+
+    /**
+     * @return The (unmodifiable) list of the items in this node. Empty for
+     * an item.
+     */
+    public List<BesNode> getChildren() { return children; }
+
+    /**
+     * Makes a new JDOM copy of the showNode response this BesNode was built
+     * from. The caller owns the copy and may change it.
+     *
+     * @return The showNode response document.
+     * @throws JDOMException When the response cannot be parsed.
+     * @throws IOException When this is one of the child items of a node,
+     * which do not hold a response of their own.
+     */
+    public Document getDocument() throws JDOMException, IOException {
+        if (showNodeResponse == null)
+            throw new IOException("The BesNode for item " + name + " has no showNode response.");
+        return new SAXBuilder().build(new ByteArrayInputStream(showNodeResponse));
+    }
+
+    public String toString() {
+        return "BesNode(" + name + ") isNode: " + isNode + " isData: " + isData +
+                " size: " + size + " lastModified: " + lastModifiedString;
+    }
+}
@@ -3,6 +3,9 @@ package opendap.bes.caching;
 import opendap.bes.BESError;
 import opendap.bes.BadConfigurationException;
 import opendap.bes.BesApi;
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
+import opendap.namespaces.BES;
 import opendap.ppt.PPTException;
 import org.jdom.Document;
 import org.jdom.Element;
@@ -12,12 +15,38 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An in-memory LRU cache for BES showNode responses. This class is a singleton.
+ *
+ * The cache is a concurrent map, lookups never wait on each other. A miss
+ * loads the node from the BES without holding any lock, and concurrent
+ * misses for the same node wait on the one load in progress (see inFlight)
+ * rather than each sending a showNode. An entry that has been in the cache
+ * longer than the refresh interval is still returned, while a background
+ * thread reloads it from the BES.
+ *
+ * The responses are held as immutable BesNode objects which are handed to
+ * the callers as they are, without being copied.
+ *
+ * The BES not found and forbidden errors are kept apart from the nodes, in
+ * a smaller negative cache with its own size limit and a shorter life span,
+ * so that requests for things that are not there (e.g. bots probing for
+ * random paths) can never push real nodes out of the cache. A not found or
+ * forbidden result is only cached once the same key has missed
+ * negativeAdmitAfter times, so a single miss costs a single entry in the
+ * (also bounded) miss counter and nothing more. Other BES errors are not
+ * cached at all.
  */
 public class BesNodeCache {
 
@@ -26,8 +55,14 @@ public class BesNodeCache {
     public  static final String NODE_CACHE_ELEMENT_NAME = "NodeCache";
     private static final String MAX_ENTRIES_ATTRIBUTE_NAME = "maxEntries";
     private static final String REFRESH_INTERVAL_ATTRIBUTE_NAME = "refreshInterval";
+    private static final String MAX_NEGATIVE_ENTRIES_ATTRIBUTE_NAME = "maxNegativeEntries";
+    private static final String NEGATIVE_REFRESH_INTERVAL_ATTRIBUTE_NAME = "negativeRefreshInterval";
+    private static final String NEGATIVE_ADMIT_AFTER_ATTRIBUTE_NAME = "negativeAdmitAfter";
     private static final int NODE_CACHE_MAX_ENTRIES_DEFAULT = 2000;
     private static final long NODE_CACHE_REFRESH_INTERVAL_DEFAULT = 60;
+    private static final int NEGATIVE_CACHE_MAX_ENTRIES_DEFAULT = 1000;
+    private static final long NEGATIVE_CACHE_REFRESH_INTERVAL_DEFAULT = 10;
+    private static final int NEGATIVE_CACHE_ADMIT_AFTER_DEFAULT = 2;
     private static final long nanoInSeconds = 1000000000;
 
     private static final ReentrantLock LOCK = new ReentrantLock();
@@ -38,7 +73,22 @@ public class BesNodeCache {
     // Update interval in seconds
     private static final AtomicLong UPDATE_INTERVAL = new AtomicLong(NODE_CACHE_REFRESH_INTERVAL_DEFAULT);
 
-    private static LRUCache<String,NodeTransaction> lruCache = null;
+    private static final int REFRESH_THREADS = 4;
+    private static final int REFRESH_QUEUE_SIZE = 1000;
+
+    private static final ConcurrentHashMap<String,NodeTransaction> nodeCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,CompletableFuture<NodeTransaction>> inFlight = new ConcurrentHashMap<>();
+    private static final ReentrantLock EVICTION_LOCK = new ReentrantLock();
+    private static int maxEntries = NODE_CACHE_MAX_ENTRIES_DEFAULT;
+
+    private static final ConcurrentHashMap<String,NodeTransaction> negativeCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String,Integer> missCounts = new ConcurrentHashMap<>();
+    private static final ReentrantLock NEGATIVE_EVICTION_LOCK = new ReentrantLock();
+    private static final AtomicLong NEGATIVE_UPDATE_INTERVAL = new AtomicLong(NEGATIVE_CACHE_REFRESH_INTERVAL_DEFAULT);
+    private static int maxNegativeEntries = NEGATIVE_CACHE_MAX_ENTRIES_DEFAULT;
+    private static int negativeAdmitAfter = NEGATIVE_CACHE_ADMIT_AFTER_DEFAULT;
+
+    private static ThreadPoolExecutor refreshExecutor = null;
 
     /**
      * This is a singleton class and as such all methods are static and the
@@ -57,73 +107,112 @@ public class BesNodeCache {
             throw new BadConfigurationException("BesNodeCache must be passed a " +
                     "non-null configuration element named " + NODE_CACHE_ELEMENT_NAME);
 
-        int maxEntries = NODE_CACHE_MAX_ENTRIES_DEFAULT;
-        String maxEntriesString = config.getAttributeValue(MAX_ENTRIES_ATTRIBUTE_NAME);
-        if(maxEntriesString!=null) {
-            try {
-                maxEntries = Integer.parseInt(maxEntriesString);
-                if (maxEntries <= 0) {
-                    maxEntries = NODE_CACHE_MAX_ENTRIES_DEFAULT;
-                    String msg = "Failed to parse value of " +
-                            NODE_CACHE_ELEMENT_NAME + "@" + MAX_ENTRIES_ATTRIBUTE_NAME + "! " +
-                            "Value must be an integer > 0. Using default value: " + maxEntries;
-                    SLOG.error(msg);
-                }
-            } catch (NumberFormatException nfe) {
-                SLOG.error("Failed to parse value of NodeCache@maxEntries! Value must" +
-                        " be an integer. Using default value: {}", maxEntries);
-            }
-        }
+        int maxEntries = (int) getPositiveValue(config, MAX_ENTRIES_ATTRIBUTE_NAME,
+                NODE_CACHE_MAX_ENTRIES_DEFAULT);
+        long refreshInterval = getPositiveValue(config, REFRESH_INTERVAL_ATTRIBUTE_NAME,
+                NODE_CACHE_REFRESH_INTERVAL_DEFAULT);
+        int maxNegativeEntries = (int) getPositiveValue(config, MAX_NEGATIVE_ENTRIES_ATTRIBUTE_NAME,
+                NEGATIVE_CACHE_MAX_ENTRIES_DEFAULT);
+        long negativeRefreshInterval = getPositiveValue(config, NEGATIVE_REFRESH_INTERVAL_ATTRIBUTE_NAME,
+                NEGATIVE_CACHE_REFRESH_INTERVAL_DEFAULT);
+        int negativeAdmitAfter = (int) getPositiveValue(config, NEGATIVE_ADMIT_AFTER_ATTRIBUTE_NAME,
+                NEGATIVE_CACHE_ADMIT_AFTER_DEFAULT);
+
+        init(maxEntries, refreshInterval, maxNegativeEntries, negativeRefreshInterval, negativeAdmitAfter);
+    }
 
-        long refreshInterval = NODE_CACHE_REFRESH_INTERVAL_DEFAULT;
-        String refreshIntervalString = config.getAttributeValue(REFRESH_INTERVAL_ATTRIBUTE_NAME);
-        if(refreshIntervalString != null) {
-            try {
-                refreshInterval = Long.parseLong(refreshIntervalString);
-                if (refreshInterval <= 0) {
-                    refreshInterval = NODE_CACHE_REFRESH_INTERVAL_DEFAULT;
-                    String msg = "Failed to parse value of " +
-                            NODE_CACHE_ELEMENT_NAME + "@" +
-                            REFRESH_INTERVAL_ATTRIBUTE_NAME + "! " +
-                            "Value must be an integer > 0. Using default value: " +
-                            refreshInterval;
-                    SLOG.error(msg);
-                }
-            } catch (NumberFormatException nfe) {
-                SLOG.error("Failed to parse value of NodeCache@refreshInterval! Value" +
-                        " must be an integer. Using default value: {}", refreshInterval);
-            }
+    /**
+     * Reads a configuration attribute whose value must be an integer > 0.
+     * @param config The NODE_CACHE_ELEMENT_NAME configuration element
+     * @param attributeName The name of the attribute.
+     * @param defaultValue The value to use when the attribute is missing or
+     *                     its value is not an integer > 0.
+     * @return The value of the attribute.
+     */
+    private static long getPositiveValue(Element config, String attributeName, long defaultValue){
+        String valueString = config.getAttributeValue(attributeName);
+        if(valueString == null)
+            return defaultValue;
+        try {
+            long value = Long.parseLong(valueString);
+            if (value > 0 && value <= Integer.MAX_VALUE)
+                return value;
+        } catch (NumberFormatException nfe) {
+            // Fall through to the error below.
         }
-        init(maxEntries, refreshInterval);
+        SLOG.error("Failed to parse value of {}@{}! Value must be an integer > 0. Using default value: {}",
+                NODE_CACHE_ELEMENT_NAME, attributeName, defaultValue);
+        return defaultValue;
     }
 
 
+    /**
+     * Sets up the cache with the default negative cache settings.
+     * @param maxEntries The maximum number of entries in the cache
+     * @param updateIntervalSeconds The time any object may reside in the cache
+     *                              before it is refreshed.
+     */
+    public static void init(int maxEntries, long updateIntervalSeconds) {
+        init(maxEntries, updateIntervalSeconds,
+                NEGATIVE_CACHE_MAX_ENTRIES_DEFAULT,
+                NEGATIVE_CACHE_REFRESH_INTERVAL_DEFAULT,
+                NEGATIVE_CACHE_ADMIT_AFTER_DEFAULT);
+    }
+
     /**
      * The _actual_ init method that sets up the cache. This must be called
      * prior to using the cache.
      * @param maxEntries The maximum number of entries in the cache
      * @param updateIntervalSeconds The time any object may reside in the cache
-     *                              before it is removed.
+     *                              before it is refreshed.
+     * @param maxNegativeEntries The maximum number of not found and forbidden
+     *                           results in the negative cache.
+     * @param negativeUpdateIntervalSeconds The time a not found or forbidden
+     *                                      result may reside in the cache
+     *                                      before it is removed.
+     * @param negativeAdmitAfter The number of times a key has to come back
+     *                           not found or forbidden before that result is
+     *                           cached.
      */
-    public static void init(int maxEntries, long updateIntervalSeconds) {
+    public static void init(int maxEntries,
+                            long updateIntervalSeconds,
+                            int maxNegativeEntries,
+                            long negativeUpdateIntervalSeconds,
+                            int negativeAdmitAfter) {
         LOCK.lock();
         try {
             if (INITIALIZED.get()) {
                 SLOG.error("BesNodeCache has already been initialized!  " +
                                 "MAX_CACHE_ENTRIES: {}  UPDATE_INTERVAL: {} s",
-                        lruCache.maxEntries(),
+                        BesNodeCache.maxEntries,
                         UPDATE_INTERVAL.get()/(nanoInSeconds*1.0));
                 return;
             }
 
-            int initCap = 1 + (int)(maxEntries * .20);
-            lruCache = new LRUCache<>(maxEntries,initCap);
+            BesNodeCache.maxEntries = maxEntries;
+            BesNodeCache.maxNegativeEntries = maxNegativeEntries;
+            BesNodeCache.negativeAdmitAfter = negativeAdmitAfter;
+            nodeCache.clear();
+            negativeCache.clear();
+            missCounts.clear();
+            refreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(REFRESH_QUEUE_SIZE), r -> {
+                        Thread t = new Thread(r, "BesNodeCache-refresh");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            refreshExecutor.allowCoreThreadTimeOut(true);
 
             UPDATE_INTERVAL.set(updateIntervalSeconds * nanoInSeconds);
+            NEGATIVE_UPDATE_INTERVAL.set(negativeUpdateIntervalSeconds * nanoInSeconds);
             INITIALIZED.set(true);
-            SLOG.debug("INITIALIZED  MAX_CACHE_ENTRIES: {}  UPDATE_INTERVAL: {} s",
+            SLOG.debug("INITIALIZED  MAX_CACHE_ENTRIES: {}  UPDATE_INTERVAL: {} s  " +
+                            "MAX_NEGATIVE_ENTRIES: {}  NEGATIVE_UPDATE_INTERVAL: {} s  NEGATIVE_ADMIT_AFTER: {}",
                     maxEntries,
-                    UPDATE_INTERVAL.get()/(nanoInSeconds*1.0));
+                    UPDATE_INTERVAL.get()/(nanoInSeconds*1.0),
+                    maxNegativeEntries,
+                    NEGATIVE_UPDATE_INTERVAL.get()/(nanoInSeconds*1.0),
+                    negativeAdmitAfter);
         }
         finally {
             LOCK.unlock();
@@ -132,8 +221,11 @@ public class BesNodeCache {
 
 
     /**
-     * The primary public method used to retrieve BES showNode command responses.
-     * The caching happens within this call.
+     * Retrieves a BES showNode command response as a JDOM Document, for the
+     * callers that need the whole response (e.g. to run an XSLT over it).
+     * The Document is a new copy made from the cached BesNode, the callers
+     * that only need the node's properties should use getNode(besApi, key)
+     * instead.
      *
      * @param besApi THe instance of BesApi to use when accessing the BES.
      * @param key The name of the BES node to retrieve.
@@ -156,6 +248,35 @@ public class BesNodeCache {
             IOException,
             BESError {
 
+        Element newRoot = getNode(besApi, key).getDocument().detachRootElement();
+        response.setRootElement(newRoot);
+    }
+
+    /**
+     * The primary public method used to retrieve BES showNode command responses.
+     * The caching happens within this call. The returned BesNode is the cached
+     * instance, it is immutable and is shared by all of the callers.
+     *
+     * @param besApi THe instance of BesApi to use when accessing the BES.
+     * @param key The name of the BES node to retrieve.
+     * @return The BesNode for the BES showNode response.
+     * @throws JDOMException When the response cannot be parsed.
+     * @throws BadConfigurationException When this method is called and the
+     * init(...) method has not been called.
+     * @throws PPTException When there is a communication problem with the BES.
+     * @throws IOException When there is a low-level communication (socket etc)
+     * issue communicating with the BES, or when the passed value of "key" is
+     * null.
+     * @throws BESError When the BES response to the showNode command is a
+     * BESError object.
+     */
+    public static BesNode getNode(BesApi besApi, String key)
+            throws JDOMException,
+            BadConfigurationException,
+            PPTException,
+            IOException,
+            BESError {
+
         if(!INITIALIZED.get()) {
             throw new BadConfigurationException("Ouch! The BesNodeCache has not been initialized!");
         }
@@ -163,19 +284,22 @@ public class BesNodeCache {
         if(key==null)
             throw new IOException("The BesApi.getNode() method was passed a key value of null. That's bad.");
 
-        NodeTransaction nodeTransaction;
-
-        LOCK.lock();
-        try {
-
-            nodeTransaction = lruCache.get(key);
-
-            if(staleOrMissing(nodeTransaction)){
-                nodeTransaction = getAndCacheNodeTransaction(besApi,key);
-            }
+        NodeTransaction nodeTransaction = nodeCache.get(key);
+        if(nodeTransaction != null){
+            nodeTransaction.touch();
+            if(isStale(nodeTransaction, UPDATE_INTERVAL.get()))
+                refreshInBackground(besApi, key);
         }
-        finally {
-            LOCK.unlock();
+        else {
+            nodeTransaction = negativeCache.get(key);
+            if(nodeTransaction != null && isStale(nodeTransaction, NEGATIVE_UPDATE_INTERVAL.get())){
+                negativeCache.remove(key, nodeTransaction);
+                nodeTransaction = null;
+            }
+            if(nodeTransaction == null)
+                nodeTransaction = load(besApi, key);
+            else
+                nodeTransaction.touch();
         }
 
         if(nodeTransaction.isError()) {
@@ -184,12 +308,7 @@ public class BesNodeCache {
             throw nodeTransaction.getBesError();
         }
 
-        Document cachedNodeDoc = nodeTransaction.getResponseDocument();
-        Element root = cachedNodeDoc.getRootElement();
-        Element newRoot =  (Element) root.clone();
-        newRoot.detach();
-        response.setRootElement(newRoot);
-
+        return nodeTransaction.getNode();
     }
 
     /**
@@ -201,13 +320,111 @@ public class BesNodeCache {
         return INITIALIZED.get();
     }
 
+    /**
+     * Loads the node from the BES, or if a load of it is already in
+     * progress waits for that one to finish.
+     *
+     * @param besApi The BesApi to use when accessing the BES.
+     * @param key The name of the node.
+     * @return The NodeTransaction built from the BES response.
+     */
+    private static NodeTransaction load(BesApi besApi, String key)
+            throws BadConfigurationException, PPTException, JDOMException, IOException {
+
+        CompletableFuture<NodeTransaction> loading = new CompletableFuture<>();
+        CompletableFuture<NodeTransaction> existing = inFlight.putIfAbsent(key, loading);
+        if(existing != null){
+            SLOG.debug("Waiting for the load of node \"{}\" in progress.", key);
+            return await(existing);
+        }
+        return load(besApi, key, loading);
+    }
+
+    /**
+     * Runs the load that the caller has registered in inFlight.
+     */
+    private static NodeTransaction load(BesApi besApi, String key, CompletableFuture<NodeTransaction> loading)
+            throws BadConfigurationException, PPTException, JDOMException, IOException {
+        try {
+            NodeTransaction nodeTransaction = getAndCacheNodeTransaction(besApi, key);
+            loading.complete(nodeTransaction);
+            return nodeTransaction;
+        }
+        catch (BadConfigurationException | PPTException | JDOMException | IOException | RuntimeException e){
+            loading.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            inFlight.remove(key, loading);
+        }
+    }
+
+    private static NodeTransaction await(CompletableFuture<NodeTransaction> loading)
+            throws BadConfigurationException, PPTException, JDOMException, IOException {
+        try {
+            return loading.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a BES showNode response.", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof BadConfigurationException) throw (BadConfigurationException) cause;
+            if(cause instanceof PPTException) throw (PPTException) cause;
+            if(cause instanceof JDOMException) throw (JDOMException) cause;
+            if(cause instanceof IOException) throw (IOException) cause;
+            if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reloads a stale node on one of the refresh threads, unless it is
+     * already being loaded. Until the reload is done the stale copy is
+     * used. If the reload fails the stale copy is kept, and the next
+     * request for it tries again.
+     *
+     * @param besApi The BesApi to use when accessing the BES.
+     * @param key The name of the node.
+     */
+    private static void refreshInBackground(BesApi besApi, String key){
+        CompletableFuture<NodeTransaction> loading = new CompletableFuture<>();
+        if(inFlight.putIfAbsent(key, loading) != null)
+            return;
+
+        // The refresh runs outside of any request, but the BES transaction
+        // wants a request id for the logs.
+        RequestId requestId = new RequestId(RequestCache.getRequestId().id() + "-refresh");
+        try {
+            refreshExecutor.execute(() -> {
+                RequestCache.open(requestId);
+                try {
+                    SLOG.debug("Refreshing stale node \"{}\"", key);
+                    load(besApi, key, loading);
+                }
+                catch (BadConfigurationException | PPTException | JDOMException | IOException | RuntimeException e) {
+                    SLOG.warn("Failed to refresh node \"{}\", keeping the stale copy. msg: {}", key, e.getMessage());
+                }
+                finally {
+                    RequestCache.close();
+                }
+            });
+        }
+        catch (RejectedExecutionException e){
+            SLOG.debug("Refresh of node \"{}\" rejected, the refresh queue is full.", key);
+            inFlight.remove(key, loading);
+            loading.cancel(false);
+        }
+    }
+
     /**
      * Solicits a showNode response from the BES for the passed parameter key.
      * Once the response is received the response is used to make a new
      * NodeTransaction which is then placed in the cache associated with the
-     * value of key. If the BES returns an error that is handled the same way,
-     * the error object is used to make a new NodeTransaction which is placed
-     * in the cache associated with the value of key.
+     * value of key. If the BES returns an error the error object is used to
+     * make a new NodeTransaction, which is offered to the negative cache
+     * (see cacheError()) and any cached node for key is dropped.
      * @param key The name of the node to retrieve from the BES using the
      *            showNode command.
      * @return The NodeTransaction built from the BES response.
@@ -220,54 +437,116 @@ public class BesNodeCache {
     private static NodeTransaction getAndCacheNodeTransaction(BesApi besApi, String key)
             throws BadConfigurationException, PPTException, JDOMException, IOException {
 
-        SLOG.debug("BEGIN  NODE_CACHE.size(): {} ", lruCache.size());
+        SLOG.debug("BEGIN  NODE_CACHE.size(): {} ", nodeCache.size());
 
         Document response = new Document();
         NodeTransaction result;
         try {
             besApi.getBesNodeNoCache(key,response);
-            SLOG.debug("Caching copy of BES showNode response for key: \"{}\"",key);
-            result = new NodeTransaction(key, (Document) response.clone());
+            SLOG.debug("Caching BesNode for BES showNode response for key: \"{}\"",key);
+            result = new NodeTransaction(key, BesNode.fromShowNode(response));
 
         } catch (BESError be) {
-            SLOG.debug("The BES returned a BESError for key: \"{} \" CACHING BESError",key);
+            SLOG.debug("The BES returned a BESError for key: \"{}\"",key);
             result = new NodeTransaction(key, be);
+            if(nodeCache.remove(key) != null)
+                SLOG.debug("Removed cached node for key: \"{}\"",key);
+            cacheError(result);
+            return result;
         }
 
-        NodeTransaction previous = lruCache.put(key, result);
-        if (result == previous) {
-            SLOG.warn("NodeTransaction cache updated with new (replacement) object for key: \"{}\"",key);
+        negativeCache.remove(key);
+        missCounts.remove(key);
+        NodeTransaction previous = nodeCache.put(key, result);
+        if (previous != null) {
+            SLOG.debug("NodeTransaction cache updated with new (replacement) object for key: \"{}\"",key);
         } else {
             SLOG.debug("NodeTransaction cache updated by adding new object to cache using key \"{}\"",key);
+            if(nodeCache.size() > maxEntries)
+                evict(nodeCache, maxEntries, EVICTION_LOCK);
         }
 
-        SLOG.debug("END  LRUCache.size(): {}  ", lruCache.size());
+        SLOG.debug("END  NODE_CACHE.size(): {}  ", nodeCache.size());
 
         return result;
     }
 
+    /**
+     * Places a not found or forbidden result in the negative cache, once its
+     * key has missed negativeAdmitAfter times. Other errors are not cached.
+     * @param result The NodeTransaction holding the BESError.
+     */
+    private static void cacheError(NodeTransaction result){
+        BESError be = result.getBesError();
+        String key = result.getKey();
+        if(!be.notFound() && !be.forbidden()) {
+            SLOG.debug("Not caching BESError for key: \"{}\" it is not a not found or forbidden error.", key);
+            return;
+        }
+
+        // The miss counter is only a filter, when it fills up it is simply
+        // started over.
+        if(missCounts.size() >= maxNegativeEntries)
+            missCounts.clear();
+        int misses = missCounts.merge(key, 1, Integer::sum);
+        if(misses < negativeAdmitAfter) {
+            SLOG.debug("Not caching BESError for key: \"{}\" yet, misses: {}", key, misses);
+            return;
+        }
+        missCounts.remove(key);
+
+        SLOG.debug("Caching BESError for key: \"{}\"", key);
+        if(negativeCache.put(key, result) == null && negativeCache.size() > maxNegativeEntries)
+            evict(negativeCache, maxNegativeEntries, NEGATIVE_EVICTION_LOCK);
+    }
+
+    /**
+     * Drops the least recently used tenth of the entries once a cache has
+     * grown beyond its maximum size. Only one thread evicts at a time, the
+     * others carry on.
+     * @param cache The cache to trim.
+     * @param max The maximum number of entries in the cache.
+     * @param evictionLock The lock held by the thread that is trimming cache.
+     */
+    private static void evict(ConcurrentHashMap<String,NodeTransaction> cache, int max, ReentrantLock evictionLock){
+        if(!evictionLock.tryLock())
+            return;
+        try {
+            int excess = cache.size() - max;
+            if(excess <= 0)
+                return;
+            int count = excess + max / 10;
+            List<NodeTransaction> entries = new ArrayList<>(cache.values());
+            entries.sort(Comparator.comparingLong(NodeTransaction::getLastAccessed));
+            for(int i=0; i<count && i<entries.size() ;i++){
+                NodeTransaction eldest = entries.get(i);
+                cache.remove(eldest.getKey(), eldest);
+            }
+            SLOG.debug("Evicted {} entries. cache.size(): {}", count, cache.size());
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
     /**
      * Check to see if the passed NodeTransaction is stale. This is based
-     * comparing its time in the cache with the UPDATE_INTERVAL.
+     * comparing its time in the cache with the passed update interval.
      *
      * @param nodeTransaction The NodeTransaction to test.
+     * @param updateInterval The update interval in nanoseconds.
      * @return Returns true is the NodeTransaction has been in the cache longer
-     *         the UPDATE_INTERVAL.
+     *         the updateInterval.
      */
-    private static boolean staleOrMissing(NodeTransaction nodeTransaction){
-        boolean isStale = true;
-        // If it's null it's stale, if it's not null it might be stale...
-        if(nodeTransaction!=null) {
-            long timeInCache = System.nanoTime() - nodeTransaction.getTimeCreated();
-            // Is it stale?
-            isStale = timeInCache > UPDATE_INTERVAL.get();
-            if(SLOG.isDebugEnabled()) {
-                String msg ="nodeTransaction["+nodeTransaction.getKey()+
-                        "] has been in cache for " +
-                        timeInCache / (nanoInSeconds * 1.0) + " s  it's " +
-                        (isStale?"STALE":"FRESH");
-                SLOG.debug(msg);
-            }
+    private static boolean isStale(NodeTransaction nodeTransaction, long updateInterval){
+        long timeInCache = System.nanoTime() - nodeTransaction.getTimeCreated();
+        boolean isStale = timeInCache > updateInterval;
+        if(SLOG.isDebugEnabled()) {
+            String msg ="nodeTransaction["+nodeTransaction.getKey()+
+                    "] has been in cache for " +
+                    timeInCache / (nanoInSeconds * 1.0) + " s  it's " +
+                    (isStale?"STALE":"FRESH");
+            SLOG.debug(msg);
         }
         return isStale;
     }
@@ -280,9 +559,13 @@ public class BesNodeCache {
     public static void destroy(){
         LOCK.lock();
         try {
-            if(lruCache!=null)
-                lruCache.clear();
-            lruCache=null;
+            if(refreshExecutor!=null)
+                refreshExecutor.shutdownNow();
+            refreshExecutor=null;
+            nodeCache.clear();
+            negativeCache.clear();
+            missCounts.clear();
+            inFlight.clear();
             INITIALIZED.set(false);
             SLOG.info("Destroy complete.");
         }
@@ -300,24 +583,31 @@ public class BesNodeCache {
      *
      * @param id The id/key for the dummy NodeTransaction
      * @return A Dummy NodeTransaction for testing purposes.
+     * @throws IOException When the dummy response cannot be made into a BesNode.
      */
-    private static NodeTransaction getDummyCachedNodeTransaction(String id){
+    private static NodeTransaction getDummyCachedNodeTransaction(String id) throws IOException {
         Document response;
         Element e;
 
         response = new Document();
-        e= new Element("response");
-        e.setAttribute("id",id);
+        e= new Element("response", BES.BES_NS);
+        Element showNode = new Element("showNode", BES.BES_NS);
+        Element item = new Element("item", BES.BES_NS);
+        item.setAttribute("name",id);
+        item.setAttribute("size","0");
+        showNode.addContent(item);
+        e.addContent(showNode);
         response.setRootElement(e);
-        return new NodeTransaction(id,response);
+        return new NodeTransaction(id,BesNode.fromShowNode(response));
     }
 
 
     /**
      * Simple test code to verify that the BesNodeCache works as expected.
      * @param args Are ignored.
+     * @throws IOException When the dummy NodeTransactions cannot be made.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         Logger log = LoggerFactory.getLogger(BesNodeCache.class);
 
@@ -0,0 +1,242 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes.caching;
+
+import opendap.bes.BESError;
+import opendap.bes.BesApi;
+import opendap.bes.MockBesApi;
+import opendap.namespaces.BES;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BesNodeCacheTest {
+
+    /**
+     * Stands in for the BES. A showNode for a key that has a gate waits at
+     * it, and each response carries the number of the load that made it.
+     */
+    private static class FakeBesApi extends BesApi {
+        final AtomicInteger loads = new AtomicInteger();
+        final ConcurrentHashMap<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+
+        @Override
+        public void getBesNodeNoCache(String dataSource, Document response) throws BESError {
+            int load = loads.incrementAndGet();
+            if (dataSource.startsWith("/missing"))
+                throw MockBesApi.notFound(dataSource);
+            CountDownLatch gate = gates.get(dataSource);
+            try {
+                if (gate != null)
+                    gate.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Element node = MockBesApi.node(dataSource, load, MockBesApi.LAST_MODIFIED);
+            node.addContent(MockBesApi.item("data.nc", 1024, null));
+            response.setRootElement(MockBesApi.showNodeResponse(node).detachRootElement());
+        }
+    }
+
+    private FakeBesApi besApi;
+
+    @Before
+    public void setUp() {
+        BesNodeCache.init(100, 1);
+        besApi = new FakeBesApi();
+    }
+
+    @After
+    public void tearDown() {
+        BesNodeCache.destroy();
+    }
+
+    private String getLoad(String key) throws Exception {
+        return Long.toString(BesNodeCache.getNode(besApi, key).getSize());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        besApi.gates.put("/slow", gate);
+
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+                results.add(threads.submit(() -> getLoad("/slow")));
+            Thread.sleep(200);
+
+            // A different key is not held up by the load in progress.
+            assertEquals("2", getLoad("/fast"));
+            assertEquals("2", getLoad("/fast"));
+
+            gate.countDown();
+            for (Future<String> result : results)
+                assertEquals("1", result.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            threads.shutdownNow();
+        }
+        assertEquals(2, besApi.loads.get());
+    }
+
+    @Test
+    public void testStaleEntryIsServedWhileRefreshing() throws Exception {
+        assertEquals("1", getLoad("/data"));
+        Thread.sleep(1100);
+
+        CountDownLatch gate = new CountDownLatch(1);
+        besApi.gates.put("/data", gate);
+        long start = System.nanoTime();
+        assertEquals("1", getLoad("/data"));
+        assertEquals("1", getLoad("/data"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+
+        gate.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        String load = "1";
+        while ("1".equals(load) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            load = getLoad("/data");
+        }
+        assertEquals("2", load);
+        assertEquals(2, besApi.loads.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws Exception {
+        for (int i = 0; i < 100; i++)
+            getLoad("/node" + i);
+        getLoad("/node0");
+        getLoad("/node100");
+
+        int loads = besApi.loads.get();
+        getLoad("/node0");
+        assertEquals("The recently used entry was evicted.", loads, besApi.loads.get());
+        getLoad("/node1");
+        assertEquals("The least recently used entry was kept.", loads + 1, besApi.loads.get());
+    }
+
+    @Test
+    public void testCachedNodeIsSharedAndDocumentIsACopy() throws Exception {
+        BesNode node = BesNodeCache.getNode(besApi, "/data");
+        assertSame(node, BesNodeCache.getNode(besApi, "/data"));
+        assertTrue(node.isNode());
+        assertEquals("/data", node.getName());
+        assertEquals("2026-01-02T03:04:05", node.getLastModifiedString());
+        assertTrue(node.lastModified() > 0);
+
+        assertEquals(1, node.getChildren().size());
+        BesNode item = node.getChildren().get(0);
+        assertEquals("data.nc", item.getName());
+        assertEquals(1024, item.getSize());
+        assertFalse(item.isNode());
+        assertTrue(item.isData());
+
+        Document response = new Document();
+        BesNodeCache.getNode(besApi, "/data", response);
+        Element showNode = response.getRootElement().getChild("showNode", BES.BES_NS);
+        Element nodeElement = showNode.getChild("node", BES.BES_NS);
+        assertEquals("/data", nodeElement.getAttributeValue("name"));
+        nodeElement.setAttribute("name", "changed");
+
+        Document again = new Document();
+        BesNodeCache.getNode(besApi, "/data", again);
+        assertEquals("/data", again.getRootElement()
+                .getChild("showNode", BES.BES_NS)
+                .getChild("node", BES.BES_NS)
+                .getAttributeValue("name"));
+        assertEquals(1, besApi.loads.get());
+    }
+
+    private boolean isNotFound(String key) throws Exception {
+        try {
+            BesNodeCache.getNode(besApi, key);
+            return false;
+        }
+        catch (BESError e) {
+            return e.notFound();
+        }
+    }
+
+    @Test
+    public void testNegativeResultsAreAdmittedOnRepeatAndDoNotDisplaceNodes() throws Exception {
+        BesNodeCache.destroy();
+        BesNodeCache.init(10, 60, 5, 60, 2);
+
+        for (int i = 0; i < 10; i++)
+            getLoad("/node" + i);
+        int loads = besApi.loads.get();
+
+        // A single miss is not cached, the second one is.
+        assertTrue(isNotFound("/missing"));
+        assertTrue(isNotFound("/missing"));
+        assertEquals(loads + 2, besApi.loads.get());
+        assertTrue(isNotFound("/missing"));
+        assertEquals(loads + 2, besApi.loads.get());
+
+        // Lots of repeated misses fill up the negative cache, not the nodes.
+        for (int i = 0; i < 50; i++) {
+            assertTrue(isNotFound("/missing" + i));
+            assertTrue(isNotFound("/missing" + i));
+        }
+        loads = besApi.loads.get();
+        for (int i = 0; i < 10; i++)
+            getLoad("/node" + i);
+        assertEquals("A node was displaced by a negative result.", loads, besApi.loads.get());
+    }
+
+    @Test
+    public void testNegativeResultsExpire() throws Exception {
+        BesNodeCache.destroy();
+        BesNodeCache.init(10, 60, 5, 1, 1);
+
+        assertTrue(isNotFound("/missing"));
+        assertTrue(isNotFound("/missing"));
+        assertEquals(1, besApi.loads.get());
+
+        Thread.sleep(1100);
+        assertTrue(isNotFound("/missing"));
+        assertEquals(2, besApi.loads.get());
+    }
+}
@@ -1,10 +1,9 @@
 package opendap.bes.caching;
 
 import opendap.bes.BESError;
-import org.jdom.Document;
 
 /**
- * This class is used to wrap the BES response object (Document or BESError) that
+ * This class is used to wrap the BES response object (BesNode or BESError) that
  * is being cached along the creation time and the Node's key (aka datasource)
  * string. The creation time is used by the cache to determine when the cached
  * object has become "stale" and needs to be refreshed.
@@ -12,9 +11,10 @@ import org.jdom.Document;
 class NodeTransaction  {
 
     private long timeCreated;
+    private volatile long lastAccessed;
     private String key;
 
-    private Document besResponseDoc;
+    private BesNode besNode;
     private BESError besError;
 
     /**
@@ -22,14 +22,15 @@ class NodeTransaction  {
      *
      * @param key The key value string (aka datasource) which elicited the
      *            response document from the BES.
-     * @param response The response Document (returned by the BES) associated
-     *                 with "key".
+     * @param node The BesNode built from the showNode response returned by
+     *             the BES for "key".
      */
-    NodeTransaction(String key, Document response){
+    NodeTransaction(String key, BesNode node){
         this.key = key;
-        this.besResponseDoc = response;
+        this.besNode = node;
         this.besError = null;
         timeCreated = System.nanoTime();
+        lastAccessed = timeCreated;
     }
 
     /**
@@ -41,9 +42,10 @@ class NodeTransaction  {
      */
     NodeTransaction(String key, BESError error){
         this.key = key;
-        this.besResponseDoc = null;
+        this.besNode = null;
         this.besError = error;
         timeCreated = System.nanoTime();
+        lastAccessed = timeCreated;
     }
 
     /**
@@ -65,10 +67,25 @@ class NodeTransaction  {
     }
 
     /**
-     * @return The BES showNode response returned by the BES in response to a
-     * showNode request for "key".
+     * Records that this NodeTransaction has just been used.
      */
-    Document getResponseDocument(){ return besResponseDoc; }
+    void touch() {
+        lastAccessed = System.nanoTime();
+    }
+
+    /**
+     * @return The time (aka System.nanoTime()) that this NodeTransaction was
+     * created or last used, whichever is later.
+     */
+    long getLastAccessed() {
+        return lastAccessed;
+    }
+
+    /**
+     * @return The BesNode built from the BES response to a showNode request
+     * for "key".
+     */
+    BesNode getNode(){ return besNode; }
 
     /**
      * @return The BESError object returned by the BES in response to a showNode
@@ -76,6 +76,10 @@ public class Netcdf3 extends Dap4Responder {
 
 
     public boolean isDataResponder(){ return true; }
+
+    // The history attributes hold the time of the request.
+    @Override
+    public boolean hasTimeVaryingContent(){ return true; }
     public boolean isMetadataResponder(){ return false; }
 
 
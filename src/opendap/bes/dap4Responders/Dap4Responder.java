@@ -26,22 +26,42 @@
 
 package opendap.bes.dap4Responders;
 
+import opendap.async.AsyncJob;
+import opendap.async.AsyncJobDispatchHandler;
+import opendap.async.AsyncJobManager;
+import opendap.async.AsyncJobTask;
 import opendap.bes.*;
 import opendap.bes.BesApi;
+import opendap.bes.caching.BesNode;
+import opendap.bes.caching.BesNodeCache;
 import opendap.coreServlet.ReqInfo;
+import opendap.coreServlet.RequestCache;
 import opendap.coreServlet.ResourceInfo;
 import opendap.coreServlet.Scrub;
 import opendap.coreServlet.Util;
+import opendap.dap.Request;
+import opendap.dap.User;
+import opendap.dap4.QueryParameters;
 import opendap.http.error.*;
+import opendap.io.FlushPolicy;
+import opendap.io.HyraxStringEncoding;
 import opendap.namespaces.DAP;
+import org.jdom.Document;
 import org.jdom.Element;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
@@ -60,12 +80,16 @@ import java.util.regex.Pattern;
  **/
 public abstract class Dap4Responder extends BesDapResponder  {
 
+    // An ETag with the suffix a compressed response adds to it (see ResponseCompression).
+    private static final Pattern ENCODED_ETAG = Pattern.compile("(\".*)(-(?:gzip|deflate))\"");
+
     Logger _log;
 
     private MediaType _normativeMediaType;
     private Vector<Dap4Responder> _altResponders;
     private String _combinedRequestSuffixRegex;
     private boolean _addTypeSuffixToDownloadFilename;
+    private FlushPolicy _flushPolicy;
 
 
 
@@ -95,6 +119,30 @@ public abstract class Dap4Responder extends BesDapResponder  {
     }
 
 
+    /**
+     * Sets the policy that determines how often the response stream is
+     * flushed while the BES response is relayed to the client.
+     * @param flushPolicy The FlushPolicy for this responder. If null the
+     *                    responder returns to its default policy.
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy){
+        _flushPolicy = flushPolicy;
+    }
+
+
+    /**
+     * By default data responders flush once a megabyte or so has accumulated,
+     * so that bulk downloads are written to the client in large pieces, and
+     * all other responders flush after every chunk from the BES.
+     * @return The FlushPolicy for this responder.
+     */
+    public FlushPolicy getFlushPolicy(){
+        if(_flushPolicy != null)
+            return _flushPolicy;
+        return isDataResponder() ? FlushPolicy.BULK : FlushPolicy.PER_CHUNK;
+    }
+
+
     /**
      * Sets the default/standard/original media type for the responder
      * @param mt The default MediaType
@@ -310,6 +358,20 @@ public abstract class Dap4Responder extends BesDapResponder  {
             }
             _log.debug("respondToHttpGetRequest() - Target Responder: {} normative media-type: {}", targetResponder.getClass().getName(), targetResponder.getNormativeMediaType());
 
+            String etag = targetResponder.getETag(request);
+            if(etag != null){
+                String matched = ifNoneMatch(request.getHeader("If-None-Match"), etag);
+                if(matched != null){
+                    // The 304 carries the ETag of the (maybe compressed) response it stands for.
+                    _log.debug("respondToHttpGetRequest() - If-None-Match matched ETag {}, returning 304", matched);
+                    response.setHeader("ETag", matched);
+                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+                response.setHeader("ETag", etag);
+            }
+
+            RequestCache.put(FlushPolicy.REQUEST_CACHE_KEY, targetResponder.getFlushPolicy());
             targetResponder.sendNormativeRepresentation(request,response);
             return;
         }
@@ -370,6 +432,173 @@ public abstract class Dap4Responder extends BesDapResponder  {
 
 
 
+    /**
+     * Makes the ETag of this responder's response to the request. The ETag
+     * is a hash of the dataset's lastModified time and size (from the
+     * BesNodeCache), this responder, and the request URL and constraint
+     * expression, so it can be worked out without a BES data transaction.
+     *
+     * @param request The client request.
+     * @return The ETag, null when the dataset's lastModified time is not
+     * known (or the dataset cannot be found, or there is no BesNodeCache) in
+     * which case the response has no ETag.
+     */
+    public String getETag(HttpServletRequest request) throws Exception {
+
+        // Without the BesNodeCache every ETag would cost a showNode transaction.
+        if(!BesNodeCache.isInitialized())
+            return null;
+
+        String relativeUrl = ReqInfo.getLocalUrl(request);
+        String dataSource = getResourceId(relativeUrl,false);
+        if(dataSource == null)
+            return null;
+
+        BesNode node;
+        try {
+            node = getBesApi().getBesNode(dataSource);
+        }
+        catch (BESError e){
+            // The response will be the error, it gets no ETag.
+            _log.debug("getETag(): No ETag for {} msg: {}", dataSource, e.getMessage());
+            return null;
+        }
+        if(node.lastModified() < 0)
+            return null;
+
+        return makeETag(!hasTimeVaryingContent(),
+                getClass().getName(),
+                getNormativeMediaType().getMimeType(),
+                ReqInfo.getRequestUrlPath(request),
+                ReqInfo.getConstraintExpression(request),
+                Long.toString(node.lastModified()),
+                Long.toString(node.getSize()));
+    }
+
+    /**
+     * Responders whose responses hold the time of the request (e.g. the
+     * NetCDF history attribute) are not byte for byte the same from one
+     * request to the next, so they get weak ETags.
+     *
+     * @return True if the response holds something that changes with every
+     * request.
+     */
+    public boolean hasTimeVaryingContent(){
+        return false;
+    }
+
+    /**
+     * When asynchronous jobs are enabled and the request asks for an
+     * asynchronous response (dap4.async or X-DAP-Async-Accept), the task is
+     * queued as an AsyncJob and the request is answered with a 202 holding
+     * the DAP4 AsyncResponse, whose responseURL is the job's result. The
+     * async and store-result parameters are taken out of qp, the OLFS and
+     * not the BES now handles them, so the task must read them from qp when
+     * it runs.
+     *
+     * @param request The request.
+     * @param response The response, reset and sent if the job was queued.
+     * @param qp The DAP4 query parameters of the request.
+     * @param resourceID The dataset.
+     * @param task The BES transaction that makes the response.
+     * @return True if the job was queued and the request answered, false
+     * if the request should be handled as usual.
+     * @throws ServiceUnavailable When the job queue or the results are full.
+     */
+    protected boolean submitAsyncJob(HttpServletRequest request,
+                                     HttpServletResponse response,
+                                     QueryParameters qp,
+                                     String resourceID,
+                                     AsyncJobTask task) throws Exception {
+
+        AsyncJobManager jobs = AsyncJobManager.getInstance();
+        if(jobs == null || qp.getAsync() == null)
+            return false;
+
+        qp.setAsync(null);
+        qp.setIsStoreResultRequest(false);
+        qp.setStoreResultRequestServiceUrl(null);
+
+        AsyncJob job = jobs.submit(new User(request).getUID(), resourceID,
+                getNormativeMediaType().getMimeType(), getDownloadFileName(resourceID), task);
+
+        String jobUrl = new Request(null, request).getServiceUrl() + "/" + AsyncJobDispatchHandler.JOBS_PATH + job.getId();
+
+        Element asyncResponse = new Element("AsyncResponse", DAP.DAPv40_DatasetServices_NS);
+        asyncResponse.setAttribute("status", "accepted");
+        Element responseUrl = new Element("responseURL", DAP.DAPv40_DatasetServices_NS);
+        responseUrl.setText(jobUrl + "/result");
+        asyncResponse.addContent(responseUrl);
+
+        // The Last-Modified and ETag already set are those of the data, not of this.
+        response.reset();
+        opendap.bes.Version.setOpendapMimeHeaders(request, response);
+        response.setContentType("text/xml");
+        response.setHeader("Content-Description", "dap4_async_response");
+        response.setHeader("X-DAP-Async-Accepted", "true");
+        response.setHeader("Location", jobUrl);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+
+        XMLOutputter xout = new XMLOutputter(Format.getPrettyFormat());
+        OutputStreamWriter osw = new OutputStreamWriter(response.getOutputStream(), HyraxStringEncoding.getCharset());
+        xout.output(new Document(asyncResponse), osw);
+        osw.flush();
+        _log.info("Queued asynchronous job {} for {}", job.getId(), resourceID);
+        return true;
+    }
+
+    /**
+     * @param strong When false a weak ETag is made.
+     * @param parts The values that identify the response.
+     * @return An ETag made from the SHA-256 of the parts.
+     */
+    static String makeETag(boolean strong, String... parts) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        for(String part : parts){
+            md.update(part.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) 0);
+        }
+        byte[] digest = md.digest();
+        StringBuilder etag = new StringBuilder(strong ? "\"" : "W/\"");
+        for(int i=0; i<16 ;i++)
+            etag.append(String.format("%02x", digest[i]));
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Evaluates an If-None-Match header, using the weak comparison. The
+     * suffix that a compressed response adds to its ETag (see
+     * ResponseCompression) is ignored.
+     *
+     * @param ifNoneMatch The value of the If-None-Match header, may be null.
+     * @param etag The ETag of the response.
+     * @return Null if the header does not match the ETag. Otherwise the
+     * response is a 304 and this is its ETag: etag, with the suffix of the
+     * compressed response when that is what matched.
+     */
+    static String ifNoneMatch(String ifNoneMatch, String etag){
+        if(ifNoneMatch == null)
+            return null;
+        String opaque = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for(String candidate : ifNoneMatch.split(",")){
+            candidate = candidate.trim();
+            if(candidate.equals("*"))
+                return etag;
+            if(candidate.startsWith("W/"))
+                candidate = candidate.substring(2);
+            Matcher encoded = ENCODED_ETAG.matcher(candidate);
+            String suffix = null;
+            if(encoded.matches()){
+                candidate = encoded.group(1) + "\"";
+                suffix = encoded.group(2);
+            }
+            if(candidate.equals(opaque))
+                return suffix == null ? etag : etag.substring(0, etag.length() - 1) + suffix + "\"";
+        }
+        return null;
+    }
+
+
     public Element getServiceElement(String datasetUrl){
 
 
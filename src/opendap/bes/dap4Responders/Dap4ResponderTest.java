@@ -119,4 +119,29 @@ public class Dap4ResponderTest {
     	Assert.assertEquals(new_rule.getDownloadFileName("fi.h5"), "fi.nc");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testETags() throws Exception {
+        String strong = Dap4Responder.makeETag(true, "DMR", "/data/test.nc", "dap4.ce=x", "1700000000000", "1024");
+        String weak = Dap4Responder.makeETag(false, "DMR", "/data/test.nc", "dap4.ce=x", "1700000000000", "1024");
+        Assert.assertTrue(strong.matches("\"[0-9a-f]{32}\""));
+        Assert.assertEquals("W/" + strong, weak);
+        Assert.assertEquals(strong, Dap4Responder.makeETag(true, "DMR", "/data/test.nc", "dap4.ce=x", "1700000000000", "1024"));
+        Assert.assertNotEquals(strong, Dap4Responder.makeETag(true, "DMR", "/data/test.nc", "dap4.ce=y", "1700000000000", "1024"));
+        Assert.assertNotEquals(strong, Dap4Responder.makeETag(true, "DMR", "/data/test.nc", "dap4.ce=x", "1700000000001", "1024"));
+
+        Assert.assertNull(Dap4Responder.ifNoneMatch(null, strong));
+        Assert.assertEquals(strong, Dap4Responder.ifNoneMatch(strong, strong));
+        Assert.assertEquals(strong, Dap4Responder.ifNoneMatch("\"abc\", " + strong, strong));
+        Assert.assertEquals(strong, Dap4Responder.ifNoneMatch(weak, strong));
+        Assert.assertEquals(weak, Dap4Responder.ifNoneMatch(strong, weak));
+        Assert.assertEquals(strong, Dap4Responder.ifNoneMatch("*", strong));
+        Assert.assertNull(Dap4Responder.ifNoneMatch("\"abc\"", strong));
+
+        // A 304 for a compressed response carries its (compressed) ETag.
+        String gzipped = strong.substring(0, strong.length() - 1) + "-gzip\"";
+        Assert.assertEquals(gzipped, Dap4Responder.ifNoneMatch(gzipped, strong));
+        Assert.assertEquals("W/" + gzipped, Dap4Responder.ifNoneMatch("W/" + gzipped, weak));
+        Assert.assertNull(Dap4Responder.ifNoneMatch("\"abc-gzip\"", strong));
+    }
+}
@@ -84,6 +84,10 @@ public class Netcdf4DR extends Dap4Responder{
 
 
     public boolean isDataResponder(){ return true; }
+
+    // The history attributes hold the time of the request.
+    @Override
+    public boolean hasTimeVaryingContent(){ return true; }
     public boolean isMetadataResponder(){ return false; }
 
 
@@ -114,6 +118,10 @@ public class Netcdf4DR extends Dap4Responder{
 
         BesApi besApi = getBesApi();
 
+        if(submitAsyncJob(request, response, qp, resourceID,
+                (jobOs, jobTc) -> besApi.writeDap4DataAsNetcdf4(user, resourceID, qp, cf_history_entry, history_json_entry, jobOs, jobTc)))
+            return;
+
         log.debug("Sending {} for dataset: {}",getServiceTitle(),resourceID);
 
         MediaType responseMediaType =  getNormativeMediaType();
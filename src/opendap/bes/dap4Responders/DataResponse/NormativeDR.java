@@ -30,20 +30,14 @@ import opendap.bes.Version;
 import opendap.bes.BesApi;
 import opendap.bes.dap4Responders.Dap4Responder;
 import opendap.bes.dap4Responders.MediaType;
+import opendap.bes.dap4Responders.StoreResultRelay;
 import opendap.coreServlet.*;
 import opendap.dap.User;
-import opendap.dap4.Dap4Error;
 import opendap.dap4.QueryParameters;
 import opendap.http.mediaTypes.Dap4Data;
-import opendap.io.HyraxStringEncoding;
 import opendap.logging.ServletLogUtil;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.JDOMException;
-import org.jdom.input.SAXBuilder;
 import org.slf4j.Logger;
 
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
@@ -135,13 +129,17 @@ public class NormativeDR extends Dap4Responder {
 
         User user = new User(request);
 
+        if(submitAsyncJob(request, response, qp, resourceID,
+                (jobOs, jobTc) -> besApi.writeDap4Data(user, resourceID, qp, xmlBase, startID, mb.getBoundary(), jobOs, jobTc)))
+            return;
+
         DataOutputStream os;
-        ByteArrayOutputStream srr;
+        StoreResultRelay srr;
         TransmitCoordinator tc;
         if(qp.isStoreResultRequest()){
-            srr = new ByteArrayOutputStream();
+            srr = new StoreResultRelay(response);
             os = new DataOutputStream(srr);
-            tc = new ByteArrayOutputStreamTransmitCoordinator(srr);
+            tc = srr.getTransmitCoordinator();
         }
         else {
             srr = null;
@@ -156,53 +154,12 @@ public class NormativeDR extends Dap4Responder {
                 startID,
                 mb.getBoundary(),
                 os, tc);
-        if(qp.isStoreResultRequest()){
-            handleStoreResultResponse(srr, response);
+        if(srr != null){
+            srr.finish();
         }
         os.flush();
         ServletLogUtil.setResponseSize(os.size());
         log.debug("Sent {} size: {}",getServiceTitle(),os.size());
     }
 
-
-    public void handleStoreResultResponse(ByteArrayOutputStream besResponse,  HttpServletResponse resp) throws IOException {
-
-        ServletOutputStream sos = resp.getOutputStream();
-        SAXBuilder sb = new SAXBuilder();
-        Document doc;
-        try {
-            doc = sb.build(new ByteArrayInputStream(besResponse.toByteArray()));
-
-        } catch (JDOMException e) {
-            String msg = "Failed to parse asynchronous response from BES!";
-            log.error("handleStoreResultResponse() - " + msg + " Message: " + e.getMessage());
-            Dap4Error d4e = new Dap4Error();
-            d4e.setHttpStatusCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            d4e.setMessage(msg);
-            d4e.setOtherInformation(besResponse.toString( HyraxStringEncoding.getCharsetName()));
-            resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            sos.write(d4e.toString().getBytes(HyraxStringEncoding.getCharset()));
-            sos.flush();
-            return;
-        }
-
-        Element asyncResponse = doc.getRootElement();
-        String status = asyncResponse.getAttributeValue("status");
-
-        if(status.equalsIgnoreCase("required")){
-            resp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-            resp.setHeader("X-DAP-Async-Required", "true");
-        }
-        else if (status.equalsIgnoreCase("accepted")){
-            resp.setStatus(HttpServletResponse.SC_ACCEPTED);
-            resp.setHeader("X-DAP-Async-Accepted", "true");
-        }
-        else if(status.equalsIgnoreCase("rejected")){
-            resp.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
-        }
-        sos.write(besResponse.toByteArray());
-        sos.flush();
-
-    }
-
 }
@@ -64,6 +64,18 @@ public class MediaType implements Comparable, Serializable {
 
     public String getMediaSuffix(){ return _mediaSuffix;}
 
+    /**
+     * @return True for the text (and XML and JSON) types, whose responses are
+     * worth compressing.
+     */
+    public boolean isCompressible(){
+        if(_primaryType.trim().equalsIgnoreCase("text"))
+            return true;
+        String subType = _subType.split(";")[0].trim().toLowerCase();
+        return subType.equals("xml") || subType.endsWith("+xml") || subType.endsWith(".xml") ||
+                subType.equals("json") || subType.endsWith("+json");
+    }
+
     // public boolean isWildcardSubtype(){ return _stwc; }
     // public boolean isWildcardType(){ return _ptwc; }
 
@@ -0,0 +1,320 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes.dap4Responders;
+
+import opendap.coreServlet.ServletResponseTransmitCoordinator;
+import opendap.coreServlet.TransmitCoordinator;
+import opendap.dap4.Dap4Error;
+import opendap.io.FlushPolicy;
+import opendap.io.HyraxStringEncoding;
+import opendap.xml.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Relays the BES response to a store-result (asynchronous) request to the
+ * client.
+ *
+ * The HTTP status of the response depends on the status attribute of the
+ * response's root (AsyncResponse) element, so only the bytes up to the end
+ * of that element's start tag are held back. Once they have been read the
+ * status and headers are set, the held bytes are written, and the rest of
+ * the response goes straight to the client. The memory used is bounded by
+ * MAX_HEAD_SIZE however large the response is.
+ */
+public class StoreResultRelay extends OutputStream {
+
+    /**
+     * The most bytes held back while looking for the root element.
+     */
+    static final int MAX_HEAD_SIZE = 65536;
+
+    private final Logger log;
+    private final HttpServletResponse response;
+
+    private byte[] head;
+    private int headLength;
+    private OutputStream client;
+    private boolean failed;
+
+    /**
+     * @param response The response the BES response is relayed to.
+     */
+    public StoreResultRelay(HttpServletResponse response) {
+        log = LoggerFactory.getLogger(getClass());
+        this.response = response;
+        head = new byte[1024];
+        headLength = 0;
+        client = null;
+        failed = false;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (failed)
+            return;
+        if (client != null) {
+            client.write(b, off, len);
+            return;
+        }
+        if (headLength + len > head.length)
+            head = Arrays.copyOf(head, Math.max(headLength + len, head.length * 2));
+        System.arraycopy(b, off, head, headLength, len);
+        headLength += len;
+
+        int end = findRootStartTagEnd(head, headLength);
+        if (end >= 0)
+            start(end + 1);
+        else if (headLength > MAX_HEAD_SIZE)
+            fail("No root element in the first " + MAX_HEAD_SIZE + " bytes.");
+    }
+
+    /**
+     * Flushing is held off until the status has been set.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (client != null)
+            client.flush();
+    }
+
+    /**
+     * Completes the relay. A response too short to hold a complete root
+     * element is answered with an error.
+     */
+    public void finish() throws IOException {
+        if (client == null && !failed)
+            fail("The response ended before its root element.");
+        flush();
+    }
+
+    /**
+     * @return True once the status has been decided and bytes have gone to
+     * the client.
+     */
+    public boolean isStarted() {
+        return client != null || failed;
+    }
+
+    /**
+     * @return A TransmitCoordinator that can discard what has been held
+     * back, until the status has been decided.
+     */
+    public TransmitCoordinator getTransmitCoordinator() {
+        return new TransmitCoordinator() {
+            @Override
+            public boolean isCommitted() {
+                return isStarted() || response.isCommitted();
+            }
+
+            @Override
+            public void reset() throws IllegalStateException {
+                if (isStarted())
+                    throw new IllegalStateException("The store-result response has been sent.");
+                headLength = 0;
+            }
+
+            @Override
+            public FlushPolicy getFlushPolicy() {
+                return ServletResponseTransmitCoordinator.getResponseFlushPolicy();
+            }
+        };
+    }
+
+    /**
+     * Sets the status from the root element and sends what has been held back.
+     *
+     * @param rootEnd The length of the response up to the end of the root
+     *                element's start tag.
+     */
+    private void start(int rootEnd) throws IOException {
+        String status;
+        try {
+            status = getStatus(head, rootEnd);
+        }
+        catch (XMLStreamException e) {
+            fail(e.getMessage());
+            return;
+        }
+        if ("required".equalsIgnoreCase(status)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            response.setHeader("X-DAP-Async-Required", "true");
+        }
+        else if ("accepted".equalsIgnoreCase(status)) {
+            response.setStatus(HttpServletResponse.SC_ACCEPTED);
+            response.setHeader("X-DAP-Async-Accepted", "true");
+        }
+        else if ("rejected".equalsIgnoreCase(status)) {
+            response.setStatus(HttpServletResponse.SC_PRECONDITION_FAILED);
+        }
+        client = response.getOutputStream();
+        client.write(head, 0, headLength);
+        head = null;
+    }
+
+    private void fail(String reason) throws IOException {
+        String msg = "Failed to parse asynchronous response from BES!";
+        log.error("StoreResultRelay - {} Message: {}", msg, reason);
+        Dap4Error d4e = new Dap4Error();
+        d4e.setHttpStatusCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        d4e.setMessage(msg);
+        d4e.setOtherInformation(new String(head, 0, headLength, HyraxStringEncoding.getCharset()));
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        OutputStream sos = response.getOutputStream();
+        sos.write(d4e.toString().getBytes(HyraxStringEncoding.getCharset()));
+        sos.flush();
+        failed = true;
+        head = null;
+    }
+
+    /**
+     * @return The status attribute of the root element, null if it has none.
+     * @throws XMLStreamException When the start of the document is not XML.
+     */
+    static String getStatus(byte[] doc, int length) throws XMLStreamException {
+        XMLStreamReader reader = Util.getXmlInputFactory().createXMLStreamReader(
+                new ByteArrayInputStream(doc, 0, length));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT)
+                    return reader.getAttributeValue(null, "status");
+            }
+        }
+        finally {
+            reader.close();
+        }
+        throw new XMLStreamException("No root element found.");
+    }
+
+    /**
+     * Finds the '>' that ends the start tag of the root element, passing
+     * over the XML declaration, processing instructions, comments and a
+     * DOCTYPE.
+     *
+     * @return The index of the '>', -1 if it is not in the first length bytes.
+     */
+    static int findRootStartTagEnd(byte[] b, int length) {
+        int i = 0;
+        while (true) {
+            while (i < length && b[i] != '<')
+                i++;
+            if (i + 1 >= length)
+                return -1;
+            byte next = b[i + 1];
+            if (next == '?') {
+                i = indexOf(b, length, "?>", i + 2);
+            }
+            else if (next == '!') {
+                if (startsWith(b, length, "<!--", i))
+                    i = indexOf(b, length, "-->", i + 4);
+                else
+                    i = skipDeclaration(b, length, i + 2);
+            }
+            else {
+                byte quote = 0;
+                for (int j = i + 1; j < length; j++) {
+                    if (quote != 0) {
+                        if (b[j] == quote)
+                            quote = 0;
+                    }
+                    else if (b[j] == '"' || b[j] == '\'') {
+                        quote = b[j];
+                    }
+                    else if (b[j] == '>') {
+                        return j;
+                    }
+                }
+                return -1;
+            }
+            if (i < 0)
+                return -1;
+        }
+    }
+
+    /**
+     * @return The index after the '>' ending a declaration such as DOCTYPE,
+     * which may have an internal subset in brackets, -1 if it is incomplete.
+     */
+    private static int skipDeclaration(byte[] b, int length, int from) {
+        int depth = 0;
+        byte quote = 0;
+        for (int j = from; j < length; j++) {
+            if (quote != 0) {
+                if (b[j] == quote)
+                    quote = 0;
+            }
+            else if (b[j] == '"' || b[j] == '\'') {
+                quote = b[j];
+            }
+            else if (b[j] == '[') {
+                depth++;
+            }
+            else if (b[j] == ']') {
+                depth--;
+            }
+            else if (b[j] == '>' && depth <= 0) {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The index after the match, -1 if there isn't one.
+     */
+    private static int indexOf(byte[] b, int length, String s, int from) {
+        for (int i = from; i + s.length() <= length; i++) {
+            if (startsWith(b, length, s, i))
+                return i + s.length();
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] b, int length, String s, int at) {
+        if (at + s.length() > length)
+            return false;
+        for (int k = 0; k < s.length(); k++) {
+            if (b[at + k] != s.charAt(k))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.bes.dap4Responders;
+
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StoreResultRelayTest {
+
+    /**
+     * Just enough of a servlet response to hold the status, headers and body.
+     */
+    private static class FakeResponse {
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int status = HttpServletResponse.SC_OK;
+
+        HttpServletResponse proxy() {
+            ServletOutputStream sos = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class}, (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "getOutputStream":
+                                return sos;
+                            case "setStatus":
+                                status = (Integer) args[0];
+                                return null;
+                            case "setHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "isCommitted":
+                                return body.size() > 0;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private static final String ACCEPTED =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!-- stored result -->\n" +
+            "<AsyncResponse xmlns=\"http://xml.opendap.org/ns/DAP/4.0/dataset-services#\" status=\"accepted\">\n" +
+            "  <expectedDelay seconds=\"3\"/>\n" +
+            "  <responseURL>http://localhost:8080/opendap/storedResults/result_1.dap</responseURL>\n" +
+            "</AsyncResponse>\n";
+
+    @Test
+    public void testStatusIsSetBeforeTheBodyIsRelayed() throws Exception {
+        FakeResponse fake = new FakeResponse();
+        StoreResultRelay relay = new StoreResultRelay(fake.proxy());
+        byte[] doc = ACCEPTED.getBytes(StandardCharsets.UTF_8);
+        int rootEnd = ACCEPTED.indexOf("accepted\">") + 9;
+
+        relay.write(doc, 0, rootEnd);
+        assertFalse(relay.getTransmitCoordinator().isCommitted());
+        assertEquals(0, fake.body.size());
+
+        relay.write(doc, rootEnd, 1);
+        assertEquals(HttpServletResponse.SC_ACCEPTED, fake.status);
+        assertEquals("true", fake.headers.get("X-DAP-Async-Accepted"));
+        assertEquals(rootEnd + 1, fake.body.size());
+        assertTrue(relay.getTransmitCoordinator().isCommitted());
+
+        relay.write(doc, rootEnd + 1, doc.length - rootEnd - 1);
+        relay.finish();
+        assertEquals(ACCEPTED, fake.body.toString("UTF-8"));
+    }
+
+    @Test
+    public void testStatuses() throws Exception {
+        String[][] cases = {
+                {"required", "400", "X-DAP-Async-Required"},
+                {"rejected", "412", null},
+                {"pending", "200", null},
+        };
+        for (String[] c : cases) {
+            FakeResponse fake = new FakeResponse();
+            StoreResultRelay relay = new StoreResultRelay(fake.proxy());
+            String doc = ACCEPTED.replace("accepted", c[0]);
+            relay.write(doc.getBytes(StandardCharsets.UTF_8));
+            relay.finish();
+            assertEquals(c[0], Integer.parseInt(c[1]), fake.status);
+            if (c[2] != null)
+                assertEquals("true", fake.headers.get(c[2]));
+            assertEquals(doc, fake.body.toString("UTF-8"));
+        }
+    }
+
+    @Test
+    public void testLargeResponseIsNotHeld() throws Exception {
+        FakeResponse fake = new FakeResponse();
+        StoreResultRelay relay = new StoreResultRelay(fake.proxy());
+        relay.write("<AsyncResponse status='accepted'><data>".getBytes(StandardCharsets.UTF_8));
+        int before = fake.body.size();
+        byte[] block = new byte[StoreResultRelay.MAX_HEAD_SIZE];
+        relay.write(block);
+        assertEquals(before + block.length, fake.body.size());
+    }
+
+    @Test
+    public void testNotXml() throws Exception {
+        FakeResponse fake = new FakeResponse();
+        StoreResultRelay relay = new StoreResultRelay(fake.proxy());
+        relay.write("BES error, no XML here".getBytes(StandardCharsets.UTF_8));
+        relay.finish();
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, fake.status);
+        assertTrue(fake.body.toString("UTF-8").contains("BES error, no XML here"));
+
+        fake = new FakeResponse();
+        relay = new StoreResultRelay(fake.proxy());
+        byte[] text = new byte[StoreResultRelay.MAX_HEAD_SIZE + 1];
+        Arrays.fill(text, (byte) 'x');
+        relay.write(text);
+        assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, fake.status);
+        relay.write("more".getBytes(StandardCharsets.UTF_8));
+        relay.finish();
+    }
+
+    @Test
+    public void testFindRootStartTagEnd() {
+        String doc = "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY b \"c>\">]><!-- <x> --><a t='>'>";
+        byte[] b = doc.getBytes(StandardCharsets.UTF_8);
+        assertEquals(doc.length() - 1, StoreResultRelay.findRootStartTagEnd(b, b.length));
+        assertEquals(-1, StoreResultRelay.findRootStartTagEnd(b, b.length - 1));
+        assertEquals(-1, StoreResultRelay.findRootStartTagEnd(b, 30));
+    }
+}
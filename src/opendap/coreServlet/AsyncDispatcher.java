@@ -0,0 +1,611 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.coreServlet;
+
+import opendap.bes.BadConfigurationException;
+import opendap.bes.BesDapDispatcher;
+import opendap.http.error.ServiceUnavailable;
+import opendap.logging.Procedure;
+import opendap.logging.ServletLogUtil;
+import opendap.logging.Timer;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the requests handled by the BesDapDispatcher (and its subclasses)
+ * asynchronously, using the Servlet 3.0 AsyncContext. The container thread
+ * that received the request hands it to a bounded pool of worker threads
+ * and goes back to the connector, so a request that is waiting on a long
+ * BES transaction no longer holds a container thread.
+ *
+ * The worker pool is sized to the BES client pools by default: there is no
+ * point in having more requests working than there are BES connections for
+ * them. Requests beyond that wait in a queue, and when the queue is full
+ * they are answered with a 503 (Service Unavailable).
+ *
+ * A request that has not been completed when the timeout runs out is
+ * abandoned: the client is sent a 503 if nothing has been sent yet, and the
+ * request is completed. The worker is not interrupted (an interrupted NIO
+ * read would look like a BES failure), it only ever sees the response
+ * through a wrapper that shuts it out once the request has been abandoned:
+ * a write that is under way finishes before the 503 is sent, and every
+ * write after that fails, so nothing the worker is still relaying can reach
+ * the response once the container has recycled it.
+ *
+ * Configured in olfs.xml by:
+ * <pre>
+ *     &lt;AsyncDispatch threads="..." maxQueued="1000" timeout="0" retryAfter="5" /&gt;
+ * </pre>
+ */
+public class AsyncDispatcher {
+
+    public static final String CONFIG_ELEMENT = "AsyncDispatch";
+
+    private static final int DEFAULT_MAX_QUEUED = 1000;
+    private static final int DEFAULT_RETRY_AFTER = 5;
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncDispatcher.class);
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore admitted;
+    private final int threads;
+    private final int maxQueued;
+    private final long timeout;
+    private final int retryAfter;
+
+    /**
+     * @param config The AsyncDispatch configuration element.
+     * @param defaultThreads The number of worker threads to use when the configuration does not say.
+     * @throws BadConfigurationException When an attribute is not a suitable number.
+     */
+    public AsyncDispatcher(Element config, int defaultThreads) throws BadConfigurationException {
+        threads = getIntAttribute(config, "threads", Math.max(1, defaultThreads), 1);
+        maxQueued = getIntAttribute(config, "maxQueued", DEFAULT_MAX_QUEUED, 0);
+        timeout = TimeUnit.SECONDS.toMillis(getIntAttribute(config, "timeout", 0, 0));
+        retryAfter = getIntAttribute(config, "retryAfter", DEFAULT_RETRY_AFTER, 0);
+
+        admitted = new Semaphore(threads + maxQueued);
+        AtomicInteger threadCount = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "hyrax-async-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        log.info("Asynchronous dispatch is enabled. threads: {} maxQueued: {} timeout: {} ms retryAfter: {} s",
+                threads, maxQueued, timeout, retryAfter);
+    }
+
+    private static int getIntAttribute(Element config, String name, int defaultValue, int min)
+            throws BadConfigurationException {
+        String value = config.getAttributeValue(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            int i = Integer.parseInt(value.trim());
+            if (i >= min)
+                return i;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the exception below.
+        }
+        throw new BadConfigurationException("The " + CONFIG_ELEMENT + " attribute '" + name +
+                "' must be an integer no less than " + min + ". Found: '" + value + "'");
+    }
+
+    /**
+     * @param request The request.
+     * @param dh The handler that claimed the request.
+     * @return True if the request should be handled asynchronously.
+     */
+    public boolean canDispatch(HttpServletRequest request, DispatchHandler dh) {
+        return dh instanceof BesDapDispatcher && request.isAsyncSupported() && !request.isAsyncStarted();
+    }
+
+    /**
+     * Puts the request into asynchronous mode and queues it for a worker
+     * thread, which runs the handler and completes the request. The
+     * request cache and the logging context of the current thread go with
+     * it. Once this returns the calling thread must leave the request and
+     * response alone.
+     *
+     * @param servlet The servlet, for the error handling.
+     * @param dh The handler that claimed the request.
+     * @param request The request.
+     * @param response The response.
+     * @return False if the request could not be put into asynchronous mode, in which
+     * case the caller still owns the request and should handle it itself.
+     * @throws ServiceUnavailable When every worker is busy and the queue is full. Nothing
+     * has been started in this case, the caller still owns the request.
+     */
+    public boolean dispatch(HttpServlet servlet, DispatchHandler dh, HttpServletRequest request, HttpServletResponse response)
+            throws ServiceUnavailable {
+
+        if (!admitted.tryAcquire()) {
+            throw new ServiceUnavailable("The server is busy, " + threads + " requests are in progress and " +
+                    maxQueued + " are waiting. Please try again later.", retryAfter);
+        }
+
+        AsyncContext asyncContext;
+        try {
+            asyncContext = request.startAsync(request, response);
+        }
+        catch (IllegalStateException e) {
+            admitted.release();
+            log.warn("Unable to start asynchronous processing of the request. msg: {}", e.getMessage());
+            return false;
+        }
+        Task task = new Task();
+        asyncContext.setTimeout(timeout);
+        asyncContext.addListener(new TimeoutListener(task));
+
+        Map<String, String> logContext = MDC.getCopyOfContextMap();
+        HashMap<String, RequestCache.CachedObj> requestCache = RequestCache.detach();
+        Runnable work = () -> handleRequest(servlet, dh, asyncContext, task, logContext, requestCache);
+        try {
+            executor.execute(work);
+        }
+        catch (RejectedExecutionException e) {
+            log.warn("Asynchronous dispatch rejected the request, handling it in the calling thread.");
+            work.run();
+        }
+        return true;
+    }
+
+    private void handleRequest(HttpServlet servlet,
+                               DispatchHandler dh,
+                               AsyncContext asyncContext,
+                               Task task,
+                               Map<String, String> logContext,
+                               HashMap<String, RequestCache.CachedObj> requestCache) {
+
+        HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse response = new AbandonableResponse(
+                (HttpServletResponse) asyncContext.getResponse(), task);
+
+        if (logContext != null)
+            MDC.setContextMap(logContext);
+        RequestCache.attach(requestCache);
+
+        int httpStatus = HttpServletResponse.SC_OK;
+        Procedure timedProcedure = Timer.start();
+        try {
+            if (task.start()) {
+                log.debug("Request being handled asynchronously by: {}", dh.getClass().getName());
+                dh.handleRequest(request, response);
+                // The handler may have set a status of its own, e.g. a 304.
+                httpStatus = response.getStatus();
+            }
+        }
+        catch (Throwable t) {
+            try {
+                if (task.isCancelled())
+                    log.info("The request timed out and was abandoned. msg: {}", t.getMessage());
+                else
+                    httpStatus = OPeNDAPException.anyExceptionHandler(t, servlet, response);
+            }
+            catch (Throwable t2) {
+                try {
+                    log.error("Request processing failed. Normal Exception handling failed.", t2);
+                }
+                catch (Throwable t3) {
+                    // It's boned now... Leave it be.
+                }
+            }
+        }
+        finally {
+            Timer.stop(timedProcedure);
+            boolean completing = task.finish();
+            if (completing) {
+                try {
+                    // The timeout can no longer take the response, so this needs no guarding.
+                    ResponseCompression.finish((HttpServletResponse) asyncContext.getResponse());
+                }
+                catch (IOException e) {
+                    log.warn("Unable to finish the compressed response. msg: {}", e.getMessage());
+                }
+            }
+            else {
+                httpStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+            }
+            ServletLogUtil.logServerAccessEnd(httpStatus, ServletLogUtil.HYRAX_ACCESS_LOG_ID);
+            RequestCache.close();
+            admitted.release();
+            if (completing) {
+                try {
+                    asyncContext.complete();
+                }
+                catch (IllegalStateException e) {
+                    log.warn("Unable to complete the asynchronous request. msg: {}", e.getMessage());
+                }
+            }
+            log.info("Response completed.\n");
+            log.info("Timing Report: \n{}", Timer.report());
+            Timer.reset();
+        }
+    }
+
+    /**
+     * @return The number of requests being worked on or waiting for a worker.
+     */
+    public int getActiveCount() {
+        return threads + maxQueued - admitted.availablePermits();
+    }
+
+    public void destroy() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS))
+                executor.shutdownNow();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Decides, between a request's worker and its timeout, which one
+     * finishes the response.
+     */
+    private static class Task {
+        private boolean done;
+        private boolean cancelled;
+
+        /**
+         * @return False if the request timed out before the worker got to it.
+         */
+        synchronized boolean start() {
+            return !cancelled;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Called by the worker when it is done with the request.
+         * @return True if the worker is to finish and complete the response, false if
+         * the request timed out and has been completed already.
+         */
+        synchronized boolean finish() {
+            if (cancelled)
+                return false;
+            done = true;
+            return true;
+        }
+
+        /**
+         * Abandons the request. The worker's writes hold the same lock, so
+         * once this returns the worker is shut out of the response.
+         * @return False if the worker has already finished the response.
+         */
+        synchronized boolean cancel() {
+            if (done || cancelled)
+                return false;
+            cancelled = true;
+            return true;
+        }
+    }
+
+    /**
+     * The response as the worker sees it: once the request has been
+     * abandoned, writes fail and everything else that would change the
+     * response is ignored.
+     */
+    private static class AbandonableResponse extends HttpServletResponseWrapper {
+        private final Task task;
+        private ServletOutputStream stream;
+        private PrintWriter writer;
+
+        AbandonableResponse(HttpServletResponse response, Task task) {
+            super(response);
+            this.task = task;
+        }
+
+        private void checkAbandoned() throws IOException {
+            if (task.isCancelled())
+                throw new IOException("The request timed out and its response was abandoned.");
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null)
+                throw new IllegalStateException("getWriter() has already been called for this response.");
+            if (stream == null)
+                stream = new AbandonableOutputStream(super.getOutputStream());
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null)
+                    throw new IllegalStateException("getOutputStream() has already been called for this response.");
+                stream = new AbandonableOutputStream(super.getOutputStream());
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            synchronized (task) {
+                checkAbandoned();
+                if (writer != null)
+                    writer.flush();
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            synchronized (task) {
+                checkAbandoned();
+                super.sendError(sc, msg);
+            }
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            synchronized (task) {
+                checkAbandoned();
+                super.sendError(sc);
+            }
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            synchronized (task) {
+                checkAbandoned();
+                super.sendRedirect(location);
+            }
+        }
+
+        @Override
+        public void setStatus(int sc) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setStatus(sc);
+            }
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setDateHeader(String name, long date) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void addDateHeader(String name, long date) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.addDateHeader(name, date);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.addIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setContentType(String type) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setContentType(type);
+            }
+        }
+
+        @Override
+        public void setContentLength(int len) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setContentLength(len);
+            }
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setContentLengthLong(len);
+            }
+        }
+
+        @Override
+        public void setCharacterEncoding(String charset) {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.setCharacterEncoding(charset);
+            }
+        }
+
+        @Override
+        public void reset() {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.reset();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            synchronized (task) {
+                if (!task.isCancelled())
+                    super.resetBuffer();
+            }
+        }
+
+        private class AbandonableOutputStream extends ServletOutputStream {
+            private final ServletOutputStream out;
+
+            AbandonableOutputStream(ServletOutputStream out) {
+                this.out = out;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                synchronized (task) {
+                    checkAbandoned();
+                    out.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (task) {
+                    checkAbandoned();
+                    out.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (task) {
+                    checkAbandoned();
+                    out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                synchronized (task) {
+                    checkAbandoned();
+                    out.close();
+                }
+            }
+
+            @Override
+            public boolean isReady() {
+                // Writes block.
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                throw new UnsupportedOperationException("Non-blocking writes are not supported by an asynchronous dispatch.");
+            }
+        }
+    }
+
+    private static class TimeoutListener implements AsyncListener {
+        private final Task task;
+
+        TimeoutListener(Task task) {
+            this.task = task;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // Nothing to do.
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            if (!task.cancel())
+                return;
+            log.error("An asynchronous request timed out before its response was completed, abandoning it.");
+            // The worker is shut out of the response now, whatever it is doing.
+            AsyncContext asyncContext = event.getAsyncContext();
+            try {
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                if (!response.isCommitted())
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                            "The request timed out before its response was completed.");
+            }
+            catch (IOException | IllegalStateException e) {
+                log.warn("Unable to send the timeout error. msg: {}", e.getMessage());
+            }
+            asyncContext.complete();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            log.error("An asynchronous request failed. msg: {}",
+                    event.getThrowable() == null ? "unknown" : event.getThrowable().getMessage());
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Nothing to do.
+        }
+    }
+}
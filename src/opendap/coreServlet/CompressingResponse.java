@@ -0,0 +1,285 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.coreServlet;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response that compresses its body, see ResponseCompression.
+ *
+ * The first minSize bytes are held back. Once there are more than that,
+ * and if the Content-Type is one that is compressed, the Content-Encoding
+ * header is set and the body is compressed as it is written, with each
+ * flush() pushing out what has been compressed so far. A body that never
+ * grows beyond minSize is sent as it is when the response is finished.
+ */
+class CompressingResponse extends HttpServletResponseWrapper {
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    private final ResponseCompression compression;
+    private final String encoding;
+
+    private CompressingOutputStream stream;
+    private PrintWriter writer;
+
+    // Set when the response has a Content-Length or Content-Encoding of its
+    // own, which rules out compressing it.
+    private boolean passThrough;
+
+    CompressingResponse(HttpServletResponse response, ResponseCompression compression, String encoding) {
+        super(response);
+        this.compression = compression;
+        this.encoding = encoding;
+        passThrough = false;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null)
+            throw new IllegalStateException("getWriter() has already been called for this response.");
+        if (stream == null)
+            stream = new CompressingOutputStream();
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null)
+                throw new IllegalStateException("getOutputStream() has already been called for this response.");
+            stream = new CompressingOutputStream();
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        passThrough = true;
+        super.setContentLength(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        passThrough = true;
+        super.setContentLengthLong(len);
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        checkHeader(name);
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        checkHeader(name);
+        super.addHeader(name, value);
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        checkHeader(name);
+        super.setIntHeader(name, value);
+    }
+
+    private void checkHeader(String name) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name) || CONTENT_ENCODING.equalsIgnoreCase(name))
+            passThrough = true;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null)
+            writer.flush();
+        else if (stream != null)
+            stream.flush();
+        super.flushBuffer();
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        passThrough = false;
+        stream = null;
+        writer = null;
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (stream != null)
+            stream.resetBuffer();
+    }
+
+    /**
+     * Writes out what is held back, and the end of the compressed stream.
+     */
+    void finish() throws IOException {
+        if (writer != null)
+            writer.flush();
+        if (stream != null)
+            stream.finish();
+    }
+
+    /**
+     * Marks the ETag as belonging to the compressed representation. The
+     * Dap4Responder drops the suffix again when it compares ETags.
+     */
+    private void setEncodedETag() {
+        String etag = ((HttpServletResponse) getResponse()).getHeader("ETag");
+        if (etag != null && etag.endsWith("\""))
+            super.setHeader("ETag", etag.substring(0, etag.length() - 1) + "-" + encoding + "\"");
+    }
+
+    private class CompressingOutputStream extends ServletOutputStream {
+        private byte[] held;
+        private int heldCount;
+        private OutputStream out;
+        private Deflater deflater;
+        private boolean finished;
+
+        CompressingOutputStream() {
+            held = new byte[Math.max(compression.getMinSize(), 1)];
+            heldCount = 0;
+            out = null;
+            finished = false;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (out == null) {
+                if (!passThrough && heldCount + len <= compression.getMinSize()) {
+                    System.arraycopy(b, off, held, heldCount, len);
+                    heldCount += len;
+                    return;
+                }
+                start(!passThrough && compression.isCompressible(getContentType()));
+            }
+            out.write(b, off, len);
+        }
+
+        /**
+         * Decides how the body is sent and sends what was held back.
+         */
+        private void start(boolean compress) throws IOException {
+            OutputStream os = getResponse().getOutputStream();
+            if (compress) {
+                CompressingResponse.super.setHeader(CONTENT_ENCODING, encoding);
+                CompressingResponse.super.addHeader("Vary", "Accept-Encoding");
+                setEncodedETag();
+                if (encoding.equals("gzip")) {
+                    GzipStream gzip = new GzipStream(os, compression.getLevel());
+                    deflater = gzip.getDeflater();
+                    out = gzip;
+                }
+                else {
+                    deflater = new Deflater(compression.getLevel());
+                    out = new DeflaterOutputStream(os, deflater, 8192, true);
+                }
+            }
+            else {
+                out = os;
+            }
+            out.write(held, 0, heldCount);
+            held = null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // What is held back is too little to be worth sending early.
+            if (out != null)
+                out.flush();
+        }
+
+        @Override
+        public boolean isReady() {
+            // Writes block.
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new UnsupportedOperationException("Non-blocking writes are not supported by a compressed response.");
+        }
+
+        void resetBuffer() {
+            if (out == null)
+                heldCount = 0;
+        }
+
+        void finish() throws IOException {
+            if (finished)
+                return;
+            finished = true;
+            if (out == null) {
+                if (heldCount == 0)
+                    return;
+                if (!isCommitted() && !passThrough)
+                    CompressingResponse.super.setContentLength(heldCount);
+                start(false);
+            }
+            if (deflater != null) {
+                ((DeflaterOutputStream) out).finish();
+                deflater.end();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * A GZIPOutputStream with a compression level, that lets its Deflater
+     * be ended without closing the servlet's stream.
+     */
+    private static class GzipStream extends GZIPOutputStream {
+        GzipStream(OutputStream out, int level) throws IOException {
+            super(out, 8192, true);
+            def.setLevel(level);
+        }
+
+        Deflater getDeflater() {
+            return def;
+        }
+    }
+}
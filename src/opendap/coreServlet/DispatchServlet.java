@@ -27,8 +27,10 @@
 package opendap.coreServlet;
 
 
+import opendap.async.AsyncJobManager;
 import opendap.auth.AuthenticationControls;
 import opendap.bes.BESManager;
+import opendap.bes.BadConfigurationException;
 import opendap.http.error.NotFound;
 import opendap.logging.ServletLogUtil;
 import opendap.logging.Procedure;
@@ -89,6 +91,9 @@ public class DispatchServlet extends HttpServlet {
 
     private static final Logger log = LoggerFactory.getLogger(DispatchServlet.class);
 
+    private static AsyncDispatcher asyncDispatcher = null;
+    private static ResponseCompression responseCompression = null;
+
     protected static Document configDoc;
 
     /**
@@ -161,6 +166,12 @@ public class DispatchServlet extends HttpServlet {
 
             initBesManager();
 
+            initAsyncDispatcher(config);
+
+            initResponseCompression(config);
+
+            initAsyncJobs(config);
+
             initAuthenticationControls();
 
             try {
@@ -185,6 +196,62 @@ public class DispatchServlet extends HttpServlet {
 
 
 
+    /**
+     * If the configuration contains an AsyncDispatch element the requests
+     * for the BesDapDispatcher are run asynchronously, on a pool of worker
+     * threads sized by default to the BES client pools.
+     */
+    private void initAsyncDispatcher(Element config) throws ServletException {
+        Element asyncDispatch = config.getChild(AsyncDispatcher.CONFIG_ELEMENT);
+        if (asyncDispatch == null)
+            return;
+        try {
+            asyncDispatcher = new AsyncDispatcher(asyncDispatch, BESManager.getTotalMaxClients());
+        } catch (Exception e) {
+            throw new ServletException(e);
+        }
+    }
+
+
+    /**
+     * If the configuration contains a Compression element the text
+     * responses are compressed for the clients that accept it.
+     */
+    private void initResponseCompression(Element config) throws ServletException {
+        Element compression = config.getChild(ResponseCompression.CONFIG_ELEMENT);
+        if (compression == null)
+            return;
+        try {
+            responseCompression = new ResponseCompression(compression);
+        } catch (BadConfigurationException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * If the configuration contains an AsyncJobs element the data requests
+     * that ask for an asynchronous response are run as jobs.
+     */
+    private void initAsyncJobs(Element config) throws ServletException {
+        try {
+            AsyncJobManager.init(config);
+        } catch (BadConfigurationException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    /**
+     * Writes the end of a compressed response.
+     */
+    private void finishResponse(HttpServletResponse response) {
+        try {
+            ResponseCompression.finish(response);
+        } catch (IOException e) {
+            log.warn("Unable to finish the compressed response. msg: {}", e.getMessage());
+        }
+    }
+
+
     private void initBesManager() throws ServletException {
         Element besManagerElement = configDoc.getRootElement().getChild(BESManager.BES_MANAGER_CONFIG_ELEMENT);
         if (besManagerElement == null) {
@@ -262,6 +329,14 @@ public class DispatchServlet extends HttpServlet {
 
         Element noDynamicNavigation = config.getChild("NoDynamicNavigation");
         httpGetDispatchHandlers.add(new opendap.bes.VersionDispatchHandler());
+        if(config.getChild("BesPoolMetrics")!=null) {
+            log.info("The BES pool metrics service is enabled.");
+            httpGetDispatchHandlers.add(new opendap.bes.BesPoolMetricsDispatchHandler());
+        }
+        if(AsyncJobManager.getInstance()!=null) {
+            log.info("Asynchronous jobs are enabled.");
+            httpGetDispatchHandlers.add(new opendap.async.AsyncJobDispatchHandler());
+        }
         httpGetDispatchHandlers.add(new opendap.ncml.NcmlDatasetDispatcher());
         httpGetDispatchHandlers.add(new opendap.threddsHandler.StaticCatalogDispatch());
 
@@ -390,6 +465,10 @@ public class DispatchServlet extends HttpServlet {
         String relativeUrl = ReqInfo.getLocalUrl(request);
 
         int httpStatus = HttpServletResponse.SC_OK;
+        boolean dispatchedAsync = false;
+
+        if (responseCompression != null)
+            response = responseCompression.wrap(request, response);
 
         try {
             Procedure timedProcedure = Timer.start();
@@ -427,8 +506,16 @@ public class DispatchServlet extends HttpServlet {
 
                 DispatchHandler dh = getDispatchHandler(request, httpGetDispatchHandlers);
                 if (dh != null) {
-                    log.debug("Request being handled by: {}", dh.getClass().getName());
-                    dh.handleRequest(request, response);
+                    if (asyncDispatcher != null && asyncDispatcher.canDispatch(request, dh)) {
+                        // From here on the request belongs to a worker thread.
+                        dispatchedAsync = asyncDispatcher.dispatch(this, dh, request, response);
+                    }
+                    if (!dispatchedAsync) {
+                        log.debug("Request being handled by: {}", dh.getClass().getName());
+                        dh.handleRequest(request, response);
+                        // The handler may have set a status of its own, e.g. a 304.
+                        httpStatus = response.getStatus();
+                    }
 
                 } else {
                     httpStatus = OPeNDAPException.anyExceptionHandler(new NotFound("Failed to locate resource: " + relativeUrl), this, response);
@@ -451,9 +538,17 @@ public class DispatchServlet extends HttpServlet {
                 }
             }
         } finally {
-            ServletLogUtil.logServerAccessEnd(httpStatus, ServletLogUtil.HYRAX_ACCESS_LOG_ID);
-            RequestCache.close();
-            log.info("Response completed.\n");
+            if (dispatchedAsync) {
+                // The worker thread has its own copy of the logging context.
+                ServletLogUtil.cleanupMDC();
+                log.info("Request dispatched for asynchronous processing.");
+            }
+            else {
+                finishResponse(response);
+                ServletLogUtil.logServerAccessEnd(httpStatus, ServletLogUtil.HYRAX_ACCESS_LOG_ID);
+                RequestCache.close();
+                log.info("Response completed.\n");
+            }
         }
 
         log.info("Timing Report: \n{}", Timer.report());
@@ -490,6 +585,9 @@ public class DispatchServlet extends HttpServlet {
 
         int httpStatus = HttpServletResponse.SC_OK;
 
+        if (responseCompression != null)
+            response = responseCompression.wrap(request, response);
+
         try {
             try {
 
@@ -513,6 +611,7 @@ public class DispatchServlet extends HttpServlet {
                 if (dh != null) {
                     log.debug("Request being handled by: {}", dh.getClass().getName());
                     dh.handleRequest(request, response);
+                    httpStatus = response.getStatus();
 
                 } else {
                     httpStatus = OPeNDAPException.anyExceptionHandler(new NotFound("Failed to locate resource: " + relativeUrl), this, response);
@@ -533,6 +632,7 @@ public class DispatchServlet extends HttpServlet {
                 }
             }
         } finally {
+            finishResponse(response);
             ServletLogUtil.logServerAccessEnd(httpStatus, ServletLogUtil.HYRAX_ACCESS_LOG_ID);
             RequestCache.close();
         }
@@ -612,6 +712,11 @@ public class DispatchServlet extends HttpServlet {
             log.debug("Shutting down handler: {}", dh.getClass().getName());
             dh.destroy();
         }
+        if (asyncDispatcher != null) {
+            asyncDispatcher.destroy();
+            asyncDispatcher = null;
+        }
+        AsyncJobManager.shutdown();
         BESManager.destroy();
         super.destroy();
     }
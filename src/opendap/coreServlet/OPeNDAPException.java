@@ -81,6 +81,13 @@ public class OPeNDAPException extends Exception {
     private int _httpStatusCode;
 
 
+    /**
+     * Seconds the client should wait before trying again, sent as the
+     * Retry-After header. Not sent when less than 0.
+     */
+    private int _retryAfter = -1;
+
+
     private MediaType _responseMediaType;
 
 
@@ -286,6 +293,9 @@ public class OPeNDAPException extends Exception {
 
     public void sendHttpErrorResponse(HttpServletResponse response) throws Exception {
 
+        if(_retryAfter >= 0)
+            response.setHeader("Retry-After", Integer.toString(_retryAfter));
+
         MediaType errorResponseMediaType = (MediaType) RequestCache.get(ERROR_RESPONSE_MEDIA_TYPE_KEY);
 
         if(errorResponseMediaType==null)
@@ -353,6 +363,21 @@ public class OPeNDAPException extends Exception {
     }
 
 
+    /**
+     * @param seconds The value of the Retry-After header sent with the error response. Less than 0 for none.
+     */
+    public void setRetryAfter(int seconds){
+        _retryAfter = seconds;
+    }
+
+    /**
+     * @return The value of the Retry-After header sent with the error response, less than 0 if none is sent.
+     */
+    public int getRetryAfter(){
+        return _retryAfter;
+    }
+
+
     /**
      *
      * @return  The HTTP status code associated with the error.
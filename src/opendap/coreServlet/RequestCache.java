@@ -59,7 +59,7 @@ public class RequestCache {
     }
     //private static long maxCacheTime = 10000; // in milliseconds
 
-    private static class CachedObj {
+    static class CachedObj {
         private final Object myObj;
         Date creationTime;
         public CachedObj (Object o){
@@ -109,6 +109,19 @@ public class RequestCache {
         }
     }
 
+    /**
+     * Opens a new request cache for the current thread when it does work
+     * outside of any servlet request, such as a background refresh, that
+     * still needs a request id.
+     * @param requestId The request id for the work.
+     */
+    public static void open(RequestId requestId){
+        HashMap<String, CachedObj> hm = new HashMap<>();
+        cache.put(Thread.currentThread(), hm);
+        put(REQUEST_ID_KEY, requestId);
+        log.debug("Created request cache for thread: {} request id: {}", Thread.currentThread().getName(), requestId);
+    }
+
     public static void close(){
         int size = 0;
         Thread thisThread = Thread.currentThread();
@@ -121,6 +134,25 @@ public class RequestCache {
     }
 
 
+    /**
+     * Removes the request cache from the current thread, so that the
+     * request can be handed to another thread. See attach().
+     * @return The request cache of the current thread, null if there is none.
+     */
+    static HashMap<String,CachedObj> detach(){
+        return cache.remove(Thread.currentThread());
+    }
+
+    /**
+     * Makes a request cache taken from another thread with detach() the
+     * request cache of the current thread.
+     * @param requestCache The request cache to attach, if null a new empty one is made.
+     */
+    static void attach(HashMap<String,CachedObj> requestCache){
+        cache.put(Thread.currentThread(), requestCache==null ? new HashMap<>() : requestCache);
+    }
+
+
     public static void put(String key, Object o){
 
         CachedObj co = new CachedObj(o);
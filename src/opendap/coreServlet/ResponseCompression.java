@@ -0,0 +1,210 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.coreServlet;
+
+import opendap.bes.BadConfigurationException;
+import opendap.bes.dap4Responders.MediaType;
+import org.jdom.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses (Content-Encoding gzip or deflate) the text responses, for
+ * the clients whose Accept-Encoding allows it.
+ *
+ * Whether a response is compressed is decided by its Content-Type. By
+ * default the types for which MediaType.isCompressible() is true (text, XML
+ * and JSON) are compressed, the mimeTypes attribute replaces that with a
+ * list of the types to compress. Responses shorter than minSize bytes, and
+ * responses that set their own Content-Length or Content-Encoding, are sent
+ * as they are. The response is compressed as it is written, it is never
+ * held in memory beyond the first minSize bytes.
+ *
+ * &lt;Compression minSize="1024" level="6" mimeTypes="text/plain text/xml" /&gt;
+ */
+public class ResponseCompression {
+
+    public static final String CONFIG_ELEMENT = "Compression";
+
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    private static final int DEFAULT_LEVEL = 6;
+
+    private static final String GZIP = "gzip";
+    private static final String DEFLATE = "deflate";
+
+    private final Logger log;
+
+    private int minSize;
+    private int level;
+    private Set<String> mimeTypes;
+
+    public ResponseCompression() {
+        log = LoggerFactory.getLogger(getClass());
+        minSize = DEFAULT_MIN_SIZE;
+        level = DEFAULT_LEVEL;
+        mimeTypes = null;
+    }
+
+    /**
+     * @param config The Compression element.
+     * @throws BadConfigurationException When an attribute value is not valid.
+     */
+    public ResponseCompression(Element config) throws BadConfigurationException {
+        this();
+        String s = config.getAttributeValue("minSize");
+        if (s != null) {
+            try {
+                minSize = Integer.parseInt(s.trim());
+                if (minSize < 0)
+                    throw new NumberFormatException();
+            }
+            catch (NumberFormatException e) {
+                throw new BadConfigurationException("The " + CONFIG_ELEMENT + " element is not valid. " +
+                        "minSize must be a non-negative integer. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("level");
+        if (s != null) {
+            try {
+                level = Integer.parseInt(s.trim());
+                if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+                    throw new NumberFormatException();
+            }
+            catch (NumberFormatException e) {
+                throw new BadConfigurationException("The " + CONFIG_ELEMENT + " element is not valid. " +
+                        "level must be an integer from 1 to 9. Found: '" + s + "'");
+            }
+        }
+        s = config.getAttributeValue("mimeTypes");
+        if (s != null) {
+            mimeTypes = new HashSet<>();
+            for (String mimeType : s.split("[\\s,]+")) {
+                if (!mimeType.isEmpty())
+                    mimeTypes.add(mimeType.toLowerCase(Locale.ENGLISH));
+            }
+        }
+        log.info("Compressing responses. minSize: {} level: {} mimeTypes: {}", minSize, level,
+                mimeTypes == null ? "text, XML and JSON" : mimeTypes);
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @param request The client's request.
+     * @param response The response.
+     * @return A response that compresses what is written to it when the
+     * client accepts a compressed response, otherwise the response itself.
+     */
+    public HttpServletResponse wrap(HttpServletRequest request, HttpServletResponse response) {
+        String encoding = getEncoding(request.getHeader("Accept-Encoding"));
+        if (encoding == null)
+            return response;
+        return new CompressingResponse(response, this, encoding);
+    }
+
+    /**
+     * Finishes the compressed stream of a response made by wrap(), the
+     * response must be finished before it is completed.
+     *
+     * @param response A response, that may have come from wrap().
+     * @throws IOException When the end of the response cannot be written.
+     */
+    public static void finish(HttpServletResponse response) throws IOException {
+        if (response instanceof CompressingResponse)
+            ((CompressingResponse) response).finish();
+    }
+
+    /**
+     * @param contentType The Content-Type of a response.
+     * @return True if a response of this type is compressed.
+     */
+    boolean isCompressible(String contentType) {
+        if (contentType == null)
+            return false;
+        MediaType mediaType = new MediaType(contentType);
+        if (mimeTypes == null)
+            return mediaType.isCompressible();
+        return mimeTypes.contains(mediaType.getMimeType().trim().toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Picks the Content-Encoding, gzip being preferred to deflate.
+     *
+     * @param acceptEncoding The value of the client's Accept-Encoding header.
+     * @return gzip, deflate, or null if the client accepts neither.
+     */
+    static String getEncoding(String acceptEncoding) {
+        if (acceptEncoding == null)
+            return null;
+        Boolean gzip = null;
+        Boolean deflate = null;
+        boolean any = false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2).trim());
+                    }
+                    catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            boolean accepted = q > 0;
+            if (name.equals(GZIP) || name.equals("x-gzip"))
+                gzip = accepted;
+            else if (name.equals(DEFLATE))
+                deflate = accepted;
+            else if (name.equals("*"))
+                any = accepted;
+        }
+        // A coding that is not named is accepted when "*" is.
+        if (gzip != null ? gzip : any)
+            return GZIP;
+        if (deflate != null ? deflate : any)
+            return DEFLATE;
+        return null;
+    }
+}
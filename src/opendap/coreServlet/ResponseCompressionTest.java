@@ -0,0 +1,234 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.coreServlet;
+
+import org.jdom.Element;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.*;
+
+public class ResponseCompressionTest {
+
+    /**
+     * Just enough of a servlet response to hold headers and a body.
+     */
+    private static class FakeResponse {
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        String contentType;
+
+        HttpServletResponse proxy() {
+            ServletOutputStream sos = new ServletOutputStream() {
+                @Override
+                public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                }
+            };
+            return (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{HttpServletResponse.class}, (p, method, args) -> {
+                        switch (method.getName()) {
+                            case "getOutputStream":
+                                return sos;
+                            case "setContentType":
+                                contentType = (String) args[0];
+                                return null;
+                            case "getContentType":
+                                return contentType;
+                            case "getCharacterEncoding":
+                                return "UTF-8";
+                            case "setHeader":
+                            case "addHeader":
+                                headers.put((String) args[0], (String) args[1]);
+                                return null;
+                            case "getHeader":
+                                return headers.get((String) args[0]);
+                            case "setContentLength":
+                            case "setContentLengthLong":
+                                headers.put("Content-Length", args[0].toString());
+                                return null;
+                            case "isCommitted":
+                                return false;
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private static HttpServletRequest request(String acceptEncoding) {
+        return (HttpServletRequest) Proxy.newProxyInstance(ResponseCompressionTest.class.getClassLoader(),
+                new Class<?>[]{HttpServletRequest.class},
+                (p, method, args) -> method.getName().equals("getHeader") && "Accept-Encoding".equals(args[0]) ?
+                        acceptEncoding : null);
+    }
+
+    private static byte[] text(int lines) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+            s.append("<Float32 name=\"var").append(i).append("\"/>\n");
+        return s.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testEncodingNegotiation() {
+        assertNull(ResponseCompression.getEncoding(null));
+        assertNull(ResponseCompression.getEncoding("identity"));
+        assertEquals("gzip", ResponseCompression.getEncoding("gzip, deflate, br"));
+        assertEquals("deflate", ResponseCompression.getEncoding("deflate"));
+        assertEquals("deflate", ResponseCompression.getEncoding("gzip;q=0, deflate"));
+        assertEquals("gzip", ResponseCompression.getEncoding("*"));
+        assertNull(ResponseCompression.getEncoding("gzip;q=0, *;q=0"));
+    }
+
+    @Test
+    public void testCompressibleTypes() {
+        ResponseCompression compression = new ResponseCompression();
+        assertTrue(compression.isCompressible("text/plain"));
+        assertTrue(compression.isCompressible("text/html;charset=UTF-8"));
+        assertTrue(compression.isCompressible("application/vnd.opendap.dap4.dataset-metadata+xml"));
+        assertTrue(compression.isCompressible("application/prs.coverage+json"));
+        assertFalse(compression.isCompressible("application/octet-stream"));
+        assertFalse(compression.isCompressible("application/x-netcdf"));
+        assertFalse(compression.isCompressible(null));
+    }
+
+    @Test
+    public void testTextIsCompressedAsItIsWritten() throws Exception {
+        ResponseCompression compression = new ResponseCompression();
+        FakeResponse fake = new FakeResponse();
+        HttpServletResponse response = compression.wrap(request("gzip"), fake.proxy());
+        response.setContentType("text/xml");
+        response.setHeader("ETag", "\"abc\"");
+
+        byte[] text = text(2000);
+        ServletOutputStream os = response.getOutputStream();
+        os.write(text, 0, text.length / 2);
+        os.flush();
+        assertEquals("gzip", fake.headers.get("Content-Encoding"));
+        assertTrue("Nothing was sent on flush.", fake.body.size() > 0);
+        os.write(text, text.length / 2, text.length - text.length / 2);
+        ResponseCompression.finish(response);
+
+        assertEquals("\"abc-gzip\"", fake.headers.get("ETag"));
+        assertNull(fake.headers.get("Content-Length"));
+        assertTrue(fake.body.size() < text.length / 4);
+        assertArrayEquals(text, readAll(new GZIPInputStream(new ByteArrayInputStream(fake.body.toByteArray()))));
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        ResponseCompression compression = new ResponseCompression();
+        FakeResponse fake = new FakeResponse();
+        HttpServletResponse response = compression.wrap(request("deflate"), fake.proxy());
+        response.setContentType("text/plain");
+        byte[] text = text(500);
+        response.getWriter().write(new String(text, StandardCharsets.UTF_8));
+        ResponseCompression.finish(response);
+
+        assertEquals("deflate", fake.headers.get("Content-Encoding"));
+        assertArrayEquals(text, readAll(new InflaterInputStream(new ByteArrayInputStream(fake.body.toByteArray()))));
+    }
+
+    @Test
+    public void testSmallBinaryAndSizedResponsesAreNotCompressed() throws Exception {
+        Element config = new Element(ResponseCompression.CONFIG_ELEMENT);
+        config.setAttribute("minSize", "100");
+        ResponseCompression compression = new ResponseCompression(config);
+
+        FakeResponse fake = new FakeResponse();
+        HttpServletResponse response = compression.wrap(request("gzip"), fake.proxy());
+        response.setContentType("text/plain");
+        response.getOutputStream().write("Small".getBytes(StandardCharsets.UTF_8));
+        ResponseCompression.finish(response);
+        assertNull(fake.headers.get("Content-Encoding"));
+        assertEquals("5", fake.headers.get("Content-Length"));
+        assertEquals("Small", fake.body.toString("UTF-8"));
+
+        fake = new FakeResponse();
+        response = compression.wrap(request("gzip"), fake.proxy());
+        response.setContentType("application/octet-stream");
+        byte[] data = text(100);
+        response.getOutputStream().write(data);
+        ResponseCompression.finish(response);
+        assertNull(fake.headers.get("Content-Encoding"));
+        assertArrayEquals(data, fake.body.toByteArray());
+
+        fake = new FakeResponse();
+        response = compression.wrap(request("gzip"), fake.proxy());
+        response.setContentType("text/plain");
+        response.setHeader("Content-Length", Integer.toString(data.length));
+        response.getOutputStream().write(data);
+        ResponseCompression.finish(response);
+        assertNull(fake.headers.get("Content-Encoding"));
+        assertArrayEquals(data, fake.body.toByteArray());
+
+        fake = new FakeResponse();
+        response = compression.wrap(request("gzip"), fake.proxy());
+        response.setContentType("text/plain");
+        response.setContentLengthLong(data.length);
+        response.getOutputStream().write(data);
+        ResponseCompression.finish(response);
+        assertNull(fake.headers.get("Content-Encoding"));
+        assertEquals(Integer.toString(data.length), fake.headers.get("Content-Length"));
+        assertArrayEquals(data, fake.body.toByteArray());
+
+        assertSame(fake.proxy().getClass(), compression.wrap(request(null), fake.proxy()).getClass());
+    }
+}
@@ -1,5 +1,7 @@
 package opendap.coreServlet;
 
+import opendap.io.FlushPolicy;
+
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -46,4 +48,23 @@ public class ServletResponseTransmitCoordinator implements TransmitCoordinator {
     public void reset() throws IllegalStateException{
         d_sr.reset();
     }
+
+    /**
+     * @return The FlushPolicy of the responder answering the request.
+     */
+    @Override
+    public FlushPolicy getFlushPolicy() {
+        return getResponseFlushPolicy();
+    }
+
+    /**
+     * @return The FlushPolicy that the responder answering the request placed
+     * in the RequestCache. It applies to the response it sends and to nothing
+     * else, the BES transactions that collect metadata along the way don't
+     * write to the response and keep the default.
+     */
+    public static FlushPolicy getResponseFlushPolicy() {
+        Object o = RequestCache.get(FlushPolicy.REQUEST_CACHE_KEY);
+        return o instanceof FlushPolicy ? (FlushPolicy) o : FlushPolicy.PER_CHUNK;
+    }
 }
@@ -1,7 +1,16 @@
 package opendap.coreServlet;
 
+import opendap.io.FlushPolicy;
+
 public interface TransmitCoordinator {
     boolean isCommitted();
     void reset() throws IllegalStateException;
+
+    /**
+     * @return How often a BES response written under this TransmitCoordinator is flushed.
+     */
+    default FlushPolicy getFlushPolicy() {
+        return FlushPolicy.PER_CHUNK;
+    }
 }
 
@@ -50,15 +50,19 @@ public class User {
 
     private final Logger log;
     private UserProfile userProfile;
-    private final HttpServletRequest request;
+    // Kept so the User can still be used once the request has been recycled,
+    // as it is by the asynchronous jobs.
+    private final String remoteUser;
+    private final String relativeUrl;
 
 
     public User(HttpServletRequest req){
 
         log = LoggerFactory.getLogger(this.getClass());
-        request = req;
+        remoteUser = req.getRemoteUser();
+        relativeUrl = ReqInfo.getLocalUrl(req);
 
-        HttpSession session = request.getSession(false);
+        HttpSession session = req.getSession(false);
         if(session!=null) {
             userProfile= (UserProfile) session.getAttribute(IdFilter.USER_PROFILE);
             if(userProfile!=null)
@@ -75,11 +79,11 @@ public class User {
         if(userProfile!=null){
             return userProfile.getUID();
         }
-        return request.getRemoteUser();
+        return remoteUser;
     }
 
     public String getRelativeUrl(){
-        return ReqInfo.getLocalUrl(request);
+        return relativeUrl;
     }
 
 
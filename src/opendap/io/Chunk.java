@@ -90,84 +90,118 @@ public class Chunk {
 
 
     /**
-     *
-     * @param chunkHeader
-     * @return The size, in bytes, of the data section of this chunk. If the
-     * passed header is the closing chunk (Size is all zeros) this is taken to
-     * indicate that the transmission is at an end and a -1 is returned.
-     * @throws IOException
+     * Maps a byte value to the value of the hex digit it represents, or -1
+     * if it is not a hex digit. Used to decode the size field of a chunk
+     * header without building any intermediate Strings.
      */
-    public static int getDataSize(byte[] chunkHeader) throws IOException{
-        StringBuilder sizestr = new StringBuilder();
-        for(int i=0; i<HEADER_SIZE_ENCODING_BYTES; i++){
-            sizestr.append((char) chunkHeader[i]);
+    private static final int[] HEX_VALUES = new int[256];
+    static {
+        for(int i=0; i<HEX_VALUES.length; i++)
+            HEX_VALUES[i] = -1;
+        for(int i=0; i<10; i++)
+            HEX_VALUES['0'+i] = i;
+        for(int i=0; i<6; i++){
+            HEX_VALUES['a'+i] = 10+i;
+            HEX_VALUES['A'+i] = 10+i;
         }
-        //log.error("ChunkSizeString: "+sizestr);
+    }
 
-        int chunkSize;
-        try {
-            chunkSize = Integer.valueOf(sizestr.toString(),16);
-        }
-        catch(NumberFormatException e){
-            throw new IOException("Failed to parse Chunk header data size field. " +
-                    "Caught " + e.getClass().getName() + " msg: "+e.getMessage());
-        }
+    /**
+     * The (lower case) hex digits used to encode the size field of a chunk header.
+     */
+    private static final byte[] HEX_DIGITS = {
+            '0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'
+    };
 
-        //log.error("ChunkSize:       "+chunkSize);
 
-        if(chunkSize==0){
-            return -1;
+    /**
+     * Decodes the size field of the chunk header held in buf beginning at
+     * off.
+     *
+     * @param buf The array holding the chunk header.
+     * @param off The offset of the chunk header in buf.
+     * @return The decoded size, or -1 if the size field contains something
+     * other than hex digits.
+     */
+    private static int decodeSize(byte[] buf, int off){
+        int size = 0;
+        for(int i=off; i<off+HEADER_SIZE_ENCODING_BYTES; i++){
+            int digit = HEX_VALUES[buf[i] & 0xff];
+            if(digit<0)
+                return -1;
+            size = (size<<4) | digit;
         }
-
-        return chunkSize;
+        return size;
     }
 
 
+    /**
+     * Encodes a chunk header into the passed array beginning at off. The
+     * size is written as HEADER_SIZE_ENCODING_BYTES zero padded, lower case,
+     * hex digits followed by the type byte. Nothing is allocated.
+     *
+     * @param buf The array to hold the chunk header.
+     * @param off The offset at which to write the chunk header.
+     * @param dataSize The size of the data portion of the chunk.
+     * @param type The type of the chunk
+     * @throws IOException When dataSize cannot be encoded or buf is too small.
+     */
+    public static void encodeHeader(byte[] buf, int off, int dataSize, int type) throws IOException {
 
+        if(buf==null || off<0 || buf.length-off < HEADER_SIZE)
+            throw new IOException("Chunk header will exceed bounds of passed array.");
 
+        if(dataSize<0 || dataSize > MAX_SIZE)
+            throw new IOException("Chunk size of "+dataSize+ " bytes cannot be encoded.");
 
-    public static boolean isLastChunk(byte[] chunkHeader){
-
-        StringBuilder sizestr = new StringBuilder();
-        for(int i=0; i<HEADER_SIZE_ENCODING_BYTES; i++){
-            sizestr.append((char) chunkHeader[i]);
+        int size = dataSize;
+        for(int i=off+HEADER_SIZE_ENCODING_BYTES-1; i>=off; i--){
+            buf[i] = HEX_DIGITS[size & 0x0f];
+            size >>>= 4;
         }
+        buf[off+HEADER_SIZE_ENCODING_BYTES] = (byte) type;
+    }
 
 
-        //System.out.println("ChunkSizeString: "+sizestr);
-
-        int chunkSize = Integer.valueOf(sizestr.toString(),16);
+    /**
+     *
+     * @param chunkHeader The chunk header
+     * @return The size, in bytes, of the data section of this chunk. If the
+     * passed header is the closing chunk (Size is all zeros) this is taken to
+     * indicate that the transmission is at an end and a -1 is returned.
+     * @throws IOException When the size field of the header is not a hex number.
+     */
+    public static int getDataSize(byte[] chunkHeader) throws IOException{
 
-        //System.out.println("ChunkSize:       "+chunkSize);
+        int chunkSize = decodeSize(chunkHeader,0);
+        if(chunkSize<0){
+            throw new IOException("Failed to parse Chunk header data size field. " +
+                    "The field contains a character that is not a hex digit.");
+        }
 
-        return chunkSize == 0;
+        if(chunkSize==0){
+            return -1;
+        }
 
+        return chunkSize;
     }
 
 
 
 
 
-    public static int getType(byte[] chunkHeader) throws IOException {
-
+    public static boolean isLastChunk(byte[] chunkHeader){
+        return decodeSize(chunkHeader,0) == 0;
+    }
 
 
-        byte[] type = new byte[HEADER_TYPE_ENCODING_BYTES];
-        int j=0;
-        for(int i=HEADER_SIZE_ENCODING_BYTES; i<HEADER_SIZE; i++){
-            type[j++] = chunkHeader[i];
-        }
 
-        if(type.length == 1){
-            return type[0];
-        }
-        else {
-            throw new IOException("Size of Chunk Type Encoding has changed." +
-                    "The implmentation of  opendap.io.Chunk is not compatible" +
-                    "with this change. Reimplment Chunk!");
-        }
 
 
+    public static int getType(byte[] chunkHeader) throws IOException {
+        if(chunkHeader.length < HEADER_SIZE)
+            throw new IOException("Chunk header is too short to contain a chunk type.");
+        return chunkHeader[HEADER_SIZE_ENCODING_BYTES];
     }
 
 
@@ -240,7 +274,8 @@ public class Chunk {
             throw new IOException("Chunk.writeClosingChunkHeader() - Passed " +
                     "OutputStream reference is null.");
 
-        log.debug("writeClosingChunkHeader(): "+new String(closingChunk,HyraxStringEncoding.getCharset()));
+        if(log.isDebugEnabled())
+            log.debug("writeClosingChunkHeader(): {}",new String(closingChunk,HyraxStringEncoding.getCharset()));
         os.write(closingChunk);
         os.flush();
 
@@ -260,33 +295,38 @@ public class Chunk {
      * @throws IOException When things go wrong.
      */
     public static void writeChunkHeader(OutputStream os, int dataSize, int type) throws IOException {
+        writeChunkHeader(os, new byte[HEADER_SIZE], dataSize, type);
+    }
 
 
+    /**
+     *
+     * Writes a chunk header to the underlying stream, using the passed array
+     * to encode the header. Callers that write many chunks should hold on to
+     * one header array and use this method so that no allocation takes place.
+     *
+     * @param os The stream to which to write the chunk header.
+     * @param header An array of at least HEADER_SIZE bytes in which to encode the header.
+     * @param dataSize The size of the data portion of the chunk.
+     * @param type The type of the chunk
+     * @throws IOException When things go wrong.
+     */
+    public static void writeChunkHeader(OutputStream os, byte[] header, int dataSize, int type) throws IOException {
+
         if(os==null)
             throw new IOException("Chunk.writeChunkHeader() - Passed " +
                     "OutputStream reference is null.");
 
-
         if( dataSize > Chunk.MAX_SIZE)
             throw new IOException("Chunk size of "+dataSize+ " bytes is to " +
                     "large to be encoded.");
 
+        encodeHeader(header,0,dataSize,type);
 
-        byte[] header =  new byte[Chunk.HEADER_SIZE];
-
-        String size = Integer.toHexString(Chunk.SIZE_BIT_MASK & dataSize);
-
-        while(size.length() < Chunk.HEADER_SIZE_ENCODING_BYTES){
-            size = "0" + size;
-        }
-
-        log.debug("writeChunkHeader() - size: "+size+" size.length: "+size.length()+" type: "+(char)type);
-
-        System.arraycopy(size.getBytes(HyraxStringEncoding.getCharset()),0,header,0,Chunk.HEADER_SIZE-1);
-
-        header[Chunk.HEADER_SIZE-1] = (byte) type;
+        if(log.isDebugEnabled())
+            log.debug("writeChunkHeader() - header: {}",new String(header,0,HEADER_SIZE,HyraxStringEncoding.getCharset()));
 
-        os.write(header);
+        os.write(header,0,HEADER_SIZE);
 
     }
 
@@ -0,0 +1,145 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.io;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.*;
+
+public class ChunkTest {
+
+    @Test
+    public void testEncodeHeader() throws IOException {
+        byte[] header = new byte[Chunk.HEADER_SIZE];
+
+        Chunk.encodeHeader(header, 0, 0x1a2b, Chunk.DATA);
+        assertEquals("0001a2bd", new String(header, HyraxStringEncoding.getCharset()));
+
+        Chunk.encodeHeader(header, 0, Chunk.MAX_SIZE, Chunk.EXTENSION);
+        assertEquals("fffffffx", new String(header, HyraxStringEncoding.getCharset()));
+
+        Chunk.encodeHeader(header, 0, 0, Chunk.DATA);
+        assertEquals("0000000d", new String(header, HyraxStringEncoding.getCharset()));
+    }
+
+    @Test(expected = IOException.class)
+    public void testEncodeHeaderTooBig() throws IOException {
+        Chunk.encodeHeader(new byte[Chunk.HEADER_SIZE], 0, Chunk.MAX_SIZE + 1, Chunk.DATA);
+    }
+
+    @Test
+    public void testDecodeHeader() throws IOException {
+        byte[] header = "0001A2Bx".getBytes(HyraxStringEncoding.getCharset());
+        assertEquals(0x1a2b, Chunk.getDataSize(header));
+        assertEquals(Chunk.EXTENSION, Chunk.getType(header));
+        assertFalse(Chunk.isLastChunk(header));
+
+        header = "0000000d".getBytes(HyraxStringEncoding.getCharset());
+        assertEquals(-1, Chunk.getDataSize(header));
+        assertTrue(Chunk.isLastChunk(header));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDecodeBogusHeader() throws IOException {
+        Chunk.getDataSize("00z1000d".getBytes(HyraxStringEncoding.getCharset()));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] header = new byte[Chunk.HEADER_SIZE];
+        for (int size = 1; size < Chunk.MAX_SIZE && size > 0; size = size * 3 + 1) {
+            Chunk.encodeHeader(header, 0, size, Chunk.DATA);
+            assertEquals(size, Chunk.getDataSize(header));
+            assertEquals(Chunk.DATA, Chunk.getType(header));
+        }
+    }
+
+    /**
+     * Encodes and decodes chunk headers in a loop and checks, using the JVM's
+     * per thread allocation counter, that once warmed up the codec does not
+     * allocate anything.
+     */
+    @Test
+    public void testSteadyStateIsAllocationFree() throws IOException {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(tmx.isThreadAllocatedMemorySupported() && tmx.isThreadAllocatedMemoryEnabled());
+
+        byte[] header = new byte[Chunk.HEADER_SIZE];
+        OutputStream sink = new OutputStream() {
+            @Override public void write(int b) { }
+            @Override public void write(byte[] b, int off, int len) { }
+        };
+        long threadId = Thread.currentThread().getId();
+
+        // Debug logging builds Strings, so it's off for the measurement.
+        Logger chunkLog = (Logger) LoggerFactory.getLogger(Chunk.class);
+        Level logLevel = chunkLog.getLevel();
+        chunkLog.setLevel(Level.INFO);
+        try {
+            // Warm up.
+            long checksum = codecLoop(header, sink, 200000);
+
+            long before = tmx.getThreadAllocatedBytes(threadId);
+            long after = tmx.getThreadAllocatedBytes(threadId);
+            long measurementCost = after - before;
+
+            before = tmx.getThreadAllocatedBytes(threadId);
+            checksum += codecLoop(header, sink, 1000000);
+            after = tmx.getThreadAllocatedBytes(threadId);
+
+            assertTrue(checksum != 0);
+            assertEquals("Chunk header codec allocated memory.", 0, after - before - measurementCost);
+        }
+        finally {
+            chunkLog.setLevel(logLevel);
+        }
+    }
+
+    private long codecLoop(byte[] header, OutputStream sink, int iterations) throws IOException {
+        long checksum = 0;
+        for (int i = 1; i <= iterations; i++) {
+            int type = (i & 1) == 0 ? Chunk.DATA : Chunk.EXTENSION;
+            if (!Chunk.isLastChunk(header))
+                Chunk.writeChunkHeader(sink, header, i, type);
+            else
+                Chunk.encodeHeader(header, 0, i, type);
+            checksum += Chunk.getDataSize(header) + Chunk.getType(header);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+package opendap.io;
+
+import org.slf4j.Logger;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads chunked messages from a ReadableByteChannel. This is the channel
+ * based counterpart to ChunkedInputStream and it understands exactly the
+ * same wire format (see Chunk).
+ * <p>
+ * Bytes are read from the channel into a single direct ByteBuffer that is
+ * borrowed from a DirectBufferPool. DATA chunk content is relayed straight
+ * out of that buffer: when the target is backed by a channel (a
+ * FileOutputStream for example) the direct buffer is handed to the target
+ * channel, otherwise the bytes are moved through a small, fixed size, transfer
+ * window. A target that is a WatchedOutputStream is seen through to the
+ * stream it watches. Unlike ChunkedInputStream the buffer never grows to accommodate
+ * the chunk size, a 16MB chunk costs the same memory as a 16KB chunk.
+ * <p>
+ * A blocking channel read doesn't honor a socket's SO_TIMEOUT, so a read
+ * timeout (see setReadTimeout()) is enforced by closing the channel when
+ * a read takes too long.
+ */
+public class ChunkedChannelReader {
+
+    /**
+     * Closes the channels whose reads have timed out.
+     */
+    private static final ScheduledThreadPoolExecutor READ_TIMEOUTS;
+    static {
+        READ_TIMEOUTS = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "PPT-read-timeout");
+            t.setDaemon(true);
+            return t;
+        });
+        READ_TIMEOUTS.setRemoveOnCancelPolicy(true);
+    }
+
+    private Logger log;
+
+    private static final int TRANSFER_WINDOW_SIZE = 8192;
+    private static final int MAX_EXTENSION_SIZE = 16777216;
+
+    private ReadableByteChannel channel;
+    private DirectBufferPool bufferPool;
+    private ByteBuffer buffer;
+    private boolean isClosed;
+    private volatile int readTimeout;
+    private volatile boolean timedOut;
+
+    private final byte[] currentChunkHeader;
+    private byte[] transferWindow;
+    private byte[] extensionBuffer;
+
+    private int currentChunkDataSize;
+    private int chunkReadPosition;
+    private int currentChunkType;
+
+    /**
+     * @param channel The channel from which to read the chunked messages.
+     * @param bufferPool The pool from which to borrow the read buffer.
+     */
+    public ChunkedChannelReader(ReadableByteChannel channel, DirectBufferPool bufferPool){
+        log = org.slf4j.LoggerFactory.getLogger(getClass());
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+        buffer = bufferPool.take();
+        // The buffer is kept in "read mode", empty.
+        buffer.flip();
+        currentChunkHeader = new byte[Chunk.HEADER_SIZE];
+        transferWindow = new byte[TRANSFER_WINDOW_SIZE];
+        extensionBuffer = new byte[TRANSFER_WINDOW_SIZE];
+        currentChunkType = Chunk.DATA;
+        isClosed = false;
+    }
+
+    /**
+     * @param ms How long a read from the channel may wait for data before
+     *           the channel is closed and the read fails with a
+     *           SocketTimeoutException. Zero (the default) waits forever.
+     */
+    public void setReadTimeout(int ms){
+        readTimeout = Math.max(0, ms);
+    }
+
+    public int getReadTimeout(){
+        return readTimeout;
+    }
+
+    /**
+     * Makes sure that at least <code>needed</code> bytes are available in the
+     * buffer, reading from the channel as required.
+     * @param needed The number of bytes needed.
+     * @throws IOException When the channel hits end of stream.
+     * @throws SocketTimeoutException When a read takes longer than the read timeout.
+     */
+    private void fill(int needed) throws IOException {
+        while(buffer.remaining() < needed){
+            buffer.compact();
+            int bytesRead;
+            int timeout = readTimeout;
+            ScheduledFuture<?> alarm = timeout > 0 ?
+                    READ_TIMEOUTS.schedule(this::timeOut, timeout, TimeUnit.MILLISECONDS) : null;
+            try {
+                bytesRead = channel.read(buffer);
+            }
+            catch (AsynchronousCloseException e) {
+                if(timedOut)
+                    throw new SocketTimeoutException("Read timed out after " + timeout + " ms.");
+                throw e;
+            }
+            finally {
+                if(alarm != null)
+                    alarm.cancel(false);
+                buffer.flip();
+            }
+            if(bytesRead == -1){
+                String msg = "Channel Read Exception: Encountered end of stream while waiting for "+
+                        needed+" bytes. Only "+buffer.remaining()+" are available.";
+                log.error(msg);
+                throw new IOException(msg);
+            }
+        }
+    }
+
+    private void timeOut(){
+        timedOut = true;
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            log.warn("Failed to close the channel of a timed out read. msg: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the next chunk header.
+     *
+     * @return The number of bytes in the chunk, or -1 if the header is the
+     * closing chunk.
+     * @throws IOException When the underlying channel does, or if the header is bogus
+     */
+    public int readChunkHeader() throws IOException {
+        if(isClosed) throw new IOException("Cannot read from a closed channel.");
+
+        fill(Chunk.HEADER_SIZE);
+        buffer.get(currentChunkHeader, 0, Chunk.HEADER_SIZE);
+
+        currentChunkDataSize = Chunk.getDataSize(currentChunkHeader);
+        currentChunkType = Chunk.getType(currentChunkHeader);
+        chunkReadPosition = 0;
+
+        if(currentChunkDataSize==-1) {
+            currentChunkDataSize = 0;
+            return -1;
+        }
+        if(log.isDebugEnabled())
+            log.debug("currentChunkDataSize: {}  currentChunkType: {}", currentChunkDataSize, (char)currentChunkType);
+        return currentChunkDataSize;
+    }
+
+    public int availableInChunk(){
+        return currentChunkDataSize - chunkReadPosition;
+    }
+
+    /**
+     * @return True if current chunk is the last chunk in the message.
+     */
+    public boolean isLastChunk(){
+        return currentChunkDataSize==0 && currentChunkType==Chunk.DATA;
+    }
+
+    /**
+     * Reads a chunked message from the underlying channel and transmits it to
+     * the passed OutputStream, <code>dStream</code>. If an error condition is
+     * encountered in the chunked message then the error content will be
+     * written to the OutputStream <code>errStream</code>.
+     *
+     * @param dStream The stream into which to transfer the message data.
+     * @param errStream The stream into which to transfer error content if the
+     * message contains it.
+     * @return False if the chunked message contained an extension with status equal to
+     * error. True otherwise.
+     * @throws IOException When there are problems reading from or interpreting
+     * the chunked message.
+     */
+    public boolean readChunkedMessage(OutputStream dStream, OutputStream errStream) throws IOException {
+        return readChunkedMessage(dStream, errStream, FlushPolicy.PER_CHUNK);
+    }
+
+    /**
+     * Reads a chunked message from the underlying channel and transmits it to
+     * the passed OutputStream, <code>dStream</code>, flushing the target
+     * according to <code>flushPolicy</code>. The target is always flushed at
+     * the end of the message.
+     *
+     * @param dStream The stream into which to transfer the message data.
+     * @param errStream The stream into which to transfer error content if the
+     * message contains it.
+     * @param flushPolicy Determines when the target stream is flushed.
+     * @return False if the chunked message contained an extension with status equal to
+     * error. True otherwise.
+     * @throws IOException When there are problems reading from or interpreting
+     * the chunked message.
+     */
+    public boolean readChunkedMessage(OutputStream dStream, OutputStream errStream, FlushPolicy flushPolicy) throws IOException {
+
+        boolean isError = false;
+        boolean moreData = true;
+        long totalBytesReadInMessage = 0;
+        FlushTracker flushTracker = new FlushTracker(flushPolicy);
+
+        log.debug("BEGIN");
+
+        while(moreData && !isClosed){
+            int ret;
+            try {
+                ret = readChunkHeader();
+            } catch (IOException e) {
+                String msg = "ERROR! Failed to read ChunkHeader. msg: "+e.getMessage();
+                log.error(msg);
+                throw new IOException(msg,e);
+            }
+
+            if(ret == -1 || isLastChunk()){
+                moreData = false;
+            }
+            else {
+                totalBytesReadInMessage += currentChunkDataSize;
+
+                switch (currentChunkType){
+                    case Chunk.DATA:
+                        OutputStream target = isError ? errStream : dStream;
+                        int chunkSize = currentChunkDataSize;
+                        relayChunkData(target);
+                        flushTarget(flushTracker, target, chunkSize);
+                        break;
+
+                    case Chunk.EXTENSION:
+                        String extensionContent = readExtensionContent();
+                        try {
+                            isError = processExtensionContent(extensionContent) || isError;
+                        } catch (IOException e) {
+                            String msg = "ERROR! Failed to correctly process ChunkExtension content. msg: "+e.getMessage();
+                            log.error(msg);
+                            throw new IOException(msg,e);
+                        }
+                        break;
+
+                    default:
+                        throw new IOException("ERROR! Unknown Chunk Type.");
+                }
+            }
+        }
+        flushTarget(flushTracker, null, 0);
+        log.debug("END: Message contained {} bytes. (status:{})",totalBytesReadInMessage,isError?"ERROR":"SUCCESS");
+        return !isError;
+    }
+
+    /**
+     * Moves the body of the current DATA chunk to the target stream.
+     * @param target Where the bytes go.
+     * @throws IOException When the read or the write fails.
+     */
+    private void relayChunkData(OutputStream target) throws IOException {
+
+        WatchedOutputStream watcher = null;
+        OutputStream out = target;
+        if(target instanceof WatchedOutputStream) {
+            watcher = (WatchedOutputStream) target;
+            out = watcher.getWatchedStream();
+        }
+        WritableByteChannel targetChannel = null;
+        if(out instanceof FileOutputStream)
+            targetChannel = ((FileOutputStream) out).getChannel();
+
+        while(availableInChunk() > 0){
+            if(!buffer.hasRemaining()){
+                fill(1);
+            }
+            int n = Math.min(availableInChunk(), buffer.remaining());
+            try {
+                if(targetChannel != null){
+                    int oldLimit = buffer.limit();
+                    buffer.limit(buffer.position() + n);
+                    if(watcher != null)
+                        watcher.writing();
+                    try {
+                        while (buffer.hasRemaining())
+                            targetChannel.write(buffer);
+                    }
+                    catch (IOException e) {
+                        if(watcher != null)
+                            watcher.writeFailed(e);
+                        throw e;
+                    }
+                    finally {
+                        buffer.limit(oldLimit);
+                    }
+                }
+                else {
+                    int remaining = n;
+                    while(remaining > 0){
+                        int len = Math.min(remaining, transferWindow.length);
+                        buffer.get(transferWindow, 0, len);
+                        target.write(transferWindow, 0, len);
+                        remaining -= len;
+                    }
+                }
+            } catch (IOException e) {
+                String msg = "ERROR! Failed to write to target OutputStream. msg: "+e.getMessage();
+                log.error(msg);
+                throw new IOException(msg,e);
+            }
+            chunkReadPosition += n;
+        }
+    }
+
+    /**
+     * Tells the FlushTracker about a chunk that was written to target, or
+     * when target is null, flushes whatever remains unflushed.
+     */
+    private void flushTarget(FlushTracker flushTracker, OutputStream target, int byteCount) throws IOException {
+        try {
+            if(target == null)
+                flushTracker.flush();
+            else
+                flushTracker.wrote(target, byteCount);
+        } catch (IOException e) {
+            String msg = "ERROR! Failed to flush target OutputStream. msg: "+e.getMessage();
+            log.error(msg);
+            throw new IOException(msg,e);
+        }
+    }
+
+    /**
+     * Reads the body of the current EXTENSION chunk into a String.
+     * @return The extension content.
+     * @throws IOException When the read fails or the extension is unreasonably large.
+     */
+    private String readExtensionContent() throws IOException {
+        int size = currentChunkDataSize;
+        if(size > extensionBuffer.length){
+            if(size > MAX_EXTENSION_SIZE){
+                String msg = "Found an extension chunk larger than I support. My max size " +
+                        MAX_EXTENSION_SIZE + " bytes, currentChunkDataSize: "+size;
+                log.error(msg);
+                throw new IOException(msg);
+            }
+            extensionBuffer = new byte[size];
+        }
+        int off = 0;
+        while(off < size){
+            if(!buffer.hasRemaining())
+                fill(1);
+            int n = Math.min(size - off, buffer.remaining());
+            buffer.get(extensionBuffer, off, n);
+            off += n;
+        }
+        chunkReadPosition = size;
+        return new String(extensionBuffer, 0, size, HyraxStringEncoding.getCharset());
+    }
+
+    /**
+     * @param e  The content of the chunk extension held in a String.
+     * @return True if the extension contains the "status=error;"
+     * extension name value pair, false otherwise.
+     * @throws IOException When there are problems reading from or interpreting
+     * the message stream.
+     */
+    private boolean processExtensionContent(String e) throws IOException {
+
+        boolean isError = false;
+
+        for(String extension : e.split(";")){
+            if(extension.startsWith(Chunk.STATUS_EXTENSION)){
+                String status = extension.substring(extension.indexOf('=')+1);
+
+                if(status.equalsIgnoreCase(Chunk.ERROR_STATUS)){
+                    isError =  true;
+                }
+                else if(status.equalsIgnoreCase(Chunk.EMERGENCY_EXIT_STATUS)){
+                    log.error("Stream source requested an emergency exit! Closing connection immediately.");
+                    isClosed = true;
+                    channel.close();
+                }
+                else if(status.equalsIgnoreCase(Chunk.EXIT_STATUS)){
+                    int ret = readChunkHeader();
+                    if(ret == -1 || isLastChunk()){
+                        isClosed = true;
+                    }
+                    log.debug("Stream closed by Source.");
+                }
+                else {
+                    log.debug("Received status extension: {}",extension);
+                }
+            }
+            else {
+                log.debug("Received extension: {}",extension);
+            }
+        }
+        return isError;
+    }
+
+    public int getChunkedReadBufferSize(){
+        return buffer==null?0:buffer.capacity();
+    }
+
+    /**
+     * Returns the read buffer to the pool. The reader may not be used afterwards.
+     */
+    public void release() {
+        isClosed = true;
+        if(buffer!=null){
+            if(buffer.hasRemaining())
+                log.warn("Releasing read buffer with {} unread bytes.", buffer.remaining());
+            bufferPool.give(buffer);
+            buffer = null;
+        }
+    }
+
+}
@@ -103,7 +103,8 @@ public class ChunkedInputStream  {
         // Cache the Chunk Type.
         currentChunkType = Chunk.getType(currentChunkHeader);
 
-        log.debug("currentChunkDataSize: {}  currentChunkType: {}", currentChunkDataSize, (char)currentChunkType);
+        if(log.isDebugEnabled())
+            log.debug("currentChunkDataSize: {}  currentChunkType: {}", currentChunkDataSize, (char)currentChunkType);
 
         // Reset the read position for this new chunk.
         chunkReadPosition = 0;
@@ -184,6 +185,24 @@ public class ChunkedInputStream  {
      * the chunked message stream.
      */
     public boolean readChunkedMessage(OutputStream dStream, OutputStream errStream) throws  IOException {
+        return readChunkedMessage(dStream, errStream, FlushPolicy.PER_CHUNK);
+    }
+
+    /**
+     * Reads a chunked message from the underlying InputStream and transmits to the passed OutputStream,
+     * <code>dstream</code>, flushing the target according to <code>flushPolicy</code>. The target is always
+     * flushed at the end of the message.
+     *
+     * @param dStream The stream into which to transfer the message data.
+     * @param errStream The stream into which to transfer error content if the
+     * message contains it.
+     * @param flushPolicy Determines when the target stream is flushed.
+     * @return False if the chunked message contained an extension with status equal to
+     * error. True otherwise.
+     * @throws IOException When there are problems reading from or interpreting
+     * the chunked message stream.
+     */
+    public boolean readChunkedMessage(OutputStream dStream, OutputStream errStream, FlushPolicy flushPolicy) throws  IOException {
 
         int ret;
         int bytesReceived;
@@ -191,6 +210,7 @@ public class ChunkedInputStream  {
         boolean moreData = true;
         String extensionContent;
         long totalBytesReadInMessage = 0;
+        FlushTracker flushTracker = new FlushTracker(flushPolicy);
 
         log.debug("BEGIN");
 
@@ -246,14 +266,16 @@ public class ChunkedInputStream  {
                     throw new IOException(msg,e);
                 }
 
-                log.debug("CurrentChunksize: {} bytesReceived: {}",currentChunkDataSize, bytesReceived);
+                if(log.isDebugEnabled())
+                    log.debug("CurrentChunksize: {} bytesReceived: {}",currentChunkDataSize, bytesReceived);
                 
                 // update the read pointer.
                 chunkReadPosition += bytesReceived;
 
                 // And keep the books...
                 totalBytesReadInMessage += bytesReceived;
-                log.debug("bytesReceived: {} totalBytesReadInMessage: {}",bytesReceived,totalBytesReadInMessage);
+                if(log.isDebugEnabled())
+                    log.debug("bytesReceived: {} totalBytesReadInMessage: {}",bytesReceived,totalBytesReadInMessage);
 
                 switch (getCurrentChunkType()){
 
@@ -261,8 +283,9 @@ public class ChunkedInputStream  {
                         // write the data out to the appropriate stream,
                         // depending on the error status.
                         try {
-                            (isError ? errStream : dStream).write(chunkBuffer, 0, bytesReceived);
-                            (isError ? errStream : dStream).flush();
+                            OutputStream target = isError ? errStream : dStream;
+                            target.write(chunkBuffer, 0, bytesReceived);
+                            flushTracker.wrote(target, bytesReceived);
                         } catch (IOException e) {
                             String msg = "ERROR! Failed to write to target OutputStream. msg: "+e.getMessage();
                             log.error(msg);
@@ -294,6 +317,14 @@ public class ChunkedInputStream  {
 
         }
 
+        try {
+            flushTracker.flush();
+        } catch (IOException e) {
+            String msg = "ERROR! Failed to flush target OutputStream. msg: "+e.getMessage();
+            log.error(msg);
+            throw new IOException(msg,e);
+        }
+
         log.debug("END: Message contained {} bytes. (status:{})",totalBytesReadInMessage,isError?"ERROR":"SUCCESS");
         return !isError;
     }
@@ -57,6 +57,7 @@ public class ChunkedOutputStream  extends OutputStream {
 
     private byte[] cache;
     private int cacheSize;
+    private final byte[] chunkHeader = new byte[Chunk.HEADER_SIZE];
 
 
     private int currentChunkType;
@@ -207,10 +208,10 @@ public class ChunkedOutputStream  extends OutputStream {
 
 
         if(cacheSize>0){
-            Chunk.writeChunkHeader(_rawOS,cacheSize,currentChunkType);
-            StringBuilder msg = new StringBuilder();
-            msg.append("flushCache() - cache contains: \"").append(new String(cache,0,cacheSize,HyraxStringEncoding.getCharset())+"\"");
-            log.debug(msg.toString());
+            Chunk.writeChunkHeader(_rawOS,chunkHeader,cacheSize,currentChunkType);
+            if(log.isDebugEnabled()) {
+                log.debug("flushCache() - cache contains: \"{}\"", new String(cache, 0, cacheSize, HyraxStringEncoding.getCharset()));
+            }
             _rawOS.write(cache,0,cacheSize);
             cacheSize = 0;
         }
@@ -256,7 +257,7 @@ public class ChunkedOutputStream  extends OutputStream {
 
         }
         else {
-            Chunk.writeChunkHeader(_rawOS,chunkSize,currentChunkType);
+            Chunk.writeChunkHeader(_rawOS,chunkHeader,chunkSize,currentChunkType);
             _rawOS.write(cache,0,cacheSize);
             _rawOS.write(bufferToAppend,off,len);
             cacheSize = 0;
@@ -319,7 +320,8 @@ public class ChunkedOutputStream  extends OutputStream {
         cache[cacheSize] = (byte) b;
         cacheSize++;
 
-        log.debug("write(byte) - cacheSize: "+cacheSize);
+        if(log.isDebugEnabled())
+            log.debug("write(byte) - cacheSize: {}",cacheSize);
         if(cacheSize >= cache.length){
             flushCache();
         }
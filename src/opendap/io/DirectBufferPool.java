@@ -0,0 +1,129 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+package opendap.io;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized direct ByteBuffers. Direct buffers are
+ * expensive to allocate and are only reclaimed when the GC gets around to
+ * their (tiny) heap wrappers, so we hang on to them and hand them out again.
+ * <p>
+ * When the pool is empty a new buffer is allocated. When a buffer is returned
+ * to a full pool it is simply dropped.
+ */
+public class DirectBufferPool {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectBufferPool.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 65536;
+    public static final int DEFAULT_MAX_POOLED = 256;
+
+    private static final DirectBufferPool DEFAULT_POOL = new DirectBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool;
+    private final AtomicInteger pooledCount;
+    private final AtomicInteger allocatedCount;
+
+    /**
+     * @param bufferSize The capacity, in bytes, of each buffer in the pool.
+     * @param maxPooled  The maximum number of idle buffers retained by the pool.
+     */
+    public DirectBufferPool(int bufferSize, int maxPooled) {
+        if(bufferSize < Chunk.HEADER_SIZE)
+            throw new IllegalArgumentException("DirectBufferPool buffers must be at least "+
+                    Chunk.HEADER_SIZE+" bytes. You asked for "+bufferSize);
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+        pool = new ConcurrentLinkedQueue<>();
+        pooledCount = new AtomicInteger(0);
+        allocatedCount = new AtomicInteger(0);
+    }
+
+    /**
+     * @return The pool shared by all of the NIO PPT connections.
+     */
+    public static DirectBufferPool getDefault(){
+        return DEFAULT_POOL;
+    }
+
+    /**
+     * Retrieves a cleared buffer from the pool, allocating a new one if
+     * the pool is empty.
+     * @return A cleared direct ByteBuffer of capacity getBufferSize()
+     */
+    public ByteBuffer take() {
+        ByteBuffer buffer = pool.poll();
+        if(buffer == null){
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+            int allocated = allocatedCount.incrementAndGet();
+            log.debug("Allocated new direct buffer. size: {} total allocated: {}",bufferSize, allocated);
+        }
+        else {
+            pooledCount.decrementAndGet();
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that did not come from this pool
+     * (wrong capacity, or not direct) are ignored.
+     * @param buffer The buffer to return.
+     */
+    public void give(ByteBuffer buffer) {
+        if(buffer==null || !buffer.isDirect() || buffer.capacity()!=bufferSize)
+            return;
+
+        if(pooledCount.incrementAndGet() <= maxPooled){
+            buffer.clear();
+            pool.offer(buffer);
+        }
+        else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    public int getBufferSize(){
+        return bufferSize;
+    }
+
+    public int getPooledCount(){
+        return pooledCount.get();
+    }
+
+    public int getAllocatedCount(){
+        return allocatedCount.get();
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+package opendap.io;
+
+/**
+ * Decides when the reader of a chunked message should flush the stream that it
+ * is relaying the message content into. Calling flush() on a servlet output
+ * stream pushes a TCP write to the client, and the BES often sends chunks of
+ * only a few KB, so flushing after every chunk is expensive for bulk
+ * downloads. Interactive responses, on the other hand, want every chunk to
+ * reach the client promptly.
+ * <p>
+ * FlushPolicy instances are immutable and may be shared between threads, the
+ * reader keeps the byte and time counts and hands them to shouldFlush().
+ * Whatever the policy, the reader always flushes at the end of the message.
+ * <p>
+ * The string form of a policy (see fromString()) is one of:
+ * <ul>
+ *     <li><b>chunk</b> - Flush after every DATA chunk.</li>
+ *     <li><b>bytes:N</b> - Flush once N bytes have been written since the last flush.</li>
+ *     <li><b>interval:MS</b> - Flush on the first chunk that arrives MS milliseconds or more after the last flush.</li>
+ *     <li><b>message</b> - Flush only at the end of the message.</li>
+ * </ul>
+ */
+public abstract class FlushPolicy {
+
+    /**
+     * The key under which a responder places its FlushPolicy in the RequestCache.
+     * It is applied, through ServletResponseTransmitCoordinator, to the BES
+     * transactions that write the response and nothing else.
+     */
+    public static final String REQUEST_CACHE_KEY = FlushPolicy.class.getName();
+
+    public static final long DEFAULT_BYTE_THRESHOLD = 1048576;
+
+    public static final FlushPolicy PER_CHUNK = new FlushPolicy("chunk") {
+        @Override
+        public boolean shouldFlush(long bytesSinceLastFlush, long millisSinceLastFlush) {
+            return true;
+        }
+    };
+
+    public static final FlushPolicy END_OF_MESSAGE = new FlushPolicy("message") {
+        @Override
+        public boolean shouldFlush(long bytesSinceLastFlush, long millisSinceLastFlush) {
+            return false;
+        }
+    };
+
+    /**
+     * Flushes each time DEFAULT_BYTE_THRESHOLD bytes have accumulated.
+     */
+    public static final FlushPolicy BULK = byteThreshold(DEFAULT_BYTE_THRESHOLD);
+
+    private final String name;
+
+    private FlushPolicy(String name){
+        this.name = name;
+    }
+
+    /**
+     * Called by the chunked message reader after each DATA chunk has been
+     * written to the target stream.
+     *
+     * @param bytesSinceLastFlush The number of bytes written to the target since it was last flushed.
+     * @param millisSinceLastFlush The time, in milliseconds, since the target was last flushed.
+     * @return True if the target stream should be flushed now.
+     */
+    public abstract boolean shouldFlush(long bytesSinceLastFlush, long millisSinceLastFlush);
+
+    /**
+     * @return True if shouldFlush() makes use of the elapsed time. Readers
+     * use this to skip reading the clock when it's not needed.
+     */
+    public boolean isTimeBased(){
+        return false;
+    }
+
+    /**
+     * @param threshold The number of bytes to accumulate between flushes.
+     * @return A policy that flushes when threshold bytes have been written since the last flush.
+     */
+    public static FlushPolicy byteThreshold(final long threshold){
+        if(threshold<1)
+            throw new IllegalArgumentException("The FlushPolicy byte threshold must be greater than zero.");
+
+        return new FlushPolicy("bytes:"+threshold) {
+            @Override
+            public boolean shouldFlush(long bytesSinceLastFlush, long millisSinceLastFlush) {
+                return bytesSinceLastFlush >= threshold;
+            }
+        };
+    }
+
+    /**
+     * @param interval The minimum time, in milliseconds, between flushes.
+     * @return A policy that flushes when interval milliseconds have passed since the last flush.
+     */
+    public static FlushPolicy timeInterval(final long interval){
+        if(interval<0)
+            throw new IllegalArgumentException("The FlushPolicy interval must not be negative.");
+
+        return new FlushPolicy("interval:"+interval) {
+            @Override
+            public boolean shouldFlush(long bytesSinceLastFlush, long millisSinceLastFlush) {
+                return millisSinceLastFlush >= interval;
+            }
+            @Override
+            public boolean isTimeBased(){
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Builds a FlushPolicy from its string form, see the class documentation.
+     * @param s The string form of the policy.
+     * @return The FlushPolicy
+     * @throws IllegalArgumentException When the string cannot be interpreted.
+     */
+    public static FlushPolicy fromString(String s){
+        if(s==null)
+            throw new IllegalArgumentException("A FlushPolicy may not be null.");
+
+        String policy = s.trim();
+        String value = null;
+        int colon = policy.indexOf(':');
+        if(colon>0){
+            value = policy.substring(colon+1).trim();
+            policy = policy.substring(0,colon).trim();
+        }
+
+        try {
+            if (policy.equalsIgnoreCase("chunk") && value == null)
+                return PER_CHUNK;
+            if (policy.equalsIgnoreCase("message") && value == null)
+                return END_OF_MESSAGE;
+            if (policy.equalsIgnoreCase("bytes"))
+                return byteThreshold(value == null ? DEFAULT_BYTE_THRESHOLD : Long.parseLong(value));
+            if (policy.equalsIgnoreCase("interval") && value != null)
+                return timeInterval(Long.parseLong(value));
+        }
+        catch (NumberFormatException e){
+            throw new IllegalArgumentException("Unable to parse the value of the FlushPolicy '"+s+"'",e);
+        }
+        throw new IllegalArgumentException("Unrecognized FlushPolicy '"+s+"'. " +
+                "Allowed values are: chunk, bytes:N, interval:MS, message");
+    }
+
+    @Override
+    public String toString(){
+        return name;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+package opendap.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Keeps the books for a FlushPolicy while a single chunked message is relayed
+ * to its target stream(s). A stream is only ever flushed after something has
+ * been written to it, so that (for example) an error message routed to the
+ * error stream never causes the data stream, which may be a servlet response,
+ * to be committed.
+ */
+final class FlushTracker {
+
+    private final FlushPolicy policy;
+    private OutputStream pending;
+    private long bytesSinceLastFlush;
+    private long lastFlushTime;
+
+    FlushTracker(FlushPolicy policy){
+        this.policy = policy==null ? FlushPolicy.PER_CHUNK : policy;
+        pending = null;
+        bytesSinceLastFlush = 0;
+        lastFlushTime = this.policy.isTimeBased() ? System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * Record that a DATA chunk has been written to target, and flush if the policy says so.
+     * @param target The stream that was written to.
+     * @param byteCount The number of bytes written.
+     * @throws IOException When the flush fails.
+     */
+    void wrote(OutputStream target, long byteCount) throws IOException {
+        if(pending!=null && pending!=target){
+            // The message switched streams (data to error), finish off the first one.
+            flush();
+        }
+        pending = target;
+        bytesSinceLastFlush += byteCount;
+
+        long elapsed = policy.isTimeBased() ? System.currentTimeMillis() - lastFlushTime : 0;
+        if(policy.shouldFlush(bytesSinceLastFlush, elapsed))
+            flush();
+    }
+
+    /**
+     * Flush whatever has been written but not yet flushed.
+     * @throws IOException When the flush fails.
+     */
+    void flush() throws IOException {
+        if(pending!=null){
+            pending.flush();
+            pending = null;
+        }
+        bytesSinceLastFlush = 0;
+        if(policy.isTimeBased())
+            lastFlushTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OutputStream that watches what is written through it to another
+ * stream. Code that has a more direct way of writing to the other stream
+ * than through the watcher (see ChunkedChannelReader) may use it, as long
+ * as it tells the watcher what it did.
+ */
+public interface WatchedOutputStream {
+
+    /**
+     * @return The stream that is being watched.
+     */
+    OutputStream getWatchedStream();
+
+    /**
+     * Called before bytes are written straight to the watched stream.
+     */
+    void writing();
+
+    /**
+     * Called when a write straight to the watched stream fails.
+     * @param e What went wrong.
+     */
+    void writeFailed(IOException e);
+}
@@ -0,0 +1,749 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+import opendap.bes.BESError;
+import opendap.bes.BESResource;
+import opendap.io.Chunk;
+import opendap.io.ChunkedInputStream;
+import opendap.io.ChunkedOutputStream;
+import opendap.io.HyraxStringEncoding;
+import opendap.namespaces.DAP4;
+import org.apache.commons.cli.*;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.Namespace;
+import org.jdom.input.SAXBuilder;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static opendap.namespaces.BES.BES_NS;
+
+/**
+ * A stand-in for the BES daemon that speaks the PPT protocol. It allows the
+ * OLFS (the client pool, the caches and the responders) to be benchmarked
+ * and load tested without a real BES.
+ * <p>
+ * The server accepts the request documents built by BesApi and answers:
+ * <ul>
+ *     <li><b>showVersion</b> - A version document advertising DAP 2.0, 3.2 and 4.0.</li>
+ *     <li><b>showNode</b> - A synthetic catalog. Paths ending in "/" (and the
+ *     root) are nodes containing a few datasets, everything else is a data
+ *     file. Paths whose last element begins with "missing" are not found.</li>
+ *     <li><b>showStatus</b> and <b>showBesKey</b> - Trivial responses.</li>
+ *     <li><b>get</b> - dmr, das, dds and ddx get generated metadata
+ *     describing a single Float64 variable sized to match the data size.
+ *     Every other type (dap, dods, netcdf, ...) gets a stream of synthetic
+ *     data bytes.</li>
+ * </ul>
+ * The size of the data responses, the size of the chunks, the latency before
+ * each response and the delay between chunks are configurable. Faults can be
+ * injected into <b>get</b> responses: a BESError (a status=error extension),
+ * an emergency exit (a status=exit extension) or a connection dropped part
+ * way through the response. Each is chosen at random with the configured
+ * probability.
+ * <p>
+ * The server listens on a TCP port, or on a Unix domain socket if a socket
+ * path is set. Each connection is served by its own (daemon) thread.
+ */
+public class MockBesServer {
+
+    public static final int DEFAULT_CHUNK_SIZE = Chunk.DEFAULT_SIZE;
+    public static final long DEFAULT_DATA_SIZE = 1048576;
+
+    private static final String DATA_FILE_SUFFIX = ".nc";
+
+    private final Logger log;
+
+    private int port;
+    private String socketPath;
+    private long dataSize;
+    private int chunkSize;
+    private long latency;
+    private long chunkDelay;
+    private double errorRate;
+    private double exitRate;
+    private double dropRate;
+    private Random random;
+
+    private ServerSocketChannel serverChannel;
+    private ExecutorService connectionExecutor;
+    private Thread acceptThread;
+    private volatile boolean running;
+
+    private final AtomicLong connectionCount;
+    private final AtomicLong requestCount;
+
+    public MockBesServer() {
+        log = LoggerFactory.getLogger(getClass());
+        port = 0;
+        socketPath = null;
+        dataSize = DEFAULT_DATA_SIZE;
+        chunkSize = DEFAULT_CHUNK_SIZE;
+        latency = 0;
+        chunkDelay = 0;
+        errorRate = 0;
+        exitRate = 0;
+        dropRate = 0;
+        random = new Random();
+        running = false;
+        connectionCount = new AtomicLong(0);
+        requestCount = new AtomicLong(0);
+    }
+
+    /**
+     * @param port The TCP port to listen on. Zero (the default) picks a free port.
+     */
+    public void setPort(int port){ this.port = port; }
+
+    /**
+     * @return The TCP port the server is listening on, once started.
+     */
+    public int getPort(){ return port; }
+
+    /**
+     * @param socketPath When not null the server listens on this Unix domain socket instead of a TCP port.
+     */
+    public void setSocketPath(String socketPath){ this.socketPath = socketPath; }
+    public String getSocketPath(){ return socketPath; }
+
+    /**
+     * @param dataSize The number of bytes of synthetic data in each data response.
+     */
+    public void setDataSize(long dataSize){ this.dataSize = Math.max(0,dataSize); }
+    public long getDataSize(){ return dataSize; }
+
+    /**
+     * @param chunkSize The size, in bytes, of the DATA chunks in each response.
+     */
+    public void setChunkSize(int chunkSize){
+        if(chunkSize<1 || chunkSize>Chunk.MAX_SIZE)
+            throw new IllegalArgumentException("The chunk size must be between 1 and "+Chunk.MAX_SIZE);
+        this.chunkSize = chunkSize;
+    }
+    public int getChunkSize(){ return chunkSize; }
+
+    /**
+     * @param latency Milliseconds to wait before answering each request.
+     */
+    public void setLatency(long latency){ this.latency = Math.max(0,latency); }
+    public long getLatency(){ return latency; }
+
+    /**
+     * @param chunkDelay Milliseconds to wait between the DATA chunks of a data response.
+     */
+    public void setChunkDelay(long chunkDelay){ this.chunkDelay = Math.max(0,chunkDelay); }
+    public long getChunkDelay(){ return chunkDelay; }
+
+    /**
+     * @param errorRate The probability (0.0 - 1.0) that a get request is answered with a BESError.
+     */
+    public void setErrorRate(double errorRate){ this.errorRate = checkRate(errorRate); }
+    public double getErrorRate(){ return errorRate; }
+
+    /**
+     * @param exitRate The probability (0.0 - 1.0) that a get request is answered with an emergency exit.
+     */
+    public void setExitRate(double exitRate){ this.exitRate = checkRate(exitRate); }
+    public double getExitRate(){ return exitRate; }
+
+    /**
+     * @param dropRate The probability (0.0 - 1.0) that the connection is dropped part way through a get response.
+     */
+    public void setDropRate(double dropRate){ this.dropRate = checkRate(dropRate); }
+    public double getDropRate(){ return dropRate; }
+
+    /**
+     * @param seed Seeds the generator used to inject faults, so that a run can be repeated.
+     */
+    public void setSeed(long seed){ random = new Random(seed); }
+
+    public long getConnectionCount(){ return connectionCount.get(); }
+    public long getRequestCount(){ return requestCount.get(); }
+
+    private static double checkRate(double rate){
+        if(rate<0 || rate>1)
+            throw new IllegalArgumentException("A rate must be between 0.0 and 1.0");
+        return rate;
+    }
+
+
+    /**
+     * Opens the listening socket and starts accepting connections.
+     * @throws IOException When the socket cannot be opened.
+     */
+    public synchronized void start() throws IOException {
+        if(running)
+            return;
+
+        if(socketPath!=null){
+            Path path = Paths.get(socketPath);
+            Files.deleteIfExists(path);
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            serverChannel.bind(UnixDomainSocketAddress.of(path));
+        }
+        else {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            port = ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+        }
+
+        connectionExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "MockBes-connection");
+            t.setDaemon(true);
+            return t;
+        });
+
+        running = true;
+        acceptThread = new Thread(this::acceptConnections, "MockBes-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        log.info("MockBesServer listening on {}", socketPath!=null ? socketPath : "port "+port);
+    }
+
+    /**
+     * Stops accepting connections and closes the listening socket. Open
+     * connections are abandoned.
+     */
+    public synchronized void stop() {
+        if(!running)
+            return;
+        running = false;
+        try {
+            serverChannel.close();
+        }
+        catch (IOException e) {
+            log.error("Failed to close the server channel. msg: {}", e.getMessage());
+        }
+        connectionExecutor.shutdownNow();
+        try {
+            acceptThread.join(TimeUnit.SECONDS.toMillis(5));
+            connectionExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(socketPath!=null){
+            try {
+                Files.deleteIfExists(Paths.get(socketPath));
+            }
+            catch (IOException e) {
+                log.warn("Failed to remove socket file {}. msg: {}", socketPath, e.getMessage());
+            }
+        }
+        log.info("MockBesServer stopped. connections: {} requests: {}", connectionCount.get(), requestCount.get());
+    }
+
+    public boolean isRunning(){
+        return running;
+    }
+
+    private void acceptConnections(){
+        while(running){
+            try {
+                SocketChannel channel = serverChannel.accept();
+                connectionCount.incrementAndGet();
+                connectionExecutor.execute(() -> serveConnection(channel));
+            }
+            catch (IOException e) {
+                if(running)
+                    log.error("Failed to accept connection. msg: {}", e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Runs one PPT session: the connection handshake followed by any number
+     * of request/response transactions.
+     */
+    private void serveConnection(SocketChannel channel){
+        SocketAddress peer = null;
+        try (SocketChannel c = channel) {
+            peer = c.getRemoteAddress();
+            InputStream rawIn = Channels.newInputStream(c);
+            OutputStream rawOut = new BufferedOutputStream(Channels.newOutputStream(c), 65536);
+
+            if(!handshake(rawIn, rawOut))
+                return;
+
+            ChunkedInputStream requestStream = new ChunkedInputStream(rawIn);
+            ResponseStream responseStream = ResponseStream.open(rawOut, chunkSize);
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+            boolean open = true;
+            while(open && running){
+                request.reset();
+                requestStream.readChunkedMessage(request, request);
+                if(request.size()==0){
+                    // The client sent PPT_EXIT_NOW (or nothing at all).
+                    open = false;
+                }
+                else {
+                    requestCount.incrementAndGet();
+                    open = respond(request.toByteArray(), responseStream, rawOut);
+                }
+            }
+        }
+        catch (IOException e) {
+            log.debug("Connection from {} ended. {}: {}", peer, e.getClass().getSimpleName(), e.getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private boolean handshake(InputStream rawIn, OutputStream rawOut) throws IOException {
+        byte[] expected = PPTSessionProtocol.PPT_CLIENT_TESTING_CONNECTION.getBytes(HyraxStringEncoding.getCharset());
+        byte[] received = new byte[expected.length];
+        int total = 0;
+        while(total<received.length){
+            int n = rawIn.read(received, total, received.length-total);
+            if(n<0)
+                return false;
+            total += n;
+        }
+        String status = new String(received, HyraxStringEncoding.getCharset());
+        if(!status.equals(PPTSessionProtocol.PPT_CLIENT_TESTING_CONNECTION)){
+            rawOut.write(PPTSessionProtocol.PPT_PROTOCOL_UNDEFINED.getBytes(HyraxStringEncoding.getCharset()));
+            rawOut.flush();
+            return false;
+        }
+        rawOut.write(PPTSessionProtocol.PPT_SERVER_CONNECTION_OK.getBytes(HyraxStringEncoding.getCharset()));
+        rawOut.flush();
+        return true;
+    }
+
+
+    /**
+     * Answers a single request.
+     * @return False if the connection should be closed.
+     */
+    private boolean respond(byte[] requestBytes, ResponseStream out, OutputStream rawOut)
+            throws IOException, InterruptedException {
+
+        Element request;
+        try {
+            SAXBuilder sb = new SAXBuilder();
+            request = sb.build(new ByteArrayInputStream(requestBytes)).getRootElement();
+        }
+        catch (JDOMException e) {
+            sendError(out, null, BESError.USER_SYNTAX_ERROR, "Unable to parse the request document. msg: "+e.getMessage());
+            return true;
+        }
+        String reqID = request.getAttributeValue("reqID");
+
+        if(latency>0)
+            Thread.sleep(latency);
+
+        String container = null;
+        Element command = null;
+        for(Object o : request.getChildren()){
+            Element e = (Element) o;
+            String name = e.getName();
+            if(name.equals("setContainer"))
+                container = e.getTextTrim();
+            else if(!name.equals("setContext") && !name.equals("define"))
+                command = e;
+        }
+
+        if(command==null){
+            sendError(out, reqID, BESError.USER_SYNTAX_ERROR, "The request contained no command.");
+            return true;
+        }
+
+        switch (command.getName()){
+            case "showVersion":
+                sendXml(out, reqID, showVersion());
+                return true;
+
+            case "showNode":
+                return showNode(out, reqID, command.getAttributeValue("node"));
+
+            case "showStatus":
+                Element status = new Element("showStatus", BES_NS);
+                status.addContent(new Element("status", BES_NS).setText("OK"));
+                sendXml(out, reqID, status);
+                return true;
+
+            case "showBesKey":
+                Element showBesKey = new Element("showBesKey", BES_NS);
+                showBesKey.addContent(new Element("key", BES_NS).setText(command.getAttributeValue("key")));
+                showBesKey.addContent(new Element("value", BES_NS));
+                sendXml(out, reqID, showBesKey);
+                return true;
+
+            case "get":
+                return get(out, rawOut, reqID, command.getAttributeValue("type"), container);
+
+            default:
+                sendError(out, reqID, BESError.USER_SYNTAX_ERROR, "The MockBesServer does not support the "+command.getName()+" command.");
+                return true;
+        }
+    }
+
+
+    private boolean get(ResponseStream out, OutputStream rawOut, String reqID, String type, String container)
+            throws IOException, InterruptedException {
+
+        if(container==null){
+            sendError(out, reqID, BESError.USER_SYNTAX_ERROR, "A get command requires a container.");
+            return true;
+        }
+        if(isMissing(container)){
+            sendError(out, reqID, BESError.NOT_FOUND_ERROR, "Failed to locate '"+container+"'");
+            return true;
+        }
+
+        double r;
+        synchronized (this){
+            r = random.nextDouble();
+        }
+        if(r < errorRate){
+            sendError(out, reqID, BESError.INTERNAL_ERROR, "MockBesServer injected error.");
+            return true;
+        }
+        r -= errorRate;
+        if(r < exitRate){
+            log.debug("Injecting emergency exit.");
+            out.writeExtension(Chunk.STATUS_EXTENSION+Chunk.EMERGENCY_EXIT_STATUS+";");
+            out.finish();
+            return false;
+        }
+        r -= exitRate;
+        boolean drop = r < dropRate;
+
+        String datasetName = datasetName(container);
+        long nValues = dataSize / 8;
+        String t = type==null ? "" : type.toLowerCase();
+        switch (t){
+            case "dmr":
+                sendText(out, dmr(datasetName, nValues));
+                break;
+            case "dds":
+                sendText(out, dds(datasetName, nValues));
+                break;
+            case "das":
+                sendText(out, das());
+                break;
+            case "ddx":
+                sendText(out, ddx(datasetName, nValues));
+                break;
+            case "dods":
+                out.write((dds(datasetName, nValues)+"\nData:\n").getBytes(HyraxStringEncoding.getCharset()));
+                return sendData(out, rawOut, drop);
+            default:
+                return sendData(out, rawOut, drop);
+        }
+        if(drop){
+            log.debug("Injecting connection drop.");
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Streams dataSize bytes of synthetic data as DATA chunks of chunkSize bytes.
+     * @return False if the connection was dropped.
+     */
+    private boolean sendData(ResponseStream out, OutputStream rawOut, boolean drop)
+            throws IOException, InterruptedException {
+
+        byte[] pattern = new byte[chunkSize];
+        for(int i=0; i<pattern.length; i++)
+            pattern[i] = (byte) i;
+
+        long dropPoint = drop ? dataSize/2 : -1;
+        long sent = 0;
+        while(sent < dataSize){
+            int n = (int) Math.min(chunkSize, dataSize-sent);
+            out.write(pattern, 0, n);
+            sent += n;
+            if(drop && sent >= dropPoint){
+                rawOut.flush();
+                log.debug("Injecting connection drop after {} bytes.", sent);
+                return false;
+            }
+            if(chunkDelay>0){
+                rawOut.flush();
+                Thread.sleep(chunkDelay);
+            }
+        }
+        out.finish();
+        return true;
+    }
+
+    private void sendText(ResponseStream out, String text) throws IOException {
+        out.write(text.getBytes(HyraxStringEncoding.getCharset()));
+        out.finish();
+    }
+
+    private void sendXml(ResponseStream out, String reqID, Element content) throws IOException {
+        Element response = new Element("response", BES_NS);
+        if(reqID!=null)
+            response.setAttribute("reqID", reqID);
+        response.addContent(content);
+        XMLOutputter xmlo = new XMLOutputter(Format.getRawFormat());
+        xmlo.output(new Document(response), out);
+        out.finish();
+    }
+
+    private void sendError(ResponseStream out, String reqID, int type, String message) throws IOException {
+        out.writeExtension(Chunk.STATUS_EXTENSION+Chunk.ERROR_STATUS+";");
+
+        Element besError = new Element(BESError.BES_ERROR, BES_NS);
+        besError.addContent(new Element("Type", BES_NS).setText(Integer.toString(type)));
+        besError.addContent(new Element("Message", BES_NS).setText(message));
+        besError.addContent(new Element("Administrator", BES_NS).setText("support@opendap.org"));
+        sendXml(out, reqID, besError);
+    }
+
+
+    private Element showVersion(){
+        Element showVersion = new Element("showVersion", BES_NS);
+
+        showVersion.addContent(new Element("library", BES_NS).setAttribute("name","bes").setText("mock"));
+        showVersion.addContent(new Element("module", BES_NS).setAttribute("name","mock_module").setText("mock"));
+
+        Element serviceVersion = new Element("serviceVersion", BES_NS).setAttribute("name","dap");
+        for(String v : new String[]{"2.0","3.2","4.0"})
+            serviceVersion.addContent(new Element("version", BES_NS).setText(v));
+        showVersion.addContent(serviceVersion);
+
+        return showVersion;
+    }
+
+
+    private boolean showNode(ResponseStream out, String reqID, String node) throws IOException {
+        if(node==null || node.isEmpty())
+            node = "/";
+        if(isMissing(node)){
+            sendError(out, reqID, BESError.NOT_FOUND_ERROR, "Failed to locate '"+node+"'");
+            return true;
+        }
+
+        String lmt = new SimpleDateFormat(BESResource.BESDateFormat).format(new Date());
+        Element showNode = new Element("showNode", BES_NS);
+
+        if(node.endsWith("/")){
+            Element n = new Element("node", BES_NS);
+            n.setAttribute("name", node);
+            n.setAttribute("lastModified", lmt);
+            n.setAttribute("isData", "false");
+            int count = 3;
+            n.setAttribute("count", Integer.toString(count));
+            for(int i=0; i<count; i++){
+                n.addContent(leaf("data_"+i+DATA_FILE_SUFFIX, lmt));
+            }
+            showNode.addContent(n);
+        }
+        else {
+            showNode.addContent(leaf(node, lmt));
+        }
+        sendXml(out, reqID, showNode);
+        return true;
+    }
+
+    private Element leaf(String name, String lmt){
+        Element item = new Element("item", BES_NS);
+        item.setAttribute("type", "leaf");
+        item.setAttribute("name", name);
+        item.setAttribute("size", Long.toString(dataSize));
+        item.setAttribute("lastModified", lmt);
+        item.setAttribute("isData", "true");
+        return item;
+    }
+
+    private static boolean isMissing(String path){
+        String name = datasetName(path);
+        return name.startsWith("missing");
+    }
+
+    private static String datasetName(String path){
+        String p = path.endsWith("/") ? path.substring(0, path.length()-1) : path;
+        return p.substring(p.lastIndexOf('/')+1);
+    }
+
+
+    private static String dds(String name, long nValues){
+        return "Dataset {\n" +
+                "    Float64 data[n = " + nValues + "];\n" +
+                "} " + name + ";\n";
+    }
+
+    private static String das(){
+        return "Attributes {\n" +
+                "    data {\n" +
+                "        String long_name \"synthetic data\";\n" +
+                "        String units \"1\";\n" +
+                "    }\n" +
+                "}\n";
+    }
+
+    private static String dmr(String name, long nValues){
+        Namespace dap4 = Namespace.getNamespace(DAP4.NAMESPACE_STRING);
+        Element dataset = new Element("Dataset", dap4);
+        dataset.setAttribute("name", name);
+        dataset.setAttribute("dapVersion", "4.0");
+        dataset.setAttribute("dmrVersion", "1.0");
+        dataset.addContent(new Element("Dimension", dap4).setAttribute("name","n").setAttribute("size",Long.toString(nValues)));
+        Element data = new Element("Float64", dap4).setAttribute("name","data");
+        data.addContent(new Element("Dim", dap4).setAttribute("name","/n"));
+        dataset.addContent(data);
+        return new XMLOutputter(Format.getPrettyFormat()).outputString(new Document(dataset));
+    }
+
+    private static String ddx(String name, long nValues){
+        Namespace dap32 = Namespace.getNamespace(opendap.namespaces.DAP.DAPv32_NAMESPACE_STRING);
+        Element dataset = new Element("Dataset", dap32);
+        dataset.setAttribute("name", name);
+        Element array = new Element("Array", dap32).setAttribute("name","data");
+        array.addContent(new Element("Float64", dap32));
+        array.addContent(new Element("dimension", dap32).setAttribute("name","n").setAttribute("size",Long.toString(nValues)));
+        dataset.addContent(array);
+        return new XMLOutputter(Format.getPrettyFormat()).outputString(new Document(dataset));
+    }
+
+
+    /**
+     * A ChunkedOutputStream that can also send an extension chunk.
+     */
+    private static class ResponseStream extends ChunkedOutputStream {
+
+        ResponseStream(OutputStream stream, int chunkSize) throws Exception {
+            super(stream, chunkSize);
+        }
+
+        static ResponseStream open(OutputStream stream, int chunkSize) throws IOException {
+            try {
+                return new ResponseStream(stream, chunkSize);
+            }
+            catch (IOException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        void writeExtension(String extension) throws IOException {
+            flushCache();
+            setChunkTypeToEXTENSION();
+            write(extension.getBytes(HyraxStringEncoding.getCharset()));
+            flushCache();
+            setChunkTypeToDATA();
+        }
+    }
+
+
+    private static Options createCmdLineOptions(){
+        Options options = new Options();
+        options.addOption("p", "port",       true, "TCP port on which to listen. default: 10022");
+        options.addOption("u", "socket",     true, "Path of a Unix domain socket on which to listen instead of a TCP port.");
+        options.addOption("s", "dataSize",   true, "Size, in bytes, of each data response. default: "+DEFAULT_DATA_SIZE);
+        options.addOption("c", "chunkSize",  true, "Size, in bytes, of the DATA chunks. default: "+DEFAULT_CHUNK_SIZE);
+        options.addOption("l", "latency",    true, "Milliseconds to wait before each response. default: 0");
+        options.addOption("d", "chunkDelay", true, "Milliseconds to wait between DATA chunks. default: 0");
+        options.addOption("E", "errorRate",  true, "Probability (0.0-1.0) of answering a get with a BESError. default: 0");
+        options.addOption("X", "exitRate",   true, "Probability (0.0-1.0) of answering a get with an emergency exit. default: 0");
+        options.addOption("D", "dropRate",   true, "Probability (0.0-1.0) of dropping the connection during a get. default: 0");
+        options.addOption("r", "seed",       true, "Seed for the fault injection random number generator.");
+        options.addOption("h", "help",       false, "Print this usage statement.");
+        return options;
+    }
+
+    public static void main(String[] args) throws Exception {
+
+        Logger log = LoggerFactory.getLogger(MockBesServer.class);
+
+        Options options = createCmdLineOptions();
+        CommandLineParser parser = new PosixParser();
+        CommandLine cmd = parser.parse(options, args);
+
+        if (cmd.hasOption("h")) {
+            HelpFormatter formatter = new HelpFormatter();
+            formatter.setWidth(120);
+            formatter.printHelp( "MockBesServer", options );
+            return;
+        }
+
+        MockBesServer server = new MockBesServer();
+        server.setPort(Integer.parseInt(cmd.getOptionValue("p","10022")));
+        if (cmd.hasOption("u"))
+            server.setSocketPath(cmd.getOptionValue("u"));
+        if (cmd.hasOption("s"))
+            server.setDataSize(Long.parseLong(cmd.getOptionValue("s")));
+        if (cmd.hasOption("c"))
+            server.setChunkSize(Integer.parseInt(cmd.getOptionValue("c")));
+        if (cmd.hasOption("l"))
+            server.setLatency(Long.parseLong(cmd.getOptionValue("l")));
+        if (cmd.hasOption("d"))
+            server.setChunkDelay(Long.parseLong(cmd.getOptionValue("d")));
+        if (cmd.hasOption("E"))
+            server.setErrorRate(Double.parseDouble(cmd.getOptionValue("E")));
+        if (cmd.hasOption("X"))
+            server.setExitRate(Double.parseDouble(cmd.getOptionValue("X")));
+        if (cmd.hasOption("D"))
+            server.setDropRate(Double.parseDouble(cmd.getOptionValue("D")));
+        if (cmd.hasOption("r"))
+            server.setSeed(Long.parseLong(cmd.getOptionValue("r")));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+        log.info("dataSize: {} chunkSize: {} latency: {} ms chunkDelay: {} ms errorRate: {} exitRate: {} dropRate: {}",
+                server.getDataSize(), server.getChunkSize(), server.getLatency(), server.getChunkDelay(),
+                server.getErrorRate(), server.getExitRate(), server.getDropRate());
+
+        while(server.isRunning()){
+            Thread.sleep(1000);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * This file is part of the "Hyrax Data Server" project.
+ *
+ *
+ * Copyright (c) 2026 OPeNDAP, Inc.
+ * Author: Nathan David Potter  <ndp@opendap.org>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ *
+ * You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+import opendap.bes.BESError;
+import opendap.coreServlet.RequestCache;
+import opendap.coreServlet.RequestId;
+import opendap.io.HyraxStringEncoding;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static opendap.namespaces.BES.BES_NS;
+import static org.junit.Assert.*;
+
+public class MockBesServerTest {
+
+    private MockBesServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockBesServer();
+        server.setDataSize(300000);
+        server.setChunkSize(4096);
+        server.setSeed(42);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private static Document request(Element command, String container) {
+        Element request = new Element("request", BES_NS);
+        request.setAttribute("reqID", "MockBesServerTest");
+        if (container != null) {
+            Element setContainer = new Element("setContainer", BES_NS);
+            setContainer.setAttribute("name", "catalogContainer");
+            setContainer.setText(container);
+            request.addContent(setContainer);
+        }
+        request.addContent(command);
+        return new Document(request);
+    }
+
+    private static Document getRequest(String type, String container) {
+        Element get = new Element("get", BES_NS);
+        get.setAttribute("type", type);
+        get.setAttribute("definition", "d1");
+        return request(get, container);
+    }
+
+    private OPeNDAPClient connect(PPTTransport transport) throws PPTException {
+        OPeNDAPClient oc = new OPeNDAPClient();
+        oc.startClient("localhost", server.getPort(), 1000, transport);
+        return oc;
+    }
+
+    @Test
+    public void testShowVersion() throws Exception {
+        server.start();
+        OPeNDAPClient oc = connect(PPTTransport.SOCKET);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        assertTrue(oc.sendRequest(request(new Element("showVersion", BES_NS), null), out, err));
+        String version = out.toString(HyraxStringEncoding.getCharsetName());
+        assertTrue(version.contains("serviceVersion"));
+        assertEquals(0, err.size());
+        oc.shutdownClient();
+    }
+
+    @Test
+    public void testDataResponse() throws Exception {
+        server.start();
+        for (PPTTransport transport : new PPTTransport[]{PPTTransport.SOCKET, PPTTransport.NIO}) {
+            OPeNDAPClient oc = connect(transport);
+            for (int i = 0; i < 3; i++) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                ByteArrayOutputStream err = new ByteArrayOutputStream();
+                assertTrue(oc.sendRequest(getRequest("dap", "/data/test.nc"), out, err));
+                assertEquals(transport + " data response size", 300000, out.size());
+            }
+            oc.shutdownClient();
+        }
+        assertEquals(2, server.getConnectionCount());
+    }
+
+    @Test
+    public void testDataResponseToFileSkipsTheStream() throws Exception {
+        server.start();
+        OPeNDAPClient oc = connect(PPTTransport.NIO);
+        File file = File.createTempFile("MockBesServerTest", ".dap");
+        try {
+            int[] streamWrites = {0};
+            try (FileOutputStream out = new FileOutputStream(file) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    streamWrites[0]++;
+                    super.write(b, off, len);
+                }
+            }) {
+                assertTrue(oc.sendRequest(getRequest("dap", "/data/test.nc"), out, new ByteArrayOutputStream()));
+            }
+            // The response went to the file's channel, and was still timed.
+            assertEquals(300000, file.length());
+            assertEquals(0, streamWrites[0]);
+            assertTrue(oc.getLastTimeToFirstByte() >= 0);
+
+            FileOutputStream closed = new FileOutputStream(file);
+            closed.close();
+            try {
+                oc.sendRequest(getRequest("dap", "/data/test.nc"), closed, new ByteArrayOutputStream());
+                fail("Writing to a closed file should fail.");
+            }
+            catch (ResponseWriteException e) {
+                // The failure is the file's, not the BES's.
+            }
+        }
+        finally {
+            oc.shutdownClient();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStatusCheckTimesOut() throws Exception {
+        server.setLatency(5000);
+        server.start();
+        RequestCache.open(new RequestId("MockBesServerTest"));
+        try {
+            for (PPTTransport transport : new PPTTransport[]{PPTTransport.SOCKET, PPTTransport.NIO}) {
+                OPeNDAPClient oc = connect(transport);
+                oc.setID("status-check-" + transport);
+                long start = System.nanoTime();
+                assertFalse(transport + " status check of an unresponsive BES", oc.isOk(200));
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue(transport + " status check took " + elapsed + " ms", elapsed < 2000);
+                oc.killClient();
+            }
+        }
+        finally {
+            RequestCache.close();
+        }
+    }
+
+    @Test
+    public void testUnixSocketTimeout() throws Exception {
+        File socket = File.createTempFile("MockBesServerTest", ".sock");
+        socket.delete();
+        server.setSocketPath(socket.getPath());
+        server.setLatency(5000);
+        server.start();
+        OPeNDAPClient oc = new OPeNDAPClient();
+        oc.startUnixSocketClient(socket.getPath(), 200);
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                oc.sendRequest(request(new Element("showVersion", BES_NS), null),
+                        new ByteArrayOutputStream(), new ByteArrayOutputStream());
+                fail("The request should have timed out.");
+            }
+            catch (PPTException e) {
+                long elapsed = System.currentTimeMillis() - start;
+                assertTrue("The timeout took " + elapsed + " ms", elapsed < 2000);
+            }
+        }
+        finally {
+            oc.shutdownClient(false);
+            socket.delete();
+        }
+    }
+
+    @Test
+    public void testInjectedError() throws Exception {
+        server.setErrorRate(1.0);
+        server.start();
+        OPeNDAPClient oc = connect(PPTTransport.SOCKET);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        assertFalse(oc.sendRequest(getRequest("dmr", "/data/test.nc"), out, err));
+        BESError besError = new BESError(new ByteArrayInputStream(err.toByteArray()));
+        assertEquals(BESError.INTERNAL_ERROR, besError.getBesErrorCode());
+        oc.shutdownClient();
+    }
+
+    @Test
+    public void testNotFound() throws Exception {
+        server.start();
+        OPeNDAPClient oc = connect(PPTTransport.NIO);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        Element showNode = new Element("showNode", BES_NS);
+        showNode.setAttribute("node", "/data/missing.nc");
+        assertFalse(oc.sendRequest(request(showNode, null), out, err));
+        assertTrue(new BESError(new ByteArrayInputStream(err.toByteArray())).notFound());
+        oc.shutdownClient();
+    }
+
+    @Test(expected = PPTException.class)
+    public void testInjectedDrop() throws Exception {
+        server.setDropRate(1.0);
+        server.start();
+        OPeNDAPClient oc = connect(PPTTransport.SOCKET);
+        oc.sendRequest(getRequest("dap", "/data/test.nc"), new ByteArrayOutputStream(), new ByteArrayOutputStream());
+    }
+}
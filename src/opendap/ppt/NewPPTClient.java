@@ -27,6 +27,7 @@ package opendap.ppt;
 
 import opendap.bes.BESChunkedOutputStream;
 import opendap.io.ChunkedInputStream;
+import opendap.io.FlushPolicy;
 import opendap.io.HyraxStringEncoding;
 import org.jdom.Document;
 import org.jdom.output.Format;
@@ -43,7 +44,7 @@ import java.net.*;
  * Date: Jan 7, 2008
  * Time: 3:28:18 PM
  */
-public class NewPPTClient {
+public class NewPPTClient implements PPTConnection {
     private Socket _mySock = null;
     private BESChunkedOutputStream _out = null;
     private ChunkedInputStream _in = null;
@@ -101,6 +102,7 @@ public class NewPPTClient {
         }
 
     }
+    @Override
     public String showConnectionProperties() {
         return showConnectionProperties(_mySock);
     }
@@ -152,15 +154,29 @@ public class NewPPTClient {
 
     }
 
+    @Override
     public boolean isClosed(){
         return _mySock==null || _mySock.isClosed();
     }
 
+    @Override
     public boolean isConnected(){
         return _mySock!=null && _mySock.isConnected();
     }
 
 
+    @Override
+    public void setReadTimeout(int ms) throws PPTException {
+        try {
+            if(_mySock != null)
+                _mySock.setSoTimeout(ms);
+        }
+        catch (SocketException e) {
+            throw new PPTException("Unable to set the socket timeout. msg: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
     public int getChunkReadBufferSize(){
 
         return _in.getChunkedReadBufferSize();
@@ -169,6 +185,7 @@ public class NewPPTClient {
 
 
 
+    @Override
     public void dieNow(){
         try{
             if(_mySock!=null)
@@ -244,6 +261,7 @@ public class NewPPTClient {
     }
 
 
+    @Override
     public void initConnection() throws PPTException {
 
         log.debug("START");
@@ -258,6 +276,7 @@ public class NewPPTClient {
      * @param informServer A true value will result in an attempt to inform the Server that the client is disconnecting.
      * A false value will simple cause the client to close connections with out informing the server.
      */
+    @Override
     public void closeConnection(boolean informServer) {
 
         StringBuilder msg = new StringBuilder("Closing Connection.");
@@ -306,6 +325,7 @@ public class NewPPTClient {
 
     }
 
+    @Override
     public boolean sendRequest(String buffer) throws PPTException {
         try {
             //System.out.println("Sending: "+buffer);
@@ -333,16 +353,25 @@ public class NewPPTClient {
      * true otherwise.
      * @throws PPTException Stuff happens
      */
+    @Override
     public boolean getResponse(OutputStream strm,
                                OutputStream errorStream)
             throws PPTException {
+        return getResponse(strm, errorStream, FlushPolicy.PER_CHUNK);
+    }
+
+    @Override
+    public boolean getResponse(OutputStream strm,
+                               OutputStream errorStream,
+                               FlushPolicy flushPolicy)
+            throws PPTException {
 
         try {
             if (strm == null)
                 throw new PPTException("Cannot write response to a \"null\" " +
                         "OutputStream. ");
 
-            return _in.readChunkedMessage(strm, errorStream);
+            return _in.readChunkedMessage(strm, errorStream, flushPolicy);
 
         }
         catch (IOException e) {
@@ -358,6 +387,7 @@ public class NewPPTClient {
 
 
 
+    @Override
     public boolean sendXMLRequest(Document req) throws PPTException {
         try {
             XMLOutputter xmlo = new XMLOutputter(Format.getPrettyFormat());
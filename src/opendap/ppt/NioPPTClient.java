@@ -0,0 +1,329 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+package opendap.ppt;
+
+import opendap.bes.BESChunkedOutputStream;
+import opendap.io.ChunkedChannelReader;
+import opendap.io.DirectBufferPool;
+import opendap.io.FlushPolicy;
+import opendap.io.HyraxStringEncoding;
+import org.jdom.Document;
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A PPT client built on a java.nio SocketChannel. It is wire compatible with
+ * NewPPTClient, the difference is in how the response is handled: the
+ * chunked BES response is read into a pooled direct ByteBuffer and the DATA
+ * chunks are relayed from there to the target stream by a
+ * ChunkedChannelReader. This avoids the per connection chunk buffer (which
+ * in NewPPTClient can grow to 16MB) and one of the copies of each chunk.
+ * <p>
+ * The channel is used in blocking mode. Note that, as with NewPPTClient,
+ * the timeout is applied to the connect() operation. A read timeout (see
+ * setReadTimeout()) is enforced by the ChunkedChannelReader.
+ */
+public class NioPPTClient implements PPTConnection {
+
+    private SocketChannel _channel = null;
+    private BESChunkedOutputStream _out = null;
+    private ChunkedChannelReader _in = null;
+    private OutputStream _rawOut = null;
+    private DirectBufferPool _bufferPool;
+    private int _readTimeout = 0;
+
+    private Logger log;
+
+    NioPPTClient(String hostStr, int portVal, int timeOut) throws PPTException {
+        this(hostStr, portVal, timeOut, DirectBufferPool.getDefault());
+    }
+
+    NioPPTClient(String hostStr, int portVal, int timeOut, DirectBufferPool bufferPool) throws PPTException {
+
+        log = org.slf4j.LoggerFactory.getLogger(getClass());
+        _bufferPool = bufferPool;
+
+        InetSocketAddress address;
+        try {
+            InetAddress host = InetAddress.getByName(hostStr);
+            address = new InetSocketAddress(host,portVal);
+        }
+        catch (UnknownHostException e) {
+            String msg = "Unknown Host: " + e.getMessage();
+            closeConnection(true);
+            throw new PPTException(msg, e);
+        }
+
+        try {
+            _channel = SocketChannel.open();
+            _channel.configureBlocking(true);
+            _channel.socket().connect(address,timeOut);
+            _rawOut = Channels.newOutputStream(_channel);
+            log.info("NioPPTClient() - Connected to {}:{} Set connect timeout to: {}",hostStr,portVal,timeOut);
+        }
+        catch (IOException e) {
+            String msg = "Could not connect to host " + hostStr + " on port " + portVal + ".  ";
+            msg += e.getMessage();
+            closeConnection(true);
+            throw new PPTException(msg, e);
+        }
+    }
+
+    /**
+     * Builds a client on a SocketChannel that has already been connected
+     * by a subclass.
+     * @param connectedChannel The connected channel.
+     * @param bufferPool The pool from which the response buffer is taken.
+     * @throws PPTException When the channel cannot be put in blocking mode.
+     */
+    protected NioPPTClient(SocketChannel connectedChannel, DirectBufferPool bufferPool) throws PPTException {
+        log = org.slf4j.LoggerFactory.getLogger(getClass());
+        _bufferPool = bufferPool;
+        _channel = connectedChannel;
+        try {
+            _channel.configureBlocking(true);
+        }
+        catch (IOException e) {
+            closeConnection(true);
+            throw new PPTException("Unable to place channel in blocking mode. " + e.getMessage(), e);
+        }
+        _rawOut = Channels.newOutputStream(_channel);
+    }
+
+    /**
+     * @return The channel that carries this connection, or null if it has been closed.
+     */
+    protected SocketChannel getChannel(){
+        return _channel;
+    }
+
+    @Override
+    public String showConnectionProperties() {
+        if(_channel==null)
+            return "\nshowConnectionProperties(): SocketChannel is null\n";
+        return NewPPTClient.showConnectionProperties(_channel.socket());
+    }
+
+    @Override
+    public boolean isClosed(){
+        return _channel==null || !_channel.isOpen();
+    }
+
+    @Override
+    public boolean isConnected(){
+        return _channel!=null && _channel.isConnected();
+    }
+
+    @Override
+    public int getChunkReadBufferSize(){
+        return _in==null?0:_in.getChunkedReadBufferSize();
+    }
+
+    @Override
+    public void dieNow(){
+        try{
+            if(_channel!=null)
+                _channel.close();
+            _channel=null;
+        }
+        catch(IOException t){
+            log.error(t.getMessage());
+        }
+        finally {
+            releaseReader();
+        }
+    }
+
+    private void releaseReader(){
+        if(_in!=null){
+            _in.release();
+            _in = null;
+        }
+    }
+
+    private void testPPTConnection() throws PPTException {
+        log.debug("START");
+
+        try {
+            _rawOut.write(PPTSessionProtocol.PPT_CLIENT_TESTING_CONNECTION.getBytes(HyraxStringEncoding.getCharset()));
+            _rawOut.flush();
+        }
+        catch (IOException e) {
+            String msg = "Failed to initialize connection to server. ";
+            msg += e.getMessage();
+            closeConnection(true);
+            throw new PPTException(msg, e);
+        }
+        log.debug("initConnection() -  Sent '"+PPTSessionProtocol.PPT_CLIENT_TESTING_CONNECTION +"' to server.");
+
+        ByteBuffer inBuff = ByteBuffer.allocate(4096);
+        int bytesRead;
+        try {
+            bytesRead = _channel.read(inBuff);
+        }
+        catch (IOException e) {
+            String msg = "Caught "+e.getClass().getSimpleName()+" attempting to read initialization response from server.  Message: ";
+            msg += e.getMessage();
+            log.error(msg);
+            closeConnection(false);
+            throw new PPTException(msg, e);
+        }
+
+        if(bytesRead<0){
+            log.error("initConnection() -  Encountered End Of Stream when attempting to read server handshake response!");
+            throw new PPTEndOfStreamException("PPT Connection encounter a premature End Of Stream - The connection appears to have been prematurely closed.");
+        }
+
+        String status = new String(inBuff.array(), 0, bytesRead, HyraxStringEncoding.getCharset());
+        if (status.compareTo(PPTSessionProtocol.PPT_PROTOCOL_UNDEFINED) == 0) {
+            log.error("initConnection() -  Received '"+PPTSessionProtocol.PPT_PROTOCOL_UNDEFINED+"' from server. That's a bad thing!");
+            throw new PPTException("Could not connect to server, server may be down or busy");
+        }
+        if (status.compareTo(PPTSessionProtocol.PPT_SERVER_CONNECTION_OK) != 0) {
+            log.error("initConnection() -  Received unrecognized status '"+status+"' from server. That's a bummer man...");
+            throw new PPTException("Server reported an invalid connection status , \"" + status + "\"");
+        }
+        log.debug("initConnection() -  Received '"+PPTSessionProtocol.PPT_SERVER_CONNECTION_OK +"' from server.");
+    }
+
+    @Override
+    public void initConnection() throws PPTException {
+        log.debug("START");
+        testPPTConnection();
+        _out = new BESChunkedOutputStream(_rawOut);
+        _in = new ChunkedChannelReader(_channel, _bufferPool);
+        _in.setReadTimeout(_readTimeout);
+        log.debug("END");
+    }
+
+    @Override
+    public void setReadTimeout(int ms) {
+        _readTimeout = ms;
+        if(_in != null)
+            _in.setReadTimeout(ms);
+    }
+
+    @Override
+    public void closeConnection(boolean informServer) {
+
+        log.info("Closing Connection. SocketChannel {}", _channel==null?"is null":("isOpen(): "+_channel.isOpen()));
+
+        if(_channel!=null && _channel.isOpen()){
+            try {
+                _channel.shutdownOutput();  // Sends 'FIN' to the other end of TCP connection
+                log.debug("Channel output shutdown accomplished.");
+            }
+            catch (IOException e) {
+                log.error("Unable to shutdown channel output. Base message: '" + e.getMessage()+"'");
+            }
+            finally {
+                _out = null;
+            }
+
+            try {
+                _channel.shutdownInput();
+                log.debug("Channel input shutdown accomplished.");
+            }
+            catch (IOException e) {
+                log.error("Unable to shutdown channel input. Base message: '" + e.getMessage()+"'");
+            }
+
+            try {
+                _channel.close();
+                log.debug("Channel closed.");
+            } catch (IOException e) {
+                log.error("Unable to close channel. Base message: '" + e.getMessage()+"'");
+            }
+            finally {
+                _channel = null;
+            }
+        }
+        releaseReader();
+    }
+
+    @Override
+    public boolean sendRequest(String buffer) throws PPTException {
+        try {
+            _out.write(buffer.getBytes(HyraxStringEncoding.getCharset()));
+            _out.finish();
+            _out.flush();
+        } catch (IOException e) {
+            String msg = "Failed to write to channel:  ";
+            msg += e.getMessage();
+            closeConnection(false);
+            throw new PPTException(msg, e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean sendXMLRequest(Document req) throws PPTException {
+        try {
+            XMLOutputter xmlo = new XMLOutputter(Format.getPrettyFormat());
+            log.debug("\n{}",xmlo.outputString(req));
+            xmlo.output(req,_out);
+            _out.finish();
+            _out.flush();
+        } catch (IOException e) {
+            String msg = "Failed to write to channel: ";
+            msg += e.getMessage();
+            closeConnection(false);
+            throw new PPTException(msg, e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean getResponse(OutputStream strm, OutputStream errorStream) throws PPTException {
+        return getResponse(strm, errorStream, FlushPolicy.PER_CHUNK);
+    }
+
+    @Override
+    public boolean getResponse(OutputStream strm, OutputStream errorStream, FlushPolicy flushPolicy) throws PPTException {
+        try {
+            if (strm == null)
+                throw new PPTException("Cannot write response to a \"null\" " +
+                        "OutputStream. ");
+
+            return _in.readChunkedMessage(strm, errorStream, flushPolicy);
+        }
+        catch (IOException e) {
+            closeConnection(true);
+            throw new PPTException(e.getMessage(), e);
+        }
+    }
+
+}
@@ -31,7 +31,9 @@ import opendap.bes.BESError;
 import opendap.bes.BesApi;
 import opendap.coreServlet.RequestCache;
 import opendap.coreServlet.RequestId;
+import opendap.io.FlushPolicy;
 import opendap.io.HyraxStringEncoding;
+import opendap.io.WatchedOutputStream;
 import opendap.xml.Util;
 import org.apache.commons.cli.*;
 import org.jdom.Document;
@@ -75,7 +77,13 @@ import static opendap.namespaces.BES.BES_NS;
 
 public class OPeNDAPClient {
     private int commandCount;
-    private NewPPTClient _client = null;
+    private volatile long lastUsed;
+    private long firstResponseByte;
+    private long lastTimeToFirstByte = -1;
+    private long lastTransferTime;
+    private IOException responseWriteFailure;
+    private int readTimeout = 0;
+    private PPTConnection _client = null;
     private OutputStream _stream = null;
     private boolean _isRunning;
     private Logger log = null;
@@ -92,6 +100,7 @@ public class OPeNDAPClient {
         _isRunning = false;
         log = org.slf4j.LoggerFactory.getLogger(getClass());
         commandCount = 0;
+        lastUsed = System.currentTimeMillis();
 
     }
 
@@ -108,6 +117,13 @@ public class OPeNDAPClient {
         return commandCount;
     }
 
+    /**
+     * @return The time (ms since the epoch) that this client was made, or last completed a command.
+     */
+    public long getLastUsedTime() {
+        return lastUsed;
+    }
+
 
     public boolean isRunning() {
         return _isRunning;
@@ -144,11 +160,58 @@ public class OPeNDAPClient {
      * @see PPTException
      */
     public void startClient(String hostStr, int portVal, int timeOut) throws PPTException {
+        startClient(hostStr, portVal, timeOut, PPTTransport.SOCKET);
+    }
+
+    /**
+     * Connect the OpenDAP client to the OpenDAP server using the specified
+     * PPT transport.
+     *
+     * @param hostStr The name of the host machine where the server is
+     *                running.
+     * @param portVal The port on which the server on the host hostStr is
+     *                listening for requests.
+     * @param timeOut The number of milliseconds for the client to wait for the BES
+     *                to reply before timing out.
+     * @param transport The PPTTransport implementation to use for the connection.
+     * @throws PPTException Thrown if unable to connect to the specified host
+     *                      machine given the specified port.
+     */
+    public void startClient(String hostStr, int portVal, int timeOut, PPTTransport transport) throws PPTException {
 
         int paddedTimeout = 0; // (int)(timeOut + 10000);  // padded by 10 seconds
-        
-        _client = new NewPPTClient(hostStr, portVal, paddedTimeout);
+
+        switch (transport) {
+            case NIO:
+                _client = new NioPPTClient(hostStr, portVal, paddedTimeout);
+                break;
+            case UNIX:
+                throw new PPTException("The " + transport + " PPT transport connects to a socket path, " +
+                        "not to a host and port. Use startUnixSocketClient()");
+            case SOCKET:
+            default:
+                _client = new NewPPTClient(hostStr, portVal, paddedTimeout);
+                break;
+        }
+        _client.initConnection();
+        _isRunning = true;
+    }
+
+    /**
+     * Connect the OpenDAP client to an OpenDAP server on the same host
+     * through a Unix domain socket.
+     *
+     * @param socketPath The file system path of the Unix domain socket on
+     *                   which the server is listening.
+     * @param timeOut The number of milliseconds for the client to wait for the BES
+     *                to send the next part of a reply before timing out. 0 for no limit.
+     * @throws PPTException Thrown if unable to connect to the socket.
+     */
+    public void startUnixSocketClient(String socketPath, int timeOut) throws PPTException {
+        _client = new UnixPPTClient(socketPath);
         _client.initConnection();
+        readTimeout = Math.max(timeOut, 0);
+        _client.setReadTimeout(readTimeout);
         _isRunning = true;
     }
 
@@ -235,6 +298,7 @@ public class OPeNDAPClient {
         _client.sendRequest(cmd);
         boolean success = _client.getResponse(target,error);
         commandCount++;
+        lastUsed = System.currentTimeMillis();
         return success;
     }
 
@@ -293,12 +357,139 @@ public class OPeNDAPClient {
                                 OutputStream target,
                                 OutputStream error)
             throws PPTException {
+        return sendRequest(request, target, error, FlushPolicy.PER_CHUNK);
+    }
 
+    /**
+     * Sends a single XML request document, writing the response to the
+     * target stream and flushing it as directed by the FlushPolicy.
+     *
+     * @param request The XML request that is sent to
+     *            the BES to handle.
+     * @param target The target OutputStream for the results of the command.
+     * @param error The error OutputStream for errors returned by the server.
+     * @param flushPolicy Determines when the target stream is flushed.
+     * @return True if successful, false if the server returned an error.
+     * @throws ResponseWriteException Thrown if the response could not be
+     *                      written to the target (or error) stream.
+     * @throws PPTException Thrown if there is a problem sending the request
+     *                      to the server or a problem receiving the response
+     *                      from the server.
+     */
+    public boolean sendRequest( Document request,
+                                OutputStream target,
+                                OutputStream error,
+                                FlushPolicy flushPolicy)
+            throws PPTException {
 
-        _client.sendXMLRequest(request);
-        boolean val = _client.getResponse(target,error);
-        commandCount++;
-        return val;
+
+        long start = System.nanoTime();
+        firstResponseByte = 0;
+        responseWriteFailure = null;
+        try {
+            _client.sendXMLRequest(request);
+            boolean val = _client.getResponse(
+                    target == null ? null : new ResponseTimer(target),
+                    error == null ? null : new ResponseTimer(error),
+                    flushPolicy);
+            commandCount++;
+            lastUsed = System.currentTimeMillis();
+            return val;
+        }
+        catch (PPTException e) {
+            // The transports wrap whatever went wrong in a PPTException,
+            // the ResponseTimer knows if it was the target that failed.
+            if (responseWriteFailure != null)
+                throw new ResponseWriteException("Failed to write the BES response. msg: " +
+                        responseWriteFailure.getMessage(), responseWriteFailure);
+            throw e;
+        }
+        finally {
+            long end = System.nanoTime();
+            lastTransferTime = end - start;
+            lastTimeToFirstByte = firstResponseByte == 0 ? -1 : firstResponseByte - start;
+        }
+    }
+
+    /**
+     * @return The time, in ns, from sending the last XML request to receiving
+     * the first byte of its response. -1 if no response was received.
+     */
+    public long getLastTimeToFirstByte() {
+        return lastTimeToFirstByte;
+    }
+
+    /**
+     * @return The time, in ns, from sending the last XML request to the end
+     * of its response (or the failure that ended it).
+     */
+    public long getLastTransferTime() {
+        return lastTransferTime;
+    }
+
+    /**
+     * Notes the time that the first byte of a response is written to it,
+     * and the failure of a write to (or flush of) the stream it wraps. It is
+     * a WatchedOutputStream so that a ChunkedChannelReader can still write
+     * straight to a FileOutputStream's channel.
+     */
+    private final class ResponseTimer extends FilterOutputStream implements WatchedOutputStream {
+        ResponseTimer(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public OutputStream getWatchedStream() {
+            return out;
+        }
+
+        @Override
+        public void writing() {
+            if (firstResponseByte == 0)
+                firstResponseByte = System.nanoTime();
+        }
+
+        @Override
+        public void writeFailed(IOException e) {
+            responseWriteFailure = e;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (firstResponseByte == 0)
+                firstResponseByte = System.nanoTime();
+            try {
+                out.write(b);
+            }
+            catch (IOException e) {
+                responseWriteFailure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (firstResponseByte == 0)
+                firstResponseByte = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            }
+            catch (IOException e) {
+                responseWriteFailure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            }
+            catch (IOException e) {
+                responseWriteFailure = e;
+                throw e;
+            }
+        }
     }
 
     /**
@@ -473,6 +664,18 @@ public class OPeNDAPClient {
 
 
 
+    private static void startClient(OPeNDAPClient oc,
+                                    String hostName,
+                                    int portNum,
+                                    String socketPath,
+                                    int timeOut,
+                                    PPTTransport transport) throws PPTException {
+        if(transport == PPTTransport.UNIX)
+            oc.startUnixSocketClient(socketPath,timeOut);
+        else
+            oc.startClient(hostName,portNum,timeOut,transport);
+    }
+
     private static Options createCmdLineOptions(){
 
         Options options = new Options();
@@ -483,6 +686,8 @@ public class OPeNDAPClient {
         options.addOption("p", "port",    true, "Port number of BES. default: 10022");
         options.addOption("t", "timeOut", true, "Timeout (in seconds) for the BES connection. (300)");
         options.addOption("n", "host",    true, "Hostname of BES. default \"localhost\"");
+        options.addOption("x", "transport", true, "PPT transport to use, socket or nio. default: socket");
+        options.addOption("u", "socket",  true, "Path of the BES Unix domain socket. Implies the unix transport.");
         options.addOption("o", "outFile", true, "File into which to log BES responses. default: stdout");
         options.addOption("e", "errFile", true, "File into which to log BES errors. default: stderr");
         options.addOption("h", "help",    false, "Print this usage statement.");
@@ -512,6 +717,8 @@ public class OPeNDAPClient {
         String hostName = "localhost";
         int portNum = 10022;
         int timeOut = 300000; // 5 minutes in ms
+        PPTTransport transport = PPTTransport.SOCKET;
+        String socketPath = null;
 
         try {
             Options options = createCmdLineOptions();
@@ -599,6 +806,21 @@ public class OPeNDAPClient {
             }
             log.info("BES timeout set to at "+timeOut/1000+ " seconds");
 
+            //---------------------------
+            // PPT Transport
+            if (cmd.hasOption("x")) {
+                transport = PPTTransport.fromString(cmd.getOptionValue("x"));
+            }
+
+            //---------------------------
+            // Unix domain socket
+            if (cmd.hasOption("u")) {
+                socketPath = cmd.getOptionValue("u");
+                transport = PPTTransport.UNIX;
+                log.info("Using BES Unix domain socket "+socketPath);
+            }
+            log.info("Using PPT transport "+transport);
+
 
         }
         catch(Throwable t){
@@ -633,7 +855,7 @@ public class OPeNDAPClient {
             log.info("Starting... \n\n\n");
 
             OPeNDAPClient oc = new OPeNDAPClient();
-            oc.startClient(hostName,portNum,timeOut);
+            startClient(oc,hostName,portNum,socketPath,timeOut,transport);
             connectionsMade++;
             for(int r=0; reps==0 || r<reps ;r++){
 
@@ -644,7 +866,7 @@ public class OPeNDAPClient {
                     while(!done){
                         oc = new OPeNDAPClient();
                         try {
-                            oc.startClient(hostName,portNum,timeOut);
+                            startClient(oc,hostName,portNum,socketPath,timeOut,transport);
                             done = true;
                         }
                         catch(PPTEndOfStreamException e){
@@ -735,6 +957,35 @@ public class OPeNDAPClient {
         return response.toString(HyraxStringEncoding.getCharsetName());
     }
 
+    /**
+     * Asks the BES for its status, waiting no longer than timeout for the
+     * answer. A client whose status check timed out has lost its
+     * connection and must be discarded.
+     *
+     * @param timeout The read timeout, in ms, for the status check.
+     * @return True if the BES answered.
+     */
+    public boolean isOk(int timeout){
+        try {
+            _client.setReadTimeout(timeout);
+        }
+        catch (PPTException e) {
+            log.debug("Unable to set the read timeout. Message: {}", e.getMessage());
+            return false;
+        }
+        try {
+            return isOk();
+        }
+        finally {
+            try {
+                _client.setReadTimeout(readTimeout);
+            }
+            catch (PPTException e) {
+                log.debug("Unable to restore the read timeout. Message: {}", e.getMessage());
+            }
+        }
+    }
+
     public boolean isOk(){
         boolean reallyImFine = true;
         try {
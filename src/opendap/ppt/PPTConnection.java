@@ -0,0 +1,102 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+import opendap.io.FlushPolicy;
+import org.jdom.Document;
+
+import java.io.OutputStream;
+
+/**
+ * The operations that OPeNDAPClient needs from a PPT connection to the BES.
+ * Implementations are responsible for opening the connection, performing
+ * the PPT handshake and moving the chunked messages, the OPeNDAPClient
+ * doesn't care how they get the bytes across.
+ *
+ * @see NewPPTClient
+ * @see NioPPTClient
+ */
+public interface PPTConnection {
+
+    boolean isClosed();
+
+    boolean isConnected();
+
+    String showConnectionProperties();
+
+    int getChunkReadBufferSize();
+
+    void dieNow();
+
+    void initConnection() throws PPTException;
+
+    /**
+     * @param ms How long, in ms, a read of the BES response may wait for
+     *           data before the response fails. Zero waits forever. A
+     *           connection whose read has timed out can't be used again.
+     * @throws PPTException When the timeout can't be applied to the connection.
+     */
+    void setReadTimeout(int ms) throws PPTException;
+
+    /**
+     * Attempts to gracefully close the connection to the Server.
+     * @param informServer A true value will result in an attempt to inform the Server that the client is disconnecting.
+     * A false value will simple cause the client to close connections with out informing the server.
+     */
+    void closeConnection(boolean informServer);
+
+    boolean sendRequest(String buffer) throws PPTException;
+
+    boolean sendXMLRequest(Document req) throws PPTException;
+
+    /**
+     * Get the response from the BES and write it to the passed OutputStream
+     *
+     * @param strm The stream to which to write the response.
+     * @param errorStream The stream to which to write any errors sent from
+     * the server.
+     * @return False if the server returns an error extension in the message,
+     * true otherwise.
+     * @throws PPTException Stuff happens
+     */
+    boolean getResponse(OutputStream strm, OutputStream errorStream) throws PPTException;
+
+    /**
+     * Get the response from the BES and write it to the passed OutputStream,
+     * flushing the stream as directed by the FlushPolicy.
+     *
+     * @param strm The stream to which to write the response.
+     * @param errorStream The stream to which to write any errors sent from
+     * the server.
+     * @param flushPolicy Determines when strm (or errorStream) is flushed.
+     * @return False if the server returns an error extension in the message,
+     * true otherwise.
+     * @throws PPTException Stuff happens
+     */
+    boolean getResponse(OutputStream strm, OutputStream errorStream, FlushPolicy flushPolicy) throws PPTException;
+
+}
@@ -0,0 +1,71 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+/**
+ * Identifies the transport implementation used by an OPeNDAPClient to carry
+ * the PPT protocol to the BES. All of the transports speak exactly the same
+ * chunked wire protocol, they only differ in how the bytes are moved.
+ */
+public enum PPTTransport {
+
+    /**
+     * The classic blocking java.net.Socket transport (NewPPTClient).
+     */
+    SOCKET,
+
+    /**
+     * A java.nio SocketChannel transport that reads the BES response into
+     * pooled direct buffers (NioPPTClient).
+     */
+    NIO,
+
+    /**
+     * A Unix domain socket channel to a BES on the same host (UnixPPTClient).
+     * The BES is located by a socket path rather than a host and port.
+     */
+    UNIX;
+
+    /**
+     * Case-insensitive lookup of the transport by name.
+     *
+     * @param name The name of the transport, for example "socket", "nio" or "unix".
+     * @return The matching PPTTransport, or SOCKET if the name is null or empty.
+     * @throws IllegalArgumentException If the name is not recognized.
+     */
+    public static PPTTransport fromString(String name) {
+        if(name==null || name.trim().isEmpty())
+            return SOCKET;
+
+        for(PPTTransport t : values()){
+            if(t.name().equalsIgnoreCase(name.trim()))
+                return t;
+        }
+        throw new IllegalArgumentException("Unrecognized PPT transport '"+name+"'. Allowed values are: socket, nio, unix");
+    }
+
+}
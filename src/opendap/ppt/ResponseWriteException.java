@@ -0,0 +1,45 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+/**
+ * Thrown when the response to a BES transaction could not be written to
+ * its target stream, which is most often the connection to a client that
+ * has gone away. The BES did its part, so unlike the other PPTExceptions
+ * this is not a sign that the BES is in trouble. The connection to the BES
+ * is left part way through the response however, and must be discarded.
+ */
+public class ResponseWriteException extends PPTException {
+
+    /**
+     * @param msg A description of the failure.
+     * @param cause The IOException thrown by the target stream.
+     */
+    public ResponseWriteException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * /////////////////////////////////////////////////////////////////////////////
+ * // This file is part of the "Hyrax Data Server" project.
+ * //
+ * //
+ * // Copyright (c) 2026 OPeNDAP, Inc.
+ * // Author: Nathan David Potter  <ndp@opendap.org>
+ * //
+ * // This library is free software; you can redistribute it and/or
+ * // modify it under the terms of the GNU Lesser General Public
+ * // License as published by the Free Software Foundation; either
+ * // version 2.1 of the License, or (at your option) any later version.
+ * //
+ * // This library is distributed in the hope that it will be useful,
+ * // but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * // MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * // Lesser General Public License for more details.
+ * //
+ * // You should have received a copy of the GNU Lesser General Public
+ * // License along with this library; if not, write to the Free Software
+ * // Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301
+ * //
+ * // You can contact OPeNDAP, Inc. at PO Box 112, Saunderstown, RI. 02874-0112.
+ * /////////////////////////////////////////////////////////////////////////////
+ */
+
+package opendap.ppt;
+
+import opendap.io.DirectBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A PPT client that reaches a co-located BES through a Unix domain socket
+ * rather than TCP loopback. Once connected it is identical to NioPPTClient,
+ * the same chunked PPT protocol is spoken over the channel.
+ * <p>
+ * Unix domain socket channels arrived in Java 16. This class is only loaded
+ * when a BES is configured with a socket path, so other configurations
+ * continue to run on older JVMs. A connect to a Unix domain socket either
+ * succeeds or fails immediately so no connect timeout is applied.
+ */
+public class UnixPPTClient extends NioPPTClient {
+
+    private final Logger log = LoggerFactory.getLogger(UnixPPTClient.class);
+    private final String _socketPath;
+
+    UnixPPTClient(String socketPath) throws PPTException {
+        this(socketPath, DirectBufferPool.getDefault());
+    }
+
+    UnixPPTClient(String socketPath, DirectBufferPool bufferPool) throws PPTException {
+        super(openChannel(socketPath), bufferPool);
+        _socketPath = socketPath;
+        log.info("UnixPPTClient() - Connected to {}", socketPath);
+    }
+
+    private static SocketChannel openChannel(String socketPath) throws PPTException {
+        if(socketPath==null || socketPath.isEmpty())
+            throw new PPTException("Cannot connect to the BES, no Unix domain socket path was supplied.");
+
+        SocketChannel channel = null;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            return channel;
+        }
+        catch (IOException | RuntimeException e) {
+            if(channel!=null) {
+                try {
+                    channel.close();
+                }
+                catch (IOException ignored) {
+                    // Already failing, nothing more to be done.
+                }
+            }
+            throw new PPTException("Could not connect to Unix domain socket " + socketPath + ".  " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String showConnectionProperties() {
+        SocketChannel channel = getChannel();
+        if(channel==null)
+            return "\nshowConnectionProperties(): SocketChannel is null\n";
+        return "\nUnix domain socket: " + _socketPath +
+                "\n    isOpen():      " + channel.isOpen() +
+                "\n    isConnected(): " + channel.isConnected() + "\n";
+    }
+
+}